@@ -0,0 +1,25 @@
+# Setup
+$JMH_VERSION = "1.37"
+$MAVEN_REPO = "https://repo1.maven.org/maven2"
+mkdir -force .\bench\lib
+mkdir -force .\bench\obj
+del -recurse .\bench\obj\*
+
+# Download JMH and its dependencies if they are not already present
+$artifacts = @("org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar",
+			   "org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar",
+			   "net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar",
+			   "org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar")
+foreach ($artifact in $artifacts) {
+	$jar = ".\bench\lib\" + (Split-Path $artifact -Leaf)
+	if (!(Test-Path $jar)) {
+		Invoke-WebRequest -Uri "$MAVEN_REPO/$artifact" -OutFile $jar
+	}
+}
+
+# Compile the game, then the benchmarks against it
+.\compile.ps1
+javac -encoding UTF-8 -Xlint:unchecked -Xlint:deprecation -cp '.\obj;.\src\lib\*;.\bench\lib\*' -d .\bench\obj\ (dir -s .\src\bench\*.java)
+
+# Run the benchmarks with allocation profiling. Any arguments are passed to JMH
+java -cp '.\bench\obj;.\obj;.\src;.\src\lib\*;.\bench\lib\*' org.openjdk.jmh.Main -prof gc -rf json -rff .\bench\results.json $args
@@ -0,0 +1,28 @@
+#!/bin/bash
+
+
+# Setup
+JMH_VERSION=1.37
+MAVEN_REPO=https://repo1.maven.org/maven2
+mkdir -p bench/lib bench/obj
+rm -rf bench/obj/*
+
+# Download JMH and its dependencies if they are not already present
+for artifact in "org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar" \
+				"org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar" \
+				"net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar" \
+				"org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar"
+do
+	jar="bench/lib/$(basename "$artifact")"
+	if [ ! -f "$jar" ]; then
+		curl -sSfL -o "$jar" "$MAVEN_REPO/$artifact" || exit 1
+	fi
+done
+
+# Compile the game, then the benchmarks against it
+./compile.sh || exit 1
+javac -encoding UTF-8 -Xlint:unchecked -Xlint:deprecation -cp 'obj:src/lib/*:bench/lib/*' -d bench/obj/ $(find src/bench -name '*.java') || exit 1
+
+# Run the benchmarks with allocation profiling. Any arguments are passed to JMH, for
+# example a benchmark name regex or "-p numPlayers=8"
+java -cp 'bench/obj:obj:src:src/lib/*:bench/lib/*' org.openjdk.jmh.Main -prof gc -rf json -rff bench/results.json "$@"
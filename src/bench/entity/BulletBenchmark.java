@@ -0,0 +1,60 @@
+package entity;
+
+
+import item.Pistol;
+import item.Sniper;
+import interfaces.Weapon;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Measures the damage falloff calculation done for every bullet that hits a player.
+ *
+ * @author Jonathan Uhler
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BulletBenchmark {
+
+	/** Bullets that have travelled both inside and beyond their weapon's effective range. */
+	private Bullet[] bullets;
+
+
+	/**
+	 * Fires bullets from a short and a long range weapon and moves them different distances.
+	 */
+	@Setup
+	public void setup() {
+		Weapon[] weapons = {new Pistol(), new Sniper()};
+		this.bullets = new Bullet[32];
+		for (int i = 0; i < this.bullets.length; i++) {
+			Bullet bullet = new Bullet(0, 0, i * 0.2, weapons[i % weapons.length]);
+			for (int step = 0; step < i * 2; step++)
+				bullet.move();
+			this.bullets[i] = bullet;
+		}
+	}
+
+
+	@Benchmark
+	public void getScaledDamage(Blackhole blackhole) {
+		for (Bullet bullet : this.bullets)
+			blackhole.consume(bullet.getScaledDamage());
+	}
+
+}
@@ -0,0 +1,95 @@
+package server;
+
+
+import entity.Player;
+import entity.Bullet;
+import item.Pistol;
+import item.Rifle;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the cost of converting commands to and from their network string form for
+ * every opcode defined by {@code Communication}.
+ *
+ * @author Jonathan Uhler
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommunicationBenchmark {
+
+	/** The opcode of the command being serialized and deserialized. */
+	@Param({Communication.OPCODE_MOVE,
+			Communication.OPCODE_SHOOT,
+			Communication.OPCODE_POS_PLAYER,
+			Communication.OPCODE_NEW_BULLET,
+			Communication.OPCODE_JOIN,
+			Communication.OPCODE_LEAVE,
+			Communication.OPCODE_DAMAGED,
+			Communication.OPCODE_RESET,
+			Communication.OPCODE_BUY,
+			Communication.OPCODE_PAY,
+			Communication.OPCODE_USE})
+	public String opcode;
+
+	/** The command payload for {@code opcode}. */
+	private Map<String, String> command;
+	/** The serialized form of {@code command}. */
+	private String commandStr;
+
+
+	/**
+	 * Builds a representative command for the opcode being measured.
+	 */
+	@Setup
+	public void setup() {
+		Player player = new Player(12.5, 40.25);
+		player.setRad(1.2345);
+		Bullet bullet = new Bullet(12.75, 40.5, 1.2345, new Rifle());
+
+		this.command = switch (this.opcode) {
+		case Communication.OPCODE_MOVE -> Communication.cmdMove(true, false, false, true, 1.2345);
+		case Communication.OPCODE_SHOOT -> Communication.cmdShoot();
+		case Communication.OPCODE_POS_PLAYER -> Communication.cmdPosPlayer(player, 3);
+		case Communication.OPCODE_NEW_BULLET -> Communication.cmdNewBullet(bullet, 0, 3);
+		case Communication.OPCODE_JOIN -> Communication.cmdJoin(3, 12.5, 40.25, 1);
+		case Communication.OPCODE_LEAVE -> Communication.cmdLeave(3);
+		case Communication.OPCODE_DAMAGED -> Communication.cmdDamaged(3, 24);
+		case Communication.OPCODE_RESET -> Communication.cmdReset(3, 12, 40);
+		case Communication.OPCODE_BUY -> Communication.cmdBuy(new Pistol(), 3);
+		case Communication.OPCODE_PAY -> Communication.cmdPay(75, 3);
+		case Communication.OPCODE_USE -> Communication.cmdUse(1, 3);
+		default -> throw new IllegalArgumentException("unknown opcode: " + this.opcode);
+		};
+		this.commandStr = Communication.serialize(this.command);
+	}
+
+
+	@Benchmark
+	public String serialize() {
+		return Communication.serialize(this.command);
+	}
+
+
+	@Benchmark
+	public Map<String, String> deserialize() {
+		return Communication.deserialize(this.commandStr);
+	}
+
+}
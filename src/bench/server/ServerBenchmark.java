@@ -0,0 +1,110 @@
+package server;
+
+
+import entity.Player;
+import entity.Bullet;
+import world.Level;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Measures the bullet-versus-player hit detection done by the server every tick. One
+ * benchmark operation checks every live bullet against every player, which is the work
+ * done by {@code Simulation::checkPlayerCollision} over a single tick.
+ *
+ * @author Jonathan Uhler
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerBenchmark {
+
+	/** The number of connected players. */
+	@Param({"2", "8", "32"})
+	public int numPlayers;
+	/** The number of bullets in flight. */
+	@Param({"16", "128", "1024"})
+	public int numBullets;
+
+	/** Players that can be hit, keyed by their id. */
+	private Map<Integer, Player> players;
+	/** Bullets in flight. */
+	private Bullet[] bullets;
+
+
+	/**
+	 * Places players and bullets at random open tiles of a level. A fixed seed is used so
+	 * that every run measures the same arrangement.
+	 */
+	@Setup
+	public void setup() {
+		Random random = new Random(2023);
+		Level level = new Level(1);
+
+		this.players = new HashMap<>();
+		for (int playerId = 0; playerId < this.numPlayers; playerId++) {
+			double[] pos = ServerBenchmark.randomOpenPosition(level, random);
+			this.players.put(playerId, new Player(pos[0], pos[1]));
+		}
+
+		this.bullets = new Bullet[this.numBullets];
+		for (int i = 0; i < this.bullets.length; i++) {
+			// Spawn about half of the bullets right next to a player so that both hits and
+			// misses are measured
+			Player shooter = this.players.get(i % this.numPlayers);
+			double[] pos;
+			if (i % 2 == 0) {
+				Player target = this.players.get((i + 1) % this.numPlayers);
+				pos = new double[] {target.getX() + 0.4, target.getY() + 0.4};
+			}
+			else
+				pos = ServerBenchmark.randomOpenPosition(level, random);
+			this.bullets[i] = new Bullet(pos[0], pos[1], random.nextDouble() * 2 * Math.PI,
+										 shooter.getWeapon());
+		}
+	}
+
+
+	/**
+	 * Returns a random position, in tile space, on an empty tile of a level.
+	 *
+	 * @param level   the level to find an empty tile on.
+	 * @param random  the source of randomness.
+	 *
+	 * @return a two element array of the x and y positions.
+	 */
+	private static double[] randomOpenPosition(Level level, Random random) {
+		while (true) {
+			int r = random.nextInt(level.rows());
+			int c = random.nextInt(level.cols(r));
+			if (!level.isFilled(r, c))
+				return new double[] {c + random.nextDouble() * 0.1, r + random.nextDouble() * 0.1};
+		}
+	}
+
+
+	@Benchmark
+	public void checkPlayerCollision(Blackhole blackhole) {
+		for (Bullet bullet : this.bullets)
+			blackhole.consume(Simulation.findHitPlayer(this.players, bullet));
+	}
+
+}
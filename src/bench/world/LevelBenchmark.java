@@ -0,0 +1,129 @@
+package world;
+
+
+import entity.Player;
+import entity.Bullet;
+import item.Rifle;
+import graphics.Settings;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Measures level parsing and loading, collision, and visibility queries.
+ *
+ * @author Jonathan Uhler
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LevelBenchmark {
+
+	/** The level being queried. */
+	private Level level;
+	/** A player standing in an open area of the level. */
+	private Player player;
+	/** A bullet flying through an open area of the level. */
+	private Bullet bullet;
+	/** The visibility bitmap used by the shadowcasting benchmark. */
+	private FieldOfView fieldOfView;
+	/** The number of shadowcasting passes run, used to alternate the origin. */
+	private int passes;
+
+
+	/**
+	 * Loads the level and places the entities used by the collision benchmarks.
+	 */
+	@Setup
+	public void setup() {
+		this.level = new Level(1);
+		this.player = new Player(20.5, 15.5);
+		this.bullet = new Bullet(20.5, 15.5, 0.5, new Rifle());
+		this.fieldOfView = new FieldOfView(this.level, (Settings.FOV - 1) / 2 + 2);
+		this.passes = 0;
+	}
+
+
+	@Benchmark
+	public Level.Tile[][] fromString() {
+		return Level.fromString(Level.LEVEL_1);
+	}
+
+
+	/**
+	 * Constructs a level, which is done by the server at startup and by the client on every
+	 * join. The tiles are shared through {@code LevelRegistry}, so this should not parse.
+	 */
+	@Benchmark
+	public Level construct() {
+		return new Level(1);
+	}
+
+
+	@Benchmark
+	public void collides(Blackhole blackhole) {
+		double v = 0.11;
+		blackhole.consume(this.level.collides(this.player, 0, -v));
+		blackhole.consume(this.level.collides(this.player, -v, 0));
+		blackhole.consume(this.level.collides(this.player, 0, v));
+		blackhole.consume(this.level.collides(this.player, v, 0));
+		blackhole.consume(this.level.collides(this.bullet, this.bullet.getVx(), this.bullet.getVy()));
+	}
+
+
+	/**
+	 * Checks the visibility of every tile in the player's field of view, which is the work
+	 * done by {@code GameView::paintComponent} to draw the fog over one frame.
+	 *
+	 * @param blackhole  sink for the visibility results.
+	 */
+	@Benchmark
+	public void isViewableFov(Blackhole blackhole) {
+		double px = this.player.getX();
+		double py = this.player.getY();
+		int viewRange = (Settings.FOV - 1) / 2;
+		for (int r = (int) (py - viewRange); r <= (int) (py + viewRange) + 1; r++) {
+			if (r < 0 || r >= this.level.rows())
+				continue;
+			for (int c = (int) (px - viewRange); c <= (int) (px + viewRange) + 1; c++) {
+				if (c < 0 || c >= this.level.cols(r) || this.level.isFilled(r, c))
+					continue;
+				blackhole.consume(this.level.isViewable(px, py, c, r));
+			}
+		}
+	}
+
+
+
+	/**
+	 * Recomputes the field of view by shadowcasting and reads back every tile in it, which is
+	 * the work done by {@code GameView::paintComponent} on a frame where the player has moved
+	 * to a new tile.
+	 *
+	 * @param blackhole  sink for the visibility results.
+	 */
+	@Benchmark
+	public void shadowcastFov(Blackhole blackhole) {
+		int pc = (int) this.player.getX() + (this.passes++ & 1);
+		int pr = (int) this.player.getY();
+		this.fieldOfView.update(pc, pr);
+		int viewRange = (Settings.FOV - 1) / 2;
+		for (int r = pr - viewRange; r <= pr + viewRange + 1; r++)
+			for (int c = pc - viewRange; c <= pc + viewRange + 1; c++)
+				blackhole.consume(this.fieldOfView.isVisible(c, r));
+	}
+
+}
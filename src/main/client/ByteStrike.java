@@ -2,6 +2,7 @@ package client;
 
 
 import graphics.Screen;
+import graphics.SoundManager;
 import javax.swing.JFrame;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -61,6 +62,8 @@ public class ByteStrike {
 	 * @param args  command line arguments.
 	 */
 	public static void main(String[] args) {
+		SoundManager.load();
+
 		JFrame frame = new JFrame("Byte Strike");
 		Screen screen = new Screen();
 
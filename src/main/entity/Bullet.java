@@ -3,6 +3,8 @@ package entity;
 
 import interfaces.Moveable;
 import interfaces.Weapon;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
@@ -12,6 +14,9 @@ import interfaces.Weapon;
  */
 public class Bullet extends Moveable {
 
+	/** The size of every bullet, in tiles. */
+	public static final double SIZE = 0.1;
+
 	/** The origin x position of this bullet. */
 	private double startX;
 	/** The origin y position of this bullet. */
@@ -30,14 +35,30 @@ public class Bullet extends Moveable {
 	 *                the velocity and other information about the projectile.
 	 */
 	public Bullet(double x, double y, double rad, Weapon origin) {
-	    super(x, y, 0.1);
+		this(x, y, rad, origin, ThreadLocalRandom.current());
+	}
+
+
+	/**
+	 * Constructs a new {@code Bullet} object, drawing any velocity variance from a given
+	 * generator.
+	 *
+	 * @param x       the x position of the origin of this projectile.
+	 * @param y       the y position of the origin of this projectile.
+	 * @param rad     the angle of the velocity vector of this projectile.
+	 * @param origin  the weapon which fired this bullet. This parameter is used to determine
+	 *                the velocity and other information about the projectile.
+	 * @param random  the generator that velocity variance is drawn from.
+	 */
+	public Bullet(double x, double y, double rad, Weapon origin, Random random) {
+	    super(x, y, Bullet.SIZE);
 
 		double vx = origin.velocity() * Math.cos(rad);
 		double vy = origin.velocity() * Math.sin(rad);
 		if (origin.roundsPerShot() > 1) {
 			double vVariance = 0.05;
-			vx += Math.random() * (vVariance - (-vVariance)) + (-vVariance);
-			vy += Math.random() * (vVariance - (-vVariance)) + (-vVariance);
+			vx += random.nextDouble() * (vVariance - (-vVariance)) + (-vVariance);
+			vy += random.nextDouble() * (vVariance - (-vVariance)) + (-vVariance);
 		}
 		super.setV(vx, vy);
 		this.startX = x;
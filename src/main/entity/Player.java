@@ -4,7 +4,7 @@ package entity;
 import interfaces.Moveable;
 import interfaces.Weapon;
 import interfaces.Item;
-import graphics.SoundManager;
+import interfaces.EffectSink;
 import item.*;
 import java.util.List;
 import java.util.ArrayList;
@@ -17,6 +17,9 @@ import java.util.ArrayList;
  */
 public class Player extends Moveable {
 
+	/** The size of every player's collision area, in tiles. */
+	public static final double SIZE = 0.85;
+
 	/** The last time, as a Unix epoch, that the player walked. Used for walking sounds. */
 	private long lastWalked;
 
@@ -28,6 +31,8 @@ public class Player extends Moveable {
 	private Weapon weapon;
 	/** The items carried by this player. */
     private List<Item> items;
+	/** Destination for the sounds made by this player and their weapon. */
+	private EffectSink effectSink;
 	
 
 	/**
@@ -39,7 +44,7 @@ public class Player extends Moveable {
 	 * @param y  the initial y position of this player.
 	 */
 	public Player(double x, double y) {
-		super(x, y, 0.85);
+		super(x, y, Player.SIZE);
 
 		this.lastWalked = System.currentTimeMillis();
 
@@ -47,6 +52,7 @@ public class Player extends Moveable {
 		this.money = 100;
 		this.weapon = new Pistol();
 		this.items = new ArrayList<>();
+		this.effectSink = EffectSink.NONE;
 	}
 
 
@@ -131,6 +137,23 @@ public class Player extends Moveable {
 	}
 
 
+	/**
+	 * Sets the destination for the sounds made by this player, including the sounds made by
+	 * any weapon they hold now or are given later. By default, players use
+	 * {@code EffectSink.NONE} and are silent.
+	 *
+	 * @param effectSink  the destination for the sounds made by this player.
+	 *
+	 * @throws NullPointerException  if {@code effectSink == null}.
+	 */
+	public void setEffectSink(EffectSink effectSink) {
+		if (effectSink == null)
+			throw new NullPointerException("effectSink was null");
+		this.effectSink = effectSink;
+		this.weapon.setEffectSink(effectSink);
+	}
+
+
 	/**
 	 * Reduces the player's health.
 	 *
@@ -192,8 +215,10 @@ public class Player extends Moveable {
 		if (item == null)
 			throw new NullPointerException("item was null");
 		
-		if (item instanceof Weapon)
+		if (item instanceof Weapon) {
 		    this.weapon = (Weapon) item;
+			this.weapon.setEffectSink(this.effectSink);
+		}
 		else
 			this.items.add(item);
 	}
@@ -216,13 +241,6 @@ public class Player extends Moveable {
 
 		if (item instanceof HealthKit)
 			this.health = Math.min(this.health + 25, 100);
-<<<<<<< HEAD
-=======
-<<<<<<< HEAD
-=======
-		
->>>>>>> a1a5105 (tmp)
->>>>>>> 809b721 (tmp)
 		this.items.remove(item);
 		return true;
 	}
@@ -239,6 +257,7 @@ public class Player extends Moveable {
 		this.health = 100;
 		this.money = 100;
 		this.weapon = new Pistol();
+		this.weapon.setEffectSink(this.effectSink);
 		this.items = new ArrayList<>();
 		
 		super.setV(0, 0);
@@ -246,20 +265,30 @@ public class Player extends Moveable {
 	}
 
 
-	@Override
-	public void move() {
-		super.move();
-
-		// Play footstep sound
+	/**
+	 * Records that this player has walked, producing a footstep effect if enough time has
+	 * passed since the last footstep. This method is called by {@code move}, and can be called
+	 * directly when the player's position is set rather than moved.
+	 *
+	 * @see move
+	 */
+	public void walk() {
 		long currentTime = System.currentTimeMillis();
 		long deltaWalkTime = currentTime - this.lastWalked;
 		if (deltaWalkTime >= (int) (Math.random() * (600 - 400)) + 400) {
-			SoundManager.playSound("walk");
+			this.effectSink.effect("walk", this.getX(), this.getY());
 			this.lastWalked = currentTime;
 		}
 	}
 
 
+	@Override
+	public void move() {
+		super.move();
+		this.walk();
+	}
+
+
     /**
 	 * Returns the type of the player. The type is either {@code "PlayerShort"} or
 	 * {@code "PlayerLong"} depending on the type of weapon being carried by the player.
@@ -268,8 +297,19 @@ public class Player extends Moveable {
 	 */
 	@Override
 	public String getType() {
-	    if (this.weapon instanceof Pistol ||
-			this.weapon instanceof SMG)
+		return Player.typeOf(this.weapon.getType());
+	}
+
+
+	/**
+	 * Returns the type of a player carrying a weapon, as returned by {@code getType}.
+	 *
+	 * @param weaponType  the type of the weapon carried.
+	 *
+	 * @return the type of the player.
+	 */
+	public static String typeOf(String weaponType) {
+		if ("Pistol".equals(weaponType) || "SMG".equals(weaponType))
 			return "PlayerShort";
 		else // Most weapons will have the player holding at two locations, so this is the default
 			return "PlayerLong";
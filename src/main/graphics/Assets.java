@@ -0,0 +1,83 @@
+package graphics;
+
+
+import jnet.Log;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+
+/**
+ * Finds the asset files bundled with the game, both when running from the file system and
+ * from a jar file.
+ *
+ * @author Jonathan Uhler
+ */
+public class Assets {
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private Assets() { }
+
+
+	/**
+	 * Returns the names of every asset file under a path with a given extension. Names are
+	 * relative to {@code path}, use {@code /} as the separator, and do not include the
+	 * extension. Files in nested directories are included.
+	 *
+	 * @param path  the top-level path of the assets, such as {@code assets/sounds}.
+	 * @param ext   the file extension of the assets, including the leading dot.
+	 *
+	 * @return the names of every matching asset file, sorted. If the assets cannot be listed,
+	 *         a warning is logged and the names found so far are returned.
+	 */
+	public static List<String> list(String path, String ext) {
+		List<String> names = new ArrayList<>();
+		URL url = Thread.currentThread().getContextClassLoader().getResource(path);
+		if (url == null) {
+			Log.stdlog(Log.WARN, "Assets", "cannot find " + path);
+			return names;
+		}
+
+		try {
+			if (url.getProtocol().equals("jar")) {
+				JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+				Enumeration<JarEntry> entries = jar.entries();
+				String prefix = path + "/";
+				while (entries.hasMoreElements()) {
+					String entry = entries.nextElement().getName();
+					if (entry.startsWith(prefix) && entry.endsWith(ext))
+						names.add(entry.substring(prefix.length(), entry.length() - ext.length()));
+				}
+			}
+			else {
+				Path root = Paths.get(url.toURI());
+				try (Stream<Path> files = Files.walk(root)) {
+					files.forEach(file -> {
+							String entry = root.relativize(file).toString().replace('\\', '/');
+							if (entry.endsWith(ext))
+								names.add(entry.substring(0, entry.length() - ext.length()));
+						});
+				}
+			}
+		}
+		catch (IOException | URISyntaxException | ClassCastException e) {
+			Log.stdlog(Log.WARN, "Assets", "cannot list assets in " + url + ": " + e);
+		}
+
+		names.sort(null);
+		return names;
+	}
+
+}
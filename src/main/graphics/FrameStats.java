@@ -0,0 +1,108 @@
+package graphics;
+
+
+import java.util.Arrays;
+
+
+/**
+ * The start times and durations of the most recently rendered frames.
+ * <p>
+ * Frames are recorded into fixed-size rings, so recording a frame does not allocate. The
+ * frame rate is found from the start times of the frames in the ring, and percentiles of the
+ * frame time from their durations. This class is not thread-safe, and is meant to be used
+ * only by the render thread.
+ *
+ * @author Jonathan Uhler
+ */
+public class FrameStats {
+
+	/** The number of frames kept. */
+	public static final int CAPACITY = 256;
+
+
+	/** The start time, in nanoseconds, of each kept frame. */
+	private final long[] starts;
+	/** The duration, in nanoseconds, of each kept frame. */
+	private final long[] durations;
+	/** Scratch space for sorting durations. */
+	private final long[] sorted;
+	/** The total number of frames recorded. */
+	private long count;
+
+
+	/**
+	 * Constructs a new {@code FrameStats} with no frames.
+	 */
+	public FrameStats() {
+		this.starts = new long[FrameStats.CAPACITY];
+		this.durations = new long[FrameStats.CAPACITY];
+		this.sorted = new long[FrameStats.CAPACITY];
+		this.count = 0;
+	}
+
+
+	/**
+	 * Records a frame.
+	 *
+	 * @param start     the time, in nanoseconds, that the frame started.
+	 * @param duration  the time, in nanoseconds, taken to render and show the frame.
+	 */
+	public void record(long start, long duration) {
+		int index = (int) (this.count % FrameStats.CAPACITY);
+		this.starts[index] = start;
+		this.durations[index] = duration;
+		this.count++;
+	}
+
+
+	/**
+	 * Returns the number of frames kept.
+	 *
+	 * @return the number of frames kept.
+	 */
+	private int size() {
+		return (int) Math.min(this.count, FrameStats.CAPACITY);
+	}
+
+
+	/**
+	 * Returns the rate at which the kept frames were started.
+	 *
+	 * @return the number of frames started per second, or {@code 0} if fewer than two frames
+	 *         have been recorded.
+	 */
+	public double getFps() {
+		int size = this.size();
+		if (size < 2)
+			return 0;
+		int newest = (int) ((this.count - 1) % FrameStats.CAPACITY);
+		int oldest = (int) ((this.count - size) % FrameStats.CAPACITY);
+		long span = this.starts[newest] - this.starts[oldest];
+		return span <= 0 ? 0 : (size - 1) * 1e9 / span;
+	}
+
+
+	/**
+	 * Returns a percentile of the durations of the kept frames.
+	 *
+	 * @param p  the percentile, in {@code [0, 100]}.
+	 *
+	 * @return the duration, in nanoseconds, that {@code p} percent of kept frames took at most,
+	 *         or {@code 0} if no frames have been recorded.
+	 *
+	 * @throws IllegalArgumentException  if {@code p} is not in {@code [0, 100]}.
+	 */
+	public long percentile(double p) {
+		if (p < 0 || p > 100)
+			throw new IllegalArgumentException("invalid percentile: " + p);
+		int size = this.size();
+		if (size == 0)
+			return 0;
+
+		System.arraycopy(this.durations, 0, this.sorted, 0, size);
+		Arrays.sort(this.sorted, 0, size);
+		int rank = (int) Math.ceil(p / 100 * size) - 1;
+		return this.sorted[Math.max(0, Math.min(size - 1, rank))];
+	}
+
+}
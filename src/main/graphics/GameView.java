@@ -6,19 +6,34 @@ import jnet.Log;
 import jnet.Bytes;
 import server.Server;
 import server.Communication;
+import server.ClockSync;
+import server.Events;
+import server.TrafficStats;
+import server.ReplayReader;
 import client.ByteStrike;
 import world.Level;
+import world.LevelCache;
+import world.LevelChunks;
+import world.LevelData;
+import world.LevelFile;
+import world.LevelGenerator;
+import world.FieldOfView;
+import world.TimerWheel;
 import entity.Player;
 import entity.Bullet;
-import entity.Ray;
 import item.*;
 import interfaces.Weapon;
 import interfaces.Item;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Graphics;
-import java.awt.Dimension;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
 import java.awt.Color;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.Font;
 import java.awt.event.KeyListener;
 import java.awt.event.KeyEvent;
@@ -28,10 +43,16 @@ import java.awt.event.MouseEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 
 public class GameView extends JPanel implements KeyListener,
@@ -39,6 +60,49 @@ public class GameView extends JPanel implements KeyListener,
 												MouseMotionListener,
 												ActionListener {
 
+	/**
+	 * A level being downloaded from the server.
+	 */
+	private static class Download {
+
+		/** The number of the level on the server. */
+		private final int levelId;
+		/** The content hash of the level. */
+		private final String hash;
+		/** The length, in bytes, of the level file. */
+		private final int length;
+		/** The parts of the encoded level file received so far, in order. */
+		private final StringBuilder data;
+		/** The number of parts received so far. */
+		private int parts;
+
+
+		/**
+		 * Constructs a new {@code Download} that has received no parts.
+		 *
+		 * @param levelId  the number of the level on the server.
+		 * @param hash     the content hash of the level.
+		 * @param length   the length, in bytes, of the level file.
+		 */
+		private Download(int levelId, String hash, int length) {
+			this.levelId = levelId;
+			this.hash = hash;
+			this.length = length;
+			this.data = new StringBuilder();
+			this.parts = 0;
+		}
+
+	}
+
+
+	/** The number of seconds skipped by a short seek through a replay. */
+	public static final int SHORT_SEEK = 10;
+	/** The number of seconds skipped by a long seek through a replay. */
+	public static final int LONG_SEEK = 60;
+	/** The largest number of replay ticks played per tick period. */
+	public static final int MAX_REPLAY_SPEED = 16;
+
+
 	private Screen screen;
 
 	private boolean movingUp;
@@ -52,17 +116,80 @@ public class GameView extends JPanel implements KeyListener,
 	private int myId;
 	private Map<Integer, Player> players;
 	private List<Bullet> bullets;
+	/** Messages decoded by the listen thread, waiting to be applied by the animate thread. */
+	private Queue<Map<String, String>> inbox;
+	/** The last state of the world published by the animate thread, as drawn. */
+	private AtomicReference<WorldSnapshot> world;
+	/** The messages and bytes exchanged with the server. */
+	private TrafficStats traffic;
+	/** The round-trip time and clock offset of the connection to the server. */
+	private ClockSync clock;
+	/** The latest tick stamped on a message from the server, or {@code -1} if none. */
+	private volatile long serverTick;
+	/** The level being played on, used by the animate thread and published in each snapshot. */
 	private Level level;
+	/** The level that the layer and field of view were created for, by the render thread. */
+	private Level drawnLevel;
+	/** The tiles of the level drawn, used only by the render thread. */
+	private LevelLayer levelLayer;
+	/** The tiles of the level drawn that can be seen, used only by the render thread. */
+	private FieldOfView fieldOfView;
+	/** The version of the streamed level's chunks that was last drawn by the render thread. */
+	private int chunkVersion;
+	/** The level being downloaded from the server, or {@code null} if none is. */
+	private Download download;
+	/** Messages from the server held back until the level being downloaded has arrived. */
+	private List<Map<String, String>> deferred;
+	/** Whether the game could not be joined, after which the connection is closed. */
+	private volatile boolean joinFailed;
+	private TimerWheel timers;
 	
-	private Shop shop;
-	private boolean showShop;
+	/** The shop, created by the animate thread and then only used by the render thread. */
+	private volatile Shop shop;
+	private volatile boolean showShop;
+	/** Mouse events over the shop, waiting to be applied by the render thread. */
+	private Queue<MouseEvent> shopInput;
+
+	/** The surface that frames are actively rendered to. */
+	private Canvas canvas;
+	/** Whether the render thread should keep running. */
+	private volatile boolean rendering;
+	/** The time, in nanoseconds, taken to render and show the last frame. */
+	private volatile long frameTime;
+	/** A moving average of {@code frameTime}. */
+	private volatile double averageFrameTime;
+	/** Client performance statistics, drawn over the game when toggled with F3. */
+	private PerformanceOverlay overlay;
+	/** Whether the performance overlay is drawn. */
+	private volatile boolean showOverlay;
+
+	/** The replay being watched, or {@code null} if playing a live game. */
+	private volatile ReplayReader replay;
+	/** Whether replay playback is paused. */
+	private volatile boolean replayPaused;
+	/** The number of replay ticks played per tick period. */
+	private volatile int replaySpeed;
+	/** A replay tick to seek to, or {@code -1} if no seek has been requested. */
+	private AtomicLong replaySeek;
+	/** The replay tick being shown. */
+	private volatile long replayTick;
+	/** The id of the player the replay is viewed as, or {@code -1} for the first player. */
+	private volatile int replayFollow;
+	/** The time, in nanoseconds, taken by the last replay seek. */
+	private volatile long replaySeekTime;
 	
 
 	public GameView(Screen screen) {
-	    this.setFocusable(true);
-		this.addKeyListener(this);
-		this.addMouseListener(this);
-		this.addMouseMotionListener(this);
+		// Frames are drawn by the render thread onto the canvas, never by Swing
+		this.canvas = new Canvas();
+		this.canvas.setIgnoreRepaint(true);
+		this.canvas.setFocusable(true);
+		this.canvas.addKeyListener(this);
+		this.canvas.addMouseListener(this);
+		this.canvas.addMouseMotionListener(this);
+		this.setIgnoreRepaint(true);
+		this.setLayout(new BorderLayout());
+		this.add(this.canvas, BorderLayout.CENTER);
 
 		this.screen = screen;
 
@@ -74,13 +201,37 @@ public class GameView extends JPanel implements KeyListener,
 		this.aimingAt = null;
 
 		this.client = null;
+		this.joinFailed = false;
 		this.myId = -1;
 		this.players = new HashMap<>();
 		this.bullets = new ArrayList<>();
+		this.inbox = new ConcurrentLinkedQueue<>();
+		this.world = new AtomicReference<>(WorldSnapshot.EMPTY);
+		this.traffic = new TrafficStats();
+		this.clock = new ClockSync();
+		this.serverTick = -1;
 		this.level = null;
+		this.download = null;
+		this.deferred = new ArrayList<>();
+		this.timers = new TimerWheel(Settings.FPS);
 		
 		this.shop = null;
 		this.showShop = false;
+		this.shopInput = new ConcurrentLinkedQueue<>();
+
+		this.rendering = false;
+		this.frameTime = 0;
+		this.averageFrameTime = 0;
+		this.overlay = new PerformanceOverlay(this.traffic, this.clock);
+		this.showOverlay = false;
+
+		this.replay = null;
+		this.replayPaused = false;
+		this.replaySpeed = 1;
+		this.replaySeek = new AtomicLong(-1);
+		this.replayTick = -1;
+		this.replayFollow = -1;
+		this.replaySeekTime = 0;
 	}
 
 
@@ -89,7 +240,7 @@ public class GameView extends JPanel implements KeyListener,
 				@Override
 				public void run() {
 					try {
-						new Server(ip, port);
+						new Server(ip, port).run();
 					}
 					catch (IOException e) {
 						ByteStrike.displayMessage("Connection Error", "Unable to start server on " +
@@ -117,6 +268,7 @@ public class GameView extends JPanel implements KeyListener,
 		}
 
 		// Connect to server
+		this.joinFailed = false;
 		this.client = new JClientSocket();
 
 		try {
@@ -132,6 +284,232 @@ public class GameView extends JPanel implements KeyListener,
 
 		Thread listenThread = new Thread(this::listen);
 		listenThread.start();
+		this.timers.scheduleMillis(ClockSync.PING_INTERVAL, this::ping);
+	}
+
+
+	/**
+	 * Watches a replay instead of playing a live game. The replay is played at its recorded
+	 * tick rate by a playback thread, which publishes the state of each tick as the world to
+	 * draw, viewed as one of the players in it. Input is used to control playback rather than
+	 * being sent to a server. This view must not be connected to a server.
+	 *
+	 * @param replay  the replay to watch.
+	 *
+	 * @throws NullPointerException      if {@code replay == null}.
+	 * @throws IllegalArgumentException  if the replay's level does not exist.
+	 */
+	public void watch(ReplayReader replay) {
+		if (replay == null)
+			throw new NullPointerException("replay was null");
+
+		this.setLevel(replay.createLevel());
+		this.replay = replay;
+		// Tab cycles the player followed rather than moving focus
+		this.canvas.setFocusTraversalKeysEnabled(false);
+
+		this.startRendering();
+		Thread playbackThread = new Thread(this::playback, "GameView playback");
+		playbackThread.setDaemon(true);
+		playbackThread.start();
+	}
+
+
+	/**
+	 * Runs the playback thread. Each tick period, a pending seek is applied, or, unless
+	 * playback is paused, the replay is advanced by {@code replaySpeed} ticks. Playback pauses
+	 * at the end of the replay.
+	 */
+	private void playback() {
+		ReplayReader replay = this.replay;
+		long tickNanos = 1_000_000_000L / replay.getTickRate();
+		long nextTick = System.nanoTime();
+		try {
+			replay.next();
+			this.publishReplay(replay);
+			while (this.rendering) {
+				long seek = this.replaySeek.getAndSet(-1);
+				if (seek >= 0) {
+					long start = System.nanoTime();
+					replay.seek(seek);
+					this.replaySeekTime = System.nanoTime() - start;
+					this.publishReplay(replay);
+				}
+				else if (!this.replayPaused) {
+					for (int i = 0; i < this.replaySpeed; i++) {
+						if (!replay.next()) {
+							this.replayPaused = true;
+							break;
+						}
+					}
+					this.publishReplay(replay);
+				}
+
+				nextTick += tickNanos;
+				long now = System.nanoTime();
+				if (now - nextTick > tickNanos)
+					nextTick = now;
+				while ((now = System.nanoTime()) < nextTick)
+					LockSupport.parkNanos(nextTick - now);
+			}
+		}
+		catch (IOException e) {
+			Log.stdlog(Log.ERROR, "GameView", "cannot read replay: " + e);
+		}
+	}
+
+
+	/**
+	 * Publishes the current tick of a replay to the render thread. If the player followed has
+	 * left, the first player in the replay is followed instead. This must only be called by the
+	 * playback thread.
+	 *
+	 * @param replay  the replay being watched.
+	 */
+	private void publishReplay(ReplayReader replay) {
+		int follow = this.replayFollow;
+		if (!replay.getPlayers().containsKey(follow)) {
+			follow = replay.getPlayers().isEmpty() ? -1 :
+				replay.getPlayers().keySet().iterator().next();
+			this.replayFollow = follow;
+		}
+		this.world.set(WorldSnapshot.capture(follow, this.level, replay));
+		this.replayTick = replay.getTick();
+	}
+
+
+	/**
+	 * Requests a seek through the replay being watched, relative to the tick being shown or
+	 * to a seek not yet applied.
+	 *
+	 * @param seconds  the number of seconds to seek by, negative to seek backwards.
+	 */
+	private void seekReplay(int seconds) {
+		long ticks = (long) seconds * this.replay.getTickRate();
+		this.replaySeek.updateAndGet(seek -> Math.max(0, (seek >= 0 ? seek : this.replayTick) +
+													  ticks));
+	}
+
+
+	/**
+	 * Follows the next player, by id, in the replay being watched.
+	 */
+	private void followNextPlayer() {
+		Map<Integer, WorldSnapshot.PlayerState> players = this.world.get().getPlayers();
+		int follow = -1;
+		for (int playerId : players.keySet()) {
+			if (follow == -1)
+				follow = playerId;
+			if (playerId > this.replayFollow) {
+				follow = playerId;
+				break;
+			}
+		}
+		this.replayFollow = follow;
+		if (this.replayPaused)
+			this.replaySeek.compareAndSet(-1, this.replayTick); // Republish the paused tick
+	}
+
+
+	/**
+	 * Handles a key pressed while watching a replay.
+	 *
+	 * @param e  the key event.
+	 */
+	private void replayKeyPressed(KeyEvent e) {
+		switch (e.getKeyCode()) {
+		case KeyEvent.VK_SPACE -> this.replayPaused = !this.replayPaused;
+		case KeyEvent.VK_LEFT -> this.seekReplay(-GameView.SHORT_SEEK);
+		case KeyEvent.VK_RIGHT -> this.seekReplay(GameView.SHORT_SEEK);
+		case KeyEvent.VK_PAGE_UP -> this.seekReplay(-GameView.LONG_SEEK);
+		case KeyEvent.VK_PAGE_DOWN -> this.seekReplay(GameView.LONG_SEEK);
+		case KeyEvent.VK_HOME -> this.replaySeek.set(this.replay.getFirstTick());
+		case KeyEvent.VK_END -> this.replaySeek.set(this.replay.getLastTick());
+		case KeyEvent.VK_EQUALS, KeyEvent.VK_PLUS, KeyEvent.VK_ADD ->
+			this.replaySpeed = Math.min(GameView.MAX_REPLAY_SPEED, this.replaySpeed * 2);
+		case KeyEvent.VK_MINUS, KeyEvent.VK_SUBTRACT ->
+			this.replaySpeed = Math.max(1, this.replaySpeed / 2);
+		case KeyEvent.VK_TAB -> this.followNextPlayer();
+		case KeyEvent.VK_F3 -> this.showOverlay = !this.showOverlay;
+		}
+	}
+
+
+	/**
+	 * Draws the playback status of the replay being watched along the bottom of the view: the
+	 * time shown and the length of the replay, the playback speed, the player followed, and how
+	 * long the last seek took.
+	 *
+	 * @param g         the {@code Graphics} object to draw on.
+	 * @param tileSize  the size of a tile, in pixels.
+	 * @param wPixels   the width of the view, in pixels.
+	 * @param hPixels   the height of the view, in pixels.
+	 */
+	private void drawReplayStatus(Graphics g, int tileSize, int wPixels, int hPixels) {
+		ReplayReader replay = this.replay;
+		long first = replay.getFirstTick();
+		long length = Math.max(1, replay.getLastTick() - first);
+		long shown = Math.max(0, this.replayTick - first);
+		long shownSeconds = shown / replay.getTickRate();
+		long lengthSeconds = length / replay.getTickRate();
+		String status = String.format("%s  %d:%02d / %d:%02d  x%d  player %d  seek %.1f ms",
+									  this.replayPaused ? "Paused" : "Playing",
+									  shownSeconds / 60, shownSeconds % 60,
+									  lengthSeconds / 60, lengthSeconds % 60,
+									  this.replaySpeed, this.replayFollow,
+									  this.replaySeekTime / 1e6);
+
+		g.setColor(new Color(70, 70, 70, 150));
+		g.fillRect(0, hPixels - tileSize, wPixels, tileSize);
+		g.setColor(new Color(113, 180, 209));
+		g.fillRect(0, hPixels - tileSize, (int) (wPixels * shown / length), tileSize / 8);
+		g.setFont(new Font("Arial", Font.BOLD, tileSize / 3));
+		g.drawString(status, tileSize / 2, hPixels - tileSize / 3);
+	}
+
+
+	/**
+	 * Returns the round-trip time and clock offset estimates for the connection to the server.
+	 * The returned object is updated as pings are answered, and can be read from any thread.
+	 *
+	 * @return the estimates for the connection to the server.
+	 */
+	public ClockSync getClock() {
+		return this.clock;
+	}
+
+
+	/**
+	 * Returns the latest tick stamped on a message from the server.
+	 *
+	 * @return the latest server tick received, or {@code -1} if no message has been received.
+	 */
+	public long getServerTick() {
+		return this.serverTick;
+	}
+
+
+	/**
+	 * Sends a message to the server.
+	 *
+	 * @param command  the message to send.
+	 */
+	private void send(Map<String, String> command) {
+		if (this.joinFailed)
+			return;
+		byte[] bytes = Bytes.stringToBytes(Communication.serialize(command));
+		this.traffic.recordOut(command.get(Communication.KEY_OPCODE), bytes.length);
+		this.client.send(bytes);
+	}
+
+
+	/**
+	 * Sends a ping to the server, and schedules the next one.
+	 */
+	private void ping() {
+		Map<String, String> cmdPing = Communication.cmdPing(System.nanoTime());
+		this.send(cmdPing);
+		this.timers.scheduleMillis(ClockSync.PING_INTERVAL, this::ping);
 	}
 
 
@@ -142,20 +520,83 @@ public class GameView extends JPanel implements KeyListener,
 				return;
 
 			this.serverCommunicated(recv);
-			this.repaint();
 		}
 	}
 
 
+	/**
+	 * Decodes a message from the server and queues it to be applied by the animate thread.
+	 * Pings and pongs are handled immediately, so that the round-trip time does not include
+	 * the wait for the next animation tick.
+	 *
+	 * @param recv  the message from the server.
+	 */
 	public void serverCommunicated(byte[] recv) {
+		long received = System.nanoTime();
 		String commandStr = Bytes.bytesToString(recv);
 		Map<String, String> command = Communication.deserialize(commandStr);
 		String opcode = command.get(Communication.KEY_OPCODE);
+		this.traffic.recordIn(opcode, recv.length);
+
+		String tickStr = command.get(Communication.KEY_TICK);
+		if (tickStr != null) {
+			try {
+				long tick = Long.parseLong(tickStr);
+				this.serverTick = Math.max(this.serverTick, tick);
+				this.overlay.recordTick(tick, received);
+			}
+			catch (NumberFormatException e) {
+				Log.stdlog(Log.ERROR, "GameView", "Can't parse tick in command: " + command);
+			}
+		}
+
+		if (Communication.OPCODE_PING.equals(opcode)) {
+			try {
+				long time = Long.parseLong(command.get(Communication.KEY_TIME));
+				this.send(Communication.cmdPong(time, received, System.nanoTime()));
+			}
+			catch (Exception e) {
+				Log.stdlog(Log.ERROR, "GameView", "Can't parse ping command: " + command + ", " + e);
+			}
+			return;
+		}
+		if (Communication.OPCODE_PONG.equals(opcode)) {
+			try {
+				long t0 = Long.parseLong(command.get(Communication.KEY_TIME));
+				long t1 = Long.parseLong(command.get(Communication.KEY_RECEIVED));
+				long t2 = Long.parseLong(command.get(Communication.KEY_SENT));
+				this.clock.update(t0, t1, t2, received);
+			}
+			catch (Exception e) {
+				Log.stdlog(Log.ERROR, "GameView", "Can't parse pong command: " + command + ", " + e);
+			}
+			return;
+		}
+		this.inbox.add(command);
+	}
+
+
+	/**
+	 * Applies a message from the server to the state of the world. This must only be called by
+	 * the animate thread.
+	 *
+	 * @param command  the decoded message from the server.
+	 */
+	private void handleCommand(Map<String, String> command) {
+		if (this.joinFailed)
+			return;
+		String opcode = command.get(Communication.KEY_OPCODE);
 		if (opcode == null) {
 			Log.stdlog(Log.ERROR, "GameView", "null opcode in command: " + command);
 			return;
 		}
 
+		// Nothing else can be applied until the level being downloaded has arrived
+		if (this.download != null && !opcode.equals(Communication.OPCODE_LEVEL_DATA)) {
+			this.deferred.add(command);
+			return;
+		}
+
 		switch (opcode) {
 		case Communication.OPCODE_SHOOT: {
 			break;
@@ -182,9 +623,12 @@ public class GameView extends JPanel implements KeyListener,
 				Log.stdlog(Log.ERROR, "GameView", "invalid player id: " + playerId);
 				return;
 			}
+			boolean moved = x != player.getX() || y != player.getY();
 			player.setX(x);
 			player.setY(y);
 			player.setRad(rad);
+			if (moved)
+				player.walk();
 			break;
 		}
 		case Communication.OPCODE_NEW_BULLET: {
@@ -215,11 +659,11 @@ public class GameView extends JPanel implements KeyListener,
 			Weapon weapon = player.getWeapon();
 			Bullet bullet = new Bullet(x, y, rad, weapon);
 			this.bullets.add(bullet);
-			// Fire weapon on client side if this is my player to play the proper sounds
+			// Fire weapon on client side to play the proper sounds where it was fired.
 			// Check bullet id to avoid firing the weapon multiple times for weapons that
 			// use multiple bullets per shot (e.g. shotguns).
-			if (playerId == this.myId && bulletId == 0) {
-				weapon.fireBlank();
+			if (bulletId == 0) {
+				weapon.fireBlank(x, y, this.timers);
 			}
 			break;
 		}
@@ -241,14 +685,150 @@ public class GameView extends JPanel implements KeyListener,
 			}
 
 			Player player = new Player(x, y);
+			player.setEffectSink(SoundManager::playSound);
 			if (myId == -1) {
 				myId = playerId;
-				this.level = new Level(levelId);
+				SoundManager.setListener(player);
+				// The level, streamed or not, is set by the level command sent before the join.
+				// The number alone may name a different level on this client, or none at all
+				if (this.level == null) {
+					this.failJoin("no level was sent for level " + levelId);
+					return;
+				}
 				this.shop = new Shop();
 				this.shop.addActionListener(this);
-				this.revalidate();
 			}
 			this.players.put(playerId, player);
+
+			Events.Join joinEvent = new Events.Join();
+			if (joinEvent.shouldCommit()) {
+				joinEvent.player = playerId;
+				joinEvent.players = this.players.size();
+				joinEvent.client = true;
+				joinEvent.commit();
+			}
+			break;
+		}
+		case Communication.OPCODE_LEVEL: {
+			int levelId;
+			int rows;
+			int cols;
+			String hash;
+			boolean streamed;
+			Long seed;
+
+			try {
+				levelId = Integer.parseInt(command.get(Communication.KEY_LEVEL));
+				rows = Integer.parseInt(command.get(Communication.KEY_ROWS));
+				cols = Integer.parseInt(command.get(Communication.KEY_COLS));
+				hash = command.get(Communication.KEY_HASH);
+				streamed = Boolean.parseBoolean(command.get(Communication.KEY_STREAMED));
+				String seedValue = command.get(Communication.KEY_SEED);
+				seed = seedValue != null ? Long.parseLong(seedValue) : null;
+			}
+			catch (Exception e) {
+				Log.stdlog(Log.ERROR, "GameView", "Cant parse level command: " + command + ", " +
+						   e);
+				return;
+			}
+			// The size is checked before anything is allocated for it. A level sent whole is
+			// never larger than the largest generated level
+			long tiles = (long) rows * cols;
+			if (rows < 1 || cols < 1 ||
+				(!streamed && tiles > (long) LevelGenerator.MAX_SIZE * LevelGenerator.MAX_SIZE))
+			{
+				Log.stdlog(Log.ERROR, "GameView", "Invalid level size: " + rows + "x" + cols);
+				return;
+			}
+
+			if (streamed) {
+				this.setLevel(new Level(levelId, rows, cols));
+				break;
+			}
+			LevelData data = LevelCache.find(levelId, hash);
+			if (data == null && seed != null)
+				data = LevelCache.generate(seed, rows, cols, hash);
+			if (data != null) {
+				this.setLevel(new Level(levelId, data));
+				break;
+			}
+
+			Log.stdlog(Log.INFO, "GameView", "downloading level " + hash);
+			int length = LevelFile.HEADER_SIZE + (int) tiles + LevelFile.CHECKSUM_SIZE;
+			this.download = new Download(levelId, hash, length);
+			this.send(Communication.cmdLevelRequest(hash));
+			break;
+		}
+		case Communication.OPCODE_LEVEL_DATA: {
+			if (this.download == null) {
+				Log.stdlog(Log.ERROR, "GameView", "Level data sent without being requested");
+				return;
+			}
+
+			int part;
+			int parts;
+			String data;
+
+			try {
+				part = Integer.parseInt(command.get(Communication.KEY_PART));
+				parts = Integer.parseInt(command.get(Communication.KEY_PARTS));
+				data = command.get(Communication.KEY_TILES);
+			}
+			catch (Exception e) {
+				this.failJoin("cannot parse level data command: " + command + ", " + e);
+				return;
+			}
+			if (parts < 1) {
+				this.failJoin("the server refused to send level " + this.download.hash);
+				return;
+			}
+			if (part != this.download.parts || data == null) {
+				this.failJoin("level data part " + part + " out of order");
+				return;
+			}
+
+			this.download.data.append(data);
+			this.download.parts++;
+			if (this.download.parts < parts)
+				break;
+
+			LevelData level;
+			try {
+				byte[] file = Communication.decodeTiles(this.download.data.toString(),
+														this.download.length);
+				level = LevelFile.decode(ByteBuffer.wrap(file));
+				if (!level.contentHash().equals(this.download.hash))
+					throw new IOException("content hash does not match");
+			}
+			catch (Exception e) {
+				this.failJoin("cannot load downloaded level: " + e);
+				return;
+			}
+			LevelCache.put(level);
+			this.finishDownload(level);
+			break;
+		}
+		case Communication.OPCODE_CHUNK: {
+			LevelChunks chunks = this.level != null ? this.level.getChunks() : null;
+			if (chunks == null) {
+				Log.stdlog(Log.ERROR, "GameView", "Chunk sent for a level that is not streamed");
+				return;
+			}
+
+			try {
+				int cr = Integer.parseInt(command.get(Communication.KEY_CHUNK_ROW));
+				int cc = Integer.parseInt(command.get(Communication.KEY_CHUNK_COL));
+				int length = LevelData.chunkSpan(chunks.rows(), cr) *
+					LevelData.chunkSpan(chunks.cols(), cc);
+				byte[] tiles = Communication.decodeTiles(command.get(Communication.KEY_TILES),
+														 length);
+				chunks.put(cr, cc, tiles);
+			}
+			catch (Exception e) {
+				Log.stdlog(Log.ERROR, "GameView", "Cant parse chunk command: " + command + ", " +
+						   e);
+				return;
+			}
 			break;
 		}
 		case Communication.OPCODE_LEAVE: {
@@ -263,6 +843,14 @@ public class GameView extends JPanel implements KeyListener,
 			}
 			
 			this.players.remove(playerId);
+
+			Events.Leave leaveEvent = new Events.Leave();
+			if (leaveEvent.shouldCommit()) {
+				leaveEvent.player = playerId;
+				leaveEvent.players = this.players.size();
+				leaveEvent.client = true;
+				leaveEvent.commit();
+			}
 			break;
 		}
 		case Communication.OPCODE_DAMAGED: {
@@ -400,8 +988,6 @@ public class GameView extends JPanel implements KeyListener,
 			Log.stdlog(Log.ERROR, "GameView", "invalid opcode: " + opcode);
 			break;
 		}
-
-		this.repaint();
 	}
 
 
@@ -414,8 +1000,7 @@ public class GameView extends JPanel implements KeyListener,
 	}
 
 
-	public Point getPlayerPaintLocation() {
-		Player me = this.players.get(this.myId);
+	public Point getPlayerPaintLocation(WorldSnapshot.PlayerState me) {
 		if (me == null)
 			return new Point(-1, -1);
 		
@@ -441,10 +1026,9 @@ public class GameView extends JPanel implements KeyListener,
 	}
 
 
-	public Point getRelativeLocation(double tileX, double tileY) {
-		Point playerLocation = this.getPlayerPaintLocation();
+	public Point getRelativeLocation(WorldSnapshot.PlayerState me, double tileX, double tileY) {
+		Point playerLocation = this.getPlayerPaintLocation(me);
 		int tileSize = this.getTileSize();
-		Player me = this.players.get(this.myId);
 		if (me == null)
 			return new Point((int) (tileX * tileSize), (int) (tileY * tileSize));
 		return new Point(playerLocation.x + (int) ((tileX - me.getX()) * tileSize),
@@ -452,21 +1036,110 @@ public class GameView extends JPanel implements KeyListener,
 	}
 
 
-	public boolean isViewable(double tileX, double tileY) {
-		Player me = this.players.get(this.myId);
-		if (me == null)
-			return false;
-		double x = tileX - me.getX();
-		double y = tileY - me.getY();
-		double rad = x < 0 ? Math.atan(y / x) + Math.PI : Math.atan(y / x);
+	/**
+	 * Ends the download of the level, and applies the messages that were held back while it
+	 * was downloading.
+	 *
+	 * @param data  the tiles of the downloaded level.
+	 */
+	private void finishDownload(LevelData data) {
+		Download download = this.download;
+		this.download = null;
+		this.setLevel(new Level(download.levelId, data));
+
+		List<Map<String, String>> deferred = new ArrayList<>(this.deferred);
+		this.deferred.clear();
+		for (Map<String, String> command : deferred)
+			this.handleCommand(command);
+	}
+
 
-		Ray ray = new Ray(me.getX(), me.getY(), rad);
-		while (!ray.inRange(tileX, tileY)) {
-			if (this.level.collides(ray, ray.getVx(), ray.getVy()))
-				return false;
-			ray.move();
+	/**
+	 * Leaves a game that cannot be joined, such as when the level the server plays on could not
+	 * be downloaded. Playing on any other level would disagree with the server about collisions
+	 * and visibility, so the connection is closed and the main view is shown with an error.
+	 * Messages still arriving from the server are ignored. This must only be called by the
+	 * animate thread.
+	 *
+	 * @param reason  why the game cannot be joined.
+	 */
+	private void failJoin(String reason) {
+		if (this.joinFailed)
+			return;
+		Log.stdlog(Log.ERROR, "GameView", "Cannot join game: " + reason);
+		this.joinFailed = true;
+		this.download = null;
+		this.deferred.clear();
+		this.inbox.clear();
+		if (this.client != null)
+			this.client.close();
+		if (this.screen != null) {
+			SwingUtilities.invokeLater(() -> {
+					this.screen.displayMainView();
+					ByteStrike.displayMessage("Connection Error", "Unable to join the game.\n" +
+											  reason);
+				});
 		}
-		return true;
+	}
+
+
+	/**
+	 * Sets the level being played on. The level is drawn from the next snapshot published.
+	 *
+	 * @param level  the level being played on.
+	 */
+	private void setLevel(Level level) {
+		this.level = level;
+	}
+
+
+	/**
+	 * Creates what is drawn from a level, unless it was already created for the same level.
+	 * This must only be called by the render thread.
+	 *
+	 * @param level  the level to draw.
+	 */
+	private void drawLevel(Level level) {
+		if (level == this.drawnLevel)
+			return;
+		this.drawnLevel = level;
+		this.levelLayer = new LevelLayer(level);
+		this.fieldOfView = new FieldOfView(level, (Settings.FOV - 1) / 2 + 2);
+		this.chunkVersion = 0;
+	}
+
+
+	/**
+	 * Discards what was drawn from a chunk of a streamed level that was added or discarded.
+	 * This must only be called by the render thread.
+	 *
+	 * @param r     the row of the top-left tile of the chunk.
+	 * @param c     the column of the top-left tile of the chunk.
+	 * @param rows  the number of rows of tiles in the chunk.
+	 * @param cols  the number of columns of tiles in the chunk.
+	 */
+	private void chunkChanged(int r, int c, int rows, int cols) {
+		this.levelLayer.invalidate(r, c, rows, cols);
+		this.fieldOfView.invalidate(r, c, rows, cols);
+	}
+
+
+	/**
+	 * Returns whether a position can be seen by the player. Visibility is recomputed only when
+	 * the player moves to a different tile.
+	 *
+	 * @param me     the player, as drawn.
+	 * @param tileX  the x position, in tile space, to check.
+	 * @param tileY  the y position, in tile space, to check.
+	 *
+	 * @return whether the tile containing the position can be seen by the player.
+	 */
+	public boolean isViewable(WorldSnapshot.PlayerState me, double tileX, double tileY) {
+		if (me == null)
+			return false;
+		double center = me.getSize() / 2;
+		this.fieldOfView.update((int) (me.getX() + center), (int) (me.getY() + center));
+		return this.fieldOfView.isVisible((int) Math.floor(tileX), (int) Math.floor(tileY));
 	}
 
 
@@ -476,17 +1149,132 @@ public class GameView extends JPanel implements KeyListener,
 	}
 
 
-	@Override
-	public void paintComponent(Graphics g) {
-		super.paintComponent(g);
-		Player me = this.players.get(this.myId);
-		if (me == null)
+	/**
+	 * Starts the render thread, which draws frames to this view's canvas at {@code Settings.FPS}
+	 * frames per second until {@code stopRendering} is called. Calling this method while the
+	 * render thread is running has no effect.
+	 */
+	public void startRendering() {
+		if (this.rendering)
 			return;
-		Weapon myWeapon = me.getWeapon();
-		
-	    int tileSize = this.getTileSize();
+		this.rendering = true;
+
+		Thread renderThread = new Thread(this::render, "GameView render");
+		renderThread.setDaemon(true);
+		renderThread.start();
+	}
+
+
+	/**
+	 * Stops the render thread after the frame it is currently drawing.
+	 */
+	public void stopRendering() {
+		this.rendering = false;
+	}
+
+
+	/**
+	 * Returns the time taken to render and show the last frame.
+	 *
+	 * @return the time, in nanoseconds, taken to render and show the last frame.
+	 */
+	public long getFrameTime() {
+		return this.frameTime;
+	}
+
+
+	/**
+	 * Returns a moving average of the time taken to render and show each frame.
+	 *
+	 * @return a moving average, in nanoseconds, of the time taken to render each frame.
+	 */
+	public double getAverageFrameTime() {
+		return this.averageFrameTime;
+	}
+
+
+	/**
+	 * Runs the render thread. Each frame is drawn into the back buffer of the canvas's buffer
+	 * strategy and shown, then the thread waits until the next frame is due. If rendering
+	 * falls more than a frame behind, the schedule is reset rather than drawing frames back to
+	 * back to catch up.
+	 */
+	private void render() {
+		long framePeriod = 1000000000L / Settings.FPS;
+		long nextFrame = System.nanoTime();
+		while (this.rendering) {
+			if (!this.canvas.isDisplayable() ||
+				this.canvas.getWidth() <= 0 || this.canvas.getHeight() <= 0)
+			{
+				LockSupport.parkNanos(framePeriod);
+				nextFrame = System.nanoTime();
+				continue;
+			}
+
+			BufferStrategy strategy = this.canvas.getBufferStrategy();
+			if (strategy == null) {
+				this.canvas.createBufferStrategy(2);
+				this.canvas.requestFocusInWindow();
+				continue;
+			}
+
+			long start = System.nanoTime();
+			try {
+				do {
+					do {
+						Graphics g = strategy.getDrawGraphics();
+						try {
+							this.paintFrame(g);
+						}
+						finally {
+							g.dispose();
+						}
+					} while (strategy.contentsRestored());
+					strategy.show();
+				} while (strategy.contentsLost());
+				Toolkit.getDefaultToolkit().sync();
+			}
+			catch (IllegalStateException e) {
+				// The canvas was removed while drawing, so recreate the buffers on the next frame
+				continue;
+			}
+			this.frameTime = System.nanoTime() - start;
+			this.overlay.recordFrame(start, this.frameTime);
+			this.averageFrameTime = this.averageFrameTime == 0 ?
+				this.frameTime : 0.9 * this.averageFrameTime + 0.1 * this.frameTime;
+
+			nextFrame += framePeriod;
+			long now = System.nanoTime();
+			if (now - nextFrame > framePeriod)
+				nextFrame = now;
+			while ((now = System.nanoTime()) < nextFrame)
+				LockSupport.parkNanos(nextFrame - now);
+		}
+	}
+
+
+	/**
+	 * Draws one frame.
+	 *
+	 * @param g  the {@code Graphics} object to draw the frame on.
+	 */
+	private void paintFrame(Graphics g) {
 		int wPixels = this.getSize().width;
 		int hPixels = this.getSize().height;
+		g.setColor(this.getBackground());
+		g.fillRect(0, 0, wPixels, hPixels);
+
+		// Draw from one snapshot so the whole frame is consistent
+		WorldSnapshot world = this.world.get();
+		WorldSnapshot.PlayerState me = world.getMe();
+		Level level = world.getLevel();
+		if (me == null || level == null) {
+			if (this.replay != null)
+				this.drawReplayStatus(g, this.getTileSize(), wPixels, hPixels);
+			return;
+		}
+		
+	    int tileSize = this.getTileSize();
 		int wTiles = wPixels / tileSize;
 		int hTiles = hPixels / tileSize;
 
@@ -494,21 +1282,37 @@ public class GameView extends JPanel implements KeyListener,
 		double pxTile = me.getX();
 		double pyTile = me.getY();
 		int playerSize = (int) (me.getSize() * tileSize);
-		Point playerPx = this.getPlayerPaintLocation();
+		Point playerPx = this.getPlayerPaintLocation(me);
+		double originX = playerPx.x - pxTile * tileSize;
+		double originY = playerPx.y - pyTile * tileSize;
+		this.drawLevel(level);
+		LevelChunks chunks = level.getChunks();
+		if (chunks != null && chunks.getVersion() != this.chunkVersion) {
+			// Chunks have arrived or been discarded since the last frame, so what was drawn over
+			// them is stale. Anything else drawn is kept
+			int version = chunks.getVersion();
+			if (!chunks.forEachChange(this.chunkVersion, version, this::chunkChanged)) {
+				this.levelLayer.invalidate();
+				this.fieldOfView.invalidate();
+			}
+			this.chunkVersion = version;
+		}
+		this.levelLayer.draw(g, originX, originY, tileSize, wPixels, hPixels);
+
+		// Shade the floor that cannot be seen
 		int viewRange = (Settings.FOV - 1) / 2;
 		for (int r = (int) (pyTile - viewRange); r <= (int) (pyTile + viewRange) + 1; r++) {
-			if (r < 0 || r >= this.level.rows())
+			if (r < 0 || r >= level.rows())
 				continue;
 			
 			for (int c = (int) (pxTile - viewRange); c <= (int) (pxTile + viewRange) + 1; c++) {
-				if (c < 0 || c >= this.level.cols(r))
+				if (c < 0 || c >= level.cols(r))
 					continue;
 
-				Level.Tile tileType = this.level.get(r, c);
-				int tileXPx = playerPx.x + (int) ((c - pxTile) * tileSize);
-				int tileYPx = playerPx.y + (int) ((r - pyTile) * tileSize);
-				SpriteLoader.drawTile(g, tileType, tileXPx, tileYPx, tileSize);
-				if (tileType == Level.Tile.NONE && !this.isViewable(c, r)) {
+				Level.Tile tileType = level.get(r, c);
+				int tileXPx = (int) Math.floor(originX + c * tileSize);
+				int tileYPx = (int) Math.floor(originY + r * tileSize);
+				if (tileType == Level.Tile.NONE && !this.isViewable(me, c, r)) {
 					g.setColor(new Color(0, 0, 0, 30));
 					g.fillRect(tileXPx, tileYPx, tileSize, tileSize);
 				}
@@ -516,33 +1320,30 @@ public class GameView extends JPanel implements KeyListener,
 		}
 
 		// Draw bullets
-		for (int i = 0; i < this.bullets.size(); i++) {
-			// Have this bounds check in case the array size is changed by the bullet update
-			// loop while this draw loop is running
-			if (i >= this.bullets.size())
-				continue;
-			Bullet bullet = this.bullets.get(i);
-			Point bLoc = this.getRelativeLocation(bullet.getX(), bullet.getY());
+		for (WorldSnapshot.BulletState bullet : world.getBullets()) {
+			Point bLoc = this.getRelativeLocation(me, bullet.getX(), bullet.getY());
 			int bs = (int) (bullet.getSize() * tileSize);
 			SpriteLoader.drawEntity(g, bullet.getType(), bLoc.x, bLoc.y, bs, bullet.getRad());
 		}
 
 		// Draw other players
-		for (int playerId : this.players.keySet()) {
-			if (playerId == this.myId)
+		for (Map.Entry<Integer, WorldSnapshot.PlayerState> entry : world.getPlayers().entrySet()) {
+			if (entry.getKey() == world.getMyId())
 				continue;
-			Player player = this.players.get(playerId);
+			WorldSnapshot.PlayerState player = entry.getValue();
 			if (player.isDead())
 				continue;
-			if (!this.isViewable(player.getX(), player.getY()))
+			double center = player.getSize() / 2;
+			if (!this.isViewable(me, player.getX() + center, player.getY() + center))
 				continue;
-			Point pLoc = this.getRelativeLocation(player.getX(), player.getY());
+			Point pLoc = this.getRelativeLocation(me, player.getX(), player.getY());
 			int ps = (int) (player.getSize() * tileSize);
 			SpriteLoader.drawPlayer(g, player, pLoc.x, pLoc.y, tileSize, player.getRad());
 		}
 		
 		// Draw the player
-		SpriteLoader.drawPlayer(g, me, playerPx.x, playerPx.y, tileSize, this.getPlayerRotation());
+		double myRotation = this.replay != null ? me.getRad() : this.getPlayerRotation();
+		SpriteLoader.drawPlayer(g, me, playerPx.x, playerPx.y, tileSize, myRotation);
 
 		// Draw the GUI overlay
 		g.setColor(new Color(70, 70, 70, 150));
@@ -554,7 +1355,7 @@ public class GameView extends JPanel implements KeyListener,
 		g.drawString("+ " + me.getHealth(), (int) (tileSize * 0.75), (int) (tileSize * 1.35));
 		// Ammo
 		this.drawThickRoundRect(g, 4 * tileSize, tileSize / 2, tileSize);
-		g.drawString("⁍ " + me.getWeapon().bulletsLeft() + "/" + me.getWeapon().capacity(),
+		g.drawString("⁍ " + me.bulletsLeft() + "/" + me.capacity(),
 					 (int) (tileSize * 4.25), (int) (tileSize * 1.35));
 		// Money
 		this.drawThickRoundRect(g, (int) ((wTiles - 3.25) * tileSize), tileSize / 2, tileSize);
@@ -566,28 +1367,92 @@ public class GameView extends JPanel implements KeyListener,
 		// Primary weapon
 		g.drawString("Weapon", (int) (10 * tileSize), (int) (tileSize * 0.4));
 		this.drawThickRoundRect(g, (int) (10 * tileSize), tileSize / 2, tileSize);
-		SpriteLoader.draw(g, "Shop/" + myWeapon.getType(),
+		SpriteLoader.draw(g, "Shop/" + me.getWeaponType(),
 						  (int) (10 * tileSize), tileSize / 2, tileSize);
 		// Use item 1
 		g.drawString("Use Item 1", (int) (11.5 * tileSize), (int) (tileSize * 0.4));
 		this.drawThickRoundRect(g, (int) (11.5 * tileSize), tileSize / 2, tileSize);
-		Item item1 = me.getItem(1);
+		String item1 = me.getItemType(1);
 		if (item1 != null)
-			SpriteLoader.draw(g, "Shop/" + item1.getType(),
+			SpriteLoader.draw(g, "Shop/" + item1,
 							  (int) (11.5 * tileSize), tileSize / 2, tileSize);
 		// Use item 2
 		g.drawString("Use Item 2", (int) (13 * tileSize), (int) (tileSize * 0.4));
 		this.drawThickRoundRect(g, (int) (13 * tileSize), tileSize / 2, tileSize);
-		Item item2 = me.getItem(2);
+		String item2 = me.getItemType(2);
 		if (item2 != null)
-			SpriteLoader.draw(g, "Shop/" + item2.getType(),
+			SpriteLoader.draw(g, "Shop/" + item2,
 							  (int) (13 * tileSize), tileSize / 2, tileSize);
 
-		// Update shop size and position if being shown
-		if (this.showShop) {
-			this.shop.setSize(new Dimension(wPixels / 2, hPixels / 2));
-			this.shop.setLocation(new Point(wPixels / 4, hPixels / 4));
+		// Draw the shop over the center of the view if being shown. Mouse events are applied
+		// here, so that the shop is only ever changed by the thread that draws it
+		Shop shop = this.shop;
+		if (shop != null) {
+			Rectangle bounds = GameView.shopBounds(wPixels, hPixels);
+			shop.setBounds(bounds);
+			MouseEvent shopEvent;
+			while ((shopEvent = this.shopInput.poll()) != null) {
+				switch (shopEvent.getID()) {
+				case MouseEvent.MOUSE_PRESSED -> shop.mousePressed(shopEvent);
+				case MouseEvent.MOUSE_RELEASED -> shop.mouseReleased(shopEvent);
+				case MouseEvent.MOUSE_MOVED -> shop.mouseMoved(shopEvent);
+				case MouseEvent.MOUSE_DRAGGED -> shop.mouseDragged(shopEvent);
+				}
+			}
+			if (this.showShop) {
+				Graphics shopGraphics = g.create(bounds.x, bounds.y, bounds.width, bounds.height);
+				shop.paintComponent(shopGraphics);
+				shopGraphics.dispose();
+			}
 		}
+
+		// Draw the performance overlay below the GUI
+		if (this.showOverlay)
+			this.overlay.draw(g, tileSize / 2, tileSize * 2 + tileSize / 2);
+
+		if (this.replay != null)
+			this.drawReplayStatus(g, tileSize, wPixels, hPixels);
+	}
+
+
+	/**
+	 * Returns where the shop is drawn, which is over the center of the view.
+	 *
+	 * @param wPixels  the width of the view, in pixels.
+	 * @param hPixels  the height of the view, in pixels.
+	 *
+	 * @return the bounds of the shop.
+	 */
+	private static Rectangle shopBounds(int wPixels, int hPixels) {
+		return new Rectangle(wPixels / 4, hPixels / 4, wPixels / 2, hPixels / 2);
+	}
+
+
+	/**
+	 * Forwards a mouse event to the shop if the shop is being shown and the event is over it.
+	 * The shop is drawn on the canvas rather than added as a component, so it does not
+	 * receive events itself. The event is queued for the render thread, which applies it
+	 * before drawing the shop.
+	 *
+	 * @param e  the mouse event on the canvas.
+	 *
+	 * @return whether the event was forwarded to the shop, in which case it should not be
+	 *         handled by the game.
+	 */
+	private boolean forwardToShop(MouseEvent e) {
+		Shop shop = this.shop;
+		Rectangle bounds = GameView.shopBounds(this.getSize().width, this.getSize().height);
+		if (!this.showShop || shop == null || !bounds.contains(e.getPoint()))
+			return false;
+
+		MouseEvent shopEvent = new MouseEvent(shop, e.getID(), e.getWhen(),
+											  e.getModifiersEx(),
+											  e.getX() - bounds.x,
+											  e.getY() - bounds.y,
+											  e.getClickCount(), e.isPopupTrigger(),
+											  e.getButton());
+		this.shopInput.add(shopEvent);
+		return true;
 	}
 
 
@@ -601,6 +1466,23 @@ public class GameView extends JPanel implements KeyListener,
 				return;
 			}
 
+			Events.ClientTick tickEvent = new Events.ClientTick();
+			tickEvent.begin();
+			this.timers.advance();
+
+			// Apply messages from the server in the order they arrived
+			int applied = 0;
+			Map<String, String> command;
+			while ((command = this.inbox.poll()) != null) {
+				this.handleCommand(command);
+				applied++;
+			}
+
+			// Keep the chunks of a streamed level around the player from being discarded
+			Player me = this.players.get(this.myId);
+			LevelChunks chunks = this.level != null ? this.level.getChunks() : null;
+			if (me != null && chunks != null)
+				chunks.touch((int) me.getY(), (int) me.getX());
 
 		    // Update my movement
 			Map<String, String> cmdMove = Communication.cmdMove(this.movingUp,
@@ -608,21 +1490,20 @@ public class GameView extends JPanel implements KeyListener,
 																this.movingDown,
 																this.movingRight,
 																this.getPlayerRotation());
-			this.client.send(Communication.serialize(cmdMove));
+			this.send(cmdMove);
 
 			// Add bullets if shooting
 			if (this.shooting && this.aimingAt != null) {
 				Map<String, String> cmdShoot = Communication.cmdShoot();
-				this.client.send(Communication.serialize(cmdShoot));
+				this.send(cmdShoot);
 			}
 
 			// Update bullets
 			for (int i = 0; i < this.bullets.size(); i++) {
 				Bullet bullet = this.bullets.get(i);
 				if (this.checkPlayerCollision(bullet) ||
-					this.level.collides(bullet, bullet.getVx(), bullet.getVy()) ||
-					bullet.getX() < -1000 || bullet.getX() > 1000 ||
-					bullet.getY() < -1000 || bullet.getY() > 1000)
+					!this.level.contains(bullet, bullet.getVx(), bullet.getVy()) ||
+					this.level.collides(bullet, bullet.getVx(), bullet.getVy()))
 				{
 					this.bullets.remove(i);
 					i--;
@@ -631,9 +1512,17 @@ public class GameView extends JPanel implements KeyListener,
 					bullet.move();
 			}
 
+			// Publish the updated world to the render thread
+			this.world.set(WorldSnapshot.capture(this.myId, this.level, this.players,
+												 this.bullets));
 
-			// Repaint
-			this.repaint();
+			tickEvent.end();
+			if (tickEvent.shouldCommit()) {
+				tickEvent.applied = applied;
+				tickEvent.players = this.players.size();
+				tickEvent.bullets = this.bullets.size();
+				tickEvent.commit();
+			}
 		}
 	}
 
@@ -667,12 +1556,17 @@ public class GameView extends JPanel implements KeyListener,
 
 	@Override
 	public void keyPressed(KeyEvent e) {
+		if (this.replay != null) {
+			this.replayKeyPressed(e);
+			return;
+		}
 		switch (e.getKeyCode()) {
 		case KeyEvent.VK_W -> this.movingUp = true;
 		case KeyEvent.VK_A -> this.movingLeft = true;
 		case KeyEvent.VK_S -> this.movingDown = true;
 		case KeyEvent.VK_D -> this.movingRight = true;
 		case KeyEvent.VK_B -> this.showShop = !this.showShop;
+		case KeyEvent.VK_F3 -> this.showOverlay = !this.showOverlay;
 		case KeyEvent.VK_1,
 			KeyEvent.VK_2,
 			KeyEvent.VK_3,
@@ -684,14 +1578,9 @@ public class GameView extends JPanel implements KeyListener,
 			KeyEvent.VK_9 ->
 			{
 			    Map<String, String> cmdUse = Communication.cmdUse(e.getKeyCode() - 48, 0);
-				this.client.send(Communication.serialize(cmdUse));
+				this.send(cmdUse);
 			}
 		}
-
-		if (this.showShop)
-			this.add(this.shop);
-		else
-			this.remove(this.shop);
 	}
 
 
@@ -712,17 +1601,22 @@ public class GameView extends JPanel implements KeyListener,
 
 	@Override
 	public void mousePressed(MouseEvent e) {
+		if (this.replay != null)
+			return;
+		if (this.forwardToShop(e))
+			return;
 		this.shooting = true;
 		this.aimingAt = e.getPoint();
 
 		Map<String, String> cmdMove = Communication.cmdMove(false, false, false, false,
 															this.getPlayerRotation());
-		this.client.send(Communication.serialize(cmdMove));
+		this.send(cmdMove);
 	}
 
 
 	@Override
 	public void mouseReleased(MouseEvent e) {
+		this.forwardToShop(e);
 		this.shooting = false;
 	}
 
@@ -741,29 +1635,38 @@ public class GameView extends JPanel implements KeyListener,
 
 	@Override
 	public void mouseDragged(MouseEvent e) {
+		if (this.replay != null)
+			return;
+		if (this.forwardToShop(e)) {
+			this.shooting = false;
+			return;
+		}
 		this.shooting = true;
 		this.aimingAt = e.getPoint();
 
 		Map<String, String> cmdMove = Communication.cmdMove(false, false, false, false,
 															this.getPlayerRotation());
-		this.client.send(Communication.serialize(cmdMove));
+		this.send(cmdMove);
 	}
 
 
 	@Override
 	public void mouseMoved(MouseEvent e) {
+		if (this.replay != null)
+			return;
+		this.forwardToShop(e);
 		this.aimingAt = e.getPoint();
 
 		Map<String, String> cmdMove = Communication.cmdMove(false, false, false, false,
 															this.getPlayerRotation());
-		this.client.send(Communication.serialize(cmdMove));
+		this.send(cmdMove);
 	}
 
 
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		String commandStr = e.getActionCommand();
-		this.client.send(commandStr);
+		this.send(Communication.deserialize(commandStr));
 	}
 
 }
@@ -0,0 +1,217 @@
+package graphics;
+
+
+import world.Level;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The tiles of a level, pre-rendered into square chunks of {@code CHUNK_TILES} tiles.
+ * <p>
+ * The level never changes during a game, so each chunk is rendered once, the first time it is
+ * visible, and every frame after that only copies the visible chunks to the screen. The cost
+ * of drawing the level therefore depends on the size of the screen and not on the number of
+ * tiles in view. Chunks are rendered for a single tile size, and are all discarded when the
+ * tile size changes.
+ * <p>
+ * Every chunk of the level is kept if they fit in {@code MEMORY_BUDGET} bytes, so the chunks of
+ * an ordinary level are only rendered again when the tile size changes. On larger levels, such
+ * as streamed ones, as many chunks as fit in the budget are kept, but never fewer than cover the
+ * screen with a margin of one chunk on every side, discarding those least recently drawn first.
+ *
+ * @author Jonathan Uhler
+ */
+public class LevelLayer {
+
+	/** The width and height of each chunk, in tiles. */
+	public static final int CHUNK_TILES = 8;
+	/** The most memory, in bytes, used by the pixels of the chunks kept. */
+	public static final long MEMORY_BUDGET = 64L << 20;
+
+
+	/** The level to draw. */
+	private final Level level;
+	/** The number of chunks in each row of chunks. */
+	private final int chunkCols;
+	/** The number of rows of chunks. */
+	private final int chunkRows;
+	/** The tile size, in pixels, that the chunks were rendered at. */
+	private int tileSize;
+	/** The most chunks kept at once, for the current tile size and screen size. */
+	private int maxChunks;
+	/** The rendered chunks, by {@code chunkRow * chunkCols + chunkCol}. */
+	private final Map<Integer, BufferedImage> chunks;
+
+
+	/**
+	 * Constructs a new {@code LevelLayer}. No chunks are rendered until they are drawn.
+	 *
+	 * @param level  the level to draw.
+	 *
+	 * @throws NullPointerException  if {@code level == null}.
+	 */
+	public LevelLayer(Level level) {
+		if (level == null)
+			throw new NullPointerException("level was null");
+
+		int cols = 0;
+		for (int r = 0; r < level.rows(); r++)
+			cols = Math.max(cols, level.cols(r));
+
+		this.level = level;
+		this.chunkCols = (cols + LevelLayer.CHUNK_TILES - 1) / LevelLayer.CHUNK_TILES;
+		this.chunkRows = (level.rows() + LevelLayer.CHUNK_TILES - 1) / LevelLayer.CHUNK_TILES;
+		this.tileSize = 0;
+		this.maxChunks = 0;
+		this.chunks = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+				return this.size() > LevelLayer.this.maxChunks;
+			}
+		};
+	}
+
+
+	/**
+	 * Discards every rendered chunk.
+	 */
+	public void invalidate() {
+		this.chunks.clear();
+	}
+
+
+	/**
+	 * Discards the rendered chunks that overlap an area of the level, such as one whose tiles
+	 * have changed.
+	 *
+	 * @param r     the row of the top-left tile of the area.
+	 * @param c     the column of the top-left tile of the area.
+	 * @param rows  the number of rows of tiles in the area.
+	 * @param cols  the number of columns of tiles in the area.
+	 */
+	public void invalidate(int r, int c, int rows, int cols) {
+		if (rows < 1 || cols < 1)
+			return;
+		int firstRow = Math.max(0, r / LevelLayer.CHUNK_TILES);
+		int lastRow = Math.min(this.chunkRows - 1, (r + rows - 1) / LevelLayer.CHUNK_TILES);
+		int firstCol = Math.max(0, c / LevelLayer.CHUNK_TILES);
+		int lastCol = Math.min(this.chunkCols - 1, (c + cols - 1) / LevelLayer.CHUNK_TILES);
+		for (int cr = firstRow; cr <= lastRow; cr++) {
+			for (int cc = firstCol; cc <= lastCol; cc++)
+				this.chunks.remove(cr * this.chunkCols + cc);
+		}
+	}
+
+
+	/**
+	 * Draws every chunk that is at least partly inside a rectangle of the screen.
+	 *
+	 * @param g         the {@code Graphics} object to draw the level on.
+	 * @param originX   the x position, in pixels, of the top-left corner of tile {@code (0, 0)}.
+	 * @param originY   the y position, in pixels, of the top-left corner of tile {@code (0, 0)}.
+	 * @param tileSize  the size of each tile, in pixels.
+	 * @param width     the width of the area to draw, starting at x position {@code 0}.
+	 * @param height    the height of the area to draw, starting at y position {@code 0}.
+	 */
+	public void draw(Graphics g,
+					 double originX,
+					 double originY,
+					 int tileSize,
+					 int width,
+					 int height)
+	{
+		if (tileSize < 1)
+			return;
+		if (tileSize != this.tileSize) {
+			this.invalidate();
+			this.tileSize = tileSize;
+		}
+
+		int chunkPx = LevelLayer.CHUNK_TILES * tileSize;
+		this.maxChunks = this.maxChunks(chunkPx, width, height);
+		int firstCol = Math.max(0, (int) Math.floor(-originX / chunkPx));
+		int lastCol = Math.min(this.chunkCols - 1, (int) Math.floor((width - originX) / chunkPx));
+		int firstRow = Math.max(0, (int) Math.floor(-originY / chunkPx));
+		int lastRow = Math.min(this.chunkRows - 1, (int) Math.floor((height - originY) / chunkPx));
+
+		for (int cr = firstRow; cr <= lastRow; cr++) {
+			for (int cc = firstCol; cc <= lastCol; cc++) {
+				int index = cr * this.chunkCols + cc;
+				BufferedImage chunk = this.chunks.get(index);
+				if (chunk == null) {
+					chunk = this.render(g, cr, cc);
+					this.chunks.put(index, chunk);
+				}
+				g.drawImage(chunk,
+							(int) Math.floor(originX + cc * chunkPx),
+							(int) Math.floor(originY + cr * chunkPx),
+							null);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the most chunks to keep at once.
+	 *
+	 * @param chunkPx  the width and height of each chunk, in pixels.
+	 * @param width    the width of the area drawn.
+	 * @param height   the height of the area drawn.
+	 *
+	 * @return every chunk of the level if they fit in {@code MEMORY_BUDGET}, otherwise as many
+	 *         as fit, but at least the chunks that cover the area drawn and a margin of one
+	 *         chunk on every side.
+	 */
+	private int maxChunks(int chunkPx, int width, int height) {
+		long chunkBytes = 4L * chunkPx * chunkPx;
+		long budget = Math.min((long) this.chunkRows * this.chunkCols,
+							   LevelLayer.MEMORY_BUDGET / chunkBytes);
+		long window = (long) (width / chunkPx + 4) * (height / chunkPx + 4);
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(budget, window));
+	}
+
+
+	/**
+	 * Renders a chunk at the current tile size.
+	 *
+	 * @param g   the {@code Graphics} object that the chunk will be drawn on, used to create an
+	 *            image compatible with it.
+	 * @param cr  the row of the chunk.
+	 * @param cc  the column of the chunk.
+	 *
+	 * @return the rendered chunk.
+	 */
+	private BufferedImage render(Graphics g, int cr, int cc) {
+		int r0 = cr * LevelLayer.CHUNK_TILES;
+		int c0 = cc * LevelLayer.CHUNK_TILES;
+		int rows = Math.min(LevelLayer.CHUNK_TILES, this.level.rows() - r0);
+		int cols = Math.min(LevelLayer.CHUNK_TILES, this.chunkCols * LevelLayer.CHUNK_TILES - c0);
+		int w = cols * this.tileSize;
+		int h = rows * this.tileSize;
+
+		GraphicsConfiguration config = null;
+		if (g instanceof Graphics2D)
+			config = ((Graphics2D) g).getDeviceConfiguration();
+		BufferedImage chunk = config != null ?
+			config.createCompatibleImage(w, h, Transparency.TRANSLUCENT) :
+			new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+
+		Graphics chunkGraphics = chunk.createGraphics();
+		for (int r = r0; r < r0 + rows; r++) {
+			for (int c = c0; c < Math.min(c0 + cols, this.level.cols(r)); c++) {
+				SpriteLoader.drawTile(chunkGraphics, this.level.get(r, c),
+									  (c - c0) * this.tileSize, (r - r0) * this.tileSize,
+									  this.tileSize);
+			}
+		}
+		chunkGraphics.dispose();
+		return chunk;
+	}
+
+}
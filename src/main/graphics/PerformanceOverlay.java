@@ -0,0 +1,165 @@
+package graphics;
+
+
+import server.ClockSync;
+import server.TrafficStats;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A text overlay of client performance: the render frame rate and frame times, the server's
+ * tick rate, the round-trip time to the server, and the traffic with the server by opcode.
+ * <p>
+ * Frame times are recorded by the render thread, which is also the only thread that draws the
+ * overlay. Server ticks are recorded by whichever thread handles messages from the server.
+ * Traffic counts are read from a {@code TrafficStats} once every {@code SAMPLE_INTERVAL}, so
+ * the rates shown are averages over the last interval.
+ *
+ * @author Jonathan Uhler
+ */
+public class PerformanceOverlay {
+
+	/** The time, in nanoseconds, between traffic samples. */
+	public static final long SAMPLE_INTERVAL = 1_000_000_000L;
+	/** The font size of the overlay text. */
+	private static final int FONT_SIZE = 12;
+	/** The space, in pixels, around the overlay text. */
+	private static final int MARGIN = 6;
+
+
+	/** The frames drawn by the render thread. */
+	private final FrameStats frames;
+	/** The traffic with the server. */
+	private final TrafficStats traffic;
+	/** The round-trip time and clock offset of the connection to the server. */
+	private final ClockSync clock;
+	/** The traffic during the last sample. */
+	private TrafficStats.Sample sample;
+	/** The time, in nanoseconds, of the last traffic sample. */
+	private long lastSample;
+
+	/** The measured server tick rate, or {@code -1} if unknown. */
+	private volatile double tickRate;
+	/** The server tick that the tick rate was last measured from, or {@code -1} if none. */
+	private long lastTick;
+	/** The time, in nanoseconds, that {@code lastTick} was received. */
+	private long lastTickTime;
+
+
+	/**
+	 * Constructs a new {@code PerformanceOverlay}.
+	 *
+	 * @param traffic  the traffic with the server.
+	 * @param clock    the round-trip time and clock offset of the connection to the server.
+	 *
+	 * @throws NullPointerException  if {@code traffic == null} or {@code clock == null}.
+	 */
+	public PerformanceOverlay(TrafficStats traffic, ClockSync clock) {
+		if (traffic == null)
+			throw new NullPointerException("traffic was null");
+		if (clock == null)
+			throw new NullPointerException("clock was null");
+
+		this.frames = new FrameStats();
+		this.traffic = traffic;
+		this.clock = clock;
+		this.sample = TrafficStats.EMPTY;
+		this.lastSample = System.nanoTime();
+
+		this.tickRate = -1;
+		this.lastTick = -1;
+		this.lastTickTime = 0;
+	}
+
+
+	/**
+	 * Records a rendered frame. This must only be called by the render thread.
+	 *
+	 * @param start     the time, in nanoseconds, that the frame started.
+	 * @param duration  the time, in nanoseconds, taken to render and show the frame.
+	 */
+	public void recordFrame(long start, long duration) {
+		this.frames.record(start, duration);
+	}
+
+
+	/**
+	 * Records the tick stamped on a message from the server. The tick rate is measured over
+	 * at least {@code SAMPLE_INTERVAL}, so that network jitter has little effect on it.
+	 *
+	 * @param tick      the server tick stamped on the message.
+	 * @param received  the time, in nanoseconds, that the message was received.
+	 */
+	public synchronized void recordTick(long tick, long received) {
+		if (this.lastTick < 0) {
+			this.lastTick = tick;
+			this.lastTickTime = received;
+			return;
+		}
+		if (received - this.lastTickTime < PerformanceOverlay.SAMPLE_INTERVAL)
+			return;
+		this.tickRate = (tick - this.lastTick) * 1e9 / (received - this.lastTickTime);
+		this.lastTick = tick;
+		this.lastTickTime = received;
+	}
+
+
+	/**
+	 * Draws the overlay. This must only be called by the render thread.
+	 *
+	 * @param g  the {@code Graphics} object to draw the overlay on.
+	 * @param x  the x position of the top-left corner of the overlay.
+	 * @param y  the y position of the top-left corner of the overlay.
+	 */
+	public void draw(Graphics g, int x, int y) {
+		long now = System.nanoTime();
+		if (now - this.lastSample >= PerformanceOverlay.SAMPLE_INTERVAL) {
+			this.sample = this.traffic.sample();
+			this.lastSample = now;
+		}
+
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format("FPS %5.1f  p50 %5.2f ms  p99 %5.2f ms",
+								this.frames.getFps(),
+								this.frames.percentile(50) / 1e6,
+								this.frames.percentile(99) / 1e6));
+		double tickRate = this.tickRate;
+		lines.add(String.format("Tick %s  RTT %s",
+								tickRate < 0 ? "  ?" : String.format("%5.1f/s", tickRate),
+								!this.clock.isSynchronized() ? "?" :
+								String.format("%.1f +/- %.1f ms", this.clock.getRtt() / 1e6,
+											  this.clock.getJitter() / 1e6)));
+		lines.add(String.format("In %7.1f KiB/s  Out %7.1f KiB/s",
+								this.sample.bytesInPerSecond() / 1024,
+								this.sample.bytesOutPerSecond() / 1024));
+		lines.add(String.format("%-12s %7s %7s", "opcode", "in/s", "out/s"));
+		for (String opcode : this.sample.opcodes()) {
+			lines.add(String.format("%-12s %7.1f %7.1f", opcode,
+									this.sample.messagesInPerSecond(opcode),
+									this.sample.messagesOutPerSecond(opcode)));
+		}
+
+		g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, PerformanceOverlay.FONT_SIZE));
+		FontMetrics metrics = g.getFontMetrics();
+		int width = 0;
+		for (String line : lines)
+			width = Math.max(width, metrics.stringWidth(line));
+		int lineHeight = metrics.getHeight();
+
+		g.setColor(new Color(0, 0, 0, 160));
+		g.fillRect(x, y, width + 2 * PerformanceOverlay.MARGIN,
+				   lines.size() * lineHeight + 2 * PerformanceOverlay.MARGIN);
+		g.setColor(Color.WHITE);
+		int baseline = y + PerformanceOverlay.MARGIN + metrics.getAscent();
+		for (String line : lines) {
+			g.drawString(line, x + PerformanceOverlay.MARGIN, baseline);
+			baseline += lineHeight;
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package graphics;
+
+
+import server.ReplayReader;
+import javax.swing.JFrame;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.file.Path;
+
+
+/**
+ * Entry point for watching a replay recorded by a server.
+ * <p>
+ * <b>Usage</b>
+ * <p>
+ * {@code java -cp ByteStrike.jar graphics.ReplayViewer file}
+ * <p>
+ * The replay is drawn by a {@code GameView} as seen by one of the players in it, and is
+ * controlled with the keyboard:
+ * <table style="border: 1px solid black">
+ *  <caption>Replay Controls</caption>
+ *  <tr style="border: 1px solid black">
+ *   <th style="border: 1px solid black"> Key
+ *   <th style="border: 1px solid black"> Action
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Space
+ *   <td style="border: 1px solid black"> Pause or resume playback.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Left, Right
+ *   <td style="border: 1px solid black"> Seek back or forward {@code GameView.SHORT_SEEK}
+ *                                        seconds.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Page Up, Page Down
+ *   <td style="border: 1px solid black"> Seek back or forward {@code GameView.LONG_SEEK}
+ *                                        seconds.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Home, End
+ *   <td style="border: 1px solid black"> Seek to the start or end of the replay.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> +, -
+ *   <td style="border: 1px solid black"> Double or halve the playback speed, up to
+ *                                        {@code GameView.MAX_REPLAY_SPEED} times.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Tab
+ *   <td style="border: 1px solid black"> View the replay as the next player.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> F3
+ *   <td style="border: 1px solid black"> Show or hide the performance overlay.
+ *  </tr>
+ * </table>
+ *
+ * @author Jonathan Uhler
+ */
+public class ReplayViewer {
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private ReplayViewer() { }
+
+
+	/**
+	 * Runs the replay viewer.
+	 *
+	 * @param args  command line arguments.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("usage: graphics.ReplayViewer file");
+			System.exit(1);
+		}
+
+		ReplayReader replay = null;
+		try {
+			replay = new ReplayReader(Path.of(args[0]));
+		}
+		catch (IOException e) {
+			System.err.println("error: cannot open replay " + args[0] + ": " + e);
+			System.exit(1);
+		}
+
+		JFrame frame = new JFrame("Byte Strike Replay");
+		GameView gameView = new GameView(null);
+		gameView.setPreferredSize(new Dimension(Settings.FOV * 32, Settings.FOV * 32));
+		frame.add(gameView);
+
+		frame.pack();
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setVisible(true);
+		gameView.watch(replay);
+	}
+
+}
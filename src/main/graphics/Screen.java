@@ -54,6 +54,7 @@ public class Screen extends JPanel {
 	 * Displays the main view.
 	 */
 	public void displayMainView() {
+		this.gameView.stopRendering();
 		this.clearGraphicsContext();
 		this.add(this.mainView);
 	}
@@ -88,6 +89,7 @@ public class Screen extends JPanel {
 				}
 			});
 		animateThread.start();
+		this.gameView.startRendering();
 	}
 
 	
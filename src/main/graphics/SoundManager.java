@@ -1,24 +1,145 @@
 package graphics;
 
 
-import java.io.File;
-import java.net.URL;
+import entity.Player;
+import jnet.Log;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
 
 
 /**
  * Manages the audio capabilities of the game.
+ * <p>
+ * Every sound file under {@code SOUND_PATH} is decoded once, when {@code load} is first called,
+ * and converted to {@code FORMAT}. A single mixer thread sums every playing sound into one
+ * output line, so the cost of playback depends on the number of voices in use and not on the
+ * number of lines the audio device can open. At most {@code VOICES} sounds play at once. When
+ * every voice is busy, the quietest one is given to the new sound, or the new sound is dropped
+ * if it would be quieter still.
+ * <p>
+ * <b>Positional Audio</b>
+ * <p>
+ * Sounds played at a position are attenuated by their distance, in tiles, from the listener
+ * set with {@code setListener}, and panned by how far they are to the left or right. Sounds
+ * further than {@code MAX_DISTANCE} away are culled before they reach the mixer. Sounds
+ * played without a position, or with no listener set, play at full volume in both channels.
+ * <p>
+ * {@code playSound} only queues a request for the mixer thread, so it never blocks and is safe
+ * to call from any thread.
  *
  * @author Jonathan Uhler
  */
 public class SoundManager {
 
+	/**
+	 * A request to start a sound at a given volume.
+	 */
+	private static class Request {
+
+		/** The decoded sound to play. */
+		private final short[] data;
+		/** The gain of the left channel, in {@code [0, 1]}. */
+		private final float gainLeft;
+		/** The gain of the right channel, in {@code [0, 1]}. */
+		private final float gainRight;
+
+
+		/**
+		 * Constructs a new {@code Request}.
+		 *
+		 * @param data       the decoded sound to play.
+		 * @param gainLeft   the gain of the left channel.
+		 * @param gainRight  the gain of the right channel.
+		 */
+		private Request(short[] data, float gainLeft, float gainRight) {
+			this.data = data;
+			this.gainLeft = gainLeft;
+			this.gainRight = gainRight;
+		}
+
+	}
+
+
+	/**
+	 * A slot in the mixer, and the sound it is currently playing.
+	 */
+	private static class Voice {
+
+		/** The sound being played, or {@code null} if this voice is free. */
+		private short[] data;
+		/** The index of the next sample of {@code data} to mix. */
+		private int position;
+		/** The gain of the left channel. */
+		private float gainLeft;
+		/** The gain of the right channel. */
+		private float gainRight;
+		/** The order in which this voice was last started, used to pick a voice to steal. */
+		private long started;
+
+
+		/**
+		 * Returns the gain of the louder channel of this voice.
+		 *
+		 * @return the gain of the louder channel of this voice.
+		 */
+		private float loudness() {
+			return Math.max(this.gainLeft, this.gainRight);
+		}
+
+	}
+
+
 	/** The top-level path for all sounds. */
 	public static final String SOUND_PATH = "assets/sounds";
 	/** The file extension for sound files. */
 	public static final String SOUND_EXT = ".wav";
+	/** The format that every sound is converted to when loaded, and the format of the output. */
+	public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+	/** The number of sounds that can be played at once. */
+	public static final int VOICES = 32;
+	/** The size, in milliseconds of audio, of the output line's buffer. */
+	public static final int LINE_BUFFER = 40;
+	/** The number of frames mixed at once. */
+	public static final int BLOCK_FRAMES = 256;
+	/** The distance, in tiles, within which positional sounds play at full volume. */
+	public static final double REFERENCE_DISTANCE = 2;
+	/** The distance, in tiles, beyond which positional sounds are not played. */
+	public static final double MAX_DISTANCE = 24;
+	/** The horizontal distance, in tiles, at which a sound is panned entirely to one side. */
+	public static final double PAN_DISTANCE = 12;
+	/** The quietest gain at which a sound is still played. */
+	public static final float MIN_GAIN = 0.01f;
+	/** The time, in nanoseconds, that the mixer waits for room in the output line. */
+	private static final long WRITE_INTERVAL = 1000000;
+
+
+	/** The decoded PCM samples of every sound, interleaved by channel, by name. */
+	private static Map<String, short[]> sounds;
+	/** The voices of the mixer. */
+	private static Voice[] voices;
+	/** The output line, or {@code null} if no audio device is available. */
+	private static SourceDataLine line;
+	/** Sounds waiting to be started by the mixer thread. */
+	private static BlockingQueue<Request> requests;
+	/** The player whose position positional sounds are heard from. */
+	private static volatile Player listener;
+	/** Whether {@code load} has finished. */
+	private static volatile boolean loaded = false;
+	/** The number of sounds started so far, used to order voices. */
+	private static long startCount = 0;
 
 
 	/**
@@ -28,41 +149,260 @@ public class SoundManager {
 
 
 	/**
-	 * Plays a sound from the name of its file. The file name should not include an extension or
-	 * any components of {@code SoundManager.SOUND_PATH}. If the sound file is nested beyond
-	 * the {@code SOUND_PATH}, those directories should be included. A leading slash is not
-	 * required.
+	 * Decodes every sound file, opens the output line, and starts the mixer thread. Calling
+	 * this method more than once has no effect. This method is called automatically by the
+	 * first call to {@code playSound}, but should be called at startup so that the first sound
+	 * does not have to wait for decoding.
 	 * <p>
-	 * The sound, if loaded, will play asynchronously in a new thread. This thread is destroyed
-	 * after the method call. If the sound cannot be played due to an exception, the
-	 * stack trace will be printed and the thread will be gracefully exited.
+	 * If a sound cannot be decoded, or no audio device is available, a warning is logged and
+	 * the affected sounds are silently skipped when played.
+	 */
+	public static synchronized void load() {
+		if (SoundManager.loaded)
+			return;
+
+		long start = System.nanoTime();
+		SoundManager.sounds = new HashMap<>();
+		for (String name : Assets.list(SoundManager.SOUND_PATH, SoundManager.SOUND_EXT)) {
+			short[] data = SoundManager.decode(name);
+			if (data != null)
+				SoundManager.sounds.put(name, data);
+		}
+
+		SoundManager.voices = new Voice[SoundManager.VOICES];
+		for (int i = 0; i < SoundManager.voices.length; i++)
+			SoundManager.voices[i] = new Voice();
+
+		int bufferSize = (int) (SoundManager.FORMAT.getFrameRate() * SoundManager.LINE_BUFFER /
+								1000) * SoundManager.FORMAT.getFrameSize();
+		try {
+			SoundManager.line = AudioSystem.getSourceDataLine(SoundManager.FORMAT);
+			SoundManager.line.open(SoundManager.FORMAT, bufferSize);
+			SoundManager.line.start();
+		}
+		catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+			Log.stdlog(Log.WARN, "SoundManager", "cannot open audio output: " + e);
+			SoundManager.line = null;
+		}
+
+		SoundManager.requests = new LinkedBlockingQueue<>();
+		if (SoundManager.line != null) {
+			Thread mixerThread = new Thread(SoundManager::runMixer, "SoundManager");
+			mixerThread.setDaemon(true);
+			mixerThread.start();
+		}
+
+		SoundManager.loaded = true;
+		Log.stdlog(Log.INFO, "SoundManager", "loaded " + SoundManager.sounds.size() +
+				   " sounds in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+
+	/**
+	 * Reads a sound file and converts it to {@code FORMAT}.
+	 *
+	 * @param name  the name of the sound, as accepted by {@code playSound}.
+	 *
+	 * @return the PCM samples of the sound, interleaved by channel, or {@code null} if it
+	 *         cannot be decoded.
+	 */
+	private static short[] decode(String name) {
+		String path = SOUND_PATH + "/" + name + SOUND_EXT;
+		InputStream resource = Thread.currentThread()
+			.getContextClassLoader()
+			.getResourceAsStream(path);
+		if (resource == null) {
+			Log.stdlog(Log.WARN, "SoundManager", "cannot find " + path);
+			return null;
+		}
+
+		try (AudioInputStream in =
+			 AudioSystem.getAudioInputStream(new BufferedInputStream(resource));
+			 AudioInputStream converted = AudioSystem.getAudioInputStream(SoundManager.FORMAT,
+																			in))
+		{
+			byte[] bytes = converted.readAllBytes();
+			int channels = SoundManager.FORMAT.getChannels();
+			short[] data = new short[bytes.length / SoundManager.FORMAT.getFrameSize() * channels];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (short) ((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8));
+			return data;
+		}
+		catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+			Log.stdlog(Log.WARN, "SoundManager", "cannot decode " + path + ": " + e);
+			return null;
+		}
+	}
+
+
+	/**
+	 * Sets the player whose position positional sounds are heard from.
+	 *
+	 * @param player  the listening player, or {@code null} to play every sound at full volume.
+	 */
+	public static void setListener(Player player) {
+		SoundManager.listener = player;
+	}
+
+
+	/**
+	 * Plays a sound from the name of its file at full volume. The file name should not include
+	 * an extension or any components of {@code SoundManager.SOUND_PATH}. If the sound file is
+	 * nested beyond the {@code SOUND_PATH}, those directories should be included. A leading
+	 * slash is not required.
+	 * <p>
+	 * The sound is played asynchronously by the mixer thread, and this method returns
+	 * immediately. Unknown sounds are ignored.
 	 *
 	 * @param fileName  strictly the name of the sound file to play.
 	 */
 	public static void playSound(String fileName) {
-		Thread soundThread = new Thread(new Runnable() {
-				@Override
-				public void run() {
-					try {
-						String path = SOUND_PATH + "/" + fileName + SOUND_EXT;
-						URL url = Thread.currentThread()
-							.getContextClassLoader()
-							.getResource(path);
-						
-						AudioInputStream ais = AudioSystem.getAudioInputStream(url);  
-						Clip c = AudioSystem.getClip();
-						c.open(ais);
-						c.start();
-					}
-					catch (Exception e) {
-						e.printStackTrace();
-						Thread.currentThread().interrupt();
-						return;
-					}
+		SoundManager.playSound(fileName, 1, 1);
+	}
+
+
+	/**
+	 * Plays a sound that occurred at a position in the world, as heard by the listener. If no
+	 * listener is set, the sound plays at full volume. If the sound is too far away to be
+	 * heard, it is ignored.
+	 *
+	 * @param fileName  strictly the name of the sound file to play.
+	 * @param x         the x position, in tile space, of the sound.
+	 * @param y         the y position, in tile space, of the sound.
+	 *
+	 * @see playSound(String)
+	 */
+	public static void playSound(String fileName, double x, double y) {
+		Player player = SoundManager.listener;
+		if (player == null) {
+			SoundManager.playSound(fileName);
+			return;
+		}
+
+		double dx = x - player.getX();
+		double dy = y - player.getY();
+		double distance = Math.hypot(dx, dy);
+		if (distance >= SoundManager.MAX_DISTANCE)
+			return;
+
+		// Inverse distance falloff, faded to silence at the maximum distance
+		double gain = SoundManager.REFERENCE_DISTANCE /
+			Math.max(distance, SoundManager.REFERENCE_DISTANCE) *
+			(1 - distance / SoundManager.MAX_DISTANCE);
+		double pan = Math.max(-1, Math.min(1, dx / SoundManager.PAN_DISTANCE));
+		SoundManager.playSound(fileName,
+							   (float) (gain * Math.min(1, 1 - pan)),
+							   (float) (gain * Math.min(1, 1 + pan)));
+	}
+
+
+	/**
+	 * Queues a sound to be started by the mixer thread.
+	 *
+	 * @param fileName   strictly the name of the sound file to play.
+	 * @param gainLeft   the gain of the left channel.
+	 * @param gainRight  the gain of the right channel.
+	 */
+	private static void playSound(String fileName, float gainLeft, float gainRight) {
+		if (!SoundManager.loaded)
+			SoundManager.load();
+		if (SoundManager.line == null || Math.max(gainLeft, gainRight) < SoundManager.MIN_GAIN)
+			return;
+
+		short[] data = SoundManager.sounds.get(fileName);
+		if (data != null)
+			SoundManager.requests.offer(new Request(data, gainLeft, gainRight));
+	}
+
+
+	/**
+	 * Starts a sound on a free voice. If no voice is free, the quietest voice is stolen, unless
+	 * the new sound is quieter than every playing sound.
+	 *
+	 * @param request  the sound to start.
+	 */
+	private static void startSound(Request request) {
+		Voice chosen = null;
+		for (Voice voice : SoundManager.voices) {
+			if (voice.data == null) {
+				chosen = voice;
+				break;
+			}
+			if (chosen == null ||
+				voice.loudness() < chosen.loudness() ||
+				(voice.loudness() == chosen.loudness() && voice.started < chosen.started))
+				chosen = voice;
+		}
+
+		if (chosen.data != null && chosen.loudness() > Math.max(request.gainLeft,
+																 request.gainRight))
+			return;
+		chosen.data = request.data;
+		chosen.position = 0;
+		chosen.gainLeft = request.gainLeft;
+		chosen.gainRight = request.gainRight;
+		chosen.started = SoundManager.startCount++;
+	}
+
+
+	/**
+	 * Runs the mixer thread. Whenever the output line has room for another block, every busy
+	 * voice is summed into the block and the block is written. When no voice is busy, the
+	 * thread sleeps until a sound is requested.
+	 */
+	private static void runMixer() {
+		int channels = SoundManager.FORMAT.getChannels();
+		int[] mix = new int[SoundManager.BLOCK_FRAMES * channels];
+		byte[] block = new byte[SoundManager.BLOCK_FRAMES * SoundManager.FORMAT.getFrameSize()];
+		boolean busy = false;
+
+		while (true) {
+			// Start new sounds, waiting for one if there is nothing to play
+			Request request;
+			try {
+				request = !busy ? SoundManager.requests.take() : SoundManager.requests.poll();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			for (; request != null; request = SoundManager.requests.poll()) {
+				SoundManager.startSound(request);
+				busy = true;
+			}
+
+			if (SoundManager.line.available() < block.length) {
+				LockSupport.parkNanos(SoundManager.WRITE_INTERVAL);
+				continue;
+			}
+
+			// Sum every busy voice into the block
+			busy = false;
+			Arrays.fill(mix, 0);
+			for (Voice voice : SoundManager.voices) {
+				if (voice.data == null)
+					continue;
+
+				int length = Math.min(mix.length, voice.data.length - voice.position);
+				for (int i = 0; i < length; i += channels) {
+					mix[i] += (int) (voice.data[voice.position + i] * voice.gainLeft);
+					mix[i + 1] += (int) (voice.data[voice.position + i + 1] * voice.gainRight);
 				}
-			});
+				voice.position += length;
+
+				if (voice.position >= voice.data.length)
+					voice.data = null;
+				else
+					busy = true;
+			}
 
-		soundThread.start();
+			// Clip the sum and write it to the line
+			for (int i = 0; i < mix.length; i++) {
+				int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+				block[2 * i] = (byte) sample;
+				block[2 * i + 1] = (byte) (sample >> 8);
+			}
+			SoundManager.line.write(block, 0, block.length);
+		}
 	}
 
 }
@@ -0,0 +1,212 @@
+package graphics;
+
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+
+/**
+ * Every sprite, scaled to one size and packed into a single image.
+ * <p>
+ * The sprites are laid out in a grid of square cells, separated by a transparent gutter so that
+ * filtering never picks up a neighboring sprite. The packed pixels are kept in a
+ * {@code BufferedImage}, and copied into a {@code VolatileImage} compatible with the surface
+ * being drawn to, so that drawing a sprite is an accelerated copy of a sub-region of one image.
+ * <p>
+ * The contents of a {@code VolatileImage} can be lost at any time, such as when the display
+ * mode changes. The volatile copy is validated before each draw and restored from the packed
+ * pixels when needed. If it cannot be restored in time for a draw, that draw uses the packed
+ * pixels directly. Sprites drawn into a {@code BufferedImage}, such as a pre-rendered chunk of
+ * the level, are always copied from the packed pixels, since the volatile copy would otherwise
+ * be rebuilt for the image's configuration and then again for the screen's.
+ *
+ * @author Jonathan Uhler
+ */
+public class SpriteAtlas {
+
+	/** The number of transparent pixels between cells. */
+	public static final int GUTTER = 1;
+
+
+	/** The size of each sprite in this atlas, in pixels. */
+	private final int size;
+	/** The number of cells in each row of the atlas. */
+	private final int cols;
+	/** The cell index of each sprite, by name. */
+	private final Map<String, Integer> cells;
+	/** The packed sprites. */
+	private final BufferedImage pixels;
+	/** An accelerated copy of {@code pixels}, or {@code null} if it has not been created. */
+	private VolatileImage accelerated;
+
+
+	/**
+	 * Constructs a new {@code SpriteAtlas}, scaling and packing every named sprite.
+	 *
+	 * @param names   the names of the sprites to pack.
+	 * @param size    the size of each sprite, in pixels.
+	 * @param source  a function that loads the unscaled image of a sprite from its name. The
+	 *                function must never return {@code null}.
+	 *
+	 * @throws IllegalArgumentException  if {@code size < 1}.
+	 * @throws NullPointerException      if {@code names == null} or {@code source == null}.
+	 */
+	public SpriteAtlas(List<String> names, int size, Function<String, BufferedImage> source) {
+		if (names == null)
+			throw new NullPointerException("names was null");
+		if (source == null)
+			throw new NullPointerException("source was null");
+		if (size < 1)
+			throw new IllegalArgumentException("invalid size: " + size);
+
+		this.size = size;
+		this.cols = Math.max(1, (int) Math.ceil(Math.sqrt(names.size())));
+		int rows = Math.max(1, (names.size() + this.cols - 1) / this.cols);
+		int pitch = size + SpriteAtlas.GUTTER;
+		this.pixels = new BufferedImage(this.cols * pitch, rows * pitch,
+										BufferedImage.TYPE_INT_ARGB);
+		this.cells = new HashMap<>();
+
+		Graphics2D g = this.pixels.createGraphics();
+		for (int i = 0; i < names.size(); i++) {
+			BufferedImage original = source.apply(names.get(i));
+			int x = this.cellX(i);
+			int y = this.cellY(i);
+			g.drawImage(original, x, y, x + size, y + size,
+						0, 0, original.getWidth(), original.getHeight(), null);
+			this.cells.put(names.get(i), i);
+		}
+		g.dispose();
+	}
+
+
+	/**
+	 * Returns the x position of the top-left corner of a cell.
+	 *
+	 * @param cell  the index of the cell.
+	 *
+	 * @return the x position of the top-left corner of the cell.
+	 */
+	private int cellX(int cell) {
+		return (cell % this.cols) * (this.size + SpriteAtlas.GUTTER);
+	}
+
+
+	/**
+	 * Returns the y position of the top-left corner of a cell.
+	 *
+	 * @param cell  the index of the cell.
+	 *
+	 * @return the y position of the top-left corner of the cell.
+	 */
+	private int cellY(int cell) {
+		return (cell / this.cols) * (this.size + SpriteAtlas.GUTTER);
+	}
+
+
+	/**
+	 * Returns the size of each sprite in this atlas.
+	 *
+	 * @return the size of each sprite in this atlas, in pixels.
+	 */
+	public int getSize() {
+		return this.size;
+	}
+
+
+	/**
+	 * Returns whether a sprite is in this atlas.
+	 *
+	 * @param name  the name of the sprite.
+	 *
+	 * @return whether the sprite is in this atlas.
+	 */
+	public boolean contains(String name) {
+		return this.cells.containsKey(name);
+	}
+
+
+	/**
+	 * Returns the image to copy sprites from when drawing to a surface. The accelerated copy is
+	 * created, or restored, if needed.
+	 *
+	 * @param config  the configuration of the surface being drawn to, or {@code null} if it is
+	 *                unknown or is not a screen or volatile image.
+	 *
+	 * @return the accelerated copy if it is ready, otherwise the packed pixels.
+	 */
+	private Image validate(GraphicsConfiguration config) {
+		if (config == null)
+			return this.pixels;
+
+		try {
+			int status = this.accelerated == null ?
+				VolatileImage.IMAGE_INCOMPATIBLE : this.accelerated.validate(config);
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (this.accelerated != null)
+					this.accelerated.flush();
+				this.accelerated = config.createCompatibleVolatileImage(this.pixels.getWidth(),
+																		 this.pixels.getHeight(),
+																		 Transparency.TRANSLUCENT);
+				status = VolatileImage.IMAGE_RESTORED;
+			}
+			if (status == VolatileImage.IMAGE_RESTORED) {
+				Graphics2D g = this.accelerated.createGraphics();
+				g.setComposite(AlphaComposite.Src);
+				g.drawImage(this.pixels, 0, 0, null);
+				g.dispose();
+			}
+			if (this.accelerated.contentsLost())
+				return this.pixels;
+			return this.accelerated;
+		}
+		catch (RuntimeException e) {
+			// Volatile images are not supported by this surface
+			this.accelerated = null;
+			return this.pixels;
+		}
+	}
+
+
+	/**
+	 * Draws a sprite from this atlas.
+	 *
+	 * @param g     the {@code Graphics} object to draw the sprite on.
+	 * @param name  the name of the sprite.
+	 * @param xPx   the x position of the top-left corner of the sprite.
+	 * @param yPx   the y position of the top-left corner of the sprite.
+	 *
+	 * @return whether the sprite was drawn. A sprite is only drawn if it is in this atlas.
+	 */
+	public boolean draw(Graphics g, String name, int xPx, int yPx) {
+		Integer cell = this.cells.get(name);
+		if (cell == null)
+			return false;
+
+		GraphicsConfiguration config = null;
+		if (g instanceof Graphics2D) {
+			config = ((Graphics2D) g).getDeviceConfiguration();
+			if (config.getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN)
+				config = null; // Drawing into a BufferedImage
+		}
+		Image image = this.validate(config);
+
+		int sx = this.cellX(cell);
+		int sy = this.cellY(cell);
+		g.drawImage(image, xPx, yPx, xPx + this.size, yPx + this.size,
+					sx, sy, sx + this.size, sy + this.size, null);
+		return true;
+	}
+
+}
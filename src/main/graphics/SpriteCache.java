@@ -0,0 +1,316 @@
+package graphics;
+
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+
+/**
+ * A bounded cache of sprite images that have already been scaled, and optionally rotated, for
+ * drawing.
+ * <p>
+ * Each image is keyed by the name of its sprite, its size in pixels, and its angle rounded to
+ * one of {@code ANGLE_BUCKETS} evenly spaced angles. Rotated images are padded so that the
+ * rotated sprite is not clipped, and the sprite's center is the center of the padded image.
+ * Once every combination seen during play is cached, drawing a sprite is a single blit with no
+ * scaling or rotation.
+ * <p>
+ * The cache holds at most {@code budget} bytes of pixel data. When it is full, the least
+ * recently drawn images are evicted first.
+ *
+ * @author Jonathan Uhler
+ */
+public class SpriteCache {
+
+	/**
+	 * The identity of a cached image.
+	 */
+	private static class Key {
+
+		/** The name of the sprite. */
+		private final String name;
+		/** The size of the sprite, in pixels. */
+		private final int size;
+		/** The angle bucket of the sprite, or {@code UNROTATED}. */
+		private final int bucket;
+
+
+		/**
+		 * Constructs a new {@code Key}.
+		 *
+		 * @param name    the name of the sprite.
+		 * @param size    the size of the sprite, in pixels.
+		 * @param bucket  the angle bucket of the sprite, or {@code UNROTATED}.
+		 */
+		private Key(String name, int size, int bucket) {
+			this.name = name;
+			this.size = size;
+			this.bucket = bucket;
+		}
+
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key key = (Key) obj;
+			return this.size == key.size && this.bucket == key.bucket && this.name.equals(key.name);
+		}
+
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.name, this.size, this.bucket);
+		}
+
+	}
+
+
+	/** The number of distinct angles at which rotated sprites are cached. */
+	public static final int ANGLE_BUCKETS = 128;
+	/** The bucket of sprites that are drawn without rotation or padding. */
+	public static final int UNROTATED = -1;
+	/** The number of bytes used by each pixel of a cached image. */
+	private static final int BYTES_PER_PIXEL = 4;
+
+
+	/** The cached images, in order from least to most recently used. */
+	private final LinkedHashMap<Key, BufferedImage> images;
+	/** Loads the unscaled image of a sprite from its name. */
+	private final Function<String, BufferedImage> source;
+	/** The maximum number of bytes of pixel data to hold. */
+	private long budget;
+	/** The number of bytes of pixel data currently held. */
+	private long bytes;
+	/** The number of requests answered from the cache. */
+	private long hits;
+	/** The number of requests that required an image to be rendered. */
+	private long misses;
+	/** The number of images evicted to stay within the budget. */
+	private long evictions;
+
+
+	/**
+	 * Constructs a new, empty {@code SpriteCache}.
+	 *
+	 * @param budget  the maximum number of bytes of pixel data to hold.
+	 * @param source  a function that loads the unscaled image of a sprite from its name. The
+	 *                function must never return {@code null}.
+	 *
+	 * @throws IllegalArgumentException  if {@code budget < 0}.
+	 * @throws NullPointerException      if {@code source == null}.
+	 */
+	public SpriteCache(long budget, Function<String, BufferedImage> source) {
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid budget: " + budget);
+		if (source == null)
+			throw new NullPointerException("source was null");
+
+		this.images = new LinkedHashMap<>(16, 0.75f, true);
+		this.source = source;
+		this.budget = budget;
+	}
+
+
+	/**
+	 * Returns the angle bucket closest to an angle.
+	 *
+	 * @param rad  the angle, in radians, in the coordinate space of {@code Graphics2D.rotate}.
+	 *
+	 * @return the angle bucket closest to {@code rad}, in {@code [0, ANGLE_BUCKETS)}.
+	 */
+	public static int angleBucket(double rad) {
+		long bucket = Math.round(rad / (2 * Math.PI) * SpriteCache.ANGLE_BUCKETS);
+		return (int) Math.floorMod(bucket, (long) SpriteCache.ANGLE_BUCKETS);
+	}
+
+
+	/**
+	 * Returns a sprite image, rendering and caching it if it is not already cached.
+	 *
+	 * @param name    the name of the sprite.
+	 * @param size    the size of the sprite, in pixels.
+	 * @param bucket  the angle bucket of the sprite, as returned by {@code angleBucket}, or
+	 *                {@code UNROTATED} for a sprite of exactly {@code size} pixels without
+	 *                rotation.
+	 *
+	 * @return the image of the sprite.
+	 *
+	 * @throws NullPointerException      if {@code name == null}.
+	 * @throws IllegalArgumentException  if {@code size < 1} or {@code bucket} is invalid.
+	 */
+	public synchronized BufferedImage get(String name, int size, int bucket) {
+		if (name == null)
+			throw new NullPointerException("name was null");
+		if (size < 1)
+			throw new IllegalArgumentException("invalid size: " + size);
+		if (bucket != SpriteCache.UNROTATED && (bucket < 0 || bucket >= SpriteCache.ANGLE_BUCKETS))
+			throw new IllegalArgumentException("invalid bucket: " + bucket);
+
+		Key key = new Key(name, size, bucket);
+		BufferedImage image = this.images.get(key);
+		if (image != null) {
+			this.hits++;
+			return image;
+		}
+
+		this.misses++;
+		image = this.render(name, size, bucket);
+		long imageBytes = SpriteCache.bytesOf(image);
+		if (imageBytes > this.budget)
+			return image; // Too large to ever cache
+
+		this.images.put(key, image);
+		this.bytes += imageBytes;
+		this.trim();
+		return image;
+	}
+
+
+	/**
+	 * Scales, and rotates if requested, a sprite.
+	 *
+	 * @param name    the name of the sprite.
+	 * @param size    the size of the sprite, in pixels.
+	 * @param bucket  the angle bucket of the sprite, or {@code UNROTATED}.
+	 *
+	 * @return the rendered image.
+	 */
+	private BufferedImage render(String name, int size, int bucket) {
+		BufferedImage original = this.source.apply(name);
+
+		int padding = 0;
+		if (bucket != SpriteCache.UNROTATED)
+			padding = (int) Math.ceil(size * (Math.sqrt(2) - 1) / 2);
+		int dim = size + 2 * padding;
+
+		BufferedImage image = new BufferedImage(dim, dim, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		if (bucket != SpriteCache.UNROTATED) {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+							   RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.rotate(2 * Math.PI * bucket / SpriteCache.ANGLE_BUCKETS,
+					 padding + size / 2.0, padding + size / 2.0);
+		}
+		g.drawImage(original, padding, padding, padding + size, padding + size,
+					0, 0, original.getWidth(), original.getHeight(), null);
+		g.dispose();
+		return image;
+	}
+
+
+	/**
+	 * Evicts the least recently used images until the cache is within its budget.
+	 */
+	private void trim() {
+		Iterator<Map.Entry<Key, BufferedImage>> it = this.images.entrySet().iterator();
+		while (this.bytes > this.budget && it.hasNext()) {
+			this.bytes -= SpriteCache.bytesOf(it.next().getValue());
+			it.remove();
+			this.evictions++;
+		}
+	}
+
+
+	/**
+	 * Returns the number of bytes of pixel data in an image.
+	 *
+	 * @param image  the image to measure.
+	 *
+	 * @return the number of bytes of pixel data in {@code image}.
+	 */
+	private static long bytesOf(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight() * SpriteCache.BYTES_PER_PIXEL;
+	}
+
+
+	/**
+	 * Sets the maximum number of bytes of pixel data to hold, evicting images if needed.
+	 *
+	 * @param budget  the maximum number of bytes of pixel data to hold.
+	 *
+	 * @throws IllegalArgumentException  if {@code budget < 0}.
+	 */
+	public synchronized void setBudget(long budget) {
+		if (budget < 0)
+			throw new IllegalArgumentException("invalid budget: " + budget);
+		this.budget = budget;
+		this.trim();
+	}
+
+
+	/**
+	 * Removes every image from the cache. The hit and miss counters are not reset.
+	 */
+	public synchronized void clear() {
+		this.images.clear();
+		this.bytes = 0;
+	}
+
+
+	/**
+	 * Returns the maximum number of bytes of pixel data to hold.
+	 *
+	 * @return the maximum number of bytes of pixel data to hold.
+	 */
+	public synchronized long getBudget() {
+		return this.budget;
+	}
+
+
+	/**
+	 * Returns the number of bytes of pixel data currently held.
+	 *
+	 * @return the number of bytes of pixel data currently held.
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+
+	/**
+	 * Returns the number of images currently held.
+	 *
+	 * @return the number of images currently held.
+	 */
+	public synchronized int size() {
+		return this.images.size();
+	}
+
+
+	/**
+	 * Returns the number of requests answered from the cache.
+	 *
+	 * @return the number of requests answered from the cache.
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+
+	/**
+	 * Returns the number of requests that required an image to be rendered.
+	 *
+	 * @return the number of requests that required an image to be rendered.
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+
+	/**
+	 * Returns the number of images evicted to stay within the budget.
+	 *
+	 * @return the number of images evicted to stay within the budget.
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+}
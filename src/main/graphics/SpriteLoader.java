@@ -2,8 +2,8 @@ package graphics;
 
 
 import world.Level.Tile;
-import entity.Player;
-import javax.swing.ImageIcon;
+import jnet.Log;
+import javax.imageio.ImageIO;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.awt.geom.AffineTransform;
@@ -12,12 +12,20 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Color;
 import java.awt.Point;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
 
 /**
  * Handles the loading and drawing of sprite images.
+ * <p>
+ * Sprites drawn without rotation are copied from a {@code SpriteAtlas} holding every sprite at
+ * the requested size. Rotated sprites are drawn from a {@code SpriteCache} of pre-rotated
+ * images.
  *
  * @author Jonathan Uhler
  */
@@ -31,8 +39,27 @@ public class SpriteLoader {
 	public static final String INVALID_SPRITE = SPRITE_PATH + "/missing" + SPRITE_EXT;
 
 
-	/** A mapping of already loaded sprites and their names. */
+	/** The default size, in bytes, of the cache of scaled and rotated sprites. */
+	public static final long DEFAULT_CACHE_BUDGET = 64L * 1024 * 1024;
+	/** The number of atlases, each for a different sprite size, kept at once. */
+	public static final int MAX_ATLASES = 4;
+
+
+	/** A mapping of already loaded, unscaled sprites and their names. */
 	private static Map<String, BufferedImage> images = new HashMap<>();
+	/** Scaled and rotated sprites, ready to be drawn. */
+	private static SpriteCache cache = new SpriteCache(SpriteLoader.DEFAULT_CACHE_BUDGET,
+													   SpriteLoader::loadImage);
+	/** The names of every sprite, found when the first atlas is built. */
+	private static List<String> names = null;
+	/** Atlases of every sprite, by sprite size, in order from least to most recently used. */
+	private static Map<Integer, SpriteAtlas> atlases =
+		new LinkedHashMap<>(SpriteLoader.MAX_ATLASES, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, SpriteAtlas> eldest) {
+				return this.size() > SpriteLoader.MAX_ATLASES;
+			}
+		};
 	
 
 	/**
@@ -49,7 +76,8 @@ public class SpriteLoader {
 	 * @return the {@code BufferedImage} representation of the argument image.
 	 */
 	private static BufferedImage toBufferedImage(Image img) {
-		if (img instanceof BufferedImage)
+		if (img instanceof BufferedImage &&
+			((BufferedImage) img).getType() == BufferedImage.TYPE_INT_ARGB)
 			return (BufferedImage) img;
 
 		// Create a buffered image with transparency
@@ -68,73 +96,137 @@ public class SpriteLoader {
 
 
 	/**
-	 * Scales a {@code BufferedImage} to a specified width and height.
-	 *
-	 * @param img  the img to scale.
-	 * @param w    the final width of the image.
-	 * @param h    the final height of the image.
+	 * Decodes an image resource.
 	 *
-	 * @return a scaled version of the argument {@code img}.
+	 * @param path  the path of the image resource.
 	 *
-	 * @throws NullPointerException  if {@code img == null}.
+	 * @return the decoded image, or {@code null} if the resource cannot be found or decoded.
 	 */
-    private static BufferedImage scale(BufferedImage img, int w, int h) {
-		if (img == null)
-			throw new NullPointerException("img was null");
-		
-        BufferedImage scaled = new BufferedImage(w, h, img.getType());
-		Graphics2D graphics2D = scaled.createGraphics();
-		graphics2D.drawImage(img, 0, 0, w, h, 0, 0, img.getWidth(), img.getHeight(), null);
-		graphics2D.dispose();
-        return scaled;
-    }
+	private static BufferedImage readImage(String path) {
+		URL url = Thread.currentThread().getContextClassLoader().getResource(path);
+		if (url == null)
+			return null;
+		try {
+			return ImageIO.read(url);
+		}
+		catch (IOException e) {
+			Log.stdlog(Log.WARN, "SpriteLoader", "cannot decode " + path + ": " + e);
+			return null;
+		}
+	}
 
 
 	/**
-	 * Loads a sprite image from a file.
+	 * Loads a sprite image from a file, at its original size.
 	 *
 	 * @param fileName  the name of the file to load. This string should not start with
 	 *                  a slash and should not include the file extension. It must be located
 	 *                  somewhere in the path structure specified by 
 	 *                  {@code SpriteLoader.SPRITE_PATH}.
-	 * @param size      the desired size (squared) of the image.
 	 *
 	 * @return the loaded image. If the specified file cannot be found or loaded, the
-	 *         missing sprite texture of the specified size is returned.
+	 *         missing sprite texture is returned.
 	 */
-	private static BufferedImage loadImage(String fileName, int size) {
-		// Check if the image has already been stored in memory and has not since been resized.
-		// If this is true, the saved pointer can be returned instead of re-loading the image.
+	private static BufferedImage loadImage(String fileName) {
+		// Check if the image has already been stored in memory. If this is true, the saved
+		// pointer can be returned instead of re-loading the image.
 		BufferedImage existing = SpriteLoader.images.get(fileName);
-		if (existing != null && existing.getWidth() == size)
+		if (existing != null)
 			return existing;
 
 		// Load the image
 		String path = SpriteLoader.SPRITE_PATH + "/" + fileName + SpriteLoader.SPRITE_EXT;
-		ImageIcon imageIcon;
-		try {
-		    imageIcon = new ImageIcon(Thread.currentThread()
-									  .getContextClassLoader()
-									  .getResource(path));
-		}
-		catch (NullPointerException e) {
+		Image image = SpriteLoader.readImage(path);
+		if (image == null) {
 			// If the image cannot be loaded, load the missing sprite texture
-			imageIcon = new ImageIcon(Thread.currentThread()
-									  .getContextClassLoader()
-									  .getResource(SpriteLoader.INVALID_SPRITE));
+			image = SpriteLoader.readImage(SpriteLoader.INVALID_SPRITE);
+			if (image == null)
+				image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
 		}
 
-		// Convert the image to a BufferedImage and scale it
-		Image image = imageIcon.getImage();
+		// Convert the image to a BufferedImage and save it
 		BufferedImage bImage = SpriteLoader.toBufferedImage(image);
-		bImage = SpriteLoader.scale(bImage, size, size);
-		// Save the image if it hasn't already been saved
-		if (existing == null || existing.getWidth() != size)
-			SpriteLoader.images.put(fileName, bImage);
+		SpriteLoader.images.put(fileName, bImage);
 		return bImage;
 	}
 
 
+	/**
+	 * Returns the cache of scaled and rotated sprites, which can be used to inspect its
+	 * hit rate or change its budget.
+	 *
+	 * @return the cache of scaled and rotated sprites.
+	 */
+	public static SpriteCache getCache() {
+		return SpriteLoader.cache;
+	}
+
+
+	/**
+	 * Returns the atlas of every sprite at a given size, building it if needed.
+	 *
+	 * @param size  the size of each sprite in the atlas.
+	 *
+	 * @return the atlas of every sprite at the given size.
+	 */
+	private static SpriteAtlas getAtlas(int size) {
+		SpriteAtlas atlas = SpriteLoader.atlases.get(size);
+		if (atlas == null) {
+			if (SpriteLoader.names == null)
+				SpriteLoader.names = Assets.list(SpriteLoader.SPRITE_PATH, SpriteLoader.SPRITE_EXT);
+			atlas = new SpriteAtlas(SpriteLoader.names, size, SpriteLoader::loadImage);
+			SpriteLoader.atlases.put(size, atlas);
+		}
+		return atlas;
+	}
+
+
+	/**
+	 * Draws a sprite without rotation. The sprite is copied from the atlas for its size, or
+	 * drawn from the cache if it is not in the atlas.
+	 *
+	 * @param g         the {@code Graphics} object to draw the sprite on.
+	 * @param fileName  the name of the sprite.
+	 * @param xPx       the x position of the top-left corner of the sprite.
+	 * @param yPx       the y position of the top-left corner of the sprite.
+	 * @param size      the size of the sprite.
+	 */
+	private static void drawUnrotated(Graphics g, String fileName, int xPx, int yPx, int size) {
+		if (size < 1)
+			return;
+		if (!SpriteLoader.getAtlas(size).draw(g, fileName, xPx, yPx))
+			g.drawImage(SpriteLoader.cache.get(fileName, size, SpriteCache.UNROTATED),
+						xPx, yPx, null);
+	}
+
+
+	/**
+	 * Draws a sprite rotated about its center. The sprite is drawn from the cache at the
+	 * nearest cached angle.
+	 *
+	 * @param g         the {@code Graphics} object to draw the sprite on.
+	 * @param fileName  the name of the sprite.
+	 * @param xPx       the x position of the top-left corner of the unrotated sprite.
+	 * @param yPx       the y position of the top-left corner of the unrotated sprite.
+	 * @param size      the size of the sprite.
+	 * @param rad       the angle, in the coordinate space of {@code Graphics2D.rotate}, to
+	 *                  rotate the sprite by.
+	 */
+	private static void drawRotated(Graphics g,
+									String fileName,
+									int xPx,
+									int yPx,
+									int size,
+									double rad)
+	{
+		if (size < 1)
+			return;
+		BufferedImage image = SpriteLoader.cache.get(fileName, size, SpriteCache.angleBucket(rad));
+		int padding = (image.getWidth() - size) / 2;
+		g.drawImage(image, xPx - padding, yPx - padding, null);
+	}
+
+
 	/**
 	 * Draws an arbitrary sprite. If the sprite cannot be loaded, the missing sprite texture is 
 	 * drawn. The specified type can be any sprite in the {@code assets/sprites} folder.
@@ -154,7 +246,7 @@ public class SpriteLoader {
 			throw new NullPointerException("g was null");
 		if (type == null)
 			throw new NullPointerException("type was null");
-		g.drawImage(SpriteLoader.loadImage(type, size), xPx, yPx, null);
+		SpriteLoader.drawUnrotated(g, type, xPx, yPx, size);
 	}
 
 
@@ -180,7 +272,7 @@ public class SpriteLoader {
 			throw new NullPointerException("g was null");
 		if (type == null)
 			throw new NullPointerException("type was null");
-		g.drawImage(SpriteLoader.loadImage("Tile/" + type.name(), tileSize), xPx, yPx, null);
+		SpriteLoader.drawUnrotated(g, "Tile/" + type.name(), xPx, yPx, tileSize);
 	}
 
 
@@ -215,13 +307,7 @@ public class SpriteLoader {
 			throw new NullPointerException("type was null");
 
 		rad += Math.PI / 2; // Because the rotate method does not know how the unit cricle works
-
-		int centerX = xPx + size / 2;
-		int centerY = yPx + size / 2;
-		Graphics2D gg = (Graphics2D) g;
-		gg.rotate(rad, centerX, centerY);
-		gg.drawImage(SpriteLoader.loadImage("entity/" + type, size), xPx, yPx, null);
-		gg.rotate(-rad, centerX, centerY);
+		SpriteLoader.drawRotated(g, "entity/" + type, xPx, yPx, size, rad);
 	}
 
 
@@ -233,7 +319,7 @@ public class SpriteLoader {
 
 
 	public static void drawPlayer(Graphics g,
-								  Player player,
+								  WorldSnapshot.PlayerState player,
 								  int xPx,
 								  int yPx,
 								  int tileSize,
@@ -243,31 +329,21 @@ public class SpriteLoader {
 		if (player == null)
 			throw new NullPointerException("player was null");
 
-		Graphics2D gg = (Graphics2D) g;
 		int size = (int) (player.getSize() * tileSize);
 
 		rad += Math.PI / 2; // Because the rotate method does not know how the unit cricle works
 
-		int centerX = xPx + size / 2;
-		int centerY = yPx + size / 2;
 		String type = player.getType();
-		gg.rotate(rad, centerX, centerY);
-		gg.drawImage(SpriteLoader.loadImage("entity/" + type, size), xPx, yPx, null);
+		SpriteLoader.drawRotated(g, "entity/" + type, xPx, yPx, size, rad);
 		if (player.isArmored())
-			gg.drawImage(SpriteLoader.loadImage("entity/Armor", size), xPx, yPx, null);
-		gg.rotate(-rad, centerX, centerY);
+			SpriteLoader.drawRotated(g, "entity/Armor", xPx, yPx, size, rad);
 
 		
-		String weaponType = player.getWeapon().getType();
+		String weaponType = player.getWeaponType();
 		Point weaponOffset = SpriteLoader.weaponOffset(rad, tileSize);
 		int weaponX = xPx + weaponOffset.x;
 		int weaponY = yPx + weaponOffset.y;
-		int weaponCenterX = weaponX + size / 2;
-		int weaponCenterY = weaponY + size / 2;
-		gg.rotate(rad, weaponCenterX, weaponCenterY);
-		gg.drawImage(SpriteLoader.loadImage("entity/" + weaponType, size),
-					 weaponX, weaponY, null);
-		gg.rotate(-rad, weaponCenterX, weaponCenterY);
+		SpriteLoader.drawRotated(g, "entity/" + weaponType, weaponX, weaponY, size, rad);
 	}
 
 }
@@ -0,0 +1,494 @@
+package graphics;
+
+
+import entity.Player;
+import entity.Bullet;
+import interfaces.Item;
+import interfaces.Weapon;
+import server.ReplayReader;
+import world.Level;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+
+
+/**
+ * An immutable copy of everything the client draws in one frame.
+ * <p>
+ * The client's players and bullets are only ever changed by the thread that applies messages
+ * from the server and moves bullets. After each update, that thread captures a new snapshot and
+ * publishes it, replacing the previous one in a single reference write. The render thread
+ * draws whichever snapshot was published last, so it always sees a consistent frame, and
+ * never needs a lock or sees a collection change while iterating it. The level is carried in
+ * the snapshot too, so the render thread always draws the players on the level they are on.
+ *
+ * @author Jonathan Uhler
+ */
+public final class WorldSnapshot {
+
+	/**
+	 * The state of one player, as drawn.
+	 */
+	public static final class PlayerState {
+
+		/** The x position of the player. */
+		private final double x;
+		/** The y position of the player. */
+		private final double y;
+		/** The angle the player is facing. */
+		private final double rad;
+		/** The size of the player's collision area. */
+		private final double size;
+		/** The type of the player's sprite. */
+		private final String type;
+		/** The type of the player's weapon. */
+		private final String weaponType;
+		/** Whether the player is wearing armor. */
+		private final boolean armored;
+		/** Whether the player is dead. */
+		private final boolean dead;
+		/** The health of the player. */
+		private final int health;
+		/** The amount of money the player has. */
+		private final int money;
+		/** The number of bullets left in the player's weapon. */
+		private final int bulletsLeft;
+		/** The number of bullets the player's weapon can hold. */
+		private final int capacity;
+		/** The types of the player's usable items, by item number starting at {@code 1}. */
+		private final String[] itemTypes;
+
+
+		/**
+		 * Constructs a new {@code PlayerState} by copying a player.
+		 *
+		 * @param player  the player to copy.
+		 */
+		private PlayerState(Player player) {
+			Weapon weapon = player.getWeapon();
+			this.x = player.getX();
+			this.y = player.getY();
+			this.rad = player.getRad();
+			this.size = player.getSize();
+			this.type = player.getType();
+			this.weaponType = weapon.getType();
+			this.armored = player.isArmored();
+			this.dead = player.isDead();
+			this.health = player.getHealth();
+			this.money = player.getMoney();
+			this.bulletsLeft = weapon.bulletsLeft();
+			this.capacity = weapon.capacity();
+
+			this.itemTypes = new String[WorldSnapshot.ITEM_SLOTS];
+			for (int i = 0; i < this.itemTypes.length; i++) {
+				Item item = player.getItem(i + 1);
+				this.itemTypes[i] = item == null ? null : item.getType();
+			}
+		}
+
+
+		/**
+		 * Constructs a new {@code PlayerState} by copying a player read from a replay.
+		 *
+		 * @param player  the player to copy.
+		 */
+		private PlayerState(ReplayReader.PlayerRecord player) {
+			this.x = player.getX();
+			this.y = player.getY();
+			this.rad = player.getRad();
+			this.size = Player.SIZE;
+			this.type = Player.typeOf(player.getWeaponType());
+			this.weaponType = player.getWeaponType();
+			this.armored = player.isArmored();
+			this.dead = player.isDead();
+			this.health = player.getHealth();
+			this.money = player.getMoney();
+			this.bulletsLeft = player.bulletsLeft();
+			this.capacity = player.capacity();
+
+			this.itemTypes = new String[WorldSnapshot.ITEM_SLOTS];
+			for (int i = 0; i < this.itemTypes.length; i++)
+				this.itemTypes[i] = player.getItemType(i + 1);
+		}
+
+
+		/**
+		 * Returns the x position of this player.
+		 *
+		 * @return the x position of this player.
+		 */
+		public double getX() {
+			return this.x;
+		}
+
+
+		/**
+		 * Returns the y position of this player.
+		 *
+		 * @return the y position of this player.
+		 */
+		public double getY() {
+			return this.y;
+		}
+
+
+		/**
+		 * Returns the angle of this player.
+		 *
+		 * @return the angle, in radians, that this player is facing.
+		 */
+		public double getRad() {
+			return this.rad;
+		}
+
+
+		/**
+		 * Returns the size of this player.
+		 *
+		 * @return the size of this player's collision area.
+		 */
+		public double getSize() {
+			return this.size;
+		}
+
+
+		/**
+		 * Returns the type of this player.
+		 *
+		 * @return the type of this player's sprite.
+		 */
+		public String getType() {
+			return this.type;
+		}
+
+
+		/**
+		 * Returns the type of this player's weapon.
+		 *
+		 * @return the type of this player's weapon.
+		 */
+		public String getWeaponType() {
+			return this.weaponType;
+		}
+
+
+		/**
+		 * Returns whether this player is wearing armor.
+		 *
+		 * @return whether this player is wearing armor.
+		 */
+		public boolean isArmored() {
+			return this.armored;
+		}
+
+
+		/**
+		 * Returns whether this player is dead.
+		 *
+		 * @return whether this player is dead.
+		 */
+		public boolean isDead() {
+			return this.dead;
+		}
+
+
+		/**
+		 * Returns the health of this player.
+		 *
+		 * @return the health of this player.
+		 */
+		public int getHealth() {
+			return this.health;
+		}
+
+
+		/**
+		 * Returns the amount of money this player has.
+		 *
+		 * @return the amount of money this player has.
+		 */
+		public int getMoney() {
+			return this.money;
+		}
+
+
+		/**
+		 * Returns the number of bullets left in this player's weapon.
+		 *
+		 * @return the number of bullets left in this player's weapon.
+		 */
+		public int bulletsLeft() {
+			return this.bulletsLeft;
+		}
+
+
+		/**
+		 * Returns the number of bullets this player's weapon can hold.
+		 *
+		 * @return the number of bullets this player's weapon can hold.
+		 */
+		public int capacity() {
+			return this.capacity;
+		}
+
+
+		/**
+		 * Returns the type of one of the player's usable items.
+		 *
+		 * @param itemNum  the item number, as used by {@code Player.getItem}.
+		 *
+		 * @return the type of the item, or {@code null} if the player has no such item.
+		 */
+		public String getItemType(int itemNum) {
+			if (itemNum < 1 || itemNum > this.itemTypes.length)
+				return null;
+			return this.itemTypes[itemNum - 1];
+		}
+
+	}
+
+
+	/**
+	 * The state of one bullet, as drawn.
+	 */
+	public static final class BulletState {
+
+		/** The x position of the bullet. */
+		private final double x;
+		/** The y position of the bullet. */
+		private final double y;
+		/** The angle the bullet is travelling at. */
+		private final double rad;
+		/** The size of the bullet. */
+		private final double size;
+		/** The type of the bullet's sprite. */
+		private final String type;
+
+
+		/**
+		 * Constructs a new {@code BulletState} by copying a bullet.
+		 *
+		 * @param bullet  the bullet to copy.
+		 */
+		private BulletState(Bullet bullet) {
+			this.x = bullet.getX();
+			this.y = bullet.getY();
+			this.rad = bullet.getRad();
+			this.size = bullet.getSize();
+			this.type = bullet.getType();
+		}
+
+
+		/**
+		 * Constructs a new {@code BulletState} by copying a bullet read from a replay.
+		 *
+		 * @param bullet  the bullet to copy.
+		 */
+		private BulletState(ReplayReader.BulletRecord bullet) {
+			this.x = bullet.getX();
+			this.y = bullet.getY();
+			this.rad = bullet.getRad();
+			this.size = Bullet.SIZE;
+			this.type = "Bullet" + bullet.getWeaponType();
+		}
+
+
+		/**
+		 * Returns the x position of this bullet.
+		 *
+		 * @return the x position of this bullet.
+		 */
+		public double getX() {
+			return this.x;
+		}
+
+
+		/**
+		 * Returns the y position of this bullet.
+		 *
+		 * @return the y position of this bullet.
+		 */
+		public double getY() {
+			return this.y;
+		}
+
+
+		/**
+		 * Returns the angle of this bullet.
+		 *
+		 * @return the angle, in radians, that this bullet is facing.
+		 */
+		public double getRad() {
+			return this.rad;
+		}
+
+
+		/**
+		 * Returns the size of this bullet.
+		 *
+		 * @return the size of this bullet's collision area.
+		 */
+		public double getSize() {
+			return this.size;
+		}
+
+
+		/**
+		 * Returns the type of this bullet.
+		 *
+		 * @return the type of this bullet's sprite.
+		 */
+		public String getType() {
+			return this.type;
+		}
+
+	}
+
+
+	/** The number of usable items shown for each player. */
+	public static final int ITEM_SLOTS = 2;
+	/** A snapshot with no players and no bullets. */
+	public static final WorldSnapshot EMPTY =
+		new WorldSnapshot(-1, null, Collections.emptyMap(), Collections.emptyList());
+
+
+	/** The id of the client's own player, or {@code -1} if the client has not joined. */
+	private final int myId;
+	/** The level being played on, or {@code null} if none has been set. */
+	private final Level level;
+	/** Every player, by id. */
+	private final Map<Integer, PlayerState> players;
+	/** Every bullet. */
+	private final List<BulletState> bullets;
+
+
+	/**
+	 * Constructs a new {@code WorldSnapshot} from already copied state.
+	 *
+	 * @param myId     the id of the client's own player.
+	 * @param level    the level being played on.
+	 * @param players  every player, by id.
+	 * @param bullets  every bullet.
+	 */
+	private WorldSnapshot(int myId,
+						  Level level,
+						  Map<Integer, PlayerState> players,
+						  List<BulletState> bullets)
+	{
+		this.myId = myId;
+		this.level = level;
+		this.players = Collections.unmodifiableMap(players);
+		this.bullets = Collections.unmodifiableList(bullets);
+	}
+
+
+	/**
+	 * Copies the current state of the client's world. This must be called from the thread that
+	 * changes {@code players} and {@code bullets}.
+	 *
+	 * @param myId     the id of the client's own player, or {@code -1} if it has not joined.
+	 * @param level    the level being played on, or {@code null} if none has been set.
+	 * @param players  every player, by id.
+	 * @param bullets  every bullet.
+	 *
+	 * @return a snapshot of the world.
+	 *
+	 * @throws NullPointerException  if {@code players == null} or {@code bullets == null}.
+	 */
+	public static WorldSnapshot capture(int myId,
+										Level level,
+										Map<Integer, Player> players,
+										List<Bullet> bullets)
+	{
+		if (players == null)
+			throw new NullPointerException("players was null");
+		if (bullets == null)
+			throw new NullPointerException("bullets was null");
+
+		Map<Integer, PlayerState> playerStates = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Player> entry : players.entrySet())
+			playerStates.put(entry.getKey(), new PlayerState(entry.getValue()));
+		List<BulletState> bulletStates = new ArrayList<>(bullets.size());
+		for (Bullet bullet : bullets)
+			bulletStates.add(new BulletState(bullet));
+		return new WorldSnapshot(myId, level, playerStates, bulletStates);
+	}
+
+
+	/**
+	 * Copies the state of the world at the current tick of a replay.
+	 *
+	 * @param myId    the id of the player the replay is viewed as.
+	 * @param level   the level the replay was recorded on.
+	 * @param replay  the replay to copy from.
+	 *
+	 * @return a snapshot of the world.
+	 *
+	 * @throws NullPointerException  if {@code replay == null}.
+	 */
+	public static WorldSnapshot capture(int myId, Level level, ReplayReader replay) {
+		if (replay == null)
+			throw new NullPointerException("replay was null");
+
+		Map<Integer, PlayerState> playerStates = new LinkedHashMap<>();
+		for (Map.Entry<Integer, ReplayReader.PlayerRecord> entry : replay.getPlayers().entrySet())
+			playerStates.put(entry.getKey(), new PlayerState(entry.getValue()));
+		List<BulletState> bulletStates = new ArrayList<>(replay.getBullets().size());
+		for (ReplayReader.BulletRecord bullet : replay.getBullets())
+			bulletStates.add(new BulletState(bullet));
+		return new WorldSnapshot(myId, level, playerStates, bulletStates);
+	}
+
+
+	/**
+	 * Returns the id of the client's own player.
+	 *
+	 * @return the id of the client's own player, or {@code -1} if the client has not joined.
+	 */
+	public int getMyId() {
+		return this.myId;
+	}
+
+
+	/**
+	 * Returns the level being played on.
+	 *
+	 * @return the level being played on, or {@code null} if none has been set.
+	 */
+	public Level getLevel() {
+		return this.level;
+	}
+
+
+	/**
+	 * Returns the client's own player.
+	 *
+	 * @return the client's own player, or {@code null} if the client has not joined.
+	 */
+	public PlayerState getMe() {
+		return this.players.get(this.myId);
+	}
+
+
+	/**
+	 * Returns every player, by id.
+	 *
+	 * @return an unmodifiable map of every player, by id.
+	 */
+	public Map<Integer, PlayerState> getPlayers() {
+		return this.players;
+	}
+
+
+	/**
+	 * Returns every bullet.
+	 *
+	 * @return an unmodifiable list of every bullet.
+	 */
+	public List<BulletState> getBullets() {
+		return this.bullets;
+	}
+
+}
@@ -0,0 +1,35 @@
+package interfaces;
+
+
+/**
+ * Receives the side effects, such as footsteps and reload sounds, produced by the game
+ * simulation. The simulation itself never plays audio; it only names the effect that occurred
+ * and where it occurred, and leaves presenting that effect to whichever sink has been attached.
+ * <p>
+ * Entities created by the server keep the default {@code NONE} sink, which allows the simulation
+ * to run headless without loading any audio classes. The client attaches a sink that forwards
+ * effects to the {@code SoundManager} for every player, which decides how loud each effect is
+ * from its distance to the client's own player.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see graphics.SoundManager
+ */
+@FunctionalInterface
+public interface EffectSink {
+
+	/** A sink that silently discards all effects. */
+	public static final EffectSink NONE = (name, x, y) -> { };
+
+
+	/**
+	 * Handles an effect produced by the simulation.
+	 *
+	 * @param name  the name of the effect. This is the name of a sound file, as accepted by
+	 *              {@code SoundManager::playSound}.
+	 * @param x     the x position, in tile space, where the effect occurred.
+	 * @param y     the y position, in tile space, where the effect occurred.
+	 */
+	public void effect(String name, double x, double y);
+
+}
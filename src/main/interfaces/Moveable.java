@@ -121,8 +121,22 @@ public abstract class Moveable {
 	 * left or up.
 	 */
 	public void move() {
-		this.x += this.vx;
-		this.y += this.vy;
+		this.move(1);
+	}
+
+
+	/**
+	 * Moves this object based on the velocity assigned to it, scaled by some number of frames.
+	 * Because velocity is measured per frame, this is equivalent to calling {@code move}
+	 * {@code frames} times, but {@code frames} need not be an integer.
+	 *
+	 * @param frames  the number of frames to move this object by.
+	 *
+	 * @see move
+	 */
+	public void move(double frames) {
+		this.x += this.vx * frames;
+		this.y += this.vy * frames;
 		this.calculateRad();
 	}
 
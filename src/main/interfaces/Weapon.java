@@ -2,9 +2,10 @@ package interfaces;
 
 
 import entity.Bullet;
-import graphics.Settings;
-import graphics.SoundManager;
+import world.TimerWheel;
 import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
@@ -19,9 +20,10 @@ public abstract class Weapon extends Item {
 
 	/** 
 	 * The delay, in milliseconds, until a recoil variation on the bullet's velocity will no 
-	 * longer be applied. After this time, no random variation will be allied and the direction
-	 * of the velocity resultant vector will point exactly at the mouse. Before this time is
-	 * finished, a random variation angle will be applied (decreasing accuracy).
+	 * longer be applied. This delay is measured in simulation ticks by a {@code TimerWheel}.
+	 * After this time, no random variation will be allied and the direction of the velocity
+	 * resultant vector will point exactly at the mouse. Before this time is finished, a random
+	 * variation angle will be applied (decreasing accuracy).
 	 */
 	public static final int RECOIL_COOLDOWN = 300; // In ms
 	
@@ -53,10 +55,16 @@ public abstract class Weapon extends Item {
 	private double barrelLength;
 
 	// Usage information
-	/** The unix epoch time when the weapon was last used. */
-	private long lastFired;
+	/** Whether the weapon was fired too recently to be fired again, based on the firerate. */
+	private boolean coolingDown;
+	/** Whether the weapon was fired recently enough for recoil to be applied. */
+	private boolean recoiling;
+	/** The timer that ends the current recoil period, or {@code null} if there is none. */
+	private TimerWheel.Timer recoilTimer;
 	/** The number of projectiles left before reload is needed. */
 	private int bulletsLeft;
+	/** Destination for the sounds made while using this weapon. */
+	private EffectSink effectSink;
 
 
 	/**
@@ -147,8 +155,11 @@ public abstract class Weapon extends Item {
 		this.moneyPerKill = moneyPerKill;
 		this.barrelLength = barrelLength;
 
-		this.lastFired = 0;
+		this.coolingDown = false;
+		this.recoiling = false;
+		this.recoilTimer = null;
 		this.bulletsLeft = this.capacity;
+		this.effectSink = EffectSink.NONE;
 	}
 
 
@@ -255,6 +266,21 @@ public abstract class Weapon extends Item {
 	}
 
 
+	/**
+	 * Sets the destination for the sounds made while using this weapon. By default, weapons
+	 * use {@code EffectSink.NONE} and are silent.
+	 *
+	 * @param effectSink  the destination for the sounds made while using this weapon.
+	 *
+	 * @throws NullPointerException  if {@code effectSink == null}.
+	 */
+	public void setEffectSink(EffectSink effectSink) {
+		if (effectSink == null)
+			throw new NullPointerException("effectSink was null");
+		this.effectSink = effectSink;
+	}
+
+
 	/**
 	 * Returns the number of bullets created each time {@code fire} is called.
 	 *
@@ -270,13 +296,14 @@ public abstract class Weapon extends Item {
 	/**
 	 * Returns a random recoil variation angle in the interval {@code [-recoil(), recoil()]}.
 	 *
+	 * @param random  the generator to draw the angle from.
+	 *
 	 * @return a random recoil variation angle.
 	 */
-	private double generateRecoil() {
-		long deltaTime = this.timeSinceLastFired();
-		if (deltaTime > Weapon.RECOIL_COOLDOWN)
+	private double generateRecoil(Random random) {
+		if (!this.recoiling)
 			return 0;
-		return Math.random() * (this.recoil - (-this.recoil)) + (-this.recoil);
+		return random.nextDouble() * (this.recoil - (-this.recoil)) + (-this.recoil);
 	}
 
 
@@ -285,24 +312,12 @@ public abstract class Weapon extends Item {
 	 * that fire more than one round per shot. This offset is generated in the same
 	 * range as {@code generateRecoil} is the recoil cooldown were not yet up.
 	 *
-	 * @return a random offset for a bullet's direction.
-	 */
-	private double generateSpread() {
-		return Math.random() * (this.recoil - (-this.recoil)) + (-this.recoil);
-	}
-
-
-	/**
-	 * Returns the change in time since this weapon was last used. This method does not
-	 * modify the {@code lastFired} variable (this operation is done in the {@code fire}
-	 * method).
+	 * @param random  the generator to draw the offset from.
 	 *
-	 * @return the change in time since this weapon was last used.
+	 * @return a random offset for a bullet's direction.
 	 */
-	private long timeSinceLastFired() {
-		long currentTime = System.currentTimeMillis();
-		long deltaTime = currentTime - this.lastFired;
-		return deltaTime;
+	private double generateSpread(Random random) {
+		return random.nextDouble() * (this.recoil - (-this.recoil)) + (-this.recoil);
 	}
 
 
@@ -347,27 +362,19 @@ public abstract class Weapon extends Item {
 
 
 	/**
-	 * Handles reload sounds. This method plays a click/jam sound before waiting the reload
-	 * period and playing the reloaded sound.
+	 * Handles reload sounds. This method plays a click/jam sound, then schedules the reloaded
+	 * sound and the refilling of the weapon for when the reload period is over.
+	 *
+	 * @param x       the x position, in tile space, where the weapon is reloaded.
+	 * @param y       the y position, in tile space, where the weapon is reloaded.
+	 * @param timers  the timer wheel used to wait for the reload period.
 	 */
-	private void reload() {
-		SoundManager.playSound("reload_cue");
-		Thread reloadTimer = new Thread(new Runnable() {
-				@Override
-				public void run() {
-					try {
-						Thread.sleep(Weapon.this.reloadTime);
-					}
-					catch (InterruptedException e) {
-						e.printStackTrace();
-						Thread.currentThread().interrupt();
-						return;
-					}
-					SoundManager.playSound("reload");
-					Weapon.this.bulletsLeft = Weapon.this.capacity;
-				}
+	private void reload(double x, double y, TimerWheel timers) {
+		this.effectSink.effect("reload_cue", x, y);
+		timers.scheduleMillis(this.reloadTime, () -> {
+				this.effectSink.effect("reload", x, y);
+				this.bulletsLeft = this.capacity;
 			});
-		reloadTimer.start();
 	}
 
 
@@ -376,38 +383,72 @@ public abstract class Weapon extends Item {
 	 *
 	 * @param x    the x position, in tile space, where the projectile originates from.
 	 * @param y    the y position, in tile space, where the projectile originates from.
-	 * @param rad  the angle, in radians, to which the velocity vector of the projectile points.
+	 * @param rad     the angle, in radians, to which the velocity vector of the projectile
+	 *                points.
+	 * @param timers  the timer wheel used to time the firerate cooldown, recoil, and reloading.
+	 *
+	 * @return a list of {@code Bullet} objects fired by this weapon, or {@code null} if the
+	 *         weapon cannot currently be fired.
+	 *
+	 * @see entity.Bullet
+	 */
+	public Bullet[] fire(double x, double y, double rad, TimerWheel timers) {
+		return this.fire(x, y, rad, timers, ThreadLocalRandom.current());
+	}
+
+
+	/**
+	 * Fires this weapon and returns the bullets fired, drawing recoil and spread from a given
+	 * generator. Firing the same weapon with generators in the same state always produces the
+	 * same bullets.
+	 *
+	 * @param x       the x position, in tile space, where the projectile originates from.
+	 * @param y       the y position, in tile space, where the projectile originates from.
+	 * @param rad     the angle, in radians, to which the velocity vector of the projectile
+	 *                points.
+	 * @param timers  the timer wheel used to time the firerate cooldown, recoil, and reloading.
+	 * @param random  the generator that recoil, spread, and velocity variance are drawn from.
 	 *
-	 * @return a list of {@code Bullet} objects fired by this weapon.
+	 * @return a list of {@code Bullet} objects fired by this weapon, or {@code null} if the
+	 *         weapon cannot currently be fired.
 	 *
 	 * @see entity.Bullet
 	 */
-	public Bullet[] fire(double x, double y, double rad) {
+	public Bullet[] fire(double x, double y, double rad, TimerWheel timers, Random random) {
 		// Check if there is ammunition available
 		if (this.reloading())
 		    return null;
 
 		// Check if the firerate cooldown has passed
-		long deltaTime = this.timeSinceLastFired();
-		int framesPerRound = (int) ((1.0 / this.firerate) * Settings.FPS);
-		int framesPassed = (int) ((deltaTime / 1000.0) * Settings.FPS);
-		if (framesPassed < framesPerRound)
+		if (this.coolingDown)
 			return null;
 
 		// Fire the bullets
 		Bullet[] bullets = new Bullet[this.roundsPerShot()];
 		for (int i = 0; i < bullets.length; i++) {
-			double recoil = this.generateRecoil();
-			double spread = i > 0 ? this.generateSpread() : 0; // Primarily for shotguns
+			double recoil = this.generateRecoil(random);
+			double spread = i > 0 ? this.generateSpread(random) : 0; // Primarily for shotguns
 			Bullet bullet = new Bullet(x + this.getMuzzleXOffset(rad),
 									   y + this.getMuzzleYOffset(rad),
-									   rad + recoil + spread, this);
+									   rad + recoil + spread, this, random);
 			bullets[i] = bullet;
 		}
-		this.lastFired = System.currentTimeMillis();
 		this.bulletsLeft--;
+
+		// Start the firerate cooldown and restart the recoil period. The cooldown is rounded up
+		// so that the weapon never fires faster than its firerate
+		int ticksPerRound = Math.max(1, (int) Math.ceil(timers.getTickRate() /
+														 (double) this.firerate));
+		this.coolingDown = true;
+		timers.schedule(ticksPerRound, () -> this.coolingDown = false);
+		if (this.recoilTimer != null)
+			this.recoilTimer.cancel();
+		this.recoiling = true;
+		this.recoilTimer = timers.scheduleMillis(Weapon.RECOIL_COOLDOWN,
+												 () -> this.recoiling = false);
+
 		if (this.reloading())
-			this.reload();
+			this.reload(x, y, timers);
 		return bullets;
 	}
 
@@ -416,12 +457,16 @@ public abstract class Weapon extends Item {
 	 * Completes the client-side routine of firing this weapon. This includes decrementing
 	 * the number of bullets left, playing the weapon fired sound, and performing
 	 * the reload routine if needed. This method does not create a bullet.
+	 *
+	 * @param x       the x position, in tile space, where the weapon was fired.
+	 * @param y       the y position, in tile space, where the weapon was fired.
+	 * @param timers  the timer wheel used to wait for the reload period.
 	 */
-	public void fireBlank() {
+	public void fireBlank(double x, double y, TimerWheel timers) {
 		this.bulletsLeft--;
-		SoundManager.playSound("shoot");
+		this.effectSink.effect("shoot", x, y);
 		if (this.reloading())
-			this.reload();
+			this.reload(x, y, timers);
 	}
 
 }
@@ -0,0 +1,171 @@
+package server;
+
+
+import entity.Player;
+import world.LevelChunks;
+import world.LevelData;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Sends the chunks of a large level to each client as its player moves, instead of the whole
+ * level.
+ * <p>
+ * Every chunk within {@code LevelChunks.LOAD_RADIUS} chunks of a player is sent to their
+ * client, nearest first, unless it has been sent already. Once a chunk is more than
+ * {@code LevelChunks.UNLOAD_RADIUS} chunks from the player, it is assumed to have been
+ * discarded by the client and is sent again if the player comes back. The gap between the
+ * two radii keeps a player moving back and forth across the edge of a chunk from being sent
+ * the same chunks over and over. The chunks sent only change when a player moves into a
+ * different chunk, so most ticks cost one comparison per player.
+ * <p>
+ * The encoded form of recently sent chunks is kept, up to {@code MAX_ENCODED} chunks, so a
+ * chunk crossed by several players is only compressed once. This class must only be used by
+ * the simulation thread.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see LevelChunks
+ */
+public class ChunkStreamer {
+
+	/** The fewest tiles a level must have to be streamed instead of loaded whole by clients. */
+	public static final int MIN_TILES = 256 * 256;
+	/** The most encoded chunks kept. */
+	public static final int MAX_ENCODED = 4096;
+
+
+	/** The tiles of the level. */
+	private final LevelData level;
+	/** The destination of the chunk commands. */
+	private final Simulation.Output output;
+	/** The index of the chunk each player was last in, by player id. */
+	private final Map<Integer, Integer> centers;
+	/** The index of each chunk sent to each player and not yet forgotten, by player id. */
+	private final Map<Integer, Set<Integer>> sent;
+	/** The encoded tiles of recently sent chunks, by index, from least to most recently used. */
+	private final Map<Integer, String> encoded;
+
+
+	/**
+	 * Constructs a new {@code ChunkStreamer} with no players.
+	 *
+	 * @param level   the tiles of the level.
+	 * @param output  the destination of the chunk commands.
+	 *
+	 * @throws NullPointerException  if {@code level == null} or {@code output == null}.
+	 */
+	public ChunkStreamer(LevelData level, Simulation.Output output) {
+		if (level == null)
+			throw new NullPointerException("level was null");
+		if (output == null)
+			throw new NullPointerException("output was null");
+
+		this.level = level;
+		this.output = output;
+		this.centers = new HashMap<>();
+		this.sent = new HashMap<>();
+		this.encoded = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+				return this.size() > ChunkStreamer.MAX_ENCODED;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns whether a level is large enough that it should be streamed.
+	 *
+	 * @param level  the tiles of the level.
+	 *
+	 * @return whether the level has at least {@code MIN_TILES} tiles.
+	 */
+	public static boolean shouldStream(LevelData level) {
+		return (long) level.rows() * level.cols() >= ChunkStreamer.MIN_TILES;
+	}
+
+
+	/**
+	 * Begins streaming to a new player. No chunks are sent until the next {@code update}.
+	 *
+	 * @param playerId  the id of the new player.
+	 */
+	public void connect(int playerId) {
+		this.sent.put(playerId, new HashSet<>());
+	}
+
+
+	/**
+	 * Stops streaming to a player that left.
+	 *
+	 * @param playerId  the id of the player that left.
+	 */
+	public void disconnect(int playerId) {
+		this.sent.remove(playerId);
+		this.centers.remove(playerId);
+	}
+
+
+	/**
+	 * Sends a player the chunks around them that they have not been sent, if they have moved
+	 * into a different chunk since the last update.
+	 *
+	 * @param playerId  the id of the player.
+	 * @param player    the player.
+	 */
+	public void update(int playerId, Player player) {
+		Set<Integer> sent = this.sent.get(playerId);
+		if (sent == null)
+			return;
+
+		int[] tile = Simulation.tileOf(player);
+		int chunkCols = this.level.chunkCols();
+		int cr = Math.floorDiv(tile[1], LevelData.CHUNK_SIZE);
+		int cc = Math.floorDiv(tile[0], LevelData.CHUNK_SIZE);
+		Integer center = cr * chunkCols + cc;
+		if (center.equals(this.centers.put(playerId, center)))
+			return;
+
+		sent.removeIf(index -> Math.abs(index / chunkCols - cr) > LevelChunks.UNLOAD_RADIUS ||
+					  Math.abs(index % chunkCols - cc) > LevelChunks.UNLOAD_RADIUS);
+
+		int lastRow = this.level.chunkRows() - 1;
+		int lastCol = chunkCols - 1;
+		for (int d = 0; d <= LevelChunks.LOAD_RADIUS; d++) {
+			for (int r = Math.max(0, cr - d); r <= Math.min(lastRow, cr + d); r++) {
+				for (int c = Math.max(0, cc - d); c <= Math.min(lastCol, cc + d); c++) {
+					if (Math.max(Math.abs(r - cr), Math.abs(c - cc)) != d ||
+						!sent.add(r * chunkCols + c))
+						continue;
+					String tiles = this.encode(r, c);
+					this.output.post(playerId, Communication.cmdChunk(r, c, tiles));
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the encoded tiles of a chunk, encoding them if they are not kept.
+	 *
+	 * @param cr  the row of the chunk.
+	 * @param cc  the column of the chunk.
+	 *
+	 * @return the tiles of the chunk, as encoded by {@code Communication.encodeTiles}.
+	 */
+	private String encode(int cr, int cc) {
+		int index = cr * this.level.chunkCols() + cc;
+		String tiles = this.encoded.get(index);
+		if (tiles == null) {
+			tiles = Communication.encodeTiles(this.level.chunk(cr, cc));
+			this.encoded.put(index, tiles);
+		}
+		return tiles;
+	}
+
+}
@@ -0,0 +1,174 @@
+package server;
+
+
+/**
+ * Estimates the round-trip time and the clock offset of one connection from ping exchanges.
+ * <p>
+ * Each exchange gives four times: {@code t0} when the ping was sent and {@code t3} when the
+ * pong was received, on the local clock, and {@code t1} when the ping was received and
+ * {@code t2} when the pong was sent, on the remote clock. As in NTP, the round-trip delay is
+ * {@code (t3 - t0) - (t2 - t1)}, which excludes the time the remote side held the ping, and the
+ * offset of the remote clock from the local one is {@code ((t1 - t0) + (t2 - t3)) / 2}.
+ * <p>
+ * The offset is only exact when the network delay is the same in both directions, and queued
+ * packets make it less so. Like NTP's clock filter, the offset given is the one measured by
+ * the exchange with the smallest delay among the last {@code FILTER_SIZE} exchanges. The
+ * round-trip time is smoothed, and its variation is tracked as the jitter, with the same
+ * moving averages TCP uses for its retransmission timer (RFC 6298).
+ * <p>
+ * All times are in nanoseconds, as given by {@code System.nanoTime} on each side. This class
+ * is thread-safe.
+ *
+ * @author Jonathan Uhler
+ */
+public class ClockSync {
+
+	/** The time, in milliseconds, between pings sent on a connection. */
+	public static final int PING_INTERVAL = 1000;
+	/** The number of recent exchanges that the offset is chosen from. */
+	public static final int FILTER_SIZE = 8;
+	/** The weight of each new sample in the smoothed round-trip time. */
+	private static final double ALPHA = 1.0 / 8;
+	/** The weight of each new sample in the jitter. */
+	private static final double BETA = 1.0 / 4;
+
+
+	/** The round-trip delays of the last exchanges. */
+	private final long[] delays;
+	/** The offsets measured by the last exchanges. */
+	private final long[] offsets;
+	/** The number of exchanges recorded. */
+	private long samples;
+	/** The smoothed round-trip time. */
+	private double srtt;
+	/** The smoothed variation of the round-trip time. */
+	private double rttvar;
+	/** The offset of the remote clock from the local one, from the best recent exchange. */
+	private long offset;
+
+
+	/**
+	 * Constructs a new {@code ClockSync} with no exchanges.
+	 */
+	public ClockSync() {
+		this.delays = new long[ClockSync.FILTER_SIZE];
+		this.offsets = new long[ClockSync.FILTER_SIZE];
+		this.samples = 0;
+		this.srtt = 0;
+		this.rttvar = 0;
+		this.offset = 0;
+	}
+
+
+	/**
+	 * Records one ping exchange.
+	 *
+	 * @param t0  the local time that the ping was sent.
+	 * @param t1  the remote time that the ping was received.
+	 * @param t2  the remote time that the pong was sent.
+	 * @param t3  the local time that the pong was received.
+	 */
+	public synchronized void update(long t0, long t1, long t2, long t3) {
+		long delay = Math.max(0, (t3 - t0) - (t2 - t1));
+		long sampleOffset = ((t1 - t0) + (t2 - t3)) / 2;
+
+		if (this.samples == 0) {
+			this.srtt = delay;
+			this.rttvar = delay / 2.0;
+		}
+		else {
+			this.rttvar = (1 - ClockSync.BETA) * this.rttvar +
+				ClockSync.BETA * Math.abs(this.srtt - delay);
+			this.srtt = (1 - ClockSync.ALPHA) * this.srtt + ClockSync.ALPHA * delay;
+		}
+
+		int index = (int) (this.samples % ClockSync.FILTER_SIZE);
+		this.delays[index] = delay;
+		this.offsets[index] = sampleOffset;
+		this.samples++;
+
+		int best = 0;
+		int size = (int) Math.min(this.samples, ClockSync.FILTER_SIZE);
+		for (int i = 1; i < size; i++)
+			if (this.delays[i] < this.delays[best])
+				best = i;
+		this.offset = this.offsets[best];
+	}
+
+
+	/**
+	 * Returns whether any exchange has been recorded.
+	 *
+	 * @return whether any exchange has been recorded.
+	 */
+	public synchronized boolean isSynchronized() {
+		return this.samples > 0;
+	}
+
+
+	/**
+	 * Returns the number of exchanges recorded.
+	 *
+	 * @return the number of exchanges recorded.
+	 */
+	public synchronized long getSamples() {
+		return this.samples;
+	}
+
+
+	/**
+	 * Returns the smoothed round-trip time.
+	 *
+	 * @return the smoothed round-trip time, in nanoseconds, or {@code 0} if no exchange has
+	 *         been recorded.
+	 */
+	public synchronized long getRtt() {
+		return (long) this.srtt;
+	}
+
+
+	/**
+	 * Returns the jitter, the smoothed variation of the round-trip time.
+	 *
+	 * @return the jitter, in nanoseconds, or {@code 0} if no exchange has been recorded.
+	 */
+	public synchronized long getJitter() {
+		return (long) this.rttvar;
+	}
+
+
+	/**
+	 * Returns the offset of the remote clock from the local clock.
+	 *
+	 * @return the offset, in nanoseconds, such that a remote time is the local time plus the
+	 *         offset, or {@code 0} if no exchange has been recorded.
+	 */
+	public synchronized long getOffset() {
+		return this.offset;
+	}
+
+
+	/**
+	 * Converts a local time to the remote clock.
+	 *
+	 * @param localTime  a time on the local clock.
+	 *
+	 * @return the same time on the remote clock.
+	 */
+	public long toRemoteTime(long localTime) {
+		return localTime + this.getOffset();
+	}
+
+
+	/**
+	 * Converts a remote time to the local clock.
+	 *
+	 * @param remoteTime  a time on the remote clock.
+	 *
+	 * @return the same time on the local clock.
+	 */
+	public long toLocalTime(long remoteTime) {
+		return remoteTime - this.getOffset();
+	}
+
+}
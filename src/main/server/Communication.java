@@ -4,8 +4,15 @@ package server;
 import entity.Player;
 import entity.Bullet;
 import interfaces.Item;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /**
@@ -42,6 +49,18 @@ public class Communication {
 	public static final String OPCODE_PAY = "pay";
 	/** Value indicating the usage of an item. */
 	public static final String OPCODE_USE = "use";
+	/** Value indicating a request for the server to echo a time back. */
+	public static final String OPCODE_PING = "ping";
+	/** Value indicating the reply to a ping. */
+	public static final String OPCODE_PONG = "pong";
+	/** Value indicating the content hash and size of the level being played on. */
+	public static final String OPCODE_LEVEL = "level";
+	/** Value indicating the tiles of one chunk of a streamed level. */
+	public static final String OPCODE_CHUNK = "chunk";
+	/** Value indicating a request for the server to send the whole level. */
+	public static final String OPCODE_LEVEL_REQUEST = "level_request";
+	/** Value indicating one part of a whole level sent by the server. */
+	public static final String OPCODE_LEVEL_DATA = "level_data";
 	/** Key indicating the type of command sent. */
 	public static final String KEY_OPCODE = "opcode";
 	/** Key indicating whether a player is attempting to move up. */
@@ -72,12 +91,62 @@ public class Communication {
 	public static final String KEY_MONEY = "money";
 	/** Key indicating the number of an item being used. */
 	public static final String KEY_ITEM_NUM = "item_num";
+	/** Key indicating the time, in nanoseconds on the sender's clock, that a ping was sent. */
+	public static final String KEY_TIME = "time";
+	/** Key indicating the time, in nanoseconds on the replier's clock, that a ping arrived. */
+	public static final String KEY_RECEIVED = "received";
+	/** Key indicating the time, in nanoseconds on the replier's clock, that a pong was sent. */
+	public static final String KEY_SENT = "sent";
+	/** Key indicating the server tick during which a message was sent by the server. */
+	public static final String KEY_TICK = "tick";
+	/** Key indicating the number of rows of tiles in a level. */
+	public static final String KEY_ROWS = "rows";
+	/** Key indicating the number of columns of tiles in a level. */
+	public static final String KEY_COLS = "cols";
+	/** Key indicating the row of a chunk of a level. */
+	public static final String KEY_CHUNK_ROW = "chunk_row";
+	/** Key indicating the column of a chunk of a level. */
+	public static final String KEY_CHUNK_COL = "chunk_col";
+	/** Key indicating tiles, or a level file, as encoded by {@code encodeTiles}. */
+	public static final String KEY_TILES = "tiles";
+	/** Key indicating the content hash of a level. */
+	public static final String KEY_HASH = "hash";
+	/** Key indicating whether a level is streamed in chunks. */
+	public static final String KEY_STREAMED = "streamed";
+	/** Key indicating the seed a level was generated from. */
+	public static final String KEY_SEED = "seed";
+	/** Key indicating the number of a part of a message split into parts, from zero. */
+	public static final String KEY_PART = "part";
+	/** Key indicating the number of parts that a message was split into. */
+	public static final String KEY_PARTS = "parts";
+	/** Every opcode a command can have. */
+	private static final Set<String> OPCODES =
+		Set.of(Communication.OPCODE_MOVE, Communication.OPCODE_SHOOT,
+			   Communication.OPCODE_POS_PLAYER, Communication.OPCODE_NEW_BULLET,
+			   Communication.OPCODE_JOIN, Communication.OPCODE_LEAVE,
+			   Communication.OPCODE_DAMAGED, Communication.OPCODE_RESET,
+			   Communication.OPCODE_BUY, Communication.OPCODE_PAY, Communication.OPCODE_USE,
+			   Communication.OPCODE_PING, Communication.OPCODE_PONG,
+			   Communication.OPCODE_LEVEL, Communication.OPCODE_CHUNK,
+			   Communication.OPCODE_LEVEL_REQUEST, Communication.OPCODE_LEVEL_DATA);
 
 
 	/**
 	 * This class cannot be constructed.
 	 */
 	private Communication() { }
+
+
+	/**
+	 * Determines whether a string is one of the {@code OPCODE_*} values.
+	 *
+	 * @param opcode  the string to check.
+	 *
+	 * @return whether the string is a known opcode.
+	 */
+	public static boolean isOpcode(String opcode) {
+		return opcode != null && Communication.OPCODES.contains(opcode);
+	}
 	
 
 	/**
@@ -578,6 +647,370 @@ public class Communication {
 		map.put(Communication.KEY_ID, Integer.toString(playerId));
 		return map;
 	}
+
+
+	/**
+	 * Generates the payload for a ping command. Pings are sent by both the client and the
+	 * server, and are answered with a pong.
+	 * <p>
+	 * This command is comprised of the following components:
+	 * <table style="border: 1px solid black">
+	 *  <caption>{@code ping} Command Payload</caption>
+	 *  <tr style="border: 1px solid black">
+	 *   <th style="border: 1px solid black"> Key
+	 *   <th style="border: 1px solid black"> Commentary
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code opcode}
+	 *   <td style="border: 1px solid black"> Identifies this command, always {@code ping}.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code time}
+	 *   <td style="border: 1px solid black"> The time the ping was sent, in nanoseconds on the
+	 *                                        sender's clock.
+	 *  </tr>
+	 * </table>
+	 *
+	 * @param time  the time the ping was sent, as returned by {@code System.nanoTime}.
+	 *
+	 * @return the command payload.
+	 */
+	public static Map<String, String> cmdPing(long time) {
+		Map<String, String> map = new HashMap<>();
+		map.put(Communication.KEY_OPCODE, Communication.OPCODE_PING);
+		map.put(Communication.KEY_TIME, Long.toString(time));
+		return map;
+	}
+
+
+	/**
+	 * Generates the payload for a pong command, sent in reply to a ping.
+	 * <p>
+	 * This command is comprised of the following components:
+	 * <table style="border: 1px solid black">
+	 *  <caption>{@code pong} Command Payload</caption>
+	 *  <tr style="border: 1px solid black">
+	 *   <th style="border: 1px solid black"> Key
+	 *   <th style="border: 1px solid black"> Commentary
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code opcode}
+	 *   <td style="border: 1px solid black"> Identifies this command, always {@code pong}.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code time}
+	 *   <td style="border: 1px solid black"> The time from the ping being replied to.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code received}
+	 *   <td style="border: 1px solid black"> The time the ping was received, in nanoseconds on
+	 *                                        the replier's clock.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code sent}
+	 *   <td style="border: 1px solid black"> The time this pong was sent, in nanoseconds on the
+	 *                                        replier's clock.
+	 *  </tr>
+	 * </table>
+	 *
+	 * @param time      the time from the ping being replied to.
+	 * @param received  the time the ping was received, as returned by {@code System.nanoTime}.
+	 * @param sent      the time this pong was sent, as returned by {@code System.nanoTime}.
+	 *
+	 * @return the command payload.
+	 *
+	 * @see ClockSync
+	 */
+	public static Map<String, String> cmdPong(long time, long received, long sent) {
+		Map<String, String> map = new HashMap<>();
+		map.put(Communication.KEY_OPCODE, Communication.OPCODE_PONG);
+		map.put(Communication.KEY_TIME, Long.toString(time));
+		map.put(Communication.KEY_RECEIVED, Long.toString(received));
+		map.put(Communication.KEY_SENT, Long.toString(sent));
+		return map;
+	}
+
+
+	/**
+	 * Generates the payload for a level command, sent to a joining client before its join
+	 * command. If the level is streamed, the client holds only the chunks of the level sent to
+	 * it with chunk commands. Otherwise, the client plays on its own copy of the tiles with the
+	 * given content hash, or requests the whole level with a level request command if it has
+	 * none.
+	 * <p>
+	 * This command is comprised of the following components:
+	 * <table style="border: 1px solid black">
+	 *  <caption>{@code level} Command Payload</caption>
+	 *  <tr style="border: 1px solid black">
+	 *   <th style="border: 1px solid black"> Key
+	 *   <th style="border: 1px solid black"> Commentary
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code opcode}
+	 *   <td style="border: 1px solid black"> Identifies this command, always {@code level}.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code level}
+	 *   <td style="border: 1px solid black"> The number of the level being played on.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code rows}
+	 *   <td style="border: 1px solid black"> The number of rows of tiles in the level.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code cols}
+	 *   <td style="border: 1px solid black"> The number of columns of tiles in the level.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code hash}
+	 *   <td style="border: 1px solid black"> The content hash of the level.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code streamed}
+	 *   <td style="border: 1px solid black"> Whether the level is streamed in chunks, as a
+	 *                                        stringified boolean.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code seed}
+	 *   <td style="border: 1px solid black"> The seed the level was generated from by
+	 *                                        {@code LevelGenerator}, which is only present if
+	 *                                        the level was generated.
+	 *  </tr>
+	 * </table>
+	 *
+	 * @param levelId   the number of the level being played on.
+	 * @param rows      the number of rows of tiles in the level.
+	 * @param cols      the number of columns of tiles in the level.
+	 * @param hash      the content hash of the level.
+	 * @param streamed  whether the level is streamed in chunks.
+	 * @param seed      the seed the level was generated from, or {@code null} if the level was
+	 *                  not generated.
+	 *
+	 * @return the command payload.
+	 */
+	public static Map<String, String> cmdLevel(int levelId,
+											   int rows,
+											   int cols,
+											   String hash,
+											   boolean streamed,
+											   Long seed)
+	{
+		if (hash == null)
+			return null;
+
+		Map<String, String> map = new HashMap<>();
+		map.put(Communication.KEY_OPCODE, Communication.OPCODE_LEVEL);
+		map.put(Communication.KEY_LEVEL, Integer.toString(levelId));
+		map.put(Communication.KEY_ROWS, Integer.toString(rows));
+		map.put(Communication.KEY_COLS, Integer.toString(cols));
+		map.put(Communication.KEY_HASH, hash);
+		map.put(Communication.KEY_STREAMED, Boolean.toString(streamed));
+		if (seed != null)
+			map.put(Communication.KEY_SEED, Long.toString(seed));
+		return map;
+	}
+
+
+	/**
+	 * Generates the payload for a level request command, sent by a client that does not have
+	 * the level named by a level command.
+	 * <p>
+	 * This command is comprised of the following components:
+	 * <table style="border: 1px solid black">
+	 *  <caption>{@code level_request} Command Payload</caption>
+	 *  <tr style="border: 1px solid black">
+	 *   <th style="border: 1px solid black"> Key
+	 *   <th style="border: 1px solid black"> Commentary
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code opcode}
+	 *   <td style="border: 1px solid black"> Identifies this command, always
+	 *                                        {@code level_request}.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code hash}
+	 *   <td style="border: 1px solid black"> The content hash of the level requested.
+	 *  </tr>
+	 * </table>
+	 *
+	 * @param hash  the content hash of the level requested.
+	 *
+	 * @return the command payload.
+	 */
+	public static Map<String, String> cmdLevelRequest(String hash) {
+		if (hash == null)
+			return null;
+
+		Map<String, String> map = new HashMap<>();
+		map.put(Communication.KEY_OPCODE, Communication.OPCODE_LEVEL_REQUEST);
+		map.put(Communication.KEY_HASH, hash);
+		return map;
+	}
+
+
+	/**
+	 * Generates the payload for a level data command. A requested level is sent as a level
+	 * file, as written by {@code LevelFile.encode}, encoded by {@code encodeTiles}, and split
+	 * into parts that are each sent in their own level data command, in order. If the level
+	 * cannot be sent, such as when it is streamed or the hash is not the level being played,
+	 * a single level data command with no parts and no tiles is sent instead.
+	 * <p>
+	 * This command is comprised of the following components:
+	 * <table style="border: 1px solid black">
+	 *  <caption>{@code level_data} Command Payload</caption>
+	 *  <tr style="border: 1px solid black">
+	 *   <th style="border: 1px solid black"> Key
+	 *   <th style="border: 1px solid black"> Commentary
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code opcode}
+	 *   <td style="border: 1px solid black"> Identifies this command, always
+	 *                                        {@code level_data}.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code part}
+	 *   <td style="border: 1px solid black"> The number of this part, from zero.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code parts}
+	 *   <td style="border: 1px solid black"> The number of parts the level was split into, or
+	 *                                        {@code 0} if the request was refused.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code tiles}
+	 *   <td style="border: 1px solid black"> This part of the encoded level file.
+	 *  </tr>
+	 * </table>
+	 *
+	 * @param part   the number of this part, from zero.
+	 * @param parts  the number of parts the level was split into.
+	 * @param data   this part of the encoded level file.
+	 *
+	 * @return the command payload.
+	 *
+	 * @see world.LevelFile
+	 */
+	public static Map<String, String> cmdLevelData(int part, int parts, String data) {
+		if (data == null)
+			return null;
+
+		Map<String, String> map = new HashMap<>();
+		map.put(Communication.KEY_OPCODE, Communication.OPCODE_LEVEL_DATA);
+		map.put(Communication.KEY_PART, Integer.toString(part));
+		map.put(Communication.KEY_PARTS, Integer.toString(parts));
+		map.put(Communication.KEY_TILES, data);
+		return map;
+	}
+
+
+	/**
+	 * Generates the payload for a chunk command, which carries the tiles of one chunk of a
+	 * streamed level.
+	 * <p>
+	 * This command is comprised of the following components:
+	 * <table style="border: 1px solid black">
+	 *  <caption>{@code chunk} Command Payload</caption>
+	 *  <tr style="border: 1px solid black">
+	 *   <th style="border: 1px solid black"> Key
+	 *   <th style="border: 1px solid black"> Commentary
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code opcode}
+	 *   <td style="border: 1px solid black"> Identifies this command, always {@code chunk}.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code chunk_row}
+	 *   <td style="border: 1px solid black"> The row of the chunk.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code chunk_col}
+	 *   <td style="border: 1px solid black"> The column of the chunk.
+	 *  </tr>
+	 *  <tr style="border: 1px solid black">
+	 *   <td style="border: 1px solid black"> {@code tiles}
+	 *   <td style="border: 1px solid black"> The tiles of the chunk, as encoded by
+	 *                                        {@code encodeTiles}.
+	 *  </tr>
+	 * </table>
+	 *
+	 * @param cr     the row of the chunk.
+	 * @param cc     the column of the chunk.
+	 * @param tiles  the tiles of the chunk, as encoded by {@code encodeTiles}.
+	 *
+	 * @return the command payload.
+	 */
+	public static Map<String, String> cmdChunk(int cr, int cc, String tiles) {
+		if (tiles == null)
+			return null;
+
+		Map<String, String> map = new HashMap<>();
+		map.put(Communication.KEY_OPCODE, Communication.OPCODE_CHUNK);
+		map.put(Communication.KEY_CHUNK_ROW, Integer.toString(cr));
+		map.put(Communication.KEY_CHUNK_COL, Integer.toString(cc));
+		map.put(Communication.KEY_TILES, tiles);
+		return map;
+	}
+
+
+	/**
+	 * Encodes tile bytes as a string that can be sent as the value of a command. The bytes are
+	 * compressed with DEFLATE, then encoded as Base64, which uses none of the characters that
+	 * {@code serialize} must escape.
+	 *
+	 * @param tiles  the tile bytes to encode.
+	 *
+	 * @return the encoded tiles.
+	 *
+	 * @see decodeTiles
+	 */
+	public static String encodeTiles(byte[] tiles) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(tiles);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(tiles.length / 4 + 16);
+		byte[] buffer = new byte[256];
+		while (!deflater.finished())
+			out.write(buffer, 0, deflater.deflate(buffer));
+		deflater.end();
+		return Base64.getEncoder().encodeToString(out.toByteArray());
+	}
+
+
+	/**
+	 * Decodes tile bytes encoded by {@code encodeTiles}.
+	 *
+	 * @param str     the encoded tiles.
+	 * @param length  the number of tile bytes expected.
+	 *
+	 * @return the decoded tiles.
+	 *
+	 * @throws NullPointerException      if {@code str == null}.
+	 * @throws IllegalArgumentException  if the string is not valid encoded tiles, or does not
+	 *                                   hold exactly {@code length} bytes.
+	 *
+	 * @see encodeTiles
+	 */
+	public static byte[] decodeTiles(String str, int length) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(Base64.getDecoder().decode(str));
+			// One spare byte, so that a string holding too many tiles is noticed
+			byte[] tiles = new byte[length + 1];
+			int read = 0;
+			while (read < tiles.length && !inflater.finished() && !inflater.needsInput() &&
+				   !inflater.needsDictionary())
+				read += inflater.inflate(tiles, read, tiles.length - read);
+			if (read != length || !inflater.finished())
+				throw new IllegalArgumentException("expected " + length + " tiles");
+			return Arrays.copyOf(tiles, length);
+		}
+		catch (DataFormatException e) {
+			throw new IllegalArgumentException("invalid tiles: " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+	}
 	
 
 	/**
@@ -645,6 +1078,9 @@ public class Communication {
 	 * @see serialize
 	 */
 	public static Map<String, String> deserialize(String str) {
+		Events.Decode event = new Events.Decode();
+		event.begin();
+		int length = str.length();
 		Map<String, String> map = new HashMap<>();
 
 		// Remove the leading and trailing curly brackets
@@ -687,6 +1123,13 @@ public class Communication {
 			map.put(key, temp);
 		}
 
+		event.end();
+		if (event.shouldCommit()) {
+			event.opcode = map.get(Communication.KEY_OPCODE);
+			event.length = length;
+			event.commit();
+		}
+
 		// Return the completed map
 		return map;
 	}
@@ -0,0 +1,300 @@
+package server;
+
+
+import jnet.Log;
+import world.Level;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Properties;
+
+
+/**
+ * Entry point for running a headless server without the game client.
+ * <p>
+ * <b>Usage</b>
+ * <p>
+ * {@code java -cp ByteStrike.jar server.DedicatedServer [options]}
+ * <p>
+ * Each option can be given on the command line as {@code --name value}, or in a properties
+ * file given by {@code --config file} as {@code name=value}. Command line options take
+ * precedence over the config file. The options are:
+ * <table style="border: 1px solid black">
+ *  <caption>Dedicated Server Options</caption>
+ *  <tr style="border: 1px solid black">
+ *   <th style="border: 1px solid black"> Option
+ *   <th style="border: 1px solid black"> Commentary
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code bind}
+ *   <td style="border: 1px solid black"> The IP address to bind to, by default
+ *                                        {@code 0.0.0.0}.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code port}
+ *   <td style="border: 1px solid black"> The port to bind to, by default {@code 9000}.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code map}
+ *   <td style="border: 1px solid black"> The number of the level to play on.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code seed}
+ *   <td style="border: 1px solid black"> The seed of a level to generate and play on,
+ *                                        instead of the level given by {@code map}. By
+ *                                        default no level is generated.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code size}
+ *   <td style="border: 1px solid black"> The number of rows and columns of tiles in a
+ *                                        generated level, by default {@code 64}.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code tick-rate}
+ *   <td style="border: 1px solid black"> The number of simulation ticks per second.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code max-players}
+ *   <td style="border: 1px solid black"> The maximum number of players connected at once.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code metrics-port}
+ *   <td style="border: 1px solid black"> The port on {@code 127.0.0.1} to serve metrics on,
+ *                                        by default {@code 0}, which disables metrics. When
+ *                                        enabled, the metrics are also registered as a JMX
+ *                                        MXBean.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code record}
+ *   <td style="border: 1px solid black"> A replay file to record the game to, which can be
+ *                                        watched with {@code graphics.ReplayViewer}. By
+ *                                        default the game is not recorded.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> {@code keyframe-interval}
+ *   <td style="border: 1px solid black"> The number of seconds between keyframes in the
+ *                                        replay, by default {@code 10}. Shorter intervals
+ *                                        make seeking faster and replays larger.
+ *  </tr>
+ * </table>
+ * <p>
+ * The server runs with {@code java.awt.headless=true} and does not load any graphics or audio
+ * classes. It shuts down gracefully, disconnecting all clients, when the process is
+ * interrupted or terminated.
+ *
+ * @author Jonathan Uhler
+ */
+public class DedicatedServer {
+
+	/** The IP address bound to by default. */
+	public static final String DEFAULT_BIND = "0.0.0.0";
+	/** The port bound to by default. */
+	public static final int DEFAULT_PORT = 9000;
+	/** The number of rows and columns of tiles in generated levels by default. */
+	public static final int DEFAULT_SIZE = 64;
+	/** The longest time, in milliseconds, to wait for the simulation to stop when shutting down. */
+	public static final long SHUTDOWN_TIMEOUT = 5000;
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private DedicatedServer() { }
+
+
+	/**
+	 * Prints the usage of this program and exits with a non-zero status.
+	 *
+	 * @param error  a description of the problem with the given options.
+	 */
+	private static void usage(String error) {
+		System.err.println("error: " + error);
+		System.err.println("usage: server.DedicatedServer [--config file] [--bind ip] " +
+						   "[--port port] [--map level] [--seed seed] [--size tiles] " +
+						   "[--tick-rate ticks] [--max-players players] [--metrics-port port] " +
+						   "[--record file] [--keyframe-interval seconds]");
+		System.exit(1);
+	}
+
+
+	/**
+	 * Parses the command line arguments, and the config file if one is given, into a single
+	 * set of options.
+	 *
+	 * @param args  the command line arguments.
+	 *
+	 * @return the options given by the config file and command line.
+	 */
+	private static Properties parseOptions(String[] args) {
+		Properties cliOptions = new Properties();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--") || i + 1 >= args.length)
+				DedicatedServer.usage("invalid argument: " + arg);
+			cliOptions.setProperty(arg.substring(2), args[i + 1]);
+			i++;
+		}
+
+		Properties options = new Properties();
+		String config = cliOptions.getProperty("config");
+		if (config != null) {
+			try (InputStream in = new FileInputStream(config)) {
+				options.load(in);
+			}
+			catch (IOException e) {
+				DedicatedServer.usage("cannot read config file " + config + ": " + e);
+			}
+		}
+		options.putAll(cliOptions);
+		options.remove("config");
+		return options;
+	}
+
+
+	/**
+	 * Returns an integer option.
+	 *
+	 * @param options       the options to read from.
+	 * @param name          the name of the option.
+	 * @param defaultValue  the value returned if the option was not given.
+	 *
+	 * @return the value of the option.
+	 */
+	private static int getInt(Properties options, String name, int defaultValue) {
+		String value = options.getProperty(name);
+		options.remove(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			DedicatedServer.usage("invalid " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+
+	/**
+	 * Returns a long integer option.
+	 *
+	 * @param options       the options to read from.
+	 * @param name          the name of the option.
+	 * @param defaultValue  the value returned if the option was not given.
+	 *
+	 * @return the value of the option.
+	 */
+	private static long getLong(Properties options, String name, long defaultValue) {
+		String value = options.getProperty(name);
+		options.remove(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			DedicatedServer.usage("invalid " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+
+	/**
+	 * Runs the dedicated server.
+	 *
+	 * @param args  command line arguments.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		Properties options = DedicatedServer.parseOptions(args);
+		String bind = options.getProperty("bind", DedicatedServer.DEFAULT_BIND).trim();
+		options.remove("bind");
+		int port = DedicatedServer.getInt(options, "port", DedicatedServer.DEFAULT_PORT);
+		int levelId = DedicatedServer.getInt(options, "map", Server.DEFAULT_LEVEL);
+		boolean generated = options.containsKey("seed");
+		long seed = DedicatedServer.getLong(options, "seed", 0);
+		int size = DedicatedServer.getInt(options, "size", DedicatedServer.DEFAULT_SIZE);
+		int tickRate = DedicatedServer.getInt(options, "tick-rate", Server.DEFAULT_TICK_RATE);
+		int maxPlayers = DedicatedServer.getInt(options, "max-players",
+												Server.DEFAULT_MAX_PLAYERS);
+		int metricsPort = DedicatedServer.getInt(options, "metrics-port", 0);
+		String record = options.getProperty("record");
+		options.remove("record");
+		int keyframeInterval = DedicatedServer.getInt(options, "keyframe-interval",
+													  ReplayWriter.DEFAULT_KEYFRAME_INTERVAL);
+		if (!options.isEmpty())
+			DedicatedServer.usage("unknown options: " + options.keySet());
+
+		Server server = null;
+		try {
+			Level level = generated ?
+				Level.generate(levelId, seed, size, size) : new Level(levelId);
+			server = new Server(bind, port, level, tickRate, maxPlayers);
+		}
+		catch (IOException e) {
+			Log.stdlog(Log.FATAL, "DedicatedServer", "cannot bind to " + bind + ":" + port +
+					   ": " + e);
+			System.exit(1);
+		}
+		catch (IllegalArgumentException e) {
+			DedicatedServer.usage(e.getMessage());
+		}
+
+		ServerMetrics metrics = new ServerMetrics(server);
+		if (metricsPort > 0) {
+			try {
+				metrics.start(metricsPort);
+				Log.stdlog(Log.INFO, "DedicatedServer", "serving metrics on 127.0.0.1:" +
+						   metricsPort + ServerMetrics.PATH, true);
+			}
+			catch (IOException e) {
+				Log.stdlog(Log.FATAL, "DedicatedServer", "cannot serve metrics on port " +
+						   metricsPort + ": " + e);
+				System.exit(1);
+			}
+		}
+
+		if (record != null) {
+			try {
+				server.startRecording(Path.of(record.trim()), keyframeInterval);
+				Log.stdlog(Log.INFO, "DedicatedServer", "recording to " + record.trim(), true);
+			}
+			catch (IOException e) {
+				Log.stdlog(Log.FATAL, "DedicatedServer", "cannot record to " + record + ": " + e);
+				System.exit(1);
+			}
+			catch (IllegalArgumentException e) {
+				DedicatedServer.usage(e.getMessage());
+			}
+		}
+
+		// Stop the simulation and disconnect clients when the process is asked to exit. The
+		// simulation runs on the main thread, so wait for it to finish its current tick
+		Server shutdownServer = server;
+		Thread mainThread = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					Log.stdlog(Log.INFO, "DedicatedServer", "shutting down", true);
+					metrics.stop();
+					shutdownServer.close();
+					try {
+						mainThread.join(DedicatedServer.SHUTDOWN_TIMEOUT);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					Log.stdlog(Log.INFO, "DedicatedServer", "stopped after " +
+							   shutdownServer.getTick() + " ticks", true);
+		}));
+
+		long startupTime = ManagementFactory.getRuntimeMXBean().getUptime();
+		String map = generated ? size + "x" + size + " map from seed " + seed : "map " + levelId;
+		Log.stdlog(Log.INFO, "DedicatedServer", "started on " + bind + ":" + port + " in " +
+				   startupTime + " ms (" + map + ", " + tickRate + " ticks/s, " + maxPlayers +
+				   " players max)", true);
+		server.run();
+	}
+
+}
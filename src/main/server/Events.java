@@ -0,0 +1,237 @@
+package server;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+
+/**
+ * The JDK Flight Recorder events emitted by the server and the client.
+ * <p>
+ * Events are only committed while a recording that enables them is running, and duration
+ * events are only committed when they last at least their threshold, so emitting them costs
+ * little in normal play. The thresholds given here are defaults, and can be changed for a
+ * recording with a {@code .jfc} settings file by event name. None of the events record stack
+ * traces. For example, a continuous recording on a production host could be started with:
+ * <p>
+ * {@code java -XX:StartFlightRecording=disk=true,maxage=1h,settings=default ...}
+ * <p>
+ * which records these events alongside the garbage collection and thread events of the JDK,
+ * so an incident can be correlated with what the JVM was doing at the time.
+ *
+ * @author Jonathan Uhler
+ */
+public final class Events {
+
+	/**
+	 * One tick of the server's simulation.
+	 */
+	@Name("bytestrike.Tick")
+	@Label("Server Tick")
+	@Description("One tick of the server simulation, with the time spent in each phase")
+	@Category({"ByteStrike", "Server"})
+	@Threshold("0 ms")
+	@StackTrace(false)
+	public static class Tick extends Event {
+
+		@Label("Tick")
+		public long tick;
+
+		@Label("Players")
+		public int players;
+
+		@Label("Bullets")
+		public int bullets;
+
+		@Label("Messages Processed")
+		public int processed;
+
+		@Label("Messages Sent")
+		public int sent;
+
+		@Label("Timers")
+		@Timespan(Timespan.NANOSECONDS)
+		public long timers;
+
+		@Label("Input")
+		@Timespan(Timespan.NANOSECONDS)
+		public long input;
+
+		@Label("Bullets Phase")
+		@Timespan(Timespan.NANOSECONDS)
+		public long bulletsPhase;
+
+		@Label("Hits")
+		@Timespan(Timespan.NANOSECONDS)
+		public long hits;
+
+		@Label("Record")
+		@Timespan(Timespan.NANOSECONDS)
+		public long record;
+
+		@Label("Broadcast")
+		@Timespan(Timespan.NANOSECONDS)
+		public long broadcast;
+
+	}
+
+
+	/**
+	 * One tick of the client's animation loop.
+	 */
+	@Name("bytestrike.ClientTick")
+	@Label("Client Tick")
+	@Description("One tick of the client animation loop, applying server messages and moving " +
+				 "bullets")
+	@Category({"ByteStrike", "Client"})
+	@Threshold("0 ms")
+	@StackTrace(false)
+	public static class ClientTick extends Event {
+
+		@Label("Messages Applied")
+		public int applied;
+
+		@Label("Players")
+		public int players;
+
+		@Label("Bullets")
+		public int bullets;
+
+	}
+
+
+	/**
+	 * The decoding of one message.
+	 */
+	@Name("bytestrike.Decode")
+	@Label("Message Decode")
+	@Description("Deserialization of one message")
+	@Category({"ByteStrike", "Network"})
+	@Threshold("1 ms")
+	@StackTrace(false)
+	public static class Decode extends Event {
+
+		@Label("Opcode")
+		public String opcode;
+
+		@Label("Length")
+		@DataAmount
+		public int length;
+
+	}
+
+
+	/**
+	 * A message sent to every client.
+	 */
+	@Name("bytestrike.Broadcast")
+	@Label("Broadcast")
+	@Description("One message sent to every connected client")
+	@Category({"ByteStrike", "Network"})
+	@Threshold("100 us")
+	@StackTrace(false)
+	public static class Broadcast extends Event {
+
+		@Label("Opcode")
+		public String opcode;
+
+		@Label("Recipients")
+		public int recipients;
+
+		@Label("Length")
+		@DataAmount
+		public int length;
+
+	}
+
+
+	/**
+	 * A bullet hitting a player.
+	 */
+	@Name("bytestrike.Hit")
+	@Label("Hit")
+	@Description("A bullet hitting a player on the server")
+	@Category({"ByteStrike", "Server"})
+	@StackTrace(false)
+	public static class Hit extends Event {
+
+		@Label("Tick")
+		public long tick;
+
+		@Label("Attacker")
+		public int attacker;
+
+		@Label("Victim")
+		public int victim;
+
+		@Label("Weapon")
+		public String weapon;
+
+		@Label("Damage")
+		public int damage;
+
+		@Label("Killed")
+		public boolean killed;
+
+	}
+
+
+	/**
+	 * A player joining the game.
+	 */
+	@Name("bytestrike.Join")
+	@Label("Player Join")
+	@Category({"ByteStrike", "Players"})
+	@StackTrace(false)
+	public static class Join extends Event {
+
+		@Label("Player")
+		public int player;
+
+		@Label("Players")
+		@Description("The number of players after the join")
+		public int players;
+
+		@Label("Client")
+		@Description("Whether the event was emitted by a client rather than the server")
+		public boolean client;
+
+	}
+
+
+	/**
+	 * A player leaving the game.
+	 */
+	@Name("bytestrike.Leave")
+	@Label("Player Leave")
+	@Category({"ByteStrike", "Players"})
+	@StackTrace(false)
+	public static class Leave extends Event {
+
+		@Label("Player")
+		public int player;
+
+		@Label("Players")
+		@Description("The number of players after the leave")
+		public int players;
+
+		@Label("Client")
+		@Description("Whether the event was emitted by a client rather than the server")
+		public boolean client;
+
+	}
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private Events() { }
+
+}
@@ -0,0 +1,311 @@
+package server;
+
+
+import entity.Player;
+import interfaces.Item;
+import interfaces.Weapon;
+
+
+/**
+ * The binary format of replay files, written by {@code ReplayWriter} and read by
+ * {@code ReplayReader}.
+ * <p>
+ * A replay file is a header, followed by one frame for every tick recorded, followed by an
+ * index of keyframes and a trailer. All integers are big-endian, and most are written as
+ * variable-length integers of seven bits per byte, least significant group first, with the
+ * high bit of each byte set if another byte follows. Signed values are zigzag encoded before
+ * being written as variable-length integers, so small negative values stay short.
+ * <table style="border: 1px solid black">
+ *  <caption>Replay File Layout</caption>
+ *  <tr style="border: 1px solid black">
+ *   <th style="border: 1px solid black"> Part
+ *   <th style="border: 1px solid black"> Contents
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Header
+ *   <td style="border: 1px solid black"> {@code MAGIC} (4 bytes), {@code VERSION} (1 byte),
+ *                                        then the tick rate, level number, and keyframe
+ *                                        interval in ticks as variable-length integers, then
+ *                                        the seed of the simulation (8 bytes). Then {@code 1}
+ *                                        (1 byte) if the level was generated, followed by the
+ *                                        seed it was generated from (8 bytes) and its rows and
+ *                                        columns as variable-length integers, or {@code 0}
+ *                                        (1 byte) if it was not.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Frame
+ *   <td style="border: 1px solid black"> The frame type (1 byte), the length of the frame
+ *                                        body, and the body. A keyframe body starts with its
+ *                                        tick, and a delta frame is for the tick after the
+ *                                        frame before it.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Index
+ *   <td style="border: 1px solid black"> A frame of type {@code FRAME_INDEX} whose body is
+ *                                        the number of keyframes, then the tick and file
+ *                                        offset of each, as differences from the one before.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Trailer
+ *   <td style="border: 1px solid black"> The file offset of the index (8 bytes), then
+ *                                        {@code TRAILER_MAGIC} (4 bytes).
+ *  </tr>
+ * </table>
+ * <p>
+ * The body of every frame has three sections. The inputs section is the client commands
+ * applied during the tick, each as the player's id, an input type, and its arguments. The
+ * players section is the players whose state changed, each as the player's id, a mask of the
+ * fields that changed, and the new value of each of those fields. Positions and angles are
+ * written as the difference from their last value, and every other field as its new value.
+ * The bullets section is the bullets fired, each with its position and velocity, followed by
+ * the ids of the bullets removed. Bullets move in a straight line at a fixed velocity, so their
+ * positions between those two frames are not written.
+ * <p>
+ * A keyframe has the same sections, but is written as if nothing existed before it: every
+ * player is written with every field, and every bullet in flight is written as fired. Reading
+ * can start from any keyframe, so seeking only needs to read the frames after the nearest
+ * keyframe before the tick sought. If a recording is not closed cleanly, it has no index, and
+ * a reader finds the keyframes by reading through every frame instead.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see ReplayWriter
+ * @see ReplayReader
+ */
+public final class Replay {
+
+	/** The first four bytes of every replay file, {@code "BSRP"}. */
+	public static final int MAGIC = 0x42535250;
+	/** The last four bytes of a replay file that was closed cleanly, {@code "BSRI"}. */
+	public static final int TRAILER_MAGIC = 0x42535249;
+	/** The version of the format written. */
+	public static final int VERSION = 3;
+	/** The length, in bytes, of the trailer. */
+	public static final int TRAILER_SIZE = 12;
+
+	/** The type of a frame that holds the whole state of the game. */
+	static final int FRAME_KEY = 1;
+	/** The type of a frame that holds the changes since the frame before it. */
+	static final int FRAME_DELTA = 2;
+	/** The type of the frame that lists every keyframe. */
+	static final int FRAME_INDEX = 3;
+
+	/** A client connecting, with no arguments. */
+	public static final int INPUT_CONNECT = 0;
+	/** A client disconnecting, with no arguments. */
+	public static final int INPUT_DISCONNECT = 1;
+	/** A move command, with a byte of {@code MOVE_*} flags and the angle if it changed. */
+	public static final int INPUT_MOVE = 2;
+	/** A shoot command, with no arguments. */
+	public static final int INPUT_SHOOT = 3;
+	/** A buy command, with the item code of the item. */
+	public static final int INPUT_BUY = 4;
+	/** A use command, with the item number. */
+	public static final int INPUT_USE = 5;
+
+	/** The move flag for moving up. */
+	static final int MOVE_UP = 1;
+	/** The move flag for moving left. */
+	static final int MOVE_LEFT = 1 << 1;
+	/** The move flag for moving down. */
+	static final int MOVE_DOWN = 1 << 2;
+	/** The move flag for moving right. */
+	static final int MOVE_RIGHT = 1 << 3;
+	/** The move flag set when the exact angle of the move, as 8 bytes, follows the flags. */
+	static final int MOVE_RAD = 1 << 4;
+
+	/** The mask of a player that left the game, which is written with no fields. */
+	static final int REMOVED = 1;
+	/** The index of a player's x position. */
+	static final int FIELD_X = 1;
+	/** The index of a player's y position. */
+	static final int FIELD_Y = 2;
+	/** The index of a player's angle. */
+	static final int FIELD_RAD = 3;
+	/** The index of a player's health. */
+	static final int FIELD_HEALTH = 4;
+	/** The index of a player's money. */
+	static final int FIELD_MONEY = 5;
+	/** The index of the item code of a player's weapon. */
+	static final int FIELD_WEAPON = 6;
+	/** The index of the bullets left in a player's weapon. */
+	static final int FIELD_AMMO = 7;
+	/** The index of the bullets a player's weapon can hold. */
+	static final int FIELD_CAPACITY = 8;
+	/** The index of a player's armor and usable items, as packed by {@code packItems}. */
+	static final int FIELD_ITEMS = 9;
+	/**
+	 * The number of entries in an array of player fields, indexed by {@code FIELD_*}. The bit
+	 * for a field in a mask of changed fields is {@code 1 << index}, and bit {@code 0} is
+	 * {@code REMOVED}.
+	 */
+	static final int FIELDS = 10;
+
+	/** The number of steps per tile that positions are rounded to. */
+	static final double POSITION_SCALE = 256;
+	/** The number of steps per tile per frame that bullet velocities are rounded to. */
+	static final double VELOCITY_SCALE = 65536;
+	/** The number of steps per turn that angles are rounded to. */
+	static final int ANGLE_STEPS = 1 << 16;
+
+	/** The type of each item, by item code. Code {@code 0} is no item. */
+	private static final String[] ITEM_TYPES = {
+		null, "Pistol", "SMG", "Rifle", "Shotgun", "Sniper", "Armor", "HealthKit", "Grenade"
+	};
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private Replay() { }
+
+
+	/**
+	 * Returns the item code of an item type.
+	 *
+	 * @param type  the type of the item, or {@code null} for no item.
+	 *
+	 * @return the item code of the item type, or {@code 0} if {@code type} is {@code null} or
+	 *         not a known item.
+	 */
+	static int itemCode(String type) {
+		if (type == null)
+			return 0;
+		for (int code = 1; code < Replay.ITEM_TYPES.length; code++)
+			if (Replay.ITEM_TYPES[code].equals(type))
+				return code;
+		return 0;
+	}
+
+
+	/**
+	 * Returns the item type of an item code.
+	 *
+	 * @param code  the item code.
+	 *
+	 * @return the type of the item, or {@code null} if the code is not a known item.
+	 */
+	static String itemType(int code) {
+		if (code <= 0 || code >= Replay.ITEM_TYPES.length)
+			return null;
+		return Replay.ITEM_TYPES[code];
+	}
+
+
+	/**
+	 * Packs a player's armor and the item codes of their two usable items into one value.
+	 *
+	 * @param armored  whether the player is wearing armor.
+	 * @param item1    the item code of usable item 1.
+	 * @param item2    the item code of usable item 2.
+	 *
+	 * @return the packed items.
+	 */
+	static int packItems(boolean armored, int item1, int item2) {
+		return (armored ? 1 : 0) | (item1 << 1) | (item2 << 5);
+	}
+
+
+	/**
+	 * Rounds a position to the steps it is stored in.
+	 *
+	 * @param position  the position, in tiles.
+	 *
+	 * @return the position in steps.
+	 */
+	static int quantizePosition(double position) {
+		return (int) Math.round(position * Replay.POSITION_SCALE);
+	}
+
+
+	/**
+	 * Rounds a bullet velocity to the steps it is stored in.
+	 *
+	 * @param velocity  the velocity, in tiles per frame.
+	 *
+	 * @return the velocity in steps.
+	 */
+	static int quantizeVelocity(double velocity) {
+		return (int) Math.round(velocity * Replay.VELOCITY_SCALE);
+	}
+
+
+	/**
+	 * Rounds an angle to the steps it is stored in.
+	 *
+	 * @param rad  the angle, in radians.
+	 *
+	 * @return the angle in steps, in {@code [0, ANGLE_STEPS)}.
+	 */
+	static int quantizeAngle(double rad) {
+		double turns = rad / (2 * Math.PI);
+		turns -= Math.floor(turns);
+		return (int) Math.round(turns * Replay.ANGLE_STEPS) & (Replay.ANGLE_STEPS - 1);
+	}
+
+
+	/**
+	 * Returns the shortest difference between two angles in steps, so that an angle crossing
+	 * zero stays a small change.
+	 *
+	 * @param to    the new angle, in steps.
+	 * @param from  the old angle, in steps.
+	 *
+	 * @return the difference, in {@code [-ANGLE_STEPS / 2, ANGLE_STEPS / 2)}.
+	 */
+	static int angleDelta(int to, int from) {
+		int delta = (to - from) & (Replay.ANGLE_STEPS - 1);
+		return delta >= Replay.ANGLE_STEPS / 2 ? delta - Replay.ANGLE_STEPS : delta;
+	}
+
+
+	/**
+	 * Zigzag encodes a signed value, so that values near zero have short encodings.
+	 *
+	 * @param value  the signed value.
+	 *
+	 * @return the encoded value.
+	 */
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+
+	/**
+	 * Decodes a zigzag encoded value.
+	 *
+	 * @param value  the encoded value.
+	 *
+	 * @return the signed value.
+	 */
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+
+	/**
+	 * Reads the recorded fields of a player.
+	 *
+	 * @param player  the player.
+	 * @param fields  the array to fill, indexed by {@code FIELD_*}, of at least {@code FIELDS}
+	 *                elements.
+	 */
+	static void readFields(Player player, int[] fields) {
+		Weapon weapon = player.getWeapon();
+		Item item1 = player.getItem(1);
+		Item item2 = player.getItem(2);
+		fields[Replay.FIELD_X] = Replay.quantizePosition(player.getX());
+		fields[Replay.FIELD_Y] = Replay.quantizePosition(player.getY());
+		fields[Replay.FIELD_RAD] = Replay.quantizeAngle(player.getRad());
+		fields[Replay.FIELD_HEALTH] = player.getHealth();
+		fields[Replay.FIELD_MONEY] = player.getMoney();
+		fields[Replay.FIELD_WEAPON] = Replay.itemCode(weapon.getType());
+		fields[Replay.FIELD_AMMO] = weapon.bulletsLeft();
+		fields[Replay.FIELD_CAPACITY] = weapon.capacity();
+		fields[Replay.FIELD_ITEMS] =
+			Replay.packItems(player.isArmored(),
+							 Replay.itemCode(item1 == null ? null : item1.getType()),
+							 Replay.itemCode(item2 == null ? null : item2.getType()));
+	}
+
+}
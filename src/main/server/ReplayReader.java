@@ -0,0 +1,957 @@
+package server;
+
+
+import graphics.Settings;
+import world.Level;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Plays back a replay file written by {@code ReplayWriter}, one tick at a time.
+ * <p>
+ * The file is memory-mapped, so opening it reads only the header and the index of keyframes,
+ * and the operating system pages in the frames as they are read. Seeking to a tick starts
+ * from the last keyframe at or before it and applies the delta frames after it, which is at
+ * most one keyframe interval of frames however long the recording is. A file that was not
+ * closed cleanly has no index, and is read through once when opened to find its keyframes and
+ * the end of its last complete frame.
+ * <p>
+ * After each call to {@code next} or {@code seek}, the reader holds the state of the game at
+ * the end of the current tick and the inputs applied during it. The objects returned are
+ * reused and change as the reader moves, and this class is not thread-safe.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see ReplayWriter
+ */
+public class ReplayReader implements AutoCloseable {
+
+	/**
+	 * The state of one player at the end of the current tick.
+	 */
+	public static final class PlayerRecord {
+
+		/** The fields of the player, indexed by {@code Replay.FIELD_*}. */
+		private final int[] fields = new int[Replay.FIELDS];
+
+
+		/**
+		 * Returns the x position of this player.
+		 *
+		 * @return the x position of this player.
+		 */
+		public double getX() {
+			return this.fields[Replay.FIELD_X] / Replay.POSITION_SCALE;
+		}
+
+
+		/**
+		 * Returns the y position of this player.
+		 *
+		 * @return the y position of this player.
+		 */
+		public double getY() {
+			return this.fields[Replay.FIELD_Y] / Replay.POSITION_SCALE;
+		}
+
+
+		/**
+		 * Returns the angle this player is facing.
+		 *
+		 * @return the angle, in radians in {@code [0, 2 * PI)}, that this player is facing.
+		 */
+		public double getRad() {
+			return this.fields[Replay.FIELD_RAD] * 2 * Math.PI / Replay.ANGLE_STEPS;
+		}
+
+
+		/**
+		 * Returns the health of this player.
+		 *
+		 * @return the health of this player.
+		 */
+		public int getHealth() {
+			return this.fields[Replay.FIELD_HEALTH];
+		}
+
+
+		/**
+		 * Returns whether this player is dead.
+		 *
+		 * @return whether this player is dead.
+		 */
+		public boolean isDead() {
+			return this.getHealth() <= 0;
+		}
+
+
+		/**
+		 * Returns the amount of money this player has.
+		 *
+		 * @return the amount of money this player has.
+		 */
+		public int getMoney() {
+			return this.fields[Replay.FIELD_MONEY];
+		}
+
+
+		/**
+		 * Returns the type of this player's weapon.
+		 *
+		 * @return the type of this player's weapon.
+		 */
+		public String getWeaponType() {
+			return Replay.itemType(this.fields[Replay.FIELD_WEAPON]);
+		}
+
+
+		/**
+		 * Returns the number of bullets left in this player's weapon.
+		 *
+		 * @return the number of bullets left in this player's weapon.
+		 */
+		public int bulletsLeft() {
+			return this.fields[Replay.FIELD_AMMO];
+		}
+
+
+		/**
+		 * Returns the number of bullets this player's weapon can hold.
+		 *
+		 * @return the number of bullets this player's weapon can hold.
+		 */
+		public int capacity() {
+			return this.fields[Replay.FIELD_CAPACITY];
+		}
+
+
+		/**
+		 * Returns whether this player is wearing armor.
+		 *
+		 * @return whether this player is wearing armor.
+		 */
+		public boolean isArmored() {
+			return (this.fields[Replay.FIELD_ITEMS] & 1) != 0;
+		}
+
+
+		/**
+		 * Returns the type of one of this player's usable items.
+		 *
+		 * @param itemNum  the item number, {@code 1} or {@code 2}.
+		 *
+		 * @return the type of the item, or {@code null} if the player has no such item.
+		 */
+		public String getItemType(int itemNum) {
+			int items = this.fields[Replay.FIELD_ITEMS];
+			return switch (itemNum) {
+			case 1 -> Replay.itemType((items >>> 1) & 0xf);
+			case 2 -> Replay.itemType((items >>> 5) & 0xf);
+			default -> null;
+			};
+		}
+
+
+		/**
+		 * Returns whether this player is in the same state as another, to the precision it was
+		 * recorded with.
+		 *
+		 * @param other  the other player.
+		 *
+		 * @return whether every field of the two players is the same.
+		 */
+		public boolean matches(PlayerRecord other) {
+			return other != null && Arrays.equals(this.fields, other.fields);
+		}
+
+
+		/**
+		 * Returns one recorded field of this player.
+		 *
+		 * @param field  the index of the field, one of {@code Replay.FIELD_*}.
+		 *
+		 * @return the value of the field, as recorded.
+		 */
+		int getField(int field) {
+			return this.fields[field];
+		}
+
+	}
+
+
+	/**
+	 * One bullet in flight at the end of the current tick.
+	 */
+	public static final class BulletRecord {
+
+		/** The x position of the bullet. */
+		private double x;
+		/** The y position of the bullet. */
+		private double y;
+		/** The x velocity of the bullet, in tiles per frame. */
+		private double vx;
+		/** The y velocity of the bullet, in tiles per frame. */
+		private double vy;
+		/** The type of the weapon that fired the bullet. */
+		private String weaponType;
+
+
+		/**
+		 * Returns the x position of this bullet.
+		 *
+		 * @return the x position of this bullet.
+		 */
+		public double getX() {
+			return this.x;
+		}
+
+
+		/**
+		 * Returns the y position of this bullet.
+		 *
+		 * @return the y position of this bullet.
+		 */
+		public double getY() {
+			return this.y;
+		}
+
+
+		/**
+		 * Returns the angle this bullet is travelling at, as found by {@code Moveable}.
+		 *
+		 * @return the angle, in radians, of this bullet's velocity.
+		 */
+		public double getRad() {
+			if (this.vx == 0)
+				return 0;
+			return this.vx < 0 ? Math.atan(this.vy / this.vx) + Math.PI :
+				Math.atan(this.vy / this.vx);
+		}
+
+
+		/**
+		 * Returns the type of the weapon that fired this bullet.
+		 *
+		 * @return the type of the weapon that fired this bullet.
+		 */
+		public String getWeaponType() {
+			return this.weaponType;
+		}
+
+	}
+
+
+	/**
+	 * One client command applied during the current tick.
+	 */
+	public static final class Input {
+
+		/** The id of the player the input is from. */
+		private int playerId;
+		/** The type of the input, one of {@code Replay.INPUT_*}. */
+		private int type;
+		/** The {@code Replay.MOVE_*} flags of a move. */
+		private int flags;
+		/** The exact angle of a move. */
+		private double rad;
+		/** The item type of a buy. */
+		private String itemType;
+		/** The item number of a use. */
+		private int itemNum;
+
+
+		/**
+		 * Returns the id of the player this input is from.
+		 *
+		 * @return the id of the player this input is from.
+		 */
+		public int getPlayerId() {
+			return this.playerId;
+		}
+
+
+		/**
+		 * Returns the type of this input.
+		 *
+		 * @return the type of this input, one of {@code Replay.INPUT_*}.
+		 */
+		public int getType() {
+			return this.type;
+		}
+
+
+		/**
+		 * Returns whether this move was up.
+		 *
+		 * @return whether this move was up.
+		 */
+		public boolean isUp() {
+			return (this.flags & Replay.MOVE_UP) != 0;
+		}
+
+
+		/**
+		 * Returns whether this move was left.
+		 *
+		 * @return whether this move was left.
+		 */
+		public boolean isLeft() {
+			return (this.flags & Replay.MOVE_LEFT) != 0;
+		}
+
+
+		/**
+		 * Returns whether this move was down.
+		 *
+		 * @return whether this move was down.
+		 */
+		public boolean isDown() {
+			return (this.flags & Replay.MOVE_DOWN) != 0;
+		}
+
+
+		/**
+		 * Returns whether this move was right.
+		 *
+		 * @return whether this move was right.
+		 */
+		public boolean isRight() {
+			return (this.flags & Replay.MOVE_RIGHT) != 0;
+		}
+
+
+		/**
+		 * Returns the exact angle of this move.
+		 *
+		 * @return the angle, in radians, sent with this move.
+		 */
+		public double getRad() {
+			return this.rad;
+		}
+
+
+		/**
+		 * Returns the type of the item bought.
+		 *
+		 * @return the type of the item bought, or {@code null} if it was not a known item.
+		 */
+		public String getItemType() {
+			return this.itemType;
+		}
+
+
+		/**
+		 * Returns the number of the item used.
+		 *
+		 * @return the number of the item used.
+		 */
+		public int getItemNum() {
+			return this.itemNum;
+		}
+
+	}
+
+
+	/** The open replay file. */
+	private final FileChannel channel;
+	/** The contents of the replay file. */
+	private final MappedByteBuffer buffer;
+
+	/** The number of ticks per second of the recorded game. */
+	private final int tickRate;
+	/** The number of the level the game was played on. */
+	private final int levelId;
+	/** The number of ticks between keyframes. */
+	private final int keyframeInterval;
+	/** The seed of the simulation when recording began. */
+	private final long seed;
+	/** The seed the level was generated from, or {@code null} if it was not generated. */
+	private final Long levelSeed;
+	/** The number of rows of tiles in the level, if it was generated. */
+	private final int levelRows;
+	/** The number of columns of tiles in the level, if it was generated. */
+	private final int levelCols;
+	/** The number of frames, as defined by {@code Settings.FPS}, that pass during one tick. */
+	private final double framesPerTick;
+	/** The offset of the first frame. */
+	private final int framesStart;
+	/** The offset just past the last complete frame. */
+	private int framesEnd;
+	/** The tick of each keyframe. */
+	private long[] keyframeTicks;
+	/** The file offset of each keyframe. */
+	private int[] keyframeOffsets;
+	/** The number of keyframes. */
+	private int keyframes;
+	/** The tick of the last frame. */
+	private long lastTick;
+
+	/** The tick of the current frame, or {@code -1} before the first frame is read. */
+	private long tick;
+	/** The offset of the frame after the current one. */
+	private int position;
+	/** Every player at the end of the current tick, by id. */
+	private final Map<Integer, PlayerRecord> players;
+	/** Every bullet in flight at the end of the current tick, by id. */
+	private final Map<Integer, BulletRecord> bullets;
+	/** The inputs applied during the current tick. */
+	private final List<Input> inputs;
+	/** Input objects that can be reused, in the order they are reused. */
+	private final List<Input> inputPool;
+	/** The exact angle of each player's last move, by player id. */
+	private final Map<Integer, Double> lastMoveRad;
+
+
+	/**
+	 * Opens a replay file and reads its header and index. The reader is left before the first
+	 * frame.
+	 *
+	 * @param file  the replay file to open.
+	 *
+	 * @throws IOException  if the file cannot be read, is not a replay file, or has no frames.
+	 */
+	public ReplayReader(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = this.channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("replay file too large: " + size + " bytes");
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			if (size < 5 || this.buffer.getInt(0) != Replay.MAGIC)
+				throw new IOException("not a replay file: " + file);
+			int version = this.buffer.get(4);
+			if (version != Replay.VERSION)
+				throw new IOException("unsupported replay version: " + version);
+			this.buffer.position(5);
+			this.tickRate = (int) this.readVarint();
+			this.levelId = (int) this.readVarint();
+			this.keyframeInterval = (int) this.readVarint();
+			this.seed = this.buffer.getLong();
+			if (this.buffer.get() != 0) {
+				this.levelSeed = this.buffer.getLong();
+				this.levelRows = (int) this.readVarint();
+				this.levelCols = (int) this.readVarint();
+			}
+			else {
+				this.levelSeed = null;
+				this.levelRows = 0;
+				this.levelCols = 0;
+			}
+			this.framesStart = this.buffer.position();
+		}
+		catch (BufferUnderflowException e) {
+			this.channel.close();
+			throw new IOException("truncated replay header: " + file);
+		}
+		catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.framesPerTick = (double) Settings.FPS / this.tickRate;
+
+		this.players = new TreeMap<>();
+		this.bullets = new LinkedHashMap<>();
+		this.inputs = new ArrayList<>();
+		this.inputPool = new ArrayList<>();
+		this.lastMoveRad = new HashMap<>();
+
+		try {
+			if (!this.readIndex())
+				this.scanFrames();
+			if (this.keyframes == 0)
+				throw new IOException("replay file has no frames: " + file);
+			this.findLastTick();
+		}
+		catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.rewind();
+	}
+
+
+	/**
+	 * Reads a variable-length integer at the buffer's position.
+	 *
+	 * @return the value read.
+	 *
+	 * @throws BufferUnderflowException  if the integer runs past the end of the file.
+	 */
+	private long readVarint() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = this.buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		return value;
+	}
+
+
+	/**
+	 * Reads a signed variable-length integer at the buffer's position.
+	 *
+	 * @return the value read.
+	 *
+	 * @throws BufferUnderflowException  if the integer runs past the end of the file.
+	 */
+	private long readSigned() {
+		return Replay.unzigzag(this.readVarint());
+	}
+
+
+	/**
+	 * Adds a keyframe to the index.
+	 *
+	 * @param tick    the tick of the keyframe.
+	 * @param offset  the file offset of the keyframe.
+	 */
+	private void addKeyframe(long tick, int offset) {
+		if (this.keyframeTicks == null) {
+			this.keyframeTicks = new long[16];
+			this.keyframeOffsets = new int[16];
+		}
+		if (this.keyframes == this.keyframeTicks.length) {
+			this.keyframeTicks = Arrays.copyOf(this.keyframeTicks, this.keyframes * 2);
+			this.keyframeOffsets = Arrays.copyOf(this.keyframeOffsets, this.keyframes * 2);
+		}
+		this.keyframeTicks[this.keyframes] = tick;
+		this.keyframeOffsets[this.keyframes] = offset;
+		this.keyframes++;
+	}
+
+
+	/**
+	 * Reads the index of keyframes written when the file was closed.
+	 *
+	 * @return whether the file has a valid index.
+	 */
+	private boolean readIndex() {
+		int size = this.buffer.limit();
+		if (size - this.framesStart < Replay.TRAILER_SIZE ||
+			this.buffer.getInt(size - 4) != Replay.TRAILER_MAGIC)
+			return false;
+		long indexOffset = this.buffer.getLong(size - Replay.TRAILER_SIZE);
+		if (indexOffset < this.framesStart || indexOffset >= size - Replay.TRAILER_SIZE)
+			return false;
+
+		try {
+			this.buffer.position((int) indexOffset);
+			if (this.buffer.get() != Replay.FRAME_INDEX)
+				return false;
+			this.readVarint();
+			long count = this.readVarint();
+			long tick = 0;
+			long offset = 0;
+			for (long i = 0; i < count; i++) {
+				tick += this.readVarint();
+				offset += this.readVarint();
+				if (offset < this.framesStart || offset >= indexOffset)
+					return false;
+				this.addKeyframe(tick, (int) offset);
+			}
+		}
+		catch (BufferUnderflowException e) {
+			this.keyframes = 0;
+			return false;
+		}
+		this.framesEnd = (int) indexOffset;
+		return true;
+	}
+
+
+	/**
+	 * Finds the keyframes and the end of the last complete frame by reading every frame.
+	 */
+	private void scanFrames() {
+		this.keyframes = 0;
+		int offset = this.framesStart;
+		int size = this.buffer.limit();
+		try {
+			while (offset < size) {
+				this.buffer.position(offset);
+				int type = this.buffer.get();
+				long length = this.readVarint();
+				int body = this.buffer.position();
+				if ((type != Replay.FRAME_KEY && type != Replay.FRAME_DELTA) ||
+					length > size - body)
+					break;
+				if (type == Replay.FRAME_KEY)
+					this.addKeyframe(this.readVarint(), offset);
+				offset = body + (int) length;
+			}
+		}
+		catch (BufferUnderflowException e) {
+			// The last frame was cut off
+		}
+		this.framesEnd = offset;
+	}
+
+
+	/**
+	 * Finds the tick of the last frame by counting the frames after the last keyframe.
+	 */
+	private void findLastTick() {
+		this.lastTick = this.keyframeTicks[this.keyframes - 1];
+		int offset = this.keyframeOffsets[this.keyframes - 1];
+		boolean first = true;
+		while (offset < this.framesEnd) {
+			this.buffer.position(offset + 1);
+			long length = this.readVarint();
+			if (!first)
+				this.lastTick++;
+			first = false;
+			offset = this.buffer.position() + (int) length;
+		}
+	}
+
+
+	/**
+	 * Returns the number of ticks per second of the recorded game.
+	 *
+	 * @return the number of ticks per second.
+	 */
+	public int getTickRate() {
+		return this.tickRate;
+	}
+
+
+	/**
+	 * Returns the number of the level the recorded game was played on.
+	 *
+	 * @return the number of the level.
+	 */
+	public int getLevelId() {
+		return this.levelId;
+	}
+
+
+	/**
+	 * Returns the seed the level of the recorded game was generated from.
+	 *
+	 * @return the seed of the level, or {@code null} if the level was not generated.
+	 */
+	public Long getLevelSeed() {
+		return this.levelSeed;
+	}
+
+
+	/**
+	 * Creates the level the recorded game was played on, generating it again if it was
+	 * generated.
+	 *
+	 * @return the level.
+	 *
+	 * @throws IllegalArgumentException  if the level does not exist, or cannot be generated.
+	 *
+	 * @see Level#generate
+	 */
+	public Level createLevel() {
+		if (this.levelSeed == null)
+			return new Level(this.levelId);
+		return Level.generate(this.levelId, this.levelSeed, this.levelRows, this.levelCols);
+	}
+
+
+	/**
+	 * Returns the number of ticks between keyframes.
+	 *
+	 * @return the number of ticks between keyframes.
+	 */
+	public int getKeyframeInterval() {
+		return this.keyframeInterval;
+	}
+
+
+	/**
+	 * Returns the seed of the simulation when recording began.
+	 *
+	 * @return the seed of the simulation.
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+
+
+	/**
+	 * Returns the tick of the first frame.
+	 *
+	 * @return the tick of the first frame.
+	 */
+	public long getFirstTick() {
+		return this.keyframeTicks[0];
+	}
+
+
+	/**
+	 * Returns the tick of the last frame.
+	 *
+	 * @return the tick of the last frame.
+	 */
+	public long getLastTick() {
+		return this.lastTick;
+	}
+
+
+	/**
+	 * Returns the tick of the current frame.
+	 *
+	 * @return the tick of the current frame, or {@code -1} before the first frame is read.
+	 */
+	public long getTick() {
+		return this.tick;
+	}
+
+
+	/**
+	 * Returns every player at the end of the current tick.
+	 *
+	 * @return an unmodifiable map of every player, by id.
+	 */
+	public Map<Integer, PlayerRecord> getPlayers() {
+		return Collections.unmodifiableMap(this.players);
+	}
+
+
+	/**
+	 * Returns every bullet in flight at the end of the current tick.
+	 *
+	 * @return an unmodifiable collection of every bullet.
+	 */
+	public Collection<BulletRecord> getBullets() {
+		return Collections.unmodifiableCollection(this.bullets.values());
+	}
+
+
+	/**
+	 * Returns the inputs applied during the current tick, in the order they were applied.
+	 *
+	 * @return an unmodifiable list of the inputs applied during the current tick.
+	 */
+	public List<Input> getInputs() {
+		return Collections.unmodifiableList(this.inputs);
+	}
+
+
+	/**
+	 * Moves the reader back to before the first frame.
+	 */
+	public void rewind() {
+		this.tick = -1;
+		this.position = this.keyframeOffsets[0];
+		this.players.clear();
+		this.bullets.clear();
+		this.inputs.clear();
+		this.lastMoveRad.clear();
+	}
+
+
+	/**
+	 * Reads the next frame.
+	 *
+	 * @return whether a frame was read, or {@code false} if the reader is at the last frame.
+	 *
+	 * @throws IOException  if the frame is corrupt.
+	 */
+	public boolean next() throws IOException {
+		if (this.position >= this.framesEnd)
+			return false;
+
+		int offset = this.position;
+		try {
+			this.buffer.position(offset);
+			int type = this.buffer.get();
+			long length = this.readVarint();
+			int end = this.buffer.position() + (int) length;
+			if (type == Replay.FRAME_KEY)
+				this.readKeyframeTick();
+			else if (type == Replay.FRAME_DELTA && this.tick >= 0)
+				this.advanceBullets();
+			else
+				throw new IOException("unexpected frame type " + type + " at offset " + offset);
+			this.tick++;
+
+			this.readInputs();
+			this.readPlayers();
+			this.readBullets();
+			if (this.buffer.position() != end)
+				throw new IOException("frame length mismatch at offset " + offset);
+			this.position = end;
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("corrupt frame at offset " + offset, e);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Starts reading a keyframe, which replaces all state.
+	 */
+	private void readKeyframeTick() {
+		this.tick = this.readVarint() - 1;
+		this.players.clear();
+		this.bullets.clear();
+		this.lastMoveRad.clear();
+	}
+
+
+	/**
+	 * Moves every bullet by one tick.
+	 */
+	private void advanceBullets() {
+		for (BulletRecord bullet : this.bullets.values()) {
+			bullet.x += bullet.vx * this.framesPerTick;
+			bullet.y += bullet.vy * this.framesPerTick;
+		}
+	}
+
+
+	/**
+	 * Reads the inputs section of a frame.
+	 */
+	private void readInputs() {
+		this.inputs.clear();
+		long count = this.readVarint();
+		for (int i = 0; i < count; i++) {
+			if (i == this.inputPool.size())
+				this.inputPool.add(new Input());
+			Input input = this.inputPool.get(i);
+			input.playerId = (int) this.readVarint();
+			input.type = this.buffer.get();
+			input.flags = 0;
+			input.rad = 0;
+			input.itemType = null;
+			input.itemNum = 0;
+			switch (input.type) {
+			case Replay.INPUT_MOVE -> {
+				input.flags = this.buffer.get();
+				if ((input.flags & Replay.MOVE_RAD) != 0) {
+					input.rad = Double.longBitsToDouble(this.buffer.getLong());
+					this.lastMoveRad.put(input.playerId, input.rad);
+				}
+				else
+					input.rad = this.lastMoveRad.getOrDefault(input.playerId, 0.0);
+			}
+			case Replay.INPUT_BUY -> input.itemType = Replay.itemType(this.buffer.get());
+			case Replay.INPUT_USE -> input.itemNum = (int) this.readVarint();
+			case Replay.INPUT_DISCONNECT -> this.lastMoveRad.remove(input.playerId);
+			}
+			this.inputs.add(input);
+		}
+	}
+
+
+	/**
+	 * Reads the players section of a frame.
+	 */
+	private void readPlayers() {
+		long count = this.readVarint();
+		for (int i = 0; i < count; i++) {
+			int playerId = (int) this.readVarint();
+			int mask = (int) this.readVarint();
+			if (mask == Replay.REMOVED) {
+				this.players.remove(playerId);
+				continue;
+			}
+
+			PlayerRecord player = this.players.get(playerId);
+			if (player == null) {
+				player = new PlayerRecord();
+				this.players.put(playerId, player);
+			}
+			int[] fields = player.fields;
+			for (int field = 1; field < Replay.FIELDS; field++) {
+				if ((mask & (1 << field)) == 0)
+					continue;
+				switch (field) {
+				case Replay.FIELD_X, Replay.FIELD_Y -> fields[field] += (int) this.readSigned();
+				case Replay.FIELD_RAD ->
+					fields[field] = (fields[field] + (int) this.readSigned()) &
+						(Replay.ANGLE_STEPS - 1);
+				case Replay.FIELD_HEALTH, Replay.FIELD_MONEY ->
+					fields[field] = (int) this.readSigned();
+				default -> fields[field] = (int) this.readVarint();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Reads the bullets section of a frame.
+	 */
+	private void readBullets() {
+		long fired = this.readVarint();
+		int id = 0;
+		for (int i = 0; i < fired; i++) {
+			id += (int) this.readSigned();
+			BulletRecord bullet = new BulletRecord();
+			bullet.x = this.readSigned() / Replay.POSITION_SCALE;
+			bullet.y = this.readSigned() / Replay.POSITION_SCALE;
+			bullet.vx = this.readSigned() / Replay.VELOCITY_SCALE;
+			bullet.vy = this.readSigned() / Replay.VELOCITY_SCALE;
+			bullet.weaponType = Replay.itemType(this.buffer.get());
+			this.bullets.put(id, bullet);
+		}
+
+		long removed = this.readVarint();
+		id = 0;
+		for (int i = 0; i < removed; i++) {
+			id += (int) this.readVarint();
+			this.bullets.remove(id);
+		}
+	}
+
+
+	/**
+	 * Moves the reader to a tick. The tick is clamped to the ticks in the file. Seeking
+	 * forward by less than a keyframe interval reads the frames in between, and any other seek
+	 * starts from the last keyframe at or before the tick.
+	 *
+	 * @param target  the tick to move to.
+	 *
+	 * @throws IOException  if a frame is corrupt.
+	 */
+	public void seek(long target) throws IOException {
+		target = Math.max(this.getFirstTick(), Math.min(this.lastTick, target));
+
+		int index = Arrays.binarySearch(this.keyframeTicks, 0, this.keyframes, target);
+		if (index < 0)
+			index = -index - 2;
+		long keyframeTick = this.keyframeTicks[index];
+		if (this.tick < keyframeTick || this.tick > target) {
+			this.rewind();
+			this.position = this.keyframeOffsets[index];
+		}
+		while (this.tick < target && this.next());
+	}
+
+
+	/**
+	 * Closes the replay file.
+	 *
+	 * @throws IOException  if the file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+}
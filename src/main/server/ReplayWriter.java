@@ -0,0 +1,666 @@
+package server;
+
+
+import entity.Player;
+import entity.Bullet;
+import world.Level;
+import world.LevelData;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Records a game to a replay file, one frame per tick, in the format described by
+ * {@code Replay}.
+ * <p>
+ * During a tick, each client command applied by the server is passed to one of the input
+ * methods, and at the end of the tick {@code endTick} compares the players and bullets with
+ * their state at the end of the last tick and writes the differences. The last state of each
+ * player is kept as rounded integers, so comparing does not allocate, and bullets are matched
+ * to the ids they were written with by identity. Frames are collected in memory and written to
+ * the file in blocks of {@code BLOCK_SIZE} by a background thread, so a tick never waits for
+ * the file unless the previous block has still not been written.
+ * <p>
+ * This class must only be used by the simulation thread.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see ReplayReader
+ */
+public class ReplayWriter implements AutoCloseable {
+
+	/**
+	 * A growable array of bytes with methods for writing the integers used by the format.
+	 */
+	private static class Bytes {
+
+		/** The bytes written. */
+		private byte[] data;
+		/** The number of bytes written. */
+		private int length;
+
+
+		/**
+		 * Constructs a new, empty {@code Bytes}.
+		 *
+		 * @param capacity  the initial capacity, in bytes.
+		 */
+		private Bytes(int capacity) {
+			this.data = new byte[capacity];
+			this.length = 0;
+		}
+
+
+		/**
+		 * Makes room for some number of bytes.
+		 *
+		 * @param count  the number of bytes about to be written.
+		 */
+		private void reserve(int count) {
+			if (this.length + count > this.data.length)
+				this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2,
+															  this.length + count));
+		}
+
+
+		/**
+		 * Writes one byte.
+		 *
+		 * @param value  the byte, in the low 8 bits.
+		 */
+		private void put(int value) {
+			this.reserve(1);
+			this.data[this.length++] = (byte) value;
+		}
+
+
+		/**
+		 * Writes a non-negative variable-length integer.
+		 *
+		 * @param value  the value.
+		 */
+		private void putVarint(long value) {
+			this.reserve(10);
+			while ((value & ~0x7fL) != 0) {
+				this.data[this.length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			this.data[this.length++] = (byte) value;
+		}
+
+
+		/**
+		 * Writes a signed variable-length integer.
+		 *
+		 * @param value  the value.
+		 */
+		private void putSigned(long value) {
+			this.putVarint(Replay.zigzag(value));
+		}
+
+
+		/**
+		 * Writes a fixed-length, big-endian integer.
+		 *
+		 * @param value  the value.
+		 * @param size   the number of bytes to write.
+		 */
+		private void putFixed(long value, int size) {
+			this.reserve(size);
+			for (int i = size - 1; i >= 0; i--)
+				this.data[this.length++] = (byte) (value >>> (i * 8));
+		}
+
+
+		/**
+		 * Appends the bytes written to another {@code Bytes}.
+		 *
+		 * @param bytes  the bytes to append.
+		 */
+		private void putAll(Bytes bytes) {
+			this.reserve(bytes.length);
+			System.arraycopy(bytes.data, 0, this.data, this.length, bytes.length);
+			this.length += bytes.length;
+		}
+
+	}
+
+
+	/** The number of seconds between keyframes by default. */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+	/** The number of bytes collected in memory before they are written to the file. */
+	public static final int BLOCK_SIZE = 1 << 18;
+
+
+	/** The file being written. */
+	private final FileChannel channel;
+	/** The number of frames between the starts of two keyframes. */
+	private final int keyframeInterval;
+
+	/** The thread that writes blocks to the file. */
+	private final ExecutorService io;
+	/** The block being written by the background thread, or {@code null} if none. */
+	private Future<?> writing;
+	/** The bytes waiting to be written to the file. */
+	private Bytes pending;
+	/** The buffer of the block last written, reused for the next block. */
+	private Bytes spare;
+	/** The offset in the file of the first pending byte. */
+	private long pendingOffset;
+	/** The inputs recorded during the current tick. */
+	private final Bytes inputs;
+	/** The number of inputs recorded during the current tick. */
+	private int inputCount;
+	/** The players and bullets sections of the frame being written. */
+	private final Bytes state;
+	/** The body of the frame being written. */
+	private final Bytes body;
+
+	/** The fields of each player at the end of the last frame, by player id. */
+	private final Map<Integer, int[]> lastPlayers;
+	/** The fields of a player being compared. */
+	private final int[] fields;
+	/** The exact angle of each player's last move input, by player id. */
+	private final Map<Integer, Long> lastMoveRad;
+	/** The id of each bullet at the end of the last frame. */
+	private Map<Bullet, Integer> lastBullets;
+	/** The id of each bullet at the end of the current frame. */
+	private Map<Bullet, Integer> nextBullets;
+	/** The id given to the next bullet fired. */
+	private int nextBulletId;
+
+	/** The tick of the last frame written, or {@code -1} if none. */
+	private long lastTick;
+	/** The tick of the last keyframe written. */
+	private long lastKeyframe;
+	/** The tick of each keyframe written. */
+	private long[] keyframeTicks;
+	/** The file offset of each keyframe written. */
+	private long[] keyframeOffsets;
+	/** The number of keyframes written. */
+	private int keyframes;
+	/** Whether this writer has been closed. */
+	private boolean closed;
+
+
+	/**
+	 * Creates a replay file and writes its header. An existing file is replaced.
+	 *
+	 * @param file              the file to write.
+	 * @param tickRate          the number of ticks per second of the recorded game.
+	 * @param level             the level the game is played on.
+	 * @param keyframeInterval  the number of ticks between keyframes.
+	 * @param seed              the seed of the simulation when recording begins.
+	 *
+	 * @throws IOException               if the file cannot be created.
+	 * @throws NullPointerException      if {@code level == null}.
+	 * @throws IllegalArgumentException  if {@code tickRate < 1} or {@code keyframeInterval < 1}.
+	 */
+	public ReplayWriter(Path file, int tickRate, Level level, int keyframeInterval, long seed)
+		throws IOException
+	{
+		if (level == null)
+			throw new NullPointerException("level was null");
+		if (tickRate < 1)
+			throw new IllegalArgumentException("invalid tick rate: " + tickRate);
+		if (keyframeInterval < 1)
+			throw new IllegalArgumentException("invalid keyframe interval: " + keyframeInterval);
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+										StandardOpenOption.WRITE,
+										StandardOpenOption.TRUNCATE_EXISTING);
+		this.keyframeInterval = keyframeInterval;
+
+		this.io = Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "ReplayWriter io");
+					thread.setDaemon(true);
+					return thread;
+			});
+		this.writing = null;
+		this.pending = new Bytes(ReplayWriter.BLOCK_SIZE + (1 << 12));
+		this.spare = new Bytes(ReplayWriter.BLOCK_SIZE + (1 << 12));
+		this.pendingOffset = 0;
+		this.inputs = new Bytes(1 << 10);
+		this.inputCount = 0;
+		this.state = new Bytes(1 << 12);
+		this.body = new Bytes(1 << 12);
+
+		this.lastPlayers = new HashMap<>();
+		this.fields = new int[Replay.FIELDS];
+		this.lastMoveRad = new HashMap<>();
+		this.lastBullets = new IdentityHashMap<>();
+		this.nextBullets = new IdentityHashMap<>();
+		this.nextBulletId = 0;
+
+		this.lastTick = -1;
+		this.lastKeyframe = -1;
+		this.keyframeTicks = new long[16];
+		this.keyframeOffsets = new long[16];
+		this.keyframes = 0;
+		this.closed = false;
+
+		this.pending.putFixed(Replay.MAGIC, 4);
+		this.pending.put(Replay.VERSION);
+		this.pending.putVarint(tickRate);
+		this.pending.putVarint(level.toInteger());
+		this.pending.putVarint(keyframeInterval);
+		this.pending.putFixed(seed, 8);
+		Long levelSeed = level.getSeed();
+		if (levelSeed == null)
+			this.pending.put(0);
+		else {
+			LevelData data = level.getData();
+			this.pending.put(1);
+			this.pending.putFixed(levelSeed, 8);
+			this.pending.putVarint(data.rows());
+			this.pending.putVarint(data.cols());
+		}
+	}
+
+
+	/**
+	 * Starts an input, writing the player and the input type.
+	 *
+	 * @param playerId  the id of the player the input is from.
+	 * @param type      the input type, one of {@code Replay.INPUT_*}.
+	 */
+	private void input(int playerId, int type) {
+		this.inputs.putVarint(playerId);
+		this.inputs.put(type);
+		this.inputCount++;
+	}
+
+
+	/**
+	 * Records a client connecting, after its player was added.
+	 *
+	 * @param playerId  the id given to the client's player.
+	 */
+	public void connect(int playerId) {
+		this.input(playerId, Replay.INPUT_CONNECT);
+	}
+
+
+	/**
+	 * Records a client disconnecting, after its player was removed.
+	 *
+	 * @param playerId  the id of the client's player.
+	 */
+	public void disconnect(int playerId) {
+		this.input(playerId, Replay.INPUT_DISCONNECT);
+		this.lastMoveRad.remove(playerId);
+	}
+
+
+	/**
+	 * Records a move command. The exact angle is only written when it differs from the
+	 * player's last move.
+	 *
+	 * @param playerId  the id of the player that moved.
+	 * @param up        whether the player moved up.
+	 * @param left      whether the player moved left.
+	 * @param down      whether the player moved down.
+	 * @param right     whether the player moved right.
+	 * @param rad       the angle the player is facing.
+	 */
+	public void move(int playerId,
+					 boolean up, boolean left, boolean down, boolean right,
+					 double rad)
+	{
+		long radBits = Double.doubleToLongBits(rad);
+		Long lastRad = this.lastMoveRad.get(playerId);
+		boolean radChanged = lastRad == null || lastRad != radBits;
+		int flags =
+			(up ? Replay.MOVE_UP : 0) |
+			(left ? Replay.MOVE_LEFT : 0) |
+			(down ? Replay.MOVE_DOWN : 0) |
+			(right ? Replay.MOVE_RIGHT : 0) |
+			(radChanged ? Replay.MOVE_RAD : 0);
+
+		this.input(playerId, Replay.INPUT_MOVE);
+		this.inputs.put(flags);
+		if (radChanged) {
+			this.inputs.putFixed(radBits, 8);
+			this.lastMoveRad.put(playerId, radBits);
+		}
+	}
+
+
+	/**
+	 * Records a shoot command.
+	 *
+	 * @param playerId  the id of the player that shot.
+	 */
+	public void shoot(int playerId) {
+		this.input(playerId, Replay.INPUT_SHOOT);
+	}
+
+
+	/**
+	 * Records a buy command.
+	 *
+	 * @param playerId  the id of the player buying.
+	 * @param itemType  the type of the item to buy.
+	 */
+	public void buy(int playerId, String itemType) {
+		this.input(playerId, Replay.INPUT_BUY);
+		this.inputs.put(Replay.itemCode(itemType));
+	}
+
+
+	/**
+	 * Records a use command.
+	 *
+	 * @param playerId  the id of the player using an item.
+	 * @param itemNum   the number of the item to use.
+	 */
+	public void use(int playerId, int itemNum) {
+		this.input(playerId, Replay.INPUT_USE);
+		this.inputs.putVarint(itemNum);
+	}
+
+
+	/**
+	 * Writes the players section of a frame: every player whose fields changed, and every
+	 * player that left. For a keyframe, every player is written with every field.
+	 *
+	 * @param players   every player, by id.
+	 * @param keyframe  whether the frame is a keyframe.
+	 */
+	private void writePlayers(Map<Integer, Player> players, boolean keyframe) {
+		if (keyframe)
+			this.lastPlayers.clear();
+
+		int changed = 0;
+		Bytes out = this.body;
+		for (Map.Entry<Integer, Player> entry : players.entrySet()) {
+			int playerId = entry.getKey();
+			int[] last = this.lastPlayers.get(playerId);
+			if (last == null) {
+				last = new int[Replay.FIELDS];
+				this.lastPlayers.put(playerId, last);
+			}
+			Replay.readFields(entry.getValue(), this.fields);
+
+			int mask = 0;
+			for (int field = 1; field < Replay.FIELDS; field++)
+				if (this.fields[field] != last[field] || keyframe)
+					mask |= 1 << field;
+			if (mask == 0)
+				continue;
+
+			changed++;
+			out.putVarint(playerId);
+			out.putVarint(mask);
+			for (int field = 1; field < Replay.FIELDS; field++) {
+				if ((mask & (1 << field)) == 0)
+					continue;
+				int value = this.fields[field];
+				switch (field) {
+				case Replay.FIELD_X, Replay.FIELD_Y -> out.putSigned(value - last[field]);
+				case Replay.FIELD_RAD -> out.putSigned(Replay.angleDelta(value, last[field]));
+				case Replay.FIELD_HEALTH, Replay.FIELD_MONEY -> out.putSigned(value);
+				default -> out.putVarint(value);
+				}
+				last[field] = value;
+			}
+		}
+
+		// Players that are no longer in the game
+		Iterator<Map.Entry<Integer, int[]>> iterator = this.lastPlayers.entrySet().iterator();
+		while (iterator.hasNext()) {
+			int playerId = iterator.next().getKey();
+			if (players.containsKey(playerId))
+				continue;
+			iterator.remove();
+			changed++;
+			out.putVarint(playerId);
+			out.putVarint(Replay.REMOVED);
+		}
+
+		this.state.putVarint(changed);
+		this.state.putAll(out);
+		out.length = 0;
+	}
+
+
+	/**
+	 * Writes a bullet as fired.
+	 *
+	 * @param out     the bytes to write to.
+	 * @param bullet  the bullet.
+	 * @param id      the id of the bullet.
+	 * @param lastId  the id of the bullet written before it in the same frame.
+	 */
+	private static void writeBullet(Bytes out, Bullet bullet, int id, int lastId) {
+		out.putSigned(id - lastId);
+		out.putSigned(Replay.quantizePosition(bullet.getX()));
+		out.putSigned(Replay.quantizePosition(bullet.getY()));
+		out.putSigned(Replay.quantizeVelocity(bullet.getVx()));
+		out.putSigned(Replay.quantizeVelocity(bullet.getVy()));
+		out.put(Replay.itemCode(bullet.getWeaponType()));
+	}
+
+
+	/**
+	 * Writes the bullets section of a frame: the bullets fired since the last frame, then the
+	 * bullets removed. For a keyframe, every bullet is written as fired and none as removed.
+	 *
+	 * @param bullets   every bullet.
+	 * @param keyframe  whether the frame is a keyframe.
+	 */
+	private void writeBullets(List<Bullet> bullets, boolean keyframe) {
+		Bytes out = this.body;
+		int fired = 0;
+		int lastId = 0;
+		for (Bullet bullet : bullets) {
+			Integer id = this.lastBullets.remove(bullet);
+			boolean isNew = id == null;
+			if (isNew)
+				id = this.nextBulletId++;
+			this.nextBullets.put(bullet, id);
+			if (isNew || keyframe) {
+				ReplayWriter.writeBullet(out, bullet, id, lastId);
+				lastId = id;
+				fired++;
+			}
+		}
+		this.state.putVarint(fired);
+		this.state.putAll(out);
+		out.length = 0;
+
+		// Whatever was not matched has been removed
+		if (keyframe || this.lastBullets.isEmpty())
+			this.state.putVarint(0);
+		else {
+			this.state.putVarint(this.lastBullets.size());
+			int[] removed = new int[this.lastBullets.size()];
+			int i = 0;
+			for (int id : this.lastBullets.values())
+				removed[i++] = id;
+			Arrays.sort(removed);
+			lastId = 0;
+			for (int id : removed) {
+				this.state.putVarint(id - lastId);
+				lastId = id;
+			}
+		}
+
+		this.lastBullets.clear();
+		Map<Bullet, Integer> swap = this.lastBullets;
+		this.lastBullets = this.nextBullets;
+		this.nextBullets = swap;
+	}
+
+
+	/**
+	 * Writes the frame for a tick, with the inputs recorded since the last frame and the
+	 * changes to the players and bullets. A keyframe is written for the first tick, for a tick
+	 * that does not follow the last one, and every {@code keyframeInterval} ticks.
+	 *
+	 * @param tick     the tick that ended.
+	 * @param players  every player, by id, at the end of the tick.
+	 * @param bullets  every bullet at the end of the tick.
+	 *
+	 * @throws IOException            if the frame cannot be written.
+	 * @throws IllegalStateException  if this writer has been closed.
+	 */
+	public void endTick(long tick, Map<Integer, Player> players, List<Bullet> bullets)
+		throws IOException
+	{
+		if (this.closed)
+			throw new IllegalStateException("replay writer is closed");
+
+		boolean keyframe = this.lastTick < 0 || tick != this.lastTick + 1 ||
+			tick - this.lastKeyframe >= this.keyframeInterval;
+		this.writePlayers(players, keyframe);
+		this.writeBullets(bullets, keyframe);
+
+		if (keyframe)
+			this.body.putVarint(tick);
+		this.body.putVarint(this.inputCount);
+		this.body.putAll(this.inputs);
+		this.body.putAll(this.state);
+
+		long offset = this.pendingOffset + this.pending.length;
+		this.pending.put(keyframe ? Replay.FRAME_KEY : Replay.FRAME_DELTA);
+		this.pending.putVarint(this.body.length);
+		this.pending.putAll(this.body);
+		this.body.length = 0;
+		this.state.length = 0;
+		this.inputs.length = 0;
+		this.inputCount = 0;
+
+		if (keyframe) {
+			if (this.keyframes == this.keyframeTicks.length) {
+				this.keyframeTicks = Arrays.copyOf(this.keyframeTicks, this.keyframes * 2);
+				this.keyframeOffsets = Arrays.copyOf(this.keyframeOffsets, this.keyframes * 2);
+			}
+			this.keyframeTicks[this.keyframes] = tick;
+			this.keyframeOffsets[this.keyframes] = offset;
+			this.keyframes++;
+			this.lastKeyframe = tick;
+		}
+		this.lastTick = tick;
+
+		// A reader starting at the next keyframe will not have seen any earlier angles, so
+		// the inputs of that tick must not depend on them
+		if (tick + 1 - this.lastKeyframe >= this.keyframeInterval)
+			this.lastMoveRad.clear();
+
+		if (this.pending.length >= ReplayWriter.BLOCK_SIZE)
+			this.flush();
+	}
+
+
+	/**
+	 * Waits for the block being written by the background thread, if any.
+	 *
+	 * @throws IOException  if the block could not be written.
+	 */
+	private void awaitWrite() throws IOException {
+		if (this.writing == null)
+			return;
+		try {
+			this.writing.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while writing replay", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		finally {
+			this.writing = null;
+		}
+	}
+
+
+	/**
+	 * Hands the pending bytes to the background thread to be written to the file, after the
+	 * block before them has been written.
+	 *
+	 * @throws IOException  if the block before could not be written.
+	 */
+	private void flush() throws IOException {
+		this.awaitWrite();
+		Bytes block = this.pending;
+		this.pending = this.spare;
+		this.spare = block;
+		this.pendingOffset += block.length;
+		this.writing = this.io.submit(() -> {
+				ByteBuffer buffer = ByteBuffer.wrap(block.data, 0, block.length);
+				while (buffer.hasRemaining())
+					this.channel.write(buffer);
+				block.length = 0;
+				return null;
+			});
+	}
+
+
+	/**
+	 * Returns the number of bytes recorded, including those not yet written to the file.
+	 *
+	 * @return the number of bytes recorded.
+	 */
+	public long size() {
+		return this.pendingOffset + this.pending.length;
+	}
+
+
+	/**
+	 * Writes the index and trailer and closes the file. Inputs recorded since the last frame
+	 * are discarded. Closing a writer more than once has no effect.
+	 *
+	 * @throws IOException  if the file cannot be written or closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed)
+			return;
+		this.closed = true;
+
+		try {
+			long indexOffset = this.size();
+			Bytes index = this.body;
+			index.length = 0;
+			index.putVarint(this.keyframes);
+			long lastTick = 0;
+			long lastOffset = 0;
+			for (int i = 0; i < this.keyframes; i++) {
+				index.putVarint(this.keyframeTicks[i] - lastTick);
+				index.putVarint(this.keyframeOffsets[i] - lastOffset);
+				lastTick = this.keyframeTicks[i];
+				lastOffset = this.keyframeOffsets[i];
+			}
+			this.pending.put(Replay.FRAME_INDEX);
+			this.pending.putVarint(index.length);
+			this.pending.putAll(index);
+			this.pending.putFixed(indexOffset, 8);
+			this.pending.putFixed(Replay.TRAILER_MAGIC, 4);
+			this.flush();
+			this.awaitWrite();
+		}
+		finally {
+			this.io.shutdown();
+			this.channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,415 @@
+package server;
+
+
+import entity.Player;
+import world.Level;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Entry point for re-simulating a recorded game as fast as possible, as a deterministic
+ * benchmark of the simulation.
+ * <p>
+ * <b>Usage</b>
+ * <p>
+ * {@code java -cp ByteStrike.jar server.Resimulator [--warmup runs] [--runs runs] file}
+ * <p>
+ * The inputs recorded in a replay file are applied to a new {@code Simulation}, seeded with
+ * the seed the replay was recorded with, in the same ticks and order they were applied to the
+ * recorded game. Ticks are simulated back to back, without waiting for the tick period or
+ * using the network, and the messages the simulation produces are counted and discarded.
+ * <p>
+ * The replay is simulated {@code warmup} times, by default {@code 2}, to let the JIT compile
+ * the simulation, then {@code runs} times, by default {@code 5}. For each run, the number of
+ * ticks simulated per second and the bytes allocated per tick by the simulation are printed,
+ * along with the percentiles of each phase of a tick over the last run.
+ * <p>
+ * After each tick, every player's state and the number of bullets in flight are compared
+ * with those recorded, to the precision they were recorded with. The first difference and
+ * the number of ticks that differ are printed, and the exit status is {@code 1} if any tick
+ * differs. Only a game recorded from before the first player joined can be re-simulated,
+ * since the state of players already in the game is not known to the simulation.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see Simulation
+ * @see ReplayReader
+ */
+public class Resimulator {
+
+	/**
+	 * Counts and discards the messages produced by a simulation.
+	 */
+	private static class Sink implements Simulation.Output {
+
+		/** The number of messages produced. */
+		private long messages;
+
+
+		@Override
+		public void post(int playerId, Map<String, String> command) {
+			this.messages++;
+		}
+
+
+		@Override
+		public void postAll(Map<String, String> command) {
+			this.messages++;
+		}
+
+
+		@Override
+		public void postMove(int playerId, int[] fromTile, Map<String, String> command) {
+			this.messages++;
+		}
+
+	}
+
+
+	/**
+	 * The measurements and divergence of one re-simulation of a replay.
+	 */
+	private static class Run {
+
+		/** The number of ticks simulated. */
+		private long ticks;
+		/** The time spent in the simulation, in nanoseconds. */
+		private long simNanos;
+		/** The time spent in the whole run, including reading and comparing, in nanoseconds. */
+		private long totalNanos;
+		/** The bytes allocated by the simulation, or {@code -1} if not supported. */
+		private long allocated;
+		/** The number of messages produced by the simulation. */
+		private long messages;
+		/** The number of ticks whose outcome differed from the one recorded. */
+		private long divergentTicks;
+		/** A description of the first difference, or {@code null} if there was none. */
+		private String firstDivergence;
+		/** The phases of each tick. */
+		private TickProfiler profiler;
+
+	}
+
+
+	/** The number of runs discarded by default before measuring. */
+	public static final int DEFAULT_WARMUP = 2;
+	/** The number of runs measured by default. */
+	public static final int DEFAULT_RUNS = 5;
+
+	/** The name of each player field, by {@code Replay.FIELD_*}. */
+	private static final String[] FIELD_NAMES = {
+		null, "x", "y", "rad", "health", "money", "weapon", "ammo", "capacity", "items"
+	};
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private Resimulator() { }
+
+
+	/**
+	 * Prints the usage of this program and exits with a non-zero status.
+	 *
+	 * @param error  a description of the problem with the given arguments.
+	 */
+	private static void usage(String error) {
+		System.err.println("error: " + error);
+		System.err.println("usage: server.Resimulator [--warmup runs] [--runs runs] file");
+		System.exit(1);
+	}
+
+
+	/**
+	 * Returns a non-negative integer option.
+	 *
+	 * @param options       the options to read from.
+	 * @param name          the name of the option.
+	 * @param defaultValue  the value returned if the option was not given.
+	 *
+	 * @return the value of the option.
+	 */
+	private static int getInt(Properties options, String name, int defaultValue) {
+		String value = options.getProperty(name);
+		options.remove(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			int parsed = Integer.parseInt(value.trim());
+			if (parsed < 0)
+				Resimulator.usage("invalid " + name + ": " + value);
+			return parsed;
+		}
+		catch (NumberFormatException e) {
+			Resimulator.usage("invalid " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+
+	/**
+	 * Checks that a replay was recorded from before the first player joined, which is true
+	 * when every player in the first frame joined during it.
+	 *
+	 * @param replay  the replay to check.
+	 *
+	 * @throws IOException               if the replay cannot be read.
+	 * @throws IllegalArgumentException  if the replay began after a player joined.
+	 */
+	private static void checkStart(ReplayReader replay) throws IOException {
+		replay.rewind();
+		if (!replay.next())
+			throw new IllegalArgumentException("replay has no frames");
+		for (int playerId : replay.getPlayers().keySet()) {
+			boolean joined = false;
+			for (ReplayReader.Input input : replay.getInputs())
+				if (input.getPlayerId() == playerId && input.getType() == Replay.INPUT_CONNECT)
+					joined = true;
+			if (!joined)
+				throw new IllegalArgumentException("player " + playerId + " joined before " +
+												   "recording began, only games recorded " +
+												   "from before the first player joined " +
+												   "can be re-simulated");
+		}
+		replay.rewind();
+	}
+
+
+	/**
+	 * Applies the inputs of the current frame of a replay to a simulation.
+	 *
+	 * @param replay  the replay.
+	 * @param sim     the simulation.
+	 */
+	private static void applyInputs(ReplayReader replay, Simulation sim) {
+		for (ReplayReader.Input input : replay.getInputs()) {
+			int playerId = input.getPlayerId();
+			switch (input.getType()) {
+			case Replay.INPUT_CONNECT -> sim.connect(playerId);
+			case Replay.INPUT_DISCONNECT -> sim.disconnect(playerId);
+			case Replay.INPUT_MOVE -> sim.move(playerId,
+											   input.isUp(), input.isLeft(),
+											   input.isDown(), input.isRight(),
+											   input.getRad());
+			case Replay.INPUT_SHOOT -> sim.shoot(playerId);
+			case Replay.INPUT_BUY -> sim.buy(playerId, input.getItemType());
+			case Replay.INPUT_USE -> sim.use(playerId, input.getItemNum());
+			default -> throw new IllegalStateException("unknown input type: " +
+														input.getType());
+			}
+		}
+	}
+
+
+	/**
+	 * Compares the state of a simulation with the current frame of a replay.
+	 *
+	 * @param replay  the replay.
+	 * @param sim     the simulation.
+	 * @param fields  an array of {@code Replay.FIELDS} elements used to read player fields.
+	 *
+	 * @return a description of the first difference, or {@code null} if the states match.
+	 */
+	private static String compare(ReplayReader replay, Simulation sim, int[] fields) {
+		Map<Integer, ReplayReader.PlayerRecord> expected = replay.getPlayers();
+		Map<Integer, Player> actual = sim.getPlayers();
+		if (!expected.keySet().equals(actual.keySet()))
+			return "players expected " + expected.keySet() + " actual " + actual.keySet();
+
+		for (Map.Entry<Integer, Player> entry : actual.entrySet()) {
+			ReplayReader.PlayerRecord record = expected.get(entry.getKey());
+			Replay.readFields(entry.getValue(), fields);
+			for (int field = Replay.FIELD_X; field <= Replay.FIELD_ITEMS; field++) {
+				if (fields[field] != record.getField(field))
+					return "player " + entry.getKey() + " " + Resimulator.FIELD_NAMES[field] +
+						" expected " + record.getField(field) + " actual " + fields[field];
+			}
+		}
+
+		int expectedBullets = replay.getBullets().size();
+		int actualBullets = sim.getBullets().size();
+		if (expectedBullets != actualBullets)
+			return "bullets expected " + expectedBullets + " actual " + actualBullets;
+		return null;
+	}
+
+
+	/**
+	 * Re-simulates a replay once.
+	 *
+	 * @param replay  the replay.
+	 * @param level   the level the replay was recorded on.
+	 *
+	 * @return the measurements and divergence of the run.
+	 *
+	 * @throws IOException  if the replay cannot be read.
+	 */
+	private static Run resimulate(ReplayReader replay, Level level) throws IOException {
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		boolean measureAllocation = threads.isThreadAllocatedMemorySupported() &&
+			threads.isThreadAllocatedMemoryEnabled();
+
+		Run run = new Run();
+		int window = (int) Math.min(Integer.MAX_VALUE,
+									replay.getLastTick() - replay.getFirstTick() + 1);
+		run.profiler = new TickProfiler(Long.MAX_VALUE, Math.max(1, window));
+		Sink sink = new Sink();
+		Simulation sim = new Simulation(level, replay.getTickRate(), replay.getSeed(),
+										run.profiler, sink);
+		int[] fields = new int[Replay.FIELDS];
+
+		replay.rewind();
+		long runStart = System.nanoTime();
+		while (replay.next()) {
+			long allocStart = measureAllocation ? threads.getCurrentThreadAllocatedBytes() : 0;
+			long simStart = System.nanoTime();
+			run.profiler.begin(replay.getTick());
+			sim.advanceTimers();
+			run.profiler.mark(TickProfiler.Phase.TIMERS);
+			Resimulator.applyInputs(replay, sim);
+			run.profiler.mark(TickProfiler.Phase.INPUT);
+			sim.updateBullets();
+			run.profiler.mark(TickProfiler.Phase.BULLETS);
+			run.simNanos += System.nanoTime() - simStart;
+			if (measureAllocation)
+				run.allocated += threads.getCurrentThreadAllocatedBytes() - allocStart;
+			run.profiler.end(sim.getPlayers().size(), sim.getBullets().size(), 0);
+			run.ticks++;
+
+			String divergence = Resimulator.compare(replay, sim, fields);
+			if (divergence != null) {
+				run.divergentTicks++;
+				if (run.firstDivergence == null)
+					run.firstDivergence = "tick " + replay.getTick() + ": " + divergence;
+			}
+		}
+		run.totalNanos = System.nanoTime() - runStart;
+		run.messages = sink.messages;
+		if (!measureAllocation)
+			run.allocated = -1;
+		return run;
+	}
+
+
+	/**
+	 * Prints the measurements of one run.
+	 *
+	 * @param label  the label of the run.
+	 * @param run    the run.
+	 */
+	private static void printRun(String label, Run run) {
+		double simRate = run.ticks / (run.simNanos / 1e9);
+		double totalRate = run.ticks / (run.totalNanos / 1e9);
+		String allocation = run.allocated < 0 ?
+			"unknown" : String.format("%.0f B", (double) run.allocated / run.ticks);
+		System.out.println(String.format("%-8s %12.0f ticks/s sim %12.0f ticks/s total " +
+										 "%10s/tick %8.1f messages/tick",
+										 label, simRate, totalRate, allocation,
+										 (double) run.messages / run.ticks));
+	}
+
+
+	/**
+	 * Prints the percentiles of each phase of the ticks of a run.
+	 *
+	 * @param run  the run.
+	 */
+	private static void printPhases(Run run) {
+		TickProfiler.Phase[] phases = {
+			TickProfiler.Phase.TIMERS, TickProfiler.Phase.INPUT,
+			TickProfiler.Phase.BULLETS, TickProfiler.Phase.HITS
+		};
+		System.out.println(String.format("%-8s %10s %10s %10s", "phase", "p50_us", "p99_us",
+										 "max_us"));
+		for (TickProfiler.Phase phase : phases)
+			System.out.println(String.format("%-8s %10.1f %10.1f %10.1f",
+											 phase.name().toLowerCase(),
+											 run.profiler.percentile(phase, 50) / 1e3,
+											 run.profiler.percentile(phase, 99) / 1e3,
+											 run.profiler.percentile(phase, 100) / 1e3));
+		System.out.println(String.format("%-8s %10.1f %10.1f %10.1f", "tick",
+										 run.profiler.tickPercentile(50) / 1e3,
+										 run.profiler.tickPercentile(99) / 1e3,
+										 run.profiler.tickPercentile(100) / 1e3));
+	}
+
+
+	/**
+	 * Runs the re-simulation.
+	 *
+	 * @param args  command line arguments.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		Properties options = new Properties();
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("--") && i + 1 < args.length) {
+				options.setProperty(arg.substring(2), args[i + 1]);
+				i++;
+			}
+			else if (file == null && !arg.startsWith("--"))
+				file = arg;
+			else
+				Resimulator.usage("invalid argument: " + arg);
+		}
+		int warmup = Resimulator.getInt(options, "warmup", Resimulator.DEFAULT_WARMUP);
+		int runs = Resimulator.getInt(options, "runs", Resimulator.DEFAULT_RUNS);
+		if (!options.isEmpty())
+			Resimulator.usage("unknown options: " + options.keySet());
+		if (file == null)
+			Resimulator.usage("no replay file given");
+		if (runs < 1)
+			Resimulator.usage("invalid runs: " + runs);
+
+		Run last = null;
+		Run first = null;
+		try (ReplayReader replay = new ReplayReader(Path.of(file))) {
+			Resimulator.checkStart(replay);
+			Level level = replay.createLevel();
+			String levelName = replay.getLevelSeed() == null ? "level " + replay.getLevelId() :
+				"level generated from seed " + replay.getLevelSeed();
+			System.out.println("replay   " + file + ": " +
+							   (replay.getLastTick() - replay.getFirstTick() + 1) +
+							   " ticks at " + replay.getTickRate() + " ticks/s on " +
+							   levelName + ", seed " + replay.getSeed());
+
+			for (int i = 0; i < warmup + runs; i++) {
+				Run run = Resimulator.resimulate(replay, level);
+				if (i < warmup)
+					Resimulator.printRun("warmup", run);
+				else {
+					Resimulator.printRun("run " + (i - warmup + 1), run);
+					last = run;
+				}
+				if (first == null)
+					first = run;
+			}
+		}
+		catch (IOException e) {
+			System.err.println("error: cannot read replay " + file + ": " + e);
+			System.exit(1);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("error: " + e.getMessage());
+			System.exit(1);
+		}
+
+		Resimulator.printPhases(last);
+		if (first.firstDivergence == null)
+			System.out.println("diverged none of " + first.ticks + " ticks");
+		else {
+			System.out.println("diverged " + first.divergentTicks + " of " + first.ticks +
+							   " ticks, first at " + first.firstDivergence);
+			System.exit(1);
+		}
+	}
+
+}
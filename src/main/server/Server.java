@@ -6,153 +6,718 @@ import jnet.JClientSocket;
 import jnet.Bytes;
 import jnet.Log;
 import entity.Player;
-import entity.Bullet;
 import world.Level;
-import item.*;
+import world.LevelData;
+import world.LevelFile;
+import world.PotentiallyVisibleSet;
 import graphics.Settings;
-import interfaces.Weapon;
-import interfaces.Item;
-import java.awt.Point;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Runs the authoritative simulation of a game and relays its state to the connected clients.
+ * <p>
+ * The rules of the game are implemented by a {@code Simulation}, which this class drives from
+ * the commands of connected clients and whose messages it sends to them. Constructing a
+ * {@code Server} binds it to an address and begins accepting clients. The simulation is
+ * advanced by the {@code run} method, which blocks the calling thread and steps the game a
+ * fixed number of times per second (the tick rate) until {@code close} is called.
+ * <p>
+ * Clients are serviced on their own network threads, but the game state is only ever read or
+ * changed by the thread running the simulation. Connections, disconnections, and commands
+ * from clients are decoded on the network threads and queued, then applied in the order they
+ * arrived at the start of the next tick.
+ * <p>
+ * Player positions are only sent to the clients that could be interested in them: those whose
+ * player can see the moving player, or could see them before the move, as given by the level's
+ * {@code PotentiallyVisibleSet}, and those within {@code INTEREST_RADIUS} tiles, who may hear
+ * them. Players are also spawned out of sight of every living player when possible.
+ * <p>
+ * A joining client is first told the content hash and size of the level. A client that does
+ * not have tiles with that hash requests the level, which is sent as a compressed level file
+ * in parts of at most {@code LEVEL_PART_LENGTH} characters, so clients can play levels they
+ * were not built with. Levels with at least {@code ChunkStreamer.MIN_TILES} tiles are never
+ * sent whole. Instead, a {@code ChunkStreamer} sends each client the chunks of the level around
+ * its player at the end of every tick. The exception is a level generated by
+ * {@code Level.generate}, whose seed is sent with its hash so that clients can generate the
+ * level themselves, whatever its size, and only request it if their tiles do not match.
+ * <p>
+ * Every message sent is stamped with the tick it was sent during. Each client is pinged once
+ * every {@code ClockSync.PING_INTERVAL}, and the round-trip time and clock offset of its
+ * connection are available from {@code getClock}.
+ * <p>
+ * Messages produced during a tick are queued and sent together at the end of the tick. Each
+ * phase of a tick is timed by a {@code TickProfiler}, and ticks that overrun the tick period
+ * are logged with a breakdown of where the time went.
+ * <p>
+ * A game can be recorded to a replay file with {@code startRecording}. The commands applied
+ * during each tick and the resulting changes to players and bullets are written by a
+ * {@code ReplayWriter} at the end of the tick, on the simulation thread. The simulation is
+ * reseeded when recording begins and the seed is written to the replay, so a recording that
+ * begins before any player joins can be re-simulated exactly by a {@code Resimulator}.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see DedicatedServer
+ * @see Simulation
+ */
+public class Server extends JServer {
 
+	/**
+	 * A message waiting in the outbox.
+	 */
+	private static class Outgoing {
+
+		/** The serialized message. */
+		private final String message;
+		/** The opcode of the message, or {@code null} if it is not known. */
+		private final String opcode;
+		/** The client to send the message to, or {@code null} to send it to every client. */
+		private final JClientSocket recipient;
+
+
+		/**
+		 * Constructs a new {@code Outgoing} message.
+		 *
+		 * @param message    the serialized message.
+		 * @param opcode     the opcode of the message, or {@code null} if it is not known.
+		 * @param recipient  the client to send the message to, or {@code null} for every client.
+		 */
+		private Outgoing(String message, String opcode, JClientSocket recipient) {
+			this.message = message;
+			this.opcode = opcode;
+			this.recipient = recipient;
+		}
+
+	}
+
+
+	/**
+	 * Queues the messages produced by the simulation to be sent to connected clients.
+	 */
+	private class Relay implements Simulation.Output {
+
+		@Override
+		public void post(int playerId, Map<String, String> command) {
+			JClientSocket recipient = Server.this.sockets.get(playerId);
+			if (recipient != null)
+				Server.this.post(command, recipient);
+		}
+
+
+		@Override
+		public void postAll(Map<String, String> command) {
+			Server.this.postAll(command);
+		}
+
+
+		@Override
+		public void postMove(int playerId, int[] fromTile, Map<String, String> command) {
+			Server.this.sendInterested(command, playerId, fromTile);
+		}
+
+	}
+
+
+	/** The level played on by default. */
+	public static final int DEFAULT_LEVEL = 1;
+	/** The number of simulation ticks per second used by default. */
+	public static final int DEFAULT_TICK_RATE = Settings.FPS;
+	/** The smallest number of simulation ticks per second that can be used. */
+	public static final int MIN_TICK_RATE = 10;
+	/** The largest number of simulation ticks per second that can be used. */
+	public static final int MAX_TICK_RATE = 1000;
+	/** The maximum number of players that can be connected at once by default. */
+	public static final int DEFAULT_MAX_PLAYERS = 16;
+	/** The distance, in tiles along either axis, within which players always get positions. */
+	public static final int INTEREST_RADIUS = 8;
+	/** The most characters of an encoded level file sent in one level data command. */
+	public static final int LEVEL_PART_LENGTH = 4096;
 
-public class Server extends JServer {
 
 	/** Next available player id. */
 	private int nextPlayerId;
 
 	/** Gets player id based on client connection. */
 	private Map<JClientSocket, Integer> ids;
-	/** Gets player object based on player id. */
-	private Map<Integer, Player> players;
-	/** Gets bullet object based on bullet id. */
-	private List<Bullet> bullets;
-	/** Current map. */
-	private Level level;
+	/** Gets client connection based on player id. */
+	private Map<Integer, JClientSocket> sockets;
+	/** The rules of the game being played. */
+	private Simulation sim;
+	/** The sender of level chunks, or {@code null} if clients load the whole level. */
+	private ChunkStreamer streamer;
+	/** The parts of the encoded level file, or {@code null} if no client has requested it. */
+	private String[] levelParts;
+	/** Client events waiting to be applied by the simulation thread. */
+	private Queue<Runnable> inbox;
+	/** Round-trip time and clock offset estimates, by player id. */
+	private Map<Integer, ClockSync> clocks;
+	/** Messages produced by the current tick, sent together at the end of the tick. */
+	private List<Outgoing> outbox;
+	/** The time taken by each phase of recent ticks. */
+	private TickProfiler profiler;
+	/** The messages and bytes received from and sent to all clients, by opcode. */
+	private TrafficStats traffic;
+	/** The replay being recorded, or {@code null} if the game is not being recorded. */
+	private ReplayWriter recorder;
+
+	/** The maximum number of players that can be connected at once. */
+	private int maxPlayers;
+	/** Whether the simulation loop should continue running. */
+	private volatile boolean running;
+
+	/** The number of players connected at the end of the last tick. */
+	private volatile int playerCount;
+	/** The number of bullets in flight at the end of the last tick. */
+	private volatile int bulletCount;
+	/** The number of messages sent at the end of the last tick. */
+	private volatile int outboxDepth;
+	/** The number of players that have disconnected, for any reason. */
+	private volatile long disconnections;
+	/** The number of clients turned away because the server was full. */
+	private volatile long rejectedConnections;
+
+
+	/**
+	 * Constructs a new {@code Server} with the default level, tick rate, and player limit.
+	 *
+	 * @param ip    the IP address to bind to.
+	 * @param port  the port to bind to.
+	 *
+	 * @throws IOException  if the server cannot be bound.
+	 */
+	public Server(String ip, int port) throws IOException {
+		this(ip, port, Server.DEFAULT_LEVEL, Server.DEFAULT_TICK_RATE, Server.DEFAULT_MAX_PLAYERS);
+	}
 
 
-	public Server(String ip, int port) throws IOException {
+	/**
+	 * Constructs a new {@code Server}.
+	 *
+	 * @param ip          the IP address to bind to.
+	 * @param port        the port to bind to.
+	 * @param levelId     the number of the level to play on.
+	 * @param tickRate    the number of simulation ticks per second, in the interval
+	 *                    {@code [MIN_TICK_RATE, MAX_TICK_RATE]}.
+	 * @param maxPlayers  the maximum number of players that can be connected at once.
+	 *
+	 * @throws IOException               if the server cannot be bound.
+	 * @throws IllegalArgumentException  if {@code levelId} does not represent an existing level.
+	 * @throws IllegalArgumentException  if {@code tickRate} is out of bounds.
+	 * @throws IllegalArgumentException  if {@code maxPlayers < 1}.
+	 */
+	public Server(String ip, int port, int levelId, int tickRate, int maxPlayers)
+		throws IOException
+	{
+		this(ip, port, new Level(levelId), tickRate, maxPlayers);
+	}
+
+
+	/**
+	 * Constructs a new {@code Server} on an existing level, such as one generated by
+	 * {@code Level.generate}. Clients are sent the seed of a generated level, so that they can
+	 * generate it themselves instead of downloading it.
+	 *
+	 * @param ip          the IP address to bind to.
+	 * @param port        the port to bind to.
+	 * @param level       the level to play on, which must not be streamed.
+	 * @param tickRate    the number of simulation ticks per second, in the interval
+	 *                    {@code [MIN_TICK_RATE, MAX_TICK_RATE]}.
+	 * @param maxPlayers  the maximum number of players that can be connected at once.
+	 *
+	 * @throws IOException               if the server cannot be bound.
+	 * @throws NullPointerException      if {@code level == null}.
+	 * @throws IllegalArgumentException  if {@code level} is streamed.
+	 * @throws IllegalArgumentException  if {@code tickRate} is out of bounds.
+	 * @throws IllegalArgumentException  if {@code maxPlayers < 1}.
+	 */
+	public Server(String ip, int port, Level level, int tickRate, int maxPlayers)
+		throws IOException
+	{
 		super(ip, port);
 
+		if (tickRate < Server.MIN_TICK_RATE || tickRate > Server.MAX_TICK_RATE)
+			throw new IllegalArgumentException("invalid tick rate: " + tickRate);
+		if (maxPlayers < 1)
+			throw new IllegalArgumentException("invalid max players: " + maxPlayers);
+
 		this.nextPlayerId = 0;
 
 		this.ids = new HashMap<>();
-		this.players = new HashMap<>();
-		this.bullets = new ArrayList<>();
-		this.level = new Level(1); // MARK: map selection
+		this.sockets = new HashMap<>();
+		this.inbox = new ConcurrentLinkedQueue<>();
+		this.clocks = new ConcurrentHashMap<>();
+		this.outbox = new ArrayList<>();
+		this.profiler = new TickProfiler(1_000_000_000L / tickRate, TickProfiler.DEFAULT_WINDOW);
+		this.traffic = new TrafficStats();
+		this.recorder = null;
+		Relay relay = new Relay();
+		this.sim = new Simulation(level, tickRate, ThreadLocalRandom.current().nextLong(),
+								  this.profiler, relay);
+		// Clients regenerate a generated level from its seed, however large, so it is not streamed
+		LevelData levelData = level.getData();
+		this.streamer = ChunkStreamer.shouldStream(levelData) && level.getSeed() == null ?
+			new ChunkStreamer(levelData, relay) : null;
+		this.levelParts = null;
+
+		this.maxPlayers = maxPlayers;
+		this.running = true;
+
+		this.playerCount = 0;
+		this.bulletCount = 0;
+		this.outboxDepth = 0;
+		this.disconnections = 0;
+		this.rejectedConnections = 0;
+
+		this.sim.getTimers().scheduleMillis(ClockSync.PING_INTERVAL, this::pingAll);
+	}
+
+
+	/**
+	 * Returns the number of simulation ticks per second.
+	 *
+	 * @return the number of simulation ticks per second.
+	 */
+	public int getTickRate() {
+		return this.sim.getTickRate();
+	}
+
+
+	/**
+	 * Returns the number of ticks that have been simulated.
+	 *
+	 * @return the number of ticks that have been simulated.
+	 */
+	public long getTick() {
+		return this.sim.getTick();
+	}
+
+
+	/**
+	 * Returns the round-trip time and clock offset estimates for a player's connection. The
+	 * returned object is updated as pings are answered, and can be read from any thread.
+	 *
+	 * @param playerId  the id of the player.
+	 *
+	 * @return the estimates for the player's connection, or {@code null} if no such player is
+	 *         connected.
+	 */
+	public ClockSync getClock(int playerId) {
+		return this.clocks.get(playerId);
+	}
+
+
+	/**
+	 * Returns the profiler that times each tick. Its statistics can be read from any thread.
+	 *
+	 * @return the profiler that times each tick.
+	 */
+	public TickProfiler getProfiler() {
+		return this.profiler;
+	}
+
+
+	/**
+	 * Returns the messages and bytes received from and sent to all clients, by opcode. The
+	 * counters can be read from any thread.
+	 *
+	 * @return the traffic with all clients.
+	 */
+	public TrafficStats getTraffic() {
+		return this.traffic;
+	}
+
+
+	/**
+	 * Returns the number of players connected at the end of the last tick.
+	 *
+	 * @return the number of players connected.
+	 */
+	public int getPlayerCount() {
+		return this.playerCount;
+	}
+
+
+	/**
+	 * Returns the number of bullets in flight at the end of the last tick.
+	 *
+	 * @return the number of bullets in flight.
+	 */
+	public int getBulletCount() {
+		return this.bulletCount;
+	}
+
+
+	/**
+	 * Returns the number of client events waiting to be applied by the next tick.
+	 *
+	 * @return the number of client events waiting to be applied.
+	 */
+	public int getInboxDepth() {
+		return this.inbox.size();
+	}
+
+
+	/**
+	 * Returns the number of messages queued by the last tick and sent at its end.
+	 *
+	 * @return the number of messages sent at the end of the last tick.
+	 */
+	public int getOutboxDepth() {
+		return this.outboxDepth;
+	}
+
+
+	/**
+	 * Returns the number of players that have disconnected.
+	 *
+	 * @return the number of players that have disconnected.
+	 */
+	public long getDisconnections() {
+		return this.disconnections;
+	}
+
+
+	/**
+	 * Returns the number of clients turned away because the server was full.
+	 *
+	 * @return the number of clients turned away.
+	 */
+	public long getRejectedConnections() {
+		return this.rejectedConnections;
+	}
+
+
+	/**
+	 * Starts recording the game to a replay file, replacing any recording in progress. The
+	 * file is created immediately, and recording begins with the next tick, when the
+	 * simulation is reseeded with a new seed that is written to the replay.
+	 *
+	 * @param file             the replay file to write.
+	 * @param keyframeSeconds  the number of seconds between keyframes.
+	 *
+	 * @throws IOException               if the file cannot be created.
+	 * @throws IllegalArgumentException  if {@code keyframeSeconds < 1}.
+	 */
+	public void startRecording(Path file, int keyframeSeconds) throws IOException {
+		if (keyframeSeconds < 1)
+			throw new IllegalArgumentException("invalid keyframe interval: " + keyframeSeconds);
+		long seed = ThreadLocalRandom.current().nextLong();
+		int tickRate = this.sim.getTickRate();
+		ReplayWriter recorder = new ReplayWriter(file, tickRate, this.sim.getLevel(),
+												 keyframeSeconds * tickRate, seed);
+		this.inbox.add(() -> {
+				this.stopRecorder();
+				this.sim.setSeed(seed);
+				this.recorder = recorder;
+			});
+	}
+
+
+	/**
+	 * Stops recording the game at the end of the current tick. This method does nothing if the
+	 * game is not being recorded.
+	 */
+	public void stopRecording() {
+		this.inbox.add(this::stopRecorder);
+	}
 
-		this.animate();
+
+	/**
+	 * Closes the replay being recorded, if any. This method must only be called by the
+	 * simulation thread.
+	 */
+	private void stopRecorder() {
+		if (this.recorder == null)
+			return;
+		try {
+			this.recorder.close();
+		}
+		catch (IOException e) {
+			Log.stdlog(Log.ERROR, "Server", "cannot close replay: " + e);
+		}
+		this.recorder = null;
 	}
 
 
-	private void animate() {
-		while (true) {
-			// Sleep
+	/**
+	 * Runs the simulation loop on the calling thread. This method blocks until {@code close}
+	 * is called or the calling thread is interrupted. Ticks are scheduled at a fixed rate, so
+	 * a slow tick is followed by shorter waits rather than causing the simulation to drift.
+	 * Any replay being recorded is closed when the loop stops.
+	 */
+	public void run() {
+		long tickNanos = 1_000_000_000L / this.sim.getTickRate();
+		long nextTick = System.nanoTime();
+		try {
+			while (this.running) {
+				// Sleep until the next tick is due
+				nextTick += tickNanos;
+				long sleepNanos = nextTick - System.nanoTime();
+				if (sleepNanos > 0)
+					LockSupport.parkNanos(sleepNanos);
+				else if (sleepNanos < -1_000_000_000L)
+					nextTick = System.nanoTime(); // Over a second behind, don't try to catch up
+				if (Thread.currentThread().isInterrupted())
+					return;
+
+				this.tick();
+			}
+		}
+		finally {
+			this.stopRecorder();
+		}
+	}
+
+
+	/**
+	 * Advances the simulation by a single tick.
+	 */
+	private void tick() {
+		Events.Tick tickEvent = new Events.Tick();
+		tickEvent.begin();
+
+		this.profiler.begin(this.sim.getTick() + 1);
+		this.sim.advanceTimers();
+		this.profiler.mark(TickProfiler.Phase.TIMERS);
+
+		// Apply everything that clients have done since the last tick
+		int processed = 0;
+		Runnable event;
+		while ((event = this.inbox.poll()) != null) {
+			event.run();
+			processed++;
+		}
+		this.profiler.mark(TickProfiler.Phase.INPUT);
+
+		this.sim.updateBullets();
+		this.profiler.mark(TickProfiler.Phase.BULLETS);
+
+		Map<Integer, Player> players = this.sim.getPlayers();
+		int bullets = this.sim.getBullets().size();
+		if (this.recorder != null) {
 			try {
-				Thread.sleep(1000 / Settings.FPS);
+				this.recorder.endTick(this.sim.getTick(), players, this.sim.getBullets());
 			}
-			catch (InterruptedException e) {
-				return;
+			catch (IOException e) {
+				Log.stdlog(Log.ERROR, "Server", "cannot write replay, recording stopped: " + e);
+				this.stopRecorder();
 			}
+		}
+		this.profiler.mark(TickProfiler.Phase.RECORD);
 
-			// Update bullets
-			for (int i = 0; i < this.bullets.size(); i++) {
-				Bullet bullet = this.bullets.get(i);
-				// Check for collision with level or player
-				if (this.checkPlayerCollision(bullet) || // Player hit
-					this.level.collides(bullet, bullet.getVx(), bullet.getVy()) || // Level hit
-					bullet.getX() < -1000 || bullet.getX() > 1000 || // Out of bounds x
-					bullet.getY() < -1000 || bullet.getY() > 1000) // Out of bounds y
-				{
-					this.bullets.remove(i);
-					i--;
-				}
-				// Move bullet if no collision
-				else
-					bullet.move();
-			}
+		// Send the chunks of the level that players have moved near, then everything else
+		if (this.streamer != null) {
+			for (Map.Entry<Integer, Player> entry : players.entrySet())
+				this.streamer.update(entry.getKey(), entry.getValue());
+		}
+		int sent = this.outbox.size();
+		this.flush();
+		this.profiler.mark(TickProfiler.Phase.BROADCAST);
+		this.profiler.end(players.size(), bullets, sent);
+		this.playerCount = players.size();
+		this.bulletCount = bullets;
+		this.outboxDepth = sent;
+
+		tickEvent.end();
+		if (tickEvent.shouldCommit()) {
+			tickEvent.tick = this.sim.getTick();
+			tickEvent.players = players.size();
+			tickEvent.bullets = bullets;
+			tickEvent.processed = processed;
+			tickEvent.sent = sent;
+			tickEvent.timers = this.profiler.getSpan(TickProfiler.Phase.TIMERS);
+			tickEvent.input = this.profiler.getSpan(TickProfiler.Phase.INPUT);
+			tickEvent.bulletsPhase = this.profiler.getSpan(TickProfiler.Phase.BULLETS);
+			tickEvent.hits = this.profiler.getSpan(TickProfiler.Phase.HITS);
+			tickEvent.record = this.profiler.getSpan(TickProfiler.Phase.RECORD);
+			tickEvent.broadcast = this.profiler.getSpan(TickProfiler.Phase.BROADCAST);
+			tickEvent.commit();
 		}
 	}
 
 
-	private boolean checkPlayerCollision(Bullet bullet) {
-		Weapon weapon = bullet.getOriginWeapon();
-		double bulletX = bullet.getX();
-		double bulletY = bullet.getY();
-		double bulletS = bullet.getSize();
-		int baseDmg = bullet.getScaledDamage();
+	/**
+	 * Stamps a command and queues it to be sent to one client at the end of the current tick.
+	 *
+	 * @param command    the command to send.
+	 * @param recipient  the client to send the message to.
+	 */
+	private void post(Map<String, String> command, JClientSocket recipient) {
+		String message = this.stamp(command);
+		this.outbox.add(new Outgoing(message, command.get(Communication.KEY_OPCODE), recipient));
+	}
 
-		double bulletCenterX = bulletX + bulletS / 2;
-		double bulletCenterY = bulletY + bulletS / 2;
 
-		for (int playerId : this.players.keySet()) {
-			Player player = this.players.get(playerId);
-			if (player.isDead() || player.getWeapon().equals(bullet.getOriginWeapon()))
-				continue;
-			double playerX = player.getX();
-			double playerY = player.getY();
-			double playerS = player.getSize();
-			int dmg = player.isArmored() ? (int) (baseDmg * weapon.penetration()) : baseDmg;
+	/**
+	 * Stamps a command and queues it to be sent to every client at the end of the current tick.
+	 *
+	 * @param command  the command to send.
+	 */
+	private void postAll(Map<String, String> command) {
+		String message = this.stamp(command);
+		this.outbox.add(new Outgoing(message, command.get(Communication.KEY_OPCODE), null));
+	}
 
-			if (bulletCenterX > playerX && bulletCenterX < playerX + playerS &&
-				bulletCenterY > playerY && bulletCenterY < playerY + playerS)
-			{
-				player.damage(dmg);
-				Map<String, String> cmdDamaged = Communication.cmdDamaged(playerId, dmg);
-				this.sendAll(Communication.serialize(cmdDamaged));
-				if (player.isDead()) {
-					// Reset the killed player
-					Point randomTile = this.getRandomTile();
-					player.setX(randomTile.x);
-					player.setY(randomTile.y);
-					player.reset();
-					Map<String, String> cmdReset = Communication.cmdReset(playerId,
-																		 randomTile.x,
-																		 randomTile.y);
-					this.sendAll(Communication.serialize(cmdReset));
-
-					// Pay the player that got the kill
-					int attackerId = this.getPlayerIdFromBullet(bullet);
-					int moneyEarned = weapon.moneyPerKill();
-					this.players.get(attackerId).pay(moneyEarned);
-					Map<String, String> cmdPay = Communication.cmdPay(moneyEarned, attackerId);
-					this.sendAll(Communication.serialize(cmdPay));
+
+	/**
+	 * Sends every message in the outbox, in the order they were queued. Messages are encoded
+	 * here rather than by {@code JServer}, so that the bytes counted are the bytes sent.
+	 */
+	private void flush() {
+		for (Outgoing outgoing : this.outbox) {
+			byte[] bytes = Bytes.stringToBytes(outgoing.message);
+			if (outgoing.recipient == null) {
+				Events.Broadcast event = new Events.Broadcast();
+				event.begin();
+				this.sendAll(bytes);
+				event.end();
+				if (event.shouldCommit()) {
+					event.opcode = outgoing.opcode;
+					event.recipients = this.ids.size();
+					event.length = bytes.length;
+					event.commit();
 				}
-				return true;
+				this.traffic.recordOut(outgoing.opcode, bytes.length, this.ids.size());
+			}
+			else {
+				this.send(bytes, outgoing.recipient);
+				this.traffic.recordOut(outgoing.opcode, bytes.length);
 			}
 		}
+		this.outbox.clear();
+	}
+
 
-		return false;
+	/**
+	 * Stamps a command with the current tick and serializes it. Every message sent by the server
+	 * is stamped, so clients know which tick the state they receive is from.
+	 *
+	 * @param command  the command to send.
+	 *
+	 * @return the serialized command.
+	 */
+	private String stamp(Map<String, String> command) {
+		command.put(Communication.KEY_TICK, Long.toString(this.sim.getTick()));
+		return Communication.serialize(command);
 	}
 
 
-	public int getPlayerIdFromBullet(Bullet bullet) {
-		Weapon weapon = bullet.getOriginWeapon();
-		for (int playerId : this.players.keySet()) {
-			Player player = this.players.get(playerId);
-			if (player.getWeapon().equals(weapon))
-				return playerId;
-		}
-		return -1;
+	/**
+	 * Stamps a command and sends it to one client immediately, skipping the outbox.
+	 *
+	 * @param command    the command to send.
+	 * @param recipient  the client to send the message to.
+	 */
+	private void sendNow(Map<String, String> command, JClientSocket recipient) {
+		byte[] bytes = Bytes.stringToBytes(this.stamp(command));
+		this.send(bytes, recipient);
+		this.traffic.recordOut(command.get(Communication.KEY_OPCODE), bytes.length);
+	}
+
+
+	/**
+	 * Sends a ping to every client, and schedules the next pings. Pings skip the outbox so
+	 * that they are sent at the time they carry.
+	 */
+	private void pingAll() {
+		for (JClientSocket clientSocket : this.ids.keySet())
+			this.sendNow(Communication.cmdPing(System.nanoTime()), clientSocket);
+		this.sim.getTimers().scheduleMillis(ClockSync.PING_INTERVAL, this::pingAll);
+	}
+
+
+	/**
+	 * Stops the simulation loop and closes all client connections.
+	 */
+	@Override
+	public void close() {
+		this.running = false;
+		super.close();
 	}
 
 
 	@Override
 	public void clientCommunicated(byte[] recv, JClientSocket clientSocket) {
+		long received = System.nanoTime();
 		String commandStr = Bytes.bytesToString(recv);
 		Map<String, String> command = Communication.deserialize(commandStr);
+		this.traffic.recordIn(command.get(Communication.KEY_OPCODE), recv.length);
+		this.inbox.add(() -> this.handleCommand(command, clientSocket, received));
+	}
+
+
+	/**
+	 * Applies a command sent by a client. This method must only be called by the simulation
+	 * thread.
+	 *
+	 * @param command       the deserialized command.
+	 * @param clientSocket  the client that sent the command.
+	 * @param received      the time, as returned by {@code System.nanoTime}, that the command
+	 *                      was received.
+	 */
+	private void handleCommand(Map<String, String> command,
+							   JClientSocket clientSocket,
+							   long received)
+	{
 		String opcode = command.get(Communication.KEY_OPCODE);
 		if (opcode == null) {
 			Log.stdlog(Log.ERROR, "Server", "null opcode in command: " + command);
 			return;
 		}
-		
-		int playerId = this.ids.get(clientSocket);
-		Player player = this.players.get(playerId);
+		this.profiler.countMessage(Communication.isOpcode(opcode) ?
+								   opcode : TrafficStats.UNKNOWN_OPCODE);
+
+		Integer playerId = this.ids.get(clientSocket);
+		if (playerId == null)
+			return;
+
+		// Pings and pongs are handled for every connected client, including dead players. The
+		// time a ping waited in the inbox is excluded from the round-trip time by reporting
+		// when it was received, and pongs skip the outbox so they are sent at the time reported
+		if (opcode.equals(Communication.OPCODE_PING)) {
+			long time;
+			try {
+				time = Long.parseLong(command.get(Communication.KEY_TIME));
+			}
+			catch (Exception e) {
+				Log.stdlog(Log.ERROR, "Server", "Can't parse ping command: " + command + ", " + e);
+				return;
+			}
+			Map<String, String> cmdPong = Communication.cmdPong(time, received, System.nanoTime());
+			this.sendNow(cmdPong, clientSocket);
+			return;
+		}
+		if (opcode.equals(Communication.OPCODE_PONG)) {
+			try {
+				long t0 = Long.parseLong(command.get(Communication.KEY_TIME));
+				long t1 = Long.parseLong(command.get(Communication.KEY_RECEIVED));
+				long t2 = Long.parseLong(command.get(Communication.KEY_SENT));
+				ClockSync clock = this.clocks.get(playerId);
+				if (clock != null)
+					clock.update(t0, t1, t2, received);
+			}
+			catch (Exception e) {
+				Log.stdlog(Log.ERROR, "Server", "Can't parse pong command: " + command + ", " + e);
+			}
+			return;
+		}
+		if (opcode.equals(Communication.OPCODE_LEVEL_REQUEST)) {
+			this.sendLevel(command.get(Communication.KEY_HASH), clientSocket);
+			return;
+		}
+
+		Player player = this.sim.getPlayers().get(playerId);
 		if (player == null || player.isDead())
 			return;
 
@@ -175,81 +740,26 @@ public class Server extends JServer {
 				Log.stdlog(Log.ERROR, "Server", "Can't parse move command: " + command + ", " + e);
 				return;
 			}
-
-		    // Update movement
-			double baseV = 0.11 * player.getWeapon().mobility();
-			if (up) {
-				player.setV(0, -baseV);
-				while (this.level.collides(player, 0, player.getVy()))
-					player.setV(0, player.getVy() / 2);
-				player.move();
-			}
-			if (left) {
-				player.setV(-baseV, 0);
-				while (this.level.collides(player, player.getVx(), 0))
-					player.setV(player.getVx() / 2, 0);
-				player.move();
-			}
-			if (down) {
-				player.setV(0, baseV);
-				while (this.level.collides(player, 0, player.getVy()))
-					player.setV(0, player.getVy() / 2);
-				player.move();
-			}
-			if (right) {
-				player.setV(baseV, 0);
-				while (this.level.collides(player, player.getVx(), 0))
-					player.setV(player.getVx() / 2, 0);
-				player.move();
-			}
-			player.setRad(rad);
-
-			Map<String, String> cmdPosPlayer = Communication.cmdPosPlayer(player, playerId);
-			this.sendAll(Communication.serialize(cmdPosPlayer));
+			if (this.recorder != null)
+				this.recorder.move(playerId, up, left, down, right, rad);
+			this.sim.move(playerId, up, left, down, right, rad);
 		    break;
 		}
 		case Communication.OPCODE_SHOOT: {
-		    Weapon weapon = player.getWeapon();
-			Bullet[] bulletsFired = weapon.fire(player.getX(), player.getY(), player.getRad());
-			if (bulletsFired != null) {
-				for (int bulletId = 0; bulletId < bulletsFired.length; bulletId++) {
-					Bullet bullet = bulletsFired[bulletId];
-					this.bullets.add(bullet);
-					Map<String, String> cmdNewBullet = Communication.cmdNewBullet(bullet,
-																				  bulletId,
-																				  playerId);
-					this.sendAll(Communication.serialize(cmdNewBullet));
-				}
-			}
+			if (this.recorder != null)
+				this.recorder.shoot(playerId);
+			this.sim.shoot(playerId);
 		    break;
 		}
 		case Communication.OPCODE_BUY: {
 		    String itemStr = command.get(Communication.KEY_ITEM);
-			if (itemStr == null) {
-				Log.stdlog(Log.ERROR, "Server", "No item in buy command: " + command);
-				return;
-			}
-			Item item = null;
-			switch (itemStr) {
-			case "Pistol" -> item = new Pistol();
-			case "SMG" -> item = new SMG();
-			case "Rifle" -> item = new Rifle();
-			case "Shotgun" -> item = new Shotgun();
-			case "Sniper" -> item = new Sniper();
-			case "Armor" -> item = new Armor();
-			case "HealthKit" -> item = new HealthKit();
-			case "Grenade" -> item = new Grenade();
-			default -> {
-				Log.stdlog(Log.ERROR, "Server", "invalid item bought: " + itemStr);
+			if (Simulation.newItem(itemStr) == null) {
+				Log.stdlog(Log.ERROR, "Server", "invalid item in buy command: " + command);
 				return;
 			}
-			}
-
-			boolean bought = player.buy(item);
-			if (bought) {
-				Map<String, String> updateBuy = Communication.cmdBuy(item, playerId);
-			    this.sendAll(Communication.serialize(updateBuy));
-			}
+			if (this.recorder != null)
+				this.recorder.buy(playerId, itemStr);
+			this.sim.buy(playerId, itemStr);
 			break;
 		}
 		case Communication.OPCODE_USE: {
@@ -262,30 +772,10 @@ public class Server extends JServer {
 				Log.stdlog(Log.ERROR, "Server", "Can't parse use command: " + command + ", " + e);
 				return;
 			}
-
-<<<<<<< HEAD
-=======
-<<<<<<< HEAD
-=======
-			Item item = player.getItem(itemNum);
->>>>>>> a1a5105 (tmp)
->>>>>>> 809b721 (tmp)
-			boolean used = player.use(itemNum);
-			if (used) {
-				Map<String, String> updateUse = Communication.cmdUse(itemNum, playerId);
-				this.sendAll(Communication.serialize(updateUse));
-<<<<<<< HEAD
-=======
-<<<<<<< HEAD
-=======
-
-				// Special case items
-				if (item instanceof Grenade) {
-					
-				}
->>>>>>> a1a5105 (tmp)
->>>>>>> 809b721 (tmp)
-			}
+			if (this.recorder != null)
+				this.recorder.use(playerId, itemNum);
+			this.sim.use(playerId, itemNum);
+			break;
 		}
 		default:
 			Log.stdlog(Log.ERROR, "Server", "invalid opcode: " + opcode);
@@ -294,75 +784,182 @@ public class Server extends JServer {
 	}
 
 
-	private Point getRandomTile() {
-		int x = -1;
-		int y = -1;
+	/**
+	 * Sends the whole level to a client that requested it, in parts. The level is encoded the
+	 * first time it is requested, and the parts are kept for later requests.
+	 *
+	 * @param hash          the content hash of the level requested.
+	 * @param clientSocket  the client that requested the level.
+	 */
+	private void sendLevel(String hash, JClientSocket clientSocket) {
+		LevelData levelData = this.sim.getLevel().getData();
+		if (this.streamer != null || !levelData.contentHash().equals(hash)) {
+			Log.stdlog(Log.WARN, "Server", "refusing request for level " + hash);
+			this.post(Communication.cmdLevelData(0, 0, ""), clientSocket);
+			return;
+		}
+
+		if (this.levelParts == null) {
+			String encoded = Communication.encodeTiles(LevelFile.encode(levelData));
+			int length = Server.LEVEL_PART_LENGTH;
+			this.levelParts = new String[(encoded.length() + length - 1) / length];
+			for (int i = 0; i < this.levelParts.length; i++) {
+				int start = i * length;
+				int end = Math.min(encoded.length(), start + length);
+				this.levelParts[i] = encoded.substring(start, end);
+			}
+		}
+
+		for (int i = 0; i < this.levelParts.length; i++) {
+			Map<String, String> cmdLevelData =
+				Communication.cmdLevelData(i, this.levelParts.length, this.levelParts[i]);
+			this.post(cmdLevelData, clientSocket);
+		}
+	}
+
+
+	/**
+	 * Sends a player's position to every client that could be interested in it, which is the
+	 * player's own client, clients near the player, and clients whose player can see the
+	 * player's current or previous tile.
+	 *
+	 * @param command   the position command.
+	 * @param playerId  the id of the player that moved.
+	 * @param fromTile  the tile the player was on before moving.
+	 */
+	private void sendInterested(Map<String, String> command, int playerId, int[] fromTile) {
+		String message = this.stamp(command);
+		String opcode = command.get(Communication.KEY_OPCODE);
+		Map<Integer, Player> players = this.sim.getPlayers();
+		PotentiallyVisibleSet pvs = this.sim.getPvs();
+		int[] toTile = Simulation.tileOf(players.get(playerId));
+		for (Map.Entry<JClientSocket, Integer> entry : this.ids.entrySet()) {
+			int viewerId = entry.getValue();
+			Player viewer = players.get(viewerId);
+			if (viewer == null)
+				continue;
 
-		while (x < 0 || y < 0 || this.level.isFilled(y, x)) {
-			y = (int) (Math.random() * this.level.rows());
-			x = (int) (Math.random() * this.level.cols(y));
+			int[] viewerTile = Simulation.tileOf(viewer);
+			boolean interested =
+				viewerId == playerId ||
+				(Math.abs(viewerTile[0] - toTile[0]) <= Server.INTEREST_RADIUS &&
+				 Math.abs(viewerTile[1] - toTile[1]) <= Server.INTEREST_RADIUS) ||
+				pvs.canSee(viewerTile[0], viewerTile[1], toTile[0], toTile[1]) ||
+				pvs.canSee(viewerTile[0], viewerTile[1], fromTile[0], fromTile[1]);
+			if (interested)
+				this.outbox.add(new Outgoing(message, opcode, entry.getKey()));
 		}
 
-		return new Point(x, y);
+		// The moving player may now see players whose moves were not sent to them
+		if (toTile[0] == fromTile[0] && toTile[1] == fromTile[1])
+			return;
+		JClientSocket moverSocket = this.sockets.get(playerId);
+		if (moverSocket == null)
+			return;
+		for (Map.Entry<Integer, Player> entry : players.entrySet()) {
+			if (entry.getKey() == playerId)
+				continue;
+			int[] otherTile = Simulation.tileOf(entry.getValue());
+			if (pvs.canSee(toTile[0], toTile[1], otherTile[0], otherTile[1]) &&
+				!pvs.canSee(fromTile[0], fromTile[1], otherTile[0], otherTile[1]))
+			{
+				Map<String, String> cmdPosPlayer = Communication.cmdPosPlayer(entry.getValue(),
+																			  entry.getKey());
+				this.post(cmdPosPlayer, moverSocket);
+			}
+		}
 	}
 
 
 	@Override
 	public void clientConnected(JClientSocket clientSocket) {
-		int playerId = this.nextPlayerId;
-		this.nextPlayerId++;
+		this.inbox.add(() -> this.handleConnect(clientSocket));
+	}
 
-		Point randomTile = this.getRandomTile();
-		Player player = new Player(randomTile.x, randomTile.y);
-		this.ids.put(clientSocket, playerId);
-		this.players.put(playerId, player);
-
-		Map<String, String> cmdJoin = Communication.cmdJoin(playerId,
-															player.getX(),
-															player.getY(),
-															this.level.toInteger());
-		this.sendAll(Communication.serialize(cmdJoin));
-
-		// Update this player with all other player positions
-		for (int existingId : this.players.keySet()) {
-			Player existingPlayer = this.players.get(existingId);
-			Map<String, String> updateJoin = Communication.cmdJoin(existingId,
-																   existingPlayer.getX(),
-																   existingPlayer.getY(),
-																   this.level.toInteger());
-			this.send(Communication.serialize(updateJoin), clientSocket);
+
+	/**
+	 * Adds a player for a newly connected client. This method must only be called by the
+	 * simulation thread.
+	 *
+	 * @param clientSocket  the client that connected.
+	 */
+	private void handleConnect(JClientSocket clientSocket) {
+		this.profiler.countMessage("connect");
+		int playerCount = this.sim.getPlayers().size();
+		if (playerCount >= this.maxPlayers) {
+			Log.stdlog(Log.WARN, "Server", "rejecting client, server is full with " +
+					   playerCount + " players");
+			this.remove(clientSocket);
+			this.rejectedConnections++;
+			return;
 		}
 
-		// Update this player will all the existing bullets
-		for (Bullet existingBullet : this.bullets) {
-			// Get the player that fired this bullet
-			Weapon weaponUsed = existingBullet.getOriginWeapon();
-		    int attackingId = -1;
-		    for (int existingId : this.players.keySet()) {
-				Player existingPlayer = this.players.get(existingId);
-				if (existingPlayer.getWeapon().equals(weaponUsed))
-					attackingId = existingId;
-			}
+		int playerId = this.nextPlayerId;
+		this.nextPlayerId++;
 
-			// Send the bullet update command
-			Map<String, String> updateNewBullet = Communication.cmdNewBullet(existingBullet,
-																			 1, attackingId);
-			this.send(Communication.serialize(updateNewBullet), clientSocket);
+		this.ids.put(clientSocket, playerId);
+		this.sockets.put(playerId, clientSocket);
+		this.clocks.put(playerId, new ClockSync());
+		if (this.recorder != null)
+			this.recorder.connect(playerId);
+		Level level = this.sim.getLevel();
+		LevelData levelData = level.getData();
+		this.post(Communication.cmdLevel(level.toInteger(),
+										 levelData.rows(),
+										 levelData.cols(),
+										 levelData.contentHash(),
+										 this.streamer != null,
+										 level.getSeed()),
+				  clientSocket);
+		if (this.streamer != null)
+			this.streamer.connect(playerId);
+		this.sim.connect(playerId);
+
+		Events.Join joinEvent = new Events.Join();
+		if (joinEvent.shouldCommit()) {
+			joinEvent.player = playerId;
+			joinEvent.players = this.sim.getPlayers().size();
+			joinEvent.client = false;
+			joinEvent.commit();
 		}
 	}
 
 
 	@Override
 	public void clientDisconnected(JClientSocket clientSocket) {
+		this.inbox.add(() -> this.handleDisconnect(clientSocket));
+	}
+
+
+	/**
+	 * Removes the player of a client that disconnected. This method must only be called by the
+	 * simulation thread.
+	 *
+	 * @param clientSocket  the client that disconnected.
+	 */
+	private void handleDisconnect(JClientSocket clientSocket) {
+		this.profiler.countMessage("disconnect");
 		if (!this.ids.containsKey(clientSocket))
 			return;
 		
 		int playerId = this.ids.get(clientSocket);
 		this.ids.remove(clientSocket);
-		this.players.remove(playerId);
-
-		Map<String, String> cmdLeave = Communication.cmdLeave(playerId);
-	    this.sendAll(Communication.serialize(cmdLeave));
+		this.sockets.remove(playerId);
+		this.clocks.remove(playerId);
+		this.disconnections++;
+		if (this.recorder != null)
+			this.recorder.disconnect(playerId);
+		if (this.streamer != null)
+			this.streamer.disconnect(playerId);
+		this.sim.disconnect(playerId);
+
+		Events.Leave leaveEvent = new Events.Leave();
+		if (leaveEvent.shouldCommit()) {
+			leaveEvent.player = playerId;
+			leaveEvent.players = this.sim.getPlayers().size();
+			leaveEvent.client = false;
+			leaveEvent.commit();
+		}
 	}
 
 }
@@ -0,0 +1,370 @@
+package server;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jnet.Log;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Exports the statistics of a running server for monitoring, as a JMX MXBean and as plain text
+ * served over HTTP on the loopback interface.
+ * <p>
+ * Metrics are off unless {@code start} is called. Once started, the MXBean is registered as
+ * {@code OBJECT_NAME} and can be read with any JMX client attached to the process, and
+ * {@code GET /metrics} on {@code 127.0.0.1} returns the same values in the Prometheus text
+ * exposition format. Every value is read from counters the server already keeps, so a scrape
+ * does not touch the simulation thread. Tick durations are given as percentiles of the last
+ * {@code TickProfiler.DEFAULT_WINDOW} ticks, exported as summaries rather than as cumulative
+ * histogram buckets, since that is the window the profiler keeps.
+ *
+ * @author Jonathan Uhler
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+	/** The name the MXBean is registered under. */
+	public static final String OBJECT_NAME = "bytestrike:type=Server";
+	/** The path the text metrics are served on. */
+	public static final String PATH = "/metrics";
+	/** The content type of the text metrics. */
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	/** The percentiles of tick and phase durations that are exported. */
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 1.0};
+
+
+	/** The server whose statistics are exported. */
+	private final Server server;
+	/** The HTTP server for the text metrics, or {@code null} if not started. */
+	private HttpServer http;
+	/** The name the MXBean was registered under, or {@code null} if not started. */
+	private ObjectName name;
+
+
+	/**
+	 * Constructs a new {@code ServerMetrics}. Nothing is exported until {@code start} is
+	 * called.
+	 *
+	 * @param server  the server whose statistics are exported.
+	 *
+	 * @throws NullPointerException  if {@code server == null}.
+	 */
+	public ServerMetrics(Server server) {
+		if (server == null)
+			throw new NullPointerException("server was null");
+		this.server = server;
+	}
+
+
+	/**
+	 * Registers the MXBean and starts serving the text metrics on the loopback interface.
+	 *
+	 * @param port  the port to serve the text metrics on.
+	 *
+	 * @throws IOException            if the HTTP server cannot be bound.
+	 * @throws IllegalStateException  if the metrics have already been started.
+	 */
+	public synchronized void start(int port) throws IOException {
+		if (this.http != null)
+			throw new IllegalStateException("metrics already started");
+
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		HttpServer http = HttpServer.create(address, 0);
+		http.createContext(ServerMetrics.PATH, this::handle);
+		http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "ServerMetrics http");
+					thread.setDaemon(true);
+					return thread;
+		}));
+		http.start();
+		this.http = http;
+
+		try {
+			MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+			this.name = new ObjectName(ServerMetrics.OBJECT_NAME);
+			mbeans.registerMBean(this, this.name);
+		}
+		catch (JMException e) {
+			this.name = null;
+			Log.stdlog(Log.WARN, "ServerMetrics", "cannot register MXBean: " + e);
+		}
+	}
+
+
+	/**
+	 * Unregisters the MXBean and stops serving the text metrics. This method does nothing if
+	 * the metrics were not started.
+	 */
+	public synchronized void stop() {
+		if (this.http != null) {
+			this.http.stop(0);
+			this.http = null;
+		}
+		if (this.name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+			}
+			catch (JMException e) {
+				Log.stdlog(Log.WARN, "ServerMetrics", "cannot unregister MXBean: " + e);
+			}
+			this.name = null;
+		}
+	}
+
+
+	/**
+	 * Answers a request for the text metrics.
+	 *
+	 * @param exchange  the request and its response.
+	 *
+	 * @throws IOException  if the response cannot be written.
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = this.scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", ServerMetrics.CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns every metric in the Prometheus text exposition format.
+	 *
+	 * @return every metric as text.
+	 */
+	public String scrape() {
+		StringBuilder text = new StringBuilder();
+		TickProfiler profiler = this.server.getProfiler();
+		TrafficStats traffic = this.server.getTraffic();
+
+		ServerMetrics.header(text, "bytestrike_players", "gauge", "Players connected.");
+		text.append("bytestrike_players ").append(this.getPlayers()).append('\n');
+		ServerMetrics.header(text, "bytestrike_bullets", "gauge", "Bullets in flight.");
+		text.append("bytestrike_bullets ").append(this.getBullets()).append('\n');
+		ServerMetrics.header(text, "bytestrike_ticks_total", "counter", "Ticks simulated.");
+		text.append("bytestrike_ticks_total ").append(this.getTicks()).append('\n');
+		ServerMetrics.header(text, "bytestrike_slow_ticks_total", "counter",
+							 "Ticks that took longer than their budget.");
+		text.append("bytestrike_slow_ticks_total ").append(this.getSlowTicks()).append('\n');
+		ServerMetrics.header(text, "bytestrike_tick_budget_seconds", "gauge",
+							 "Longest a tick can take before it is slow.");
+		text.append("bytestrike_tick_budget_seconds ")
+			.append(this.getTickBudget() / 1e9).append('\n');
+
+		ServerMetrics.header(text, "bytestrike_tick_duration_seconds", "summary",
+							 "Percentiles of the duration of recent ticks.");
+		for (double q : ServerMetrics.QUANTILES)
+			text.append("bytestrike_tick_duration_seconds{quantile=\"").append(q).append("\"} ")
+				.append(profiler.tickPercentile(q * 100) / 1e9).append('\n');
+		ServerMetrics.header(text, "bytestrike_tick_phase_seconds", "summary",
+							 "Percentiles of the duration of each phase of recent ticks.");
+		for (TickProfiler.Phase phase : TickProfiler.Phase.values()) {
+			for (double q : ServerMetrics.QUANTILES)
+				text.append("bytestrike_tick_phase_seconds{phase=\"")
+					.append(phase.name().toLowerCase()).append("\",quantile=\"").append(q)
+					.append("\"} ").append(profiler.percentile(phase, q * 100) / 1e9)
+					.append('\n');
+		}
+
+		ServerMetrics.header(text, "bytestrike_messages_total", "counter",
+							 "Messages received and sent, by opcode.");
+		ServerMetrics.header(text, "bytestrike_bytes_total", "counter",
+							 "Bytes received and sent, by opcode.");
+		for (String opcode : traffic.opcodes()) {
+			String label = ServerMetrics.escape(opcode);
+			String in = "{direction=\"in\",opcode=\"" + label + "\"} ";
+			String out = "{direction=\"out\",opcode=\"" + label + "\"} ";
+			text.append("bytestrike_messages_total").append(in)
+				.append(traffic.getMessagesIn(opcode)).append('\n');
+			text.append("bytestrike_messages_total").append(out)
+				.append(traffic.getMessagesOut(opcode)).append('\n');
+			text.append("bytestrike_bytes_total").append(in)
+				.append(traffic.getBytesIn(opcode)).append('\n');
+			text.append("bytestrike_bytes_total").append(out)
+				.append(traffic.getBytesOut(opcode)).append('\n');
+		}
+
+		ServerMetrics.header(text, "bytestrike_inbox_depth", "gauge",
+							 "Client events waiting to be applied.");
+		text.append("bytestrike_inbox_depth ").append(this.getInboxDepth()).append('\n');
+		ServerMetrics.header(text, "bytestrike_outbox_depth", "gauge",
+							 "Messages sent at the end of the last tick.");
+		text.append("bytestrike_outbox_depth ").append(this.getOutboxDepth()).append('\n');
+		ServerMetrics.header(text, "bytestrike_disconnections_total", "counter",
+							 "Players that have disconnected, including players that left.");
+		text.append("bytestrike_disconnections_total ").append(this.getDisconnections())
+			.append('\n');
+		ServerMetrics.header(text, "bytestrike_rejected_connections_total", "counter",
+							 "Clients turned away because the server was full.");
+		text.append("bytestrike_rejected_connections_total ")
+			.append(this.getRejectedConnections()).append('\n');
+		return text.toString();
+	}
+
+
+	/**
+	 * Appends the help and type lines of a metric.
+	 *
+	 * @param text  the text to append to.
+	 * @param name  the name of the metric.
+	 * @param type  the type of the metric.
+	 * @param help  a description of the metric.
+	 */
+	private static void header(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+
+	/**
+	 * Escapes a label value, so that it cannot end the label or the line it is written in.
+	 *
+	 * @param value  the label value.
+	 *
+	 * @return the label value with backslashes, quotes, and newlines escaped.
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+
+	/**
+	 * Returns a total from the traffic counters for every opcode seen.
+	 *
+	 * @param total  the total to read for an opcode.
+	 *
+	 * @return the total for each opcode.
+	 */
+	private Map<String, Long> byOpcode(ToLongFunction<String> total) {
+		Map<String, Long> totals = new TreeMap<>();
+		for (String opcode : this.server.getTraffic().opcodes())
+			totals.put(opcode, total.applyAsLong(opcode));
+		return totals;
+	}
+
+
+	@Override
+	public int getPlayers() {
+		return this.server.getPlayerCount();
+	}
+
+
+	@Override
+	public int getBullets() {
+		return this.server.getBulletCount();
+	}
+
+
+	@Override
+	public long getTicks() {
+		return this.server.getTick();
+	}
+
+
+	@Override
+	public long getSlowTicks() {
+		return this.server.getProfiler().getSlowTicks();
+	}
+
+
+	@Override
+	public long getTickBudget() {
+		return this.server.getProfiler().getBudget();
+	}
+
+
+	@Override
+	public long getTickP50() {
+		return this.server.getProfiler().tickPercentile(50);
+	}
+
+
+	@Override
+	public long getTickP99() {
+		return this.server.getProfiler().tickPercentile(99);
+	}
+
+
+	@Override
+	public long getTickMax() {
+		return this.server.getProfiler().tickPercentile(100);
+	}
+
+
+	@Override
+	public Map<String, Long> getPhaseP99() {
+		Map<String, Long> phases = new TreeMap<>();
+		for (TickProfiler.Phase phase : TickProfiler.Phase.values())
+			phases.put(phase.name().toLowerCase(), this.server.getProfiler().percentile(phase, 99));
+		return phases;
+	}
+
+
+	@Override
+	public Map<String, Long> getMessagesIn() {
+		return this.byOpcode(this.server.getTraffic()::getMessagesIn);
+	}
+
+
+	@Override
+	public Map<String, Long> getMessagesOut() {
+		return this.byOpcode(this.server.getTraffic()::getMessagesOut);
+	}
+
+
+	@Override
+	public Map<String, Long> getBytesIn() {
+		return this.byOpcode(this.server.getTraffic()::getBytesIn);
+	}
+
+
+	@Override
+	public Map<String, Long> getBytesOut() {
+		return this.byOpcode(this.server.getTraffic()::getBytesOut);
+	}
+
+
+	@Override
+	public int getInboxDepth() {
+		return this.server.getInboxDepth();
+	}
+
+
+	@Override
+	public int getOutboxDepth() {
+		return this.server.getOutboxDepth();
+	}
+
+
+	@Override
+	public long getDisconnections() {
+		return this.server.getDisconnections();
+	}
+
+
+	@Override
+	public long getRejectedConnections() {
+		return this.server.getRejectedConnections();
+	}
+
+}
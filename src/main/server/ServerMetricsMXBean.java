@@ -0,0 +1,151 @@
+package server;
+
+
+import java.util.Map;
+
+
+/**
+ * The management interface of a running server, registered with the platform MBean server by
+ * {@code ServerMetrics}. Every attribute is read-only. Durations are in nanoseconds, and maps
+ * are keyed by opcode or by tick phase.
+ *
+ * @author Jonathan Uhler
+ */
+public interface ServerMetricsMXBean {
+
+	/**
+	 * Returns the number of players connected.
+	 *
+	 * @return the number of players connected.
+	 */
+	public int getPlayers();
+
+
+	/**
+	 * Returns the number of bullets in flight.
+	 *
+	 * @return the number of bullets in flight.
+	 */
+	public int getBullets();
+
+
+	/**
+	 * Returns the number of ticks that have been simulated.
+	 *
+	 * @return the number of ticks that have been simulated.
+	 */
+	public long getTicks();
+
+
+	/**
+	 * Returns the number of ticks that took longer than their budget.
+	 *
+	 * @return the number of slow ticks.
+	 */
+	public long getSlowTicks();
+
+
+	/**
+	 * Returns the longest a tick can take before it is slow.
+	 *
+	 * @return the tick budget, in nanoseconds.
+	 */
+	public long getTickBudget();
+
+
+	/**
+	 * Returns the median duration of recent ticks.
+	 *
+	 * @return the median tick duration, in nanoseconds.
+	 */
+	public long getTickP50();
+
+
+	/**
+	 * Returns the 99th percentile duration of recent ticks.
+	 *
+	 * @return the 99th percentile tick duration, in nanoseconds.
+	 */
+	public long getTickP99();
+
+
+	/**
+	 * Returns the longest duration of recent ticks.
+	 *
+	 * @return the longest recent tick duration, in nanoseconds.
+	 */
+	public long getTickMax();
+
+
+	/**
+	 * Returns the 99th percentile duration of each phase of recent ticks.
+	 *
+	 * @return the 99th percentile duration of each phase, in nanoseconds.
+	 */
+	public Map<String, Long> getPhaseP99();
+
+
+	/**
+	 * Returns the total number of messages received, by opcode.
+	 *
+	 * @return the total number of messages received, by opcode.
+	 */
+	public Map<String, Long> getMessagesIn();
+
+
+	/**
+	 * Returns the total number of messages sent, by opcode.
+	 *
+	 * @return the total number of messages sent, by opcode.
+	 */
+	public Map<String, Long> getMessagesOut();
+
+
+	/**
+	 * Returns the total number of bytes received, by opcode.
+	 *
+	 * @return the total number of bytes received, by opcode.
+	 */
+	public Map<String, Long> getBytesIn();
+
+
+	/**
+	 * Returns the total number of bytes sent, by opcode.
+	 *
+	 * @return the total number of bytes sent, by opcode.
+	 */
+	public Map<String, Long> getBytesOut();
+
+
+	/**
+	 * Returns the number of client events waiting to be applied.
+	 *
+	 * @return the number of client events waiting to be applied.
+	 */
+	public int getInboxDepth();
+
+
+	/**
+	 * Returns the number of messages sent at the end of the last tick.
+	 *
+	 * @return the number of messages sent at the end of the last tick.
+	 */
+	public int getOutboxDepth();
+
+
+	/**
+	 * Returns the number of players that have disconnected.
+	 *
+	 * @return the number of players that have disconnected.
+	 */
+	public long getDisconnections();
+
+
+	/**
+	 * Returns the number of clients turned away because the server was full.
+	 *
+	 * @return the number of clients turned away.
+	 */
+	public long getRejectedConnections();
+
+}
@@ -0,0 +1,688 @@
+package server;
+
+
+import jnet.Log;
+import entity.Player;
+import entity.Bullet;
+import world.Level;
+import world.PotentiallyVisibleSet;
+import world.TimerWheel;
+import item.*;
+import graphics.Settings;
+import interfaces.Weapon;
+import interfaces.Item;
+import java.util.Collections;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+
+
+/**
+ * The rules of a game: the players and bullets on a level, and how they change in response to
+ * player commands and the passing of ticks.
+ * <p>
+ * A {@code Simulation} knows nothing about connections. Players are identified only by their
+ * ids, and every message the rules produce is handed to an {@code Output}, which decides who
+ * receives it. {@code Server} drives a simulation from the commands of connected clients, and
+ * {@code Resimulator} drives one from the inputs recorded in a replay.
+ * <p>
+ * Every random choice made by the rules, such as where players spawn and how far bullets
+ * stray, is drawn from a single generator seeded by {@code setSeed}. Given the same seed, the
+ * same level and tick rate, and the same commands in the same ticks, a simulation always
+ * reaches the same state.
+ * <p>
+ * A tick is advanced by calling {@code advanceTimers}, then applying any commands, then
+ * {@code updateBullets}. This class must only be used by one thread, except for
+ * {@code getTick}, which can be called from any thread.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see Server
+ */
+public class Simulation {
+
+	/**
+	 * The destination of the messages produced by a simulation.
+	 */
+	public interface Output {
+
+		/**
+		 * Sends a command to the client of one player.
+		 *
+		 * @param playerId  the id of the player to send the command to.
+		 * @param command   the command to send.
+		 */
+		public void post(int playerId, Map<String, String> command);
+
+
+		/**
+		 * Sends a command to the clients of every player.
+		 *
+		 * @param command  the command to send.
+		 */
+		public void postAll(Map<String, String> command);
+
+
+		/**
+		 * Sends a player's new position to the clients interested in it.
+		 *
+		 * @param playerId  the id of the player that moved.
+		 * @param fromTile  the tile the player was on before moving.
+		 * @param command   the position command.
+		 */
+		public void postMove(int playerId, int[] fromTile, Map<String, String> command);
+
+	}
+
+
+	/** The time, in milliseconds, that a killed player waits before respawning. */
+	public static final int RESPAWN_DELAY = 2000;
+	/** The number of random tiles tried when looking for a spawn out of sight of all players. */
+	public static final int SPAWN_ATTEMPTS = 32;
+
+
+	/** Gets player object based on player id. */
+	private Map<Integer, Player> players;
+	/** Every bullet in flight. */
+	private List<Bullet> bullets;
+	/** Current map. */
+	private Level level;
+	/** Tile-to-tile visibility on the current map. */
+	private PotentiallyVisibleSet pvs;
+	/** Timers for reloads, cooldowns, and respawns, advanced once per tick. */
+	private TimerWheel timers;
+	/** The source of every random choice made by the rules. */
+	private Random random;
+	/** The time taken by each phase of recent ticks. */
+	private TickProfiler profiler;
+	/** The destination of the messages produced. */
+	private Output output;
+
+	/** The number of simulation ticks per second. */
+	private int tickRate;
+	/**
+	 * The number of frames, as defined by {@code Settings.FPS}, that pass during one tick.
+	 * Entity velocities are in tiles per frame, so this is used to scale their movement.
+	 */
+	private double framesPerTick;
+	/** The number of ticks that have been simulated. */
+	private volatile long tick;
+
+
+	/**
+	 * Constructs a new {@code Simulation} with no players.
+	 *
+	 * @param levelId   the number of the level to play on.
+	 * @param tickRate  the number of simulation ticks per second.
+	 * @param seed      the seed of the generator that random choices are drawn from.
+	 * @param profiler  the profiler that hit detection is timed by.
+	 * @param output    the destination of the messages produced.
+	 *
+	 * @throws IllegalArgumentException  if {@code levelId} does not represent an existing level.
+	 * @throws IllegalArgumentException  if {@code tickRate < 1}.
+	 * @throws NullPointerException      if {@code profiler == null} or {@code output == null}.
+	 */
+	public Simulation(int levelId, int tickRate, long seed, TickProfiler profiler, Output output) {
+		this(new Level(levelId), tickRate, seed, profiler, output);
+	}
+
+
+	/**
+	 * Constructs a new {@code Simulation} with no players on an existing level, such as one
+	 * generated by {@code Level.generate}.
+	 *
+	 * @param level     the level to play on.
+	 * @param tickRate  the number of simulation ticks per second.
+	 * @param seed      the seed of the generator that random choices are drawn from.
+	 * @param profiler  the profiler that hit detection is timed by.
+	 * @param output    the destination of the messages produced.
+	 *
+	 * @throws IllegalArgumentException  if {@code tickRate < 1}.
+	 * @throws IllegalArgumentException  if {@code level} is streamed, so its tiles are not
+	 *                                   all known.
+	 * @throws NullPointerException      if {@code level}, {@code profiler}, or {@code output}
+	 *                                   is {@code null}.
+	 */
+	public Simulation(Level level, int tickRate, long seed, TickProfiler profiler, Output output) {
+		if (level == null)
+			throw new NullPointerException("level was null");
+		if (level.getData() == null)
+			throw new IllegalArgumentException("cannot simulate a streamed level");
+		if (tickRate < 1)
+			throw new IllegalArgumentException("invalid tick rate: " + tickRate);
+		if (profiler == null)
+			throw new NullPointerException("profiler was null");
+		if (output == null)
+			throw new NullPointerException("output was null");
+
+		this.players = new HashMap<>();
+		this.bullets = new ArrayList<>();
+		this.level = level;
+		this.pvs = PotentiallyVisibleSet.forLevel(this.level);
+		this.timers = new TimerWheel(tickRate);
+		this.random = new Random(seed);
+		this.profiler = profiler;
+		this.output = output;
+
+		this.tickRate = tickRate;
+		this.framesPerTick = (double) Settings.FPS / tickRate;
+		this.tick = 0;
+	}
+
+
+	/**
+	 * Reseeds the generator that random choices are drawn from.
+	 *
+	 * @param seed  the new seed.
+	 */
+	public void setSeed(long seed) {
+		this.random.setSeed(seed);
+	}
+
+
+	/**
+	 * Returns the number of simulation ticks per second.
+	 *
+	 * @return the number of simulation ticks per second.
+	 */
+	public int getTickRate() {
+		return this.tickRate;
+	}
+
+
+	/**
+	 * Returns the number of ticks that have been simulated.
+	 *
+	 * @return the number of ticks that have been simulated.
+	 */
+	public long getTick() {
+		return this.tick;
+	}
+
+
+	/**
+	 * Returns the level played on.
+	 *
+	 * @return the level played on.
+	 */
+	public Level getLevel() {
+		return this.level;
+	}
+
+
+	/**
+	 * Returns the tile-to-tile visibility of the level played on.
+	 *
+	 * @return the tile-to-tile visibility of the level.
+	 */
+	public PotentiallyVisibleSet getPvs() {
+		return this.pvs;
+	}
+
+
+	/**
+	 * Returns the timers advanced once per tick.
+	 *
+	 * @return the timers advanced once per tick.
+	 */
+	public TimerWheel getTimers() {
+		return this.timers;
+	}
+
+
+	/**
+	 * Returns every player.
+	 *
+	 * @return an unmodifiable view of every player, by id.
+	 */
+	public Map<Integer, Player> getPlayers() {
+		return Collections.unmodifiableMap(this.players);
+	}
+
+
+	/**
+	 * Returns every bullet in flight.
+	 *
+	 * @return an unmodifiable view of every bullet in flight.
+	 */
+	public List<Bullet> getBullets() {
+		return Collections.unmodifiableList(this.bullets);
+	}
+
+
+	/**
+	 * Starts the next tick by advancing the timers.
+	 */
+	public void advanceTimers() {
+		this.tick++;
+		this.timers.advance();
+	}
+
+
+	/**
+	 * Moves all bullets by one tick and removes any that have hit the level or a player.
+	 * Bullets move in steps of at most one frame so that fast bullets at low tick rates cannot
+	 * pass through walls or players.
+	 */
+	public void updateBullets() {
+		int steps = (int) Math.ceil(this.framesPerTick);
+		double frames = this.framesPerTick / steps;
+		for (int step = 0; step < steps; step++)
+			this.updateBullets(frames);
+	}
+
+
+	/**
+	 * Moves all bullets and removes any that have hit the level or a player.
+	 *
+	 * @param frames  the number of frames to move the bullets by.
+	 */
+	private void updateBullets(double frames) {
+		for (int i = 0; i < this.bullets.size(); i++) {
+			Bullet bullet = this.bullets.get(i);
+			double vx = bullet.getVx() * frames;
+			double vy = bullet.getVy() * frames;
+			// Check for collision with level or player
+			long hitStart = System.nanoTime();
+			boolean hit = this.checkPlayerCollision(bullet);
+			this.profiler.add(TickProfiler.Phase.HITS, System.nanoTime() - hitStart);
+			if (hit || // Player hit
+				!this.level.contains(bullet, vx, vy) || // Out of bounds
+				this.level.collides(bullet, vx, vy)) // Level hit
+			{
+				this.bullets.remove(i);
+				i--;
+			}
+			// Move bullet if no collision
+			else
+				bullet.move(frames);
+		}
+	}
+
+
+	/**
+	 * Finds the player, if any, that a bullet is currently inside of. Dead players and the
+	 * player that fired the bullet are never hit.
+	 *
+	 * @param players  a mapping of player ids to players that could be hit.
+	 * @param bullet   the bullet to check.
+	 *
+	 * @return the id of the hit player, or {@code -1} if the bullet does not hit any player.
+	 */
+	static int findHitPlayer(Map<Integer, Player> players, Bullet bullet) {
+		double bulletX = bullet.getX();
+		double bulletY = bullet.getY();
+		double bulletS = bullet.getSize();
+
+		double bulletCenterX = bulletX + bulletS / 2;
+		double bulletCenterY = bulletY + bulletS / 2;
+
+		for (Map.Entry<Integer, Player> entry : players.entrySet()) {
+			Player player = entry.getValue();
+			if (player.isDead() || player.getWeapon().equals(bullet.getOriginWeapon()))
+				continue;
+			double playerX = player.getX();
+			double playerY = player.getY();
+			double playerS = player.getSize();
+
+			if (bulletCenterX > playerX && bulletCenterX < playerX + playerS &&
+				bulletCenterY > playerY && bulletCenterY < playerY + playerS)
+			{
+				return entry.getKey();
+			}
+		}
+
+		return -1;
+	}
+
+
+	private boolean checkPlayerCollision(Bullet bullet) {
+		int playerId = Simulation.findHitPlayer(this.players, bullet);
+		if (playerId == -1)
+			return false;
+
+		Weapon weapon = bullet.getOriginWeapon();
+		Player player = this.players.get(playerId);
+		int baseDmg = bullet.getScaledDamage();
+		int dmg = player.isArmored() ? (int) (baseDmg * weapon.penetration()) : baseDmg;
+
+		player.damage(dmg);
+		Map<String, String> cmdDamaged = Communication.cmdDamaged(playerId, dmg);
+		this.output.postAll(cmdDamaged);
+
+		Events.Hit hitEvent = new Events.Hit();
+		if (hitEvent.shouldCommit()) {
+			hitEvent.tick = this.tick;
+			hitEvent.attacker = this.getPlayerIdFromBullet(bullet);
+			hitEvent.victim = playerId;
+			hitEvent.weapon = weapon.getType();
+			hitEvent.damage = dmg;
+			hitEvent.killed = player.isDead();
+			hitEvent.commit();
+		}
+
+		if (player.isDead()) {
+			// Reset the killed player after the respawn delay, as long as they are still around
+			this.timers.scheduleMillis(Simulation.RESPAWN_DELAY, () -> {
+					if (this.players.get(playerId) != player)
+						return;
+					int[] randomTile = this.getSpawnTile();
+					player.setX(randomTile[0]);
+					player.setY(randomTile[1]);
+					player.reset();
+					Map<String, String> cmdReset = Communication.cmdReset(playerId,
+																		 randomTile[0],
+																		 randomTile[1]);
+					this.output.postAll(cmdReset);
+				});
+
+			// Pay the player that got the kill
+			int attackerId = this.getPlayerIdFromBullet(bullet);
+			int moneyEarned = weapon.moneyPerKill();
+			this.players.get(attackerId).pay(moneyEarned);
+			Map<String, String> cmdPay = Communication.cmdPay(moneyEarned, attackerId);
+			this.output.postAll(cmdPay);
+		}
+		return true;
+	}
+
+
+	public int getPlayerIdFromBullet(Bullet bullet) {
+		Weapon weapon = bullet.getOriginWeapon();
+		for (int playerId : this.players.keySet()) {
+			Player player = this.players.get(playerId);
+			if (player.getWeapon().equals(weapon))
+				return playerId;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Returns a living player.
+	 *
+	 * @param playerId  the id of the player.
+	 *
+	 * @return the player, or {@code null} if there is no such player or the player is dead.
+	 */
+	private Player getLivingPlayer(int playerId) {
+		Player player = this.players.get(playerId);
+		if (player == null || player.isDead())
+			return null;
+		return player;
+	}
+
+
+	/**
+	 * Moves a player and turns them to face an angle. Commands from dead players are ignored.
+	 *
+	 * @param playerId  the id of the player that moved.
+	 * @param up        whether the player moved up.
+	 * @param left      whether the player moved left.
+	 * @param down      whether the player moved down.
+	 * @param right     whether the player moved right.
+	 * @param rad       the angle the player is facing.
+	 */
+	public void move(int playerId,
+					 boolean up, boolean left, boolean down, boolean right,
+					 double rad)
+	{
+		Player player = this.getLivingPlayer(playerId);
+		if (player == null)
+			return;
+
+		int[] fromTile = Simulation.tileOf(player);
+		double baseV = 0.11 * player.getWeapon().mobility();
+		if (up) {
+			player.setV(0, -baseV);
+			while (this.level.collides(player, 0, player.getVy()))
+				player.setV(0, player.getVy() / 2);
+			player.move();
+		}
+		if (left) {
+			player.setV(-baseV, 0);
+			while (this.level.collides(player, player.getVx(), 0))
+				player.setV(player.getVx() / 2, 0);
+			player.move();
+		}
+		if (down) {
+			player.setV(0, baseV);
+			while (this.level.collides(player, 0, player.getVy()))
+				player.setV(0, player.getVy() / 2);
+			player.move();
+		}
+		if (right) {
+			player.setV(baseV, 0);
+			while (this.level.collides(player, player.getVx(), 0))
+				player.setV(player.getVx() / 2, 0);
+			player.move();
+		}
+		player.setRad(rad);
+
+		Map<String, String> cmdPosPlayer = Communication.cmdPosPlayer(player, playerId);
+		this.output.postMove(playerId, fromTile, cmdPosPlayer);
+	}
+
+
+	/**
+	 * Fires a player's weapon, if it can be fired. Commands from dead players are ignored.
+	 *
+	 * @param playerId  the id of the player that shot.
+	 */
+	public void shoot(int playerId) {
+		Player player = this.getLivingPlayer(playerId);
+		if (player == null)
+			return;
+
+		Weapon weapon = player.getWeapon();
+		Bullet[] bulletsFired = weapon.fire(player.getX(), player.getY(), player.getRad(),
+											this.timers, this.random);
+		if (bulletsFired != null) {
+			for (int bulletId = 0; bulletId < bulletsFired.length; bulletId++) {
+				Bullet bullet = bulletsFired[bulletId];
+				this.bullets.add(bullet);
+				Map<String, String> cmdNewBullet = Communication.cmdNewBullet(bullet,
+																			  bulletId,
+																			  playerId);
+				this.output.postAll(cmdNewBullet);
+			}
+		}
+	}
+
+
+	/**
+	 * Creates a new item that can be bought.
+	 *
+	 * @param itemStr  the type of the item.
+	 *
+	 * @return a new item of the given type, or {@code null} if no such item can be bought.
+	 */
+	public static Item newItem(String itemStr) {
+		if (itemStr == null)
+			return null;
+		return switch (itemStr) {
+		case "Pistol" -> new Pistol();
+		case "SMG" -> new SMG();
+		case "Rifle" -> new Rifle();
+		case "Shotgun" -> new Shotgun();
+		case "Sniper" -> new Sniper();
+		case "Armor" -> new Armor();
+		case "HealthKit" -> new HealthKit();
+		case "Grenade" -> new Grenade();
+		default -> null;
+		};
+	}
+
+
+	/**
+	 * Buys an item for a player, if they can afford it. Commands from dead players are
+	 * ignored.
+	 *
+	 * @param playerId  the id of the player buying.
+	 * @param itemStr   the type of the item to buy.
+	 */
+	public void buy(int playerId, String itemStr) {
+		Player player = this.getLivingPlayer(playerId);
+		if (player == null)
+			return;
+
+		Item item = Simulation.newItem(itemStr);
+		if (item == null) {
+			Log.stdlog(Log.ERROR, "Simulation", "invalid item bought: " + itemStr);
+			return;
+		}
+
+		boolean bought = player.buy(item);
+		if (bought) {
+			Map<String, String> updateBuy = Communication.cmdBuy(item, playerId);
+			this.output.postAll(updateBuy);
+		}
+	}
+
+
+	/**
+	 * Uses one of a player's items. Commands from dead players are ignored.
+	 *
+	 * @param playerId  the id of the player using an item.
+	 * @param itemNum   the number of the item to use.
+	 */
+	public void use(int playerId, int itemNum) {
+		Player player = this.getLivingPlayer(playerId);
+		if (player == null)
+			return;
+
+		boolean used = player.use(itemNum);
+		if (used) {
+			Map<String, String> updateUse = Communication.cmdUse(itemNum, playerId);
+			this.output.postAll(updateUse);
+		}
+	}
+
+
+	/**
+	 * Returns the tile containing the center of a player.
+	 *
+	 * @param player  the player.
+	 *
+	 * @return a two element array of the column and row of the tile.
+	 */
+	static int[] tileOf(Player player) {
+		double center = player.getSize() / 2;
+		return new int[] {(int) (player.getX() + center), (int) (player.getY() + center)};
+	}
+
+
+	/**
+	 * Returns an empty tile to spawn a player on. Random tiles are tried until one is found
+	 * that no living player can see, up to {@code SPAWN_ATTEMPTS} times. If every tile tried
+	 * can be seen, the last one is returned.
+	 *
+	 * @return a two element array of the column and row of an empty tile.
+	 */
+	private int[] getSpawnTile() {
+		int[] tile = null;
+		for (int attempt = 0; attempt < Simulation.SPAWN_ATTEMPTS; attempt++) {
+			tile = this.getRandomTile();
+			boolean seen = false;
+			for (Player player : this.players.values()) {
+				if (player.isDead())
+					continue;
+				int[] playerTile = Simulation.tileOf(player);
+				if (this.pvs.canSee(playerTile[0], playerTile[1], tile[0], tile[1])) {
+					seen = true;
+					break;
+				}
+			}
+			if (!seen)
+				return tile;
+		}
+		return tile;
+	}
+
+
+	/**
+	 * Returns a random empty tile on the level.
+	 *
+	 * @return a two element array of the column and row of an empty tile.
+	 */
+	private int[] getRandomTile() {
+		int x = -1;
+		int y = -1;
+
+		while (x < 0 || y < 0 || this.level.isFilled(y, x)) {
+			y = (int) (this.random.nextDouble() * this.level.rows());
+			x = (int) (this.random.nextDouble() * this.level.cols(y));
+		}
+
+		return new int[] {x, y};
+	}
+
+
+	/**
+	 * Adds a player at a spawn out of sight of the other players, and tells the new player's
+	 * client about every other player and bullet.
+	 *
+	 * @param playerId  the id of the new player.
+	 *
+	 * @throws IllegalArgumentException  if a player with the same id already exists.
+	 */
+	public void connect(int playerId) {
+		if (this.players.containsKey(playerId))
+			throw new IllegalArgumentException("player already exists: " + playerId);
+
+		int[] randomTile = this.getSpawnTile();
+		Player player = new Player(randomTile[0], randomTile[1]);
+		this.players.put(playerId, player);
+
+		Map<String, String> cmdJoin = Communication.cmdJoin(playerId,
+															player.getX(),
+															player.getY(),
+															this.level.toInteger());
+		this.output.postAll(cmdJoin);
+
+		// Update this player with all other player positions
+		for (int existingId : this.players.keySet()) {
+			Player existingPlayer = this.players.get(existingId);
+			Map<String, String> updateJoin = Communication.cmdJoin(existingId,
+																   existingPlayer.getX(),
+																   existingPlayer.getY(),
+																   this.level.toInteger());
+			this.output.post(playerId, updateJoin);
+		}
+
+		// Update this player will all the existing bullets
+		for (Bullet existingBullet : this.bullets) {
+			// Get the player that fired this bullet
+			Weapon weaponUsed = existingBullet.getOriginWeapon();
+		    int attackingId = -1;
+		    for (int existingId : this.players.keySet()) {
+				Player existingPlayer = this.players.get(existingId);
+				if (existingPlayer.getWeapon().equals(weaponUsed))
+					attackingId = existingId;
+			}
+
+			// Send the bullet update command
+			Map<String, String> updateNewBullet = Communication.cmdNewBullet(existingBullet,
+																			 1, attackingId);
+			this.output.post(playerId, updateNewBullet);
+		}
+	}
+
+
+	/**
+	 * Removes a player, and tells every client that they left. This method does nothing if
+	 * there is no such player.
+	 *
+	 * @param playerId  the id of the player that left.
+	 */
+	public void disconnect(int playerId) {
+		if (this.players.remove(playerId) == null)
+			return;
+
+		Map<String, String> cmdLeave = Communication.cmdLeave(playerId);
+		this.output.postAll(cmdLeave);
+	}
+
+}
@@ -0,0 +1,386 @@
+package server;
+
+
+import jnet.Log;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Times the phases of each server tick, and reports ticks that take longer than their budget.
+ * <p>
+ * A tick is timed by calling {@code begin}, then {@code mark} at the end of each phase, then
+ * {@code end}. Each call reads {@code System.nanoTime} once and does not allocate, so profiling
+ * is always on. Work nested inside a phase, such as hit detection inside bullet movement, is
+ * timed separately with {@code add} and subtracted from the enclosing phase.
+ * <p>
+ * The durations of the last {@code window} ticks are kept in a rolling histogram for each
+ * phase and for whole ticks. The histograms have four buckets per power of two, so percentiles
+ * are accurate to within 25%. When a tick exceeds its budget, a single line describing the tick
+ * is logged: the time spent in each phase, the number of players and bullets, the number of
+ * messages sent, and the messages processed by opcode. At most one slow tick is logged per
+ * {@code DUMP_INTERVAL}, and the number of slow ticks not logged is included in the next line.
+ * <p>
+ * This class must only be used by the simulation thread, except for the getters, which can be
+ * called from any thread.
+ *
+ * @author Jonathan Uhler
+ */
+public class TickProfiler {
+
+	/**
+	 * The phases of a tick.
+	 */
+	public enum Phase {
+		/** Advancing timers for reloads, cooldowns, and respawns. */
+		TIMERS,
+		/** Applying connections, disconnections, and commands from clients. */
+		INPUT,
+		/** Moving bullets and checking them against the level. */
+		BULLETS,
+		/** Checking bullets against players and applying damage. */
+		HITS,
+		/** Writing the tick to the replay being recorded, if any. */
+		RECORD,
+		/** Sending the messages produced by the tick. */
+		BROADCAST
+	}
+
+
+	/**
+	 * A histogram of the last durations recorded.
+	 */
+	private static class Histogram {
+
+		/** The number of buckets needed for any non-negative {@code long}. */
+		private static final int BUCKETS = 248;
+
+
+		/** The number of durations in each bucket. */
+		private final int[] counts;
+		/** The bucket of each duration in the window, oldest overwritten first. */
+		private final byte[] window;
+		/** The total number of durations recorded. */
+		private long recorded;
+
+
+		/**
+		 * Constructs a new, empty {@code Histogram}.
+		 *
+		 * @param size  the number of durations to keep.
+		 */
+		private Histogram(int size) {
+			this.counts = new int[Histogram.BUCKETS];
+			this.window = new byte[size];
+			this.recorded = 0;
+		}
+
+
+		/**
+		 * Returns the bucket of a duration. Durations below {@code 4} have their own bucket,
+		 * and every power of two above that is split into four buckets.
+		 *
+		 * @param nanos  the duration.
+		 *
+		 * @return the bucket of the duration.
+		 */
+		private static int bucketOf(long nanos) {
+			if (nanos < 4)
+				return (int) Math.max(0, nanos);
+			int octave = 63 - Long.numberOfLeadingZeros(nanos);
+			int sub = (int) ((nanos >>> (octave - 2)) & 3);
+			return 4 + (octave - 2) * 4 + sub;
+		}
+
+
+		/**
+		 * Returns the largest duration in a bucket.
+		 *
+		 * @param bucket  the bucket.
+		 *
+		 * @return the largest duration in the bucket.
+		 */
+		private static long upperBound(int bucket) {
+			if (bucket < 4)
+				return bucket;
+			int octave = (bucket - 4) / 4 + 2;
+			int sub = (bucket - 4) % 4;
+			return ((4L + sub + 1) << (octave - 2)) - 1;
+		}
+
+
+		/**
+		 * Records a duration, replacing the oldest one if the window is full.
+		 *
+		 * @param nanos  the duration.
+		 */
+		private synchronized void record(long nanos) {
+			int index = (int) (this.recorded % this.window.length);
+			if (this.recorded >= this.window.length)
+				this.counts[this.window[index] & 0xff]--;
+			int bucket = Histogram.bucketOf(nanos);
+			this.window[index] = (byte) bucket;
+			this.counts[bucket]++;
+			this.recorded++;
+		}
+
+
+		/**
+		 * Returns a percentile of the durations in the window.
+		 *
+		 * @param p  the percentile, in {@code [0, 100]}.
+		 *
+		 * @return the upper bound of the bucket containing the percentile, or {@code 0} if no
+		 *         durations have been recorded.
+		 */
+		private synchronized long percentile(double p) {
+			int size = (int) Math.min(this.recorded, this.window.length);
+			if (size == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(p / 100 * size));
+			long seen = 0;
+			for (int bucket = 0; bucket < Histogram.BUCKETS; bucket++) {
+				seen += this.counts[bucket];
+				if (seen >= rank)
+					return Histogram.upperBound(bucket);
+			}
+			return Histogram.upperBound(Histogram.BUCKETS - 1);
+		}
+
+	}
+
+
+	/** The number of ticks kept in each histogram by default. */
+	public static final int DEFAULT_WINDOW = 4096;
+	/** The shortest time, in nanoseconds, between two logged slow ticks. */
+	public static final long DUMP_INTERVAL = 1_000_000_000L;
+
+
+	/** The longest a tick can take, in nanoseconds, before it is reported. */
+	private final long budget;
+	/** The recent durations of each phase. */
+	private final Map<Phase, Histogram> phaseHistograms;
+	/** The recent durations of whole ticks. */
+	private final Histogram tickHistogram;
+
+	/** The number of the tick being timed. */
+	private long tick;
+	/** The time the tick being timed began. */
+	private long start;
+	/** The time the last phase ended. */
+	private long last;
+	/** The time spent in each phase of the tick being timed, by ordinal. */
+	private final long[] spans;
+	/** The number of messages processed during the tick being timed, by opcode. */
+	private final Map<String, int[]> messages;
+
+	/** The number of ticks that exceeded the budget. */
+	private volatile long slowTicks;
+	/** The number of slow ticks since the last one logged. */
+	private long suppressed;
+	/** The time the last slow tick was logged. */
+	private long lastDump;
+
+
+	/**
+	 * Constructs a new {@code TickProfiler}.
+	 *
+	 * @param budget  the longest a tick can take, in nanoseconds, before it is reported.
+	 * @param window  the number of ticks kept in each histogram.
+	 *
+	 * @throws IllegalArgumentException  if {@code budget < 1} or {@code window < 1}.
+	 */
+	public TickProfiler(long budget, int window) {
+		if (budget < 1)
+			throw new IllegalArgumentException("invalid budget: " + budget);
+		if (window < 1)
+			throw new IllegalArgumentException("invalid window: " + window);
+
+		this.budget = budget;
+		this.phaseHistograms = new EnumMap<>(Phase.class);
+		for (Phase phase : Phase.values())
+			this.phaseHistograms.put(phase, new Histogram(window));
+		this.tickHistogram = new Histogram(window);
+
+		this.spans = new long[Phase.values().length];
+		this.messages = new LinkedHashMap<>();
+		this.slowTicks = 0;
+		this.suppressed = 0;
+		this.lastDump = System.nanoTime() - TickProfiler.DUMP_INTERVAL;
+	}
+
+
+	/**
+	 * Begins timing a tick.
+	 *
+	 * @param tick  the number of the tick.
+	 */
+	public void begin(long tick) {
+		this.tick = tick;
+		this.start = System.nanoTime();
+		this.last = this.start;
+		for (int i = 0; i < this.spans.length; i++)
+			this.spans[i] = 0;
+		for (int[] count : this.messages.values())
+			count[0] = 0;
+	}
+
+
+	/**
+	 * Ends a phase. The time since the end of the previous phase, or since {@code begin} for
+	 * the first phase, is added to this phase.
+	 *
+	 * @param phase  the phase that ended.
+	 */
+	public void mark(Phase phase) {
+		long now = System.nanoTime();
+		this.spans[phase.ordinal()] += now - this.last;
+		this.last = now;
+	}
+
+
+	/**
+	 * Adds time spent in a phase nested inside another phase. The time is subtracted from the
+	 * enclosing phase when the tick ends.
+	 *
+	 * @param phase  the nested phase.
+	 * @param nanos  the time spent in the phase, in nanoseconds.
+	 */
+	public void add(Phase phase, long nanos) {
+		this.spans[phase.ordinal()] += nanos;
+	}
+
+
+	/**
+	 * Counts a message processed during the current tick. A count is kept for every opcode
+	 * ever passed, so opcodes must come from a fixed set rather than from a client.
+	 *
+	 * @param opcode  the opcode of the message.
+	 */
+	public void countMessage(String opcode) {
+		int[] count = this.messages.get(opcode);
+		if (count == null) {
+			count = new int[1];
+			this.messages.put(opcode, count);
+		}
+		count[0]++;
+	}
+
+
+	/**
+	 * Ends timing a tick, recording each phase and logging the tick if it was over budget.
+	 *
+	 * @param players  the number of players at the end of the tick.
+	 * @param bullets  the number of bullets at the end of the tick.
+	 * @param sent     the number of messages sent during the tick.
+	 */
+	public void end(int players, int bullets, int sent) {
+		long total = System.nanoTime() - this.start;
+		this.spans[Phase.BULLETS.ordinal()] =
+			Math.max(0, this.spans[Phase.BULLETS.ordinal()] - this.spans[Phase.HITS.ordinal()]);
+
+		for (Phase phase : Phase.values())
+			this.phaseHistograms.get(phase).record(this.spans[phase.ordinal()]);
+		this.tickHistogram.record(total);
+
+		if (total <= this.budget)
+			return;
+		this.slowTicks++;
+		if (this.start - this.lastDump < TickProfiler.DUMP_INTERVAL) {
+			this.suppressed++;
+			return;
+		}
+
+		StringBuilder record = new StringBuilder("slow tick=").append(this.tick)
+			.append(" total_us=").append(total / 1000)
+			.append(" budget_us=").append(this.budget / 1000);
+		for (Phase phase : Phase.values())
+			record.append(' ').append(phase.name().toLowerCase()).append("_us=")
+				.append(this.spans[phase.ordinal()] / 1000);
+		record.append(" players=").append(players)
+			.append(" bullets=").append(bullets)
+			.append(" sent=").append(sent)
+			.append(" messages={");
+		boolean first = true;
+		for (Map.Entry<String, int[]> entry : this.messages.entrySet()) {
+			if (entry.getValue()[0] == 0)
+				continue;
+			record.append(first ? "" : ",").append(entry.getKey()).append('=')
+				.append(entry.getValue()[0]);
+			first = false;
+		}
+		record.append("} suppressed=").append(this.suppressed);
+		Log.stdlog(Log.WARN, "TickProfiler", record.toString());
+
+		this.suppressed = 0;
+		this.lastDump = this.start;
+	}
+
+
+	/**
+	 * Returns the time spent in a phase of the last tick timed. This must only be called by the
+	 * simulation thread.
+	 *
+	 * @param phase  the phase.
+	 *
+	 * @return the time spent in the phase, in nanoseconds.
+	 */
+	public long getSpan(Phase phase) {
+		return this.spans[phase.ordinal()];
+	}
+
+
+	/**
+	 * Returns the longest a tick can take before it is reported.
+	 *
+	 * @return the tick budget, in nanoseconds.
+	 */
+	public long getBudget() {
+		return this.budget;
+	}
+
+
+	/**
+	 * Returns the number of ticks that exceeded the budget.
+	 *
+	 * @return the number of ticks that exceeded the budget.
+	 */
+	public long getSlowTicks() {
+		return this.slowTicks;
+	}
+
+
+	/**
+	 * Returns a percentile of the recent durations of a phase.
+	 *
+	 * @param phase  the phase.
+	 * @param p      the percentile, in {@code [0, 100]}.
+	 *
+	 * @return the percentile, in nanoseconds.
+	 *
+	 * @throws IllegalArgumentException  if {@code p} is not in {@code [0, 100]}.
+	 */
+	public long percentile(Phase phase, double p) {
+		if (p < 0 || p > 100)
+			throw new IllegalArgumentException("invalid percentile: " + p);
+		return this.phaseHistograms.get(phase).percentile(p);
+	}
+
+
+	/**
+	 * Returns a percentile of the recent durations of whole ticks.
+	 *
+	 * @param p  the percentile, in {@code [0, 100]}.
+	 *
+	 * @return the percentile, in nanoseconds.
+	 *
+	 * @throws IllegalArgumentException  if {@code p} is not in {@code [0, 100]}.
+	 */
+	public long tickPercentile(double p) {
+		if (p < 0 || p > 100)
+			throw new IllegalArgumentException("invalid percentile: " + p);
+		return this.tickHistogram.percentile(p);
+	}
+
+}
@@ -0,0 +1,304 @@
+package server;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts the messages and bytes sent and received over a connection, by opcode.
+ * <p>
+ * Recording a message only increments a few {@code LongAdder}s, so the counters can be
+ * updated from any number of network threads without contention. Rates are found by calling
+ * {@code sample} periodically, which returns the traffic since the previous sample.
+ *
+ * @author Jonathan Uhler
+ */
+public class TrafficStats {
+
+	/**
+	 * The traffic for one opcode.
+	 */
+	private static class Counter {
+
+		/** The number of messages received. */
+		private final LongAdder messagesIn = new LongAdder();
+		/** The number of bytes received. */
+		private final LongAdder bytesIn = new LongAdder();
+		/** The number of messages sent. */
+		private final LongAdder messagesOut = new LongAdder();
+		/** The number of bytes sent. */
+		private final LongAdder bytesOut = new LongAdder();
+
+	}
+
+
+	/**
+	 * The traffic between two calls to {@code sample}.
+	 */
+	public static class Sample {
+
+		/** The length of the sample, in seconds. */
+		private final double seconds;
+		/** The number of messages received and sent, by opcode, as {@code {in, out}}. */
+		private final Map<String, long[]> messages;
+		/** The number of bytes received. */
+		private final long bytesIn;
+		/** The number of bytes sent. */
+		private final long bytesOut;
+
+
+		/**
+		 * Constructs a new {@code Sample}.
+		 *
+		 * @param seconds   the length of the sample, in seconds.
+		 * @param messages  the number of messages received and sent, by opcode.
+		 * @param bytesIn   the number of bytes received.
+		 * @param bytesOut  the number of bytes sent.
+		 */
+		private Sample(double seconds, Map<String, long[]> messages, long bytesIn, long bytesOut) {
+			this.seconds = seconds;
+			this.messages = Collections.unmodifiableMap(messages);
+			this.bytesIn = bytesIn;
+			this.bytesOut = bytesOut;
+		}
+
+
+		/**
+		 * Returns the opcodes with any traffic during this sample, in alphabetical order.
+		 *
+		 * @return the opcodes with any traffic during this sample.
+		 */
+		public Iterable<String> opcodes() {
+			return this.messages.keySet();
+		}
+
+
+		/**
+		 * Returns the rate at which messages with an opcode were received.
+		 *
+		 * @param opcode  the opcode.
+		 *
+		 * @return the number of messages received per second.
+		 */
+		public double messagesInPerSecond(String opcode) {
+			long[] counts = this.messages.get(opcode);
+			return counts == null ? 0 : counts[0] / this.seconds;
+		}
+
+
+		/**
+		 * Returns the rate at which messages with an opcode were sent.
+		 *
+		 * @param opcode  the opcode.
+		 *
+		 * @return the number of messages sent per second.
+		 */
+		public double messagesOutPerSecond(String opcode) {
+			long[] counts = this.messages.get(opcode);
+			return counts == null ? 0 : counts[1] / this.seconds;
+		}
+
+
+		/**
+		 * Returns the rate at which bytes were received.
+		 *
+		 * @return the number of bytes received per second.
+		 */
+		public double bytesInPerSecond() {
+			return this.bytesIn / this.seconds;
+		}
+
+
+		/**
+		 * Returns the rate at which bytes were sent.
+		 *
+		 * @return the number of bytes sent per second.
+		 */
+		public double bytesOutPerSecond() {
+			return this.bytesOut / this.seconds;
+		}
+
+	}
+
+
+	/** A sample with no traffic. */
+	public static final Sample EMPTY = new Sample(1, new TreeMap<>(), 0, 0);
+	/** The opcode that messages without a known opcode are counted under. */
+	public static final String UNKNOWN_OPCODE = "?";
+
+
+	/** The traffic for each opcode since this object was created. */
+	private final Map<String, Counter> counters;
+	/** The totals for each opcode at the last sample, as {@code {in, bytesIn, out, bytesOut}}. */
+	private final Map<String, long[]> lastTotals;
+	/** The time, in nanoseconds, of the last sample. */
+	private long lastSample;
+
+
+	/**
+	 * Constructs a new {@code TrafficStats} with no traffic.
+	 */
+	public TrafficStats() {
+		this.counters = new ConcurrentHashMap<>();
+		this.lastTotals = new TreeMap<>();
+		this.lastSample = System.nanoTime();
+	}
+
+
+	/**
+	 * Returns the counter for an opcode, creating it if needed. Opcodes that are not one of the
+	 * {@code Communication.OPCODE_*} values share the {@code UNKNOWN_OPCODE} counter, so that a
+	 * peer cannot add a counter for every message it sends.
+	 *
+	 * @param opcode  the opcode, or {@code null} for a message without one.
+	 *
+	 * @return the counter for the opcode.
+	 */
+	private Counter counter(String opcode) {
+		if (!Communication.isOpcode(opcode))
+			opcode = TrafficStats.UNKNOWN_OPCODE;
+		Counter counter = this.counters.get(opcode);
+		if (counter == null)
+			counter = this.counters.computeIfAbsent(opcode, k -> new Counter());
+		return counter;
+	}
+
+
+	/**
+	 * Records a received message.
+	 *
+	 * @param opcode  the opcode of the message, or {@code null} if it has none.
+	 * @param bytes   the length of the message, in bytes.
+	 */
+	public void recordIn(String opcode, int bytes) {
+		Counter counter = this.counter(opcode);
+		counter.messagesIn.increment();
+		counter.bytesIn.add(bytes);
+	}
+
+
+	/**
+	 * Records a sent message.
+	 *
+	 * @param opcode  the opcode of the message, or {@code null} if it has none.
+	 * @param bytes   the length of the message, in bytes.
+	 */
+	public void recordOut(String opcode, int bytes) {
+		this.recordOut(opcode, bytes, 1);
+	}
+
+
+	/**
+	 * Records a message sent to several recipients, counting one message for each.
+	 *
+	 * @param opcode      the opcode of the message, or {@code null} if it has none.
+	 * @param bytes       the length of the message, in bytes.
+	 * @param recipients  the number of recipients the message was sent to.
+	 */
+	public void recordOut(String opcode, int bytes, int recipients) {
+		Counter counter = this.counter(opcode);
+		counter.messagesOut.add(recipients);
+		counter.bytesOut.add((long) bytes * recipients);
+	}
+
+
+	/**
+	 * Returns the traffic since the previous call to this method, or since this object was
+	 * created if this is the first call.
+	 *
+	 * @return the traffic since the previous sample.
+	 */
+	public synchronized Sample sample() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1e-9, (now - this.lastSample) / 1e9);
+		this.lastSample = now;
+
+		Map<String, long[]> messages = new TreeMap<>();
+		long bytesIn = 0;
+		long bytesOut = 0;
+		for (Map.Entry<String, Counter> entry : this.counters.entrySet()) {
+			Counter counter = entry.getValue();
+			long[] totals = {counter.messagesIn.sum(), counter.bytesIn.sum(),
+							 counter.messagesOut.sum(), counter.bytesOut.sum()};
+			long[] last = this.lastTotals.getOrDefault(entry.getKey(), new long[4]);
+			this.lastTotals.put(entry.getKey(), totals);
+
+			long in = totals[0] - last[0];
+			long out = totals[2] - last[2];
+			bytesIn += totals[1] - last[1];
+			bytesOut += totals[3] - last[3];
+			if (in > 0 || out > 0)
+				messages.put(entry.getKey(), new long[] {in, out});
+		}
+		return new Sample(seconds, messages, bytesIn, bytesOut);
+	}
+
+
+	/**
+	 * Returns every opcode that any traffic has been recorded for, in alphabetical order.
+	 *
+	 * @return every opcode that any traffic has been recorded for.
+	 */
+	public Set<String> opcodes() {
+		return new TreeSet<>(this.counters.keySet());
+	}
+
+
+	/**
+	 * Returns the total number of messages received with an opcode.
+	 *
+	 * @param opcode  the opcode.
+	 *
+	 * @return the total number of messages received with the opcode.
+	 */
+	public long getMessagesIn(String opcode) {
+		Counter counter = this.counters.get(opcode);
+		return counter == null ? 0 : counter.messagesIn.sum();
+	}
+
+
+	/**
+	 * Returns the total number of messages sent with an opcode.
+	 *
+	 * @param opcode  the opcode.
+	 *
+	 * @return the total number of messages sent with the opcode.
+	 */
+	public long getMessagesOut(String opcode) {
+		Counter counter = this.counters.get(opcode);
+		return counter == null ? 0 : counter.messagesOut.sum();
+	}
+
+
+	/**
+	 * Returns the total number of bytes received in messages with an opcode.
+	 *
+	 * @param opcode  the opcode.
+	 *
+	 * @return the total number of bytes received with the opcode.
+	 */
+	public long getBytesIn(String opcode) {
+		Counter counter = this.counters.get(opcode);
+		return counter == null ? 0 : counter.bytesIn.sum();
+	}
+
+
+	/**
+	 * Returns the total number of bytes sent in messages with an opcode.
+	 *
+	 * @param opcode  the opcode.
+	 *
+	 * @return the total number of bytes sent with the opcode.
+	 */
+	public long getBytesOut(String opcode) {
+		Counter counter = this.counters.get(opcode);
+		return counter == null ? 0 : counter.bytesOut.sum();
+	}
+
+}
@@ -0,0 +1,258 @@
+package world;
+
+
+import java.util.BitSet;
+
+
+/**
+ * The set of tiles that can be seen from a single tile of a level.
+ * <p>
+ * Visibility is computed by recursive shadowcasting. The area around the origin is split into
+ * eight octants, and each octant is scanned one row at a time moving away from the origin.
+ * The visible part of a row is tracked as a range of slopes; whenever a solid tile is found,
+ * the range is narrowed and the part of the octant behind the tile is skipped. Every tile
+ * within {@code radius} tiles, horizontally and vertically, of the origin is visited at most
+ * once, with no rays and no allocation.
+ * <p>
+ * The result is kept in a bitmap that is reused for every origin. The bitmap only covers the
+ * square of tiles within {@code radius} of the origin, so its size depends on the radius and
+ * not on the size of the level. Solid tiles that are hit by a line of sight are themselves
+ * visible. Tiles outside the level are never visible.
+ *
+ * @author Jonathan Uhler
+ */
+public class FieldOfView {
+
+	/**
+	 * The transforms from octant space, in which rows move away from the origin along the
+	 * y axis, to level space. Each row is {@code {xx, xy, yx, yy}}.
+	 */
+	private static final int[][] OCTANTS = {
+		{ 1,  0,  0,  1}, { 0,  1,  1,  0}, { 0, -1,  1,  0}, {-1,  0,  0,  1},
+		{-1,  0,  0, -1}, { 0, -1, -1,  0}, { 0,  1, -1,  0}, { 1,  0,  0, -1}
+	};
+
+
+	/** The level that visibility is computed on. */
+	private final Level level;
+	/** The furthest distance, in tiles along either axis, that can be seen. */
+	private final int radius;
+	/** The width and height, in tiles, of the square covered by the bitmap. */
+	private final int side;
+	/** Whether each tile within {@code radius} of the origin is visible, indexed by {@code bit}. */
+	private final BitSet visible;
+	/** The column of the current origin, or {@code -1} if none has been computed. */
+	private int originCol;
+	/** The row of the current origin, or {@code -1} if none has been computed. */
+	private int originRow;
+
+
+	/**
+	 * Constructs a new {@code FieldOfView}. No tiles are visible until {@code update} is
+	 * called.
+	 *
+	 * @param level   the level that visibility is computed on.
+	 * @param radius  the furthest distance, in tiles along either axis, that can be seen.
+	 *
+	 * @throws NullPointerException      if {@code level == null}.
+	 * @throws IllegalArgumentException  if {@code radius < 0}.
+	 */
+	public FieldOfView(Level level, int radius) {
+		if (level == null)
+			throw new NullPointerException("level was null");
+		if (radius < 0)
+			throw new IllegalArgumentException("invalid radius: " + radius);
+
+		this.level = level;
+		this.radius = radius;
+		this.side = 2 * radius + 1;
+		this.visible = new BitSet(this.side * this.side);
+		this.originCol = -1;
+		this.originRow = -1;
+	}
+
+
+	/**
+	 * Recomputes visibility from a new origin. If the origin has not changed since the last
+	 * call, nothing is recomputed.
+	 *
+	 * @param col  the column of the origin tile.
+	 * @param row  the row of the origin tile.
+	 *
+	 * @return whether visibility was recomputed.
+	 */
+	public boolean update(int col, int row) {
+		if (col == this.originCol && row == this.originRow)
+			return false;
+
+		this.originCol = col;
+		this.originRow = row;
+		this.visible.clear();
+		if (!this.inBounds(col, row))
+			return true;
+
+		this.visible.set(this.bit(col, row));
+		for (int[] octant : FieldOfView.OCTANTS)
+			this.castLight(1, 1.0, 0.0, octant[0], octant[1], octant[2], octant[3]);
+		return true;
+	}
+
+
+	/**
+	 * Forgets the current origin, so that the next call to {@code update} recomputes visibility
+	 * even if the origin has not changed. This must be called when tiles of the level change,
+	 * such as when chunks of a streamed level arrive.
+	 */
+	public void invalidate() {
+		this.originCol = -1;
+		this.originRow = -1;
+		this.visible.clear();
+	}
+
+
+	/**
+	 * Forgets the current origin if an area of the level is within {@code radius} of it, such
+	 * as when the tiles of that area change. Tiles further away cannot affect visibility.
+	 *
+	 * @param r     the row of the top-left tile of the area.
+	 * @param c     the column of the top-left tile of the area.
+	 * @param rows  the number of rows of tiles in the area.
+	 * @param cols  the number of columns of tiles in the area.
+	 */
+	public void invalidate(int r, int c, int rows, int cols) {
+		if (r + rows - 1 < this.originRow - this.radius || r > this.originRow + this.radius ||
+			c + cols - 1 < this.originCol - this.radius || c > this.originCol + this.radius)
+			return;
+		this.invalidate();
+	}
+
+
+	/**
+	 * Scans the rows of one octant, starting at a given distance from the origin, and marks the
+	 * tiles between two slopes as visible.
+	 *
+	 * @param distance  the distance from the origin of the first row to scan.
+	 * @param start     the slope of the first visible tile in each row.
+	 * @param end       the slope of the last visible tile in each row.
+	 * @param xx        the level x offset per octant x step.
+	 * @param xy        the level x offset per octant y step.
+	 * @param yx        the level y offset per octant x step.
+	 * @param yy        the level y offset per octant y step.
+	 */
+	private void castLight(int distance,
+						   double start,
+						   double end,
+						   int xx,
+						   int xy,
+						   int yx,
+						   int yy)
+	{
+		if (start < end)
+			return;
+
+		double newStart = 0;
+		for (int j = distance; j <= this.radius; j++) {
+			boolean blocked = false;
+			int dy = -j;
+			for (int dx = -j; dx <= 0; dx++) {
+				int col = this.originCol + dx * xx + dy * xy;
+				int row = this.originRow + dx * yx + dy * yy;
+				double leftSlope = (dx - 0.5) / (dy + 0.5);
+				double rightSlope = (dx + 0.5) / (dy - 0.5);
+				if (start < rightSlope)
+					continue;
+				if (end > leftSlope)
+					break;
+
+				boolean inBounds = this.inBounds(col, row);
+				if (inBounds)
+					this.visible.set(this.bit(col, row));
+				boolean opaque = !inBounds || this.level.isFilled(row, col);
+
+				if (blocked) {
+					if (opaque) {
+						newStart = rightSlope;
+					}
+					else {
+						blocked = false;
+						start = newStart;
+					}
+				}
+				else if (opaque && j < this.radius) {
+					// Scan the part of the octant in front of this tile, then skip what it hides
+					blocked = true;
+					this.castLight(j + 1, start, leftSlope, xx, xy, yx, yy);
+					newStart = rightSlope;
+				}
+			}
+			if (blocked)
+				break;
+		}
+	}
+
+
+	/**
+	 * Returns whether a tile is on the level.
+	 *
+	 * @param col  the column of the tile.
+	 * @param row  the row of the tile.
+	 *
+	 * @return whether the tile is on the level.
+	 */
+	private boolean inBounds(int col, int row) {
+		return row >= 0 && row < this.level.rows() && col >= 0 && col < this.level.cols(row);
+	}
+
+
+	/**
+	 * Returns the index in the bitmap of a tile within {@code radius} of the current origin.
+	 *
+	 * @param col  the column of the tile.
+	 * @param row  the row of the tile.
+	 *
+	 * @return the index in the bitmap of the tile.
+	 */
+	private int bit(int col, int row) {
+		int dr = row - this.originRow + this.radius;
+		int dc = col - this.originCol + this.radius;
+		return dr * this.side + dc;
+	}
+
+
+	/**
+	 * Returns whether a tile can be seen from the current origin.
+	 *
+	 * @param col  the column of the tile.
+	 * @param row  the row of the tile.
+	 *
+	 * @return whether the tile can be seen. Tiles outside the level are never visible.
+	 */
+	public boolean isVisible(int col, int row) {
+		if (!this.inBounds(col, row) ||
+			Math.abs(col - this.originCol) > this.radius ||
+			Math.abs(row - this.originRow) > this.radius)
+			return false;
+		return this.visible.get(this.bit(col, row));
+	}
+
+
+	/**
+	 * Returns the column of the current origin.
+	 *
+	 * @return the column of the current origin, or {@code -1} if none has been computed.
+	 */
+	public int getOriginCol() {
+		return this.originCol;
+	}
+
+
+	/**
+	 * Returns the row of the current origin.
+	 *
+	 * @return the row of the current origin, or {@code -1} if none has been computed.
+	 */
+	public int getOriginRow() {
+		return this.originRow;
+	}
+
+}
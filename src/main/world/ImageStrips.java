@@ -0,0 +1,708 @@
+package world;
+
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Reads an image from top to bottom in horizontal strips, so that images far larger than memory
+ * can be processed.
+ * <p>
+ * Every strip is returned as a {@code Raster} of 8-bit samples, interleaved by pixel and backed
+ * by a {@code DataBufferByte}, with either one band of gray or three bands of red, green, and
+ * blue. Alpha is discarded. The samples can therefore be read directly from the data buffer
+ * through the raster's {@code ComponentSampleModel}, without converting pixels to colors.
+ * Samples hold the same values as the colors {@code BufferedImage.getRGB} gives for the image,
+ * so gray samples are converted from linear gray to sRGB, and 16-bit samples are rounded.
+ * <p>
+ * Non-interlaced PNG images, of any color type and bit depth, are decoded row by row as the
+ * strips are read, so only the strip being read and one row of the compressed image are held
+ * in memory. Other images are read through {@code ImageIO} one region at a time, which also
+ * bounds memory, but may decode the image up to each region again for every strip.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see LevelBuilder
+ */
+public abstract class ImageStrips implements Closeable {
+
+	/**
+	 * Decodes a non-interlaced PNG image one row at a time.
+	 */
+	private static final class Png extends ImageStrips {
+
+		/** The eight bytes at the start of every PNG file. */
+		private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+		/** The type of the header chunk, {@code "IHDR"}. */
+		private static final int IHDR = 0x49484452;
+		/** The type of the palette chunk, {@code "PLTE"}. */
+		private static final int PLTE = 0x504C5445;
+		/** The type of the image data chunks, {@code "IDAT"}. */
+		private static final int IDAT = 0x49444154;
+
+
+		/**
+		 * The contents of consecutive image data chunks, as a single stream.
+		 */
+		private static final class ImageData extends InputStream {
+
+			/** The file, positioned within the data of the current chunk. */
+			private final DataInputStream file;
+			/** The bytes left in the current chunk, or {@code -1} after the last chunk. */
+			private int remaining;
+
+
+			/**
+			 * Constructs a new {@code ImageData} starting in the first image data chunk.
+			 *
+			 * @param file       the file, positioned at the start of the data of the chunk.
+			 * @param remaining  the length of the chunk.
+			 */
+			public ImageData(DataInputStream file, int remaining) {
+				this.file = file;
+				this.remaining = remaining;
+			}
+
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return this.read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+			}
+
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				while (this.remaining == 0) {
+					this.file.skipNBytes(4);
+					int length = this.file.readInt();
+					if (this.file.readInt() != Png.IDAT)
+						this.remaining = -1;
+					else
+						this.remaining = length;
+				}
+				if (this.remaining < 0)
+					return -1;
+
+				int read = this.file.read(b, off, Math.min(len, this.remaining));
+				if (read < 0)
+					throw new EOFException("image data cut short");
+				this.remaining -= read;
+				return read;
+			}
+
+
+			@Override
+			public void close() throws IOException {
+				this.file.close();
+			}
+
+		}
+
+
+		/** The decompressed rows of the image. */
+		private final DataInputStream rows;
+		/** The PNG color type. */
+		private final int colorType;
+		/** The number of bits per sample. */
+		private final int bitDepth;
+		/** The number of samples per pixel, including alpha. */
+		private final int samples;
+		/** The distance between bytes compared by the row filters, which is at least one. */
+		private final int filterStride;
+		/** The red, green, and blue of each palette entry, or {@code null}. */
+		private final byte[] palette;
+		/** The 8-bit value of each sample value, or {@code null} if samples are kept as is. */
+		private final byte[] levels;
+		/** The filter type and bytes of the row being decoded. */
+		private byte[] current;
+		/** The bytes of the previous row, after filtering was undone. */
+		private byte[] previous;
+
+
+		/**
+		 * Constructs a new {@code Png} from a parsed header.
+		 *
+		 * @param file       the file, positioned at the start of the first image data chunk.
+		 * @param length     the length of the first image data chunk.
+		 * @param width      the width of the image.
+		 * @param height     the height of the image.
+		 * @param colorType  the PNG color type.
+		 * @param bitDepth   the number of bits per sample.
+		 * @param palette    the red, green, and blue of each palette entry, or {@code null}.
+		 */
+		private Png(DataInputStream file,
+					int length,
+					int width,
+					int height,
+					int colorType,
+					int bitDepth,
+					byte[] palette)
+		{
+			super(width, height, colorType == 0 || colorType == 4 ? 1 : 3);
+			this.colorType = colorType;
+			this.bitDepth = bitDepth;
+			this.samples = switch (colorType) {
+				case 2 -> 3;
+				case 4 -> 2;
+				case 6 -> 4;
+				default -> 1;
+			};
+			this.filterStride = Math.max(1, this.samples * bitDepth / 8);
+			this.palette = palette;
+			this.levels = Png.levels(colorType, bitDepth);
+
+			int rowBytes = (int) (((long) width * this.samples * bitDepth + 7) / 8);
+			this.current = new byte[rowBytes + 1];
+			this.previous = new byte[rowBytes + 1];
+			InputStream data = new InflaterInputStream(new ImageData(file, length), new Inflater(),
+														1 << 16);
+			this.rows = new DataInputStream(data);
+		}
+
+
+		/**
+		 * Opens a PNG image if it can be decoded row by row.
+		 *
+		 * @param file  the image file.
+		 *
+		 * @return the image, or {@code null} if the file is not a PNG image, or is interlaced.
+		 *
+		 * @throws IOException  if the file cannot be read, or is a malformed PNG image.
+		 */
+		public static Png open(Path file) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(file), 1 << 16));
+			try {
+				if (in.readLong() != Png.SIGNATURE) {
+					in.close();
+					return null;
+				}
+
+				int width = 0;
+				int height = 0;
+				int colorType = -1;
+				int bitDepth = 0;
+				byte[] palette = null;
+				int dataLength = 0;
+				while (true) {
+					int length = in.readInt();
+					int type = in.readInt();
+					if (length < 0)
+						throw new IOException("invalid chunk length: " + length);
+
+					if (type == Png.IHDR) {
+						width = in.readInt();
+						height = in.readInt();
+						bitDepth = in.readUnsignedByte();
+						colorType = in.readUnsignedByte();
+						in.skipNBytes(2);
+						int interlace = in.readUnsignedByte();
+						in.skipNBytes(length - 13 + 4);
+						if (interlace != 0) {
+							in.close();
+							return null;
+						}
+					}
+					else if (type == Png.PLTE) {
+						palette = new byte[Math.min(length, 256 * 3) / 3 * 3];
+						in.readFully(palette);
+						in.skipNBytes(length - palette.length + 4);
+					}
+					else if (type == Png.IDAT) {
+						dataLength = length;
+						break;
+					}
+					else
+						in.skipNBytes((long) length + 4);
+				}
+
+				if (width < 1 || height < 1)
+					throw new IOException("invalid image size: " + width + "x" + height);
+				if (!Png.isSupported(colorType, bitDepth))
+					throw new IOException("invalid color type " + colorType + " at depth " +
+										  bitDepth);
+				if (colorType == 3 && palette == null)
+					throw new IOException("palette missing");
+				return new Png(in, dataLength, width, height, colorType, bitDepth, palette);
+			}
+			catch (IOException | RuntimeException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+
+		/**
+		 * Returns whether a combination of color type and bit depth is allowed by the PNG
+		 * specification.
+		 *
+		 * @param colorType  the PNG color type.
+		 * @param bitDepth   the number of bits per sample.
+		 *
+		 * @return whether the combination is allowed.
+		 */
+		private static boolean isSupported(int colorType, int bitDepth) {
+			return switch (colorType) {
+				case 0 -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8 ||
+					bitDepth == 16;
+				case 3 -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+				case 2, 4, 6 -> bitDepth == 8 || bitDepth == 16;
+				default -> false;
+			};
+		}
+
+
+		/**
+		 * Returns the 8-bit value of each possible sample value, as {@code BufferedImage.getRGB}
+		 * gives it for the image {@code ImageIO} would read. Gray samples are linear, and so are
+		 * converted to sRGB, and 16-bit samples are rounded rather than cut to their most
+		 * significant byte.
+		 *
+		 * @param colorType  the PNG color type.
+		 * @param bitDepth   the number of bits per sample.
+		 *
+		 * @return the 8-bit value of each sample value, or {@code null} if samples are already
+		 *         8-bit values, or are indices into the palette or fewer than 8 bits.
+		 */
+		private static byte[] levels(int colorType, int bitDepth) {
+			boolean gray = colorType == 0 || colorType == 4;
+			if (colorType == 3 || bitDepth < 8 || (bitDepth == 8 && !gray))
+				return null;
+
+			int components = gray ? 1 : 3;
+			int[] bits = new int[components];
+			Arrays.fill(bits, bitDepth);
+			int space = gray ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB;
+			int type = bitDepth == 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+			ColorModel model = new ComponentColorModel(ColorSpace.getInstance(space), bits, false,
+													   false, Transparency.OPAQUE, type);
+
+			byte[] levels = new byte[1 << bitDepth];
+			byte[] bytePixel = new byte[components];
+			short[] shortPixel = new short[components];
+			for (int v = 0; v < levels.length; v++) {
+				bytePixel[0] = (byte) v;
+				shortPixel[0] = (short) v;
+				int rgb = model.getRGB(bitDepth == 8 ? bytePixel : shortPixel);
+				levels[v] = (byte) (rgb >> 16);
+			}
+			return levels;
+		}
+
+
+		@Override
+		protected void readRows(int y, int height, byte[] data) throws IOException {
+			int width = this.width();
+			int bands = this.bands();
+			for (int row = 0; row < height; row++) {
+				byte[] swap = this.previous;
+				this.previous = this.current;
+				this.current = swap;
+				try {
+					this.rows.readFully(this.current);
+				}
+				catch (EOFException e) {
+					throw new IOException("image data cut short at row " + (y + row));
+				}
+				this.unfilter();
+				this.convert(data, row * width * bands);
+			}
+		}
+
+
+		/**
+		 * Undoes the filter of the current row, using the previous row.
+		 *
+		 * @throws IOException  if the filter type is not valid.
+		 */
+		private void unfilter() throws IOException {
+			byte[] cur = this.current;
+			byte[] prev = this.previous;
+			int stride = this.filterStride;
+			switch (cur[0]) {
+			case 0:
+				break;
+			case 1:
+				for (int i = 1 + stride; i < cur.length; i++)
+					cur[i] += cur[i - stride];
+				break;
+			case 2:
+				for (int i = 1; i < cur.length; i++)
+					cur[i] += prev[i];
+				break;
+			case 3:
+				for (int i = 1; i < cur.length; i++) {
+					int left = i > stride ? cur[i - stride] & 0xFF : 0;
+					cur[i] += (byte) ((left + (prev[i] & 0xFF)) >>> 1);
+				}
+				break;
+			case 4:
+				for (int i = 1; i < cur.length; i++) {
+					int a = i > stride ? cur[i - stride] & 0xFF : 0;
+					int b = prev[i] & 0xFF;
+					int c = i > stride ? prev[i - stride] & 0xFF : 0;
+					int pa = Math.abs(b - c);
+					int pb = Math.abs(a - c);
+					int pc = Math.abs(a + b - 2 * c);
+					cur[i] += (byte) (pa <= pb && pa <= pc ? a : (pb <= pc ? b : c));
+				}
+				break;
+			default:
+				throw new IOException("invalid filter type: " + cur[0]);
+			}
+		}
+
+
+		/**
+		 * Converts the current row to 8-bit gray or red, green, and blue samples.
+		 *
+		 * @param data    the samples of the strip.
+		 * @param offset  the position of the first sample of the row in {@code data}.
+		 *
+		 * @throws IOException  if the row refers to an entry past the end of the palette.
+		 */
+		private void convert(byte[] data, int offset) throws IOException {
+			byte[] cur = this.current;
+			int width = this.width();
+			if (this.bitDepth < 8) {
+				int perByte = 8 / this.bitDepth;
+				int mask = (1 << this.bitDepth) - 1;
+				for (int x = 0; x < width; x++) {
+					int shift = 8 - this.bitDepth * (x % perByte + 1);
+					int value = (cur[1 + x / perByte] >> shift) & mask;
+					if (this.colorType == 0)
+						data[offset + x] = (byte) (value * 255 / mask);
+					else
+						this.lookUp(value, data, offset + x * 3);
+				}
+				return;
+			}
+
+			int bands = this.bands();
+			if (this.bitDepth == 8 && this.samples == bands && this.levels == null) {
+				System.arraycopy(cur, 1, data, offset, width * bands);
+				return;
+			}
+
+			int bytes = this.bitDepth / 8;
+			int pixelBytes = this.samples * bytes;
+			for (int x = 0, p = 1; x < width; x++, p += pixelBytes) {
+				if (this.colorType == 3)
+					this.lookUp(cur[p] & 0xFF, data, offset + x * 3);
+				else if (this.levels == null) {
+					for (int b = 0; b < bands; b++)
+						data[offset + x * bands + b] = cur[p + b];
+				}
+				else {
+					for (int b = 0, q = p; b < bands; b++, q += bytes) {
+						int value = cur[q] & 0xFF;
+						if (bytes == 2)
+							value = (value << 8) | (cur[q + 1] & 0xFF);
+						data[offset + x * bands + b] = this.levels[value];
+					}
+				}
+			}
+		}
+
+
+		/**
+		 * Writes the red, green, and blue of a palette entry.
+		 *
+		 * @param index   the index of the palette entry.
+		 * @param data    the samples of the strip.
+		 * @param offset  the position of the red sample in {@code data}.
+		 *
+		 * @throws IOException  if the entry is past the end of the palette.
+		 */
+		private void lookUp(int index, byte[] data, int offset) throws IOException {
+			if (index * 3 >= this.palette.length)
+				throw new IOException("invalid palette index: " + index);
+			System.arraycopy(this.palette, index * 3, data, offset, 3);
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			this.rows.close();
+		}
+
+	}
+
+
+	/**
+	 * Reads an image of any format supported by {@code ImageIO}, one region at a time.
+	 */
+	private static final class Regions extends ImageStrips {
+
+		/** The reader of the image. */
+		private final ImageReader reader;
+		/** The stream the image is read from. */
+		private final ImageInputStream stream;
+
+
+		/**
+		 * Constructs a new {@code Regions}.
+		 *
+		 * @param reader  the reader of the image, with its input set to {@code stream}.
+		 * @param stream  the stream the image is read from.
+		 *
+		 * @throws IOException  if the size of the image cannot be read.
+		 */
+		private Regions(ImageReader reader, ImageInputStream stream) throws IOException {
+			super(reader.getWidth(0), reader.getHeight(0), 3);
+			this.reader = reader;
+			this.stream = stream;
+		}
+
+
+		/**
+		 * Opens an image with {@code ImageIO}.
+		 *
+		 * @param file  the image file.
+		 *
+		 * @return the image.
+		 *
+		 * @throws IOException  if the file cannot be read, or is not an image.
+		 */
+		public static Regions open(Path file) throws IOException {
+			ImageInputStream stream = ImageIO.createImageInputStream(file.toFile());
+			if (stream == null)
+				throw new IOException("cannot open " + file);
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+				if (!readers.hasNext())
+					throw new IOException("not a supported image: " + file);
+				ImageReader reader = readers.next();
+				reader.setInput(stream, true, true);
+				return new Regions(reader, stream);
+			}
+			catch (IOException | RuntimeException e) {
+				stream.close();
+				throw e;
+			}
+		}
+
+
+		@Override
+		protected void readRows(int y, int height, byte[] data) throws IOException {
+			ImageReadParam param = this.reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(0, y, this.width(), height));
+			BufferedImage region = this.reader.read(0, param);
+			if (!Regions.isDrawnExactly(region.getColorModel())) {
+				// Convert through the color model, as BufferedImage.getRGB does, one row at a
+				// time so that only one row of colors is held
+				int width = this.width();
+				int[] rgb = new int[width];
+				for (int row = 0, p = 0; row < height; row++) {
+					region.getRGB(0, row, width, 1, rgb, 0, width);
+					for (int x = 0; x < width; x++, p += 3) {
+						data[p] = (byte) (rgb[x] >> 16);
+						data[p + 1] = (byte) (rgb[x] >> 8);
+						data[p + 2] = (byte) rgb[x];
+					}
+				}
+				return;
+			}
+
+			// Draw the region onto an image whose raster uses the data array, converting it
+			// to red, green, and blue samples
+			WritableRaster raster = ImageStrips.createRaster(data, this.width(), height, 3);
+			BufferedImage rgb = new BufferedImage(ImageStrips.RGB_MODEL, raster, false, null);
+			Graphics2D g = rgb.createGraphics();
+			g.setComposite(AlphaComposite.Src);
+			g.drawImage(region, 0, 0, null);
+			g.dispose();
+		}
+
+
+		/**
+		 * Returns whether drawing an image with a color model gives the same red, green, and
+		 * blue as {@code BufferedImage.getRGB}. Drawing does not convert linear gray to sRGB,
+		 * and may not round samples of more than 8 bits in the same way.
+		 *
+		 * @param model  the color model of the image.
+		 *
+		 * @return whether the model holds sRGB colors with at most 8 bits per component.
+		 */
+		private static boolean isDrawnExactly(ColorModel model) {
+			if (!model.getColorSpace().isCS_sRGB())
+				return false;
+			for (int size : model.getComponentSize()) {
+				if (size > 8)
+					return false;
+			}
+			return true;
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			this.reader.dispose();
+			this.stream.close();
+		}
+
+	}
+
+
+	/** The color model of rasters with three bands of red, green, and blue. */
+	private static final ColorModel RGB_MODEL =
+		new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR).getColorModel();
+
+
+	/** The width of the image. */
+	private final int width;
+	/** The height of the image. */
+	private final int height;
+	/** The number of bands in each strip. */
+	private final int bands;
+	/** The number of rows already read. */
+	private int y;
+
+
+	/**
+	 * Constructs a new {@code ImageStrips} before the first row.
+	 *
+	 * @param width   the width of the image.
+	 * @param height  the height of the image.
+	 * @param bands   the number of bands in each strip, either {@code 1} or {@code 3}.
+	 */
+	private ImageStrips(int width, int height, int bands) {
+		this.width = width;
+		this.height = height;
+		this.bands = bands;
+		this.y = 0;
+	}
+
+
+	/**
+	 * Opens an image to be read in strips.
+	 *
+	 * @param file  the image file.
+	 *
+	 * @return the image, positioned before its first row.
+	 *
+	 * @throws IOException  if the file cannot be read, or is not a supported image.
+	 */
+	public static ImageStrips open(Path file) throws IOException {
+		ImageStrips png = Png.open(file);
+		if (png != null)
+			return png;
+		return Regions.open(file);
+	}
+
+
+	/**
+	 * Returns the width of the image.
+	 *
+	 * @return the width of the image, in pixels.
+	 */
+	public int width() {
+		return this.width;
+	}
+
+
+	/**
+	 * Returns the height of the image.
+	 *
+	 * @return the height of the image, in pixels.
+	 */
+	public int height() {
+		return this.height;
+	}
+
+
+	/**
+	 * Returns the number of bands in each strip.
+	 *
+	 * @return {@code 1} if the image is gray, or {@code 3} if it has red, green, and blue
+	 *         bands.
+	 */
+	public int bands() {
+		return this.bands;
+	}
+
+
+	/**
+	 * Reads the next strip of the image.
+	 *
+	 * @param height  the number of rows in the strip.
+	 *
+	 * @return the strip, whose first row is the row after the last row of the previous strip.
+	 *
+	 * @throws IllegalArgumentException  if {@code height < 1}, or the strip would extend past
+	 *                                   the bottom of the image.
+	 * @throws IOException               if the image cannot be read.
+	 */
+	public Raster read(int height) throws IOException {
+		if (height < 1 || height > this.height - this.y)
+			throw new IllegalArgumentException("invalid strip height " + height + " at row " +
+											   this.y + " of " + this.height);
+
+		long size = (long) this.width * height * this.bands;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("strip too large: " + size + " bytes");
+		byte[] data = new byte[(int) size];
+		this.readRows(this.y, height, data);
+		this.y += height;
+		return ImageStrips.createRaster(data, this.width, height, this.bands);
+	}
+
+
+	/**
+	 * Reads rows of the image into an array of interleaved 8-bit samples.
+	 *
+	 * @param y       the first row to read, which is the row after the last row read.
+	 * @param height  the number of rows to read.
+	 * @param data    the array to write the samples to, which holds exactly
+	 *                {@code width() * height * bands()} samples.
+	 *
+	 * @throws IOException  if the image cannot be read.
+	 */
+	protected abstract void readRows(int y, int height, byte[] data) throws IOException;
+
+
+	/**
+	 * Creates a raster of interleaved 8-bit samples backed by an existing array.
+	 *
+	 * @param data    the samples.
+	 * @param width   the width of the raster.
+	 * @param height  the height of the raster.
+	 * @param bands   the number of bands.
+	 *
+	 * @return the raster.
+	 */
+	private static WritableRaster createRaster(byte[] data, int width, int height, int bands) {
+		int[] offsets = bands == 1 ? new int[] {0} : new int[] {0, 1, 2};
+		return Raster.createInterleavedRaster(new DataBufferByte(data, data.length), width,
+											  height, width * bands, bands, offsets, null);
+	}
+
+}
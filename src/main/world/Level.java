@@ -2,11 +2,22 @@ package world;
 
 
 import interfaces.Moveable;
-import java.awt.Point;
+import entity.Ray;
 
 
 /**
  * Handles the tile arrangement of the world in which entities interact.
+ * <p>
+ * The tiles themselves are held by an immutable {@code LevelData} loaded through the
+ * {@code LevelRegistry}, so constructing a {@code Level} is cheap and every {@code Level} with
+ * the same number shares the same tiles.
+ * <p>
+ * A client playing on a level too large to be sent whole instead constructs a streamed
+ * {@code Level}, whose tiles are held in {@code LevelChunks} and filled in as the server sends
+ * the chunks around the player. Tiles that have not been sent are empty.
+ * <p>
+ * Levels can also be generated from a seed by {@code generate}, in which case their tiles are
+ * not shared with any level in the {@code LevelRegistry}.
  *
  * @author Jonathan Uhler
  */
@@ -169,34 +180,139 @@ public class Level {
 		"###################     ####             #######################\n" +
 		"###################                      #######################\n" +
 		"################################################################";
-	
 
-	/** A list of all loaded levels as 2d tile arrays. */
-	private final Tile[][][] levels = {Level.fromString(Level.LEVEL_0),
-									   Level.fromString(Level.LEVEL_1),
-									   Level.fromString(Level.LEVEL_2)};
 
 
 	/** The integer choice of this level. */
 	private int l;
-	/** The current 2d tile array representing this level. */
-	private Tile[][] level;
+	/** The number of rows of tiles. */
+	private int rows;
+	/** The number of columns of tiles in every row. */
+	private int cols;
+	/**
+	 * The tiles of this level, shared with every other level of the same number, or
+	 * {@code null} if this level is streamed.
+	 */
+	private LevelData level;
+	/** The chunks of this level received so far, or {@code null} if this level is not streamed. */
+	private LevelChunks chunks;
+	/** The seed this level was generated from, or {@code null} if it was not generated. */
+	private Long seed;
 
 
 	/**
-	 * Constructs a new {@code Level} object from one of the pre-defined levels.
+	 * Constructs a new {@code Level} object from one of the levels in the {@code LevelRegistry}.
 	 *
-	 * @param l  the level number corresponding to one of the {@code LEVEL_*} strings in this class.
+	 * @param l  the level number, either of a level file or of one of the {@code LEVEL_*}
+	 *           strings in this class.
 	 *
-	 * @throws IllegalArgumentException  if {@code m} does not represent an existing level.
+	 * @throws IllegalArgumentException  if {@code l} does not represent an existing level.
 	 */
 	public Level(int l) {
-	    if (l < 0 || l > this.levels.length)
-			throw new IllegalArgumentException(l + " out of bounds for length " +
-											   this.levels.length);
+		this.l = l;
+		this.level = LevelRegistry.get(l);
+		this.chunks = null;
+		this.seed = null;
+		this.rows = this.level.rows();
+		this.cols = this.level.cols();
+	}
+
+
+	/**
+	 * Constructs a new {@code Level} on tiles that were not loaded through the
+	 * {@code LevelRegistry}, such as those of a level downloaded from a server.
+	 *
+	 * @param l      the level number, as given by the server.
+	 * @param level  the tiles of the level.
+	 *
+	 * @throws NullPointerException  if {@code level == null}.
+	 */
+	public Level(int l, LevelData level) {
+		if (level == null)
+			throw new NullPointerException("level was null");
 
 		this.l = l;
-		this.level = this.levels[l];
+		this.level = level;
+		this.chunks = null;
+		this.seed = null;
+		this.rows = level.rows();
+		this.cols = level.cols();
+	}
+
+
+	/**
+	 * Constructs a new streamed {@code Level}, which holds no tiles until chunks are added to
+	 * {@code getChunks}.
+	 *
+	 * @param l     the level number, as given by the server.
+	 * @param rows  the number of rows of tiles in the level.
+	 * @param cols  the number of columns of tiles in every row of the level.
+	 *
+	 * @throws IllegalArgumentException  if {@code rows < 1} or {@code cols < 1}.
+	 */
+	public Level(int l, int rows, int cols) {
+		this.l = l;
+		this.level = null;
+		this.chunks = new LevelChunks(rows, cols);
+		this.seed = null;
+		this.rows = rows;
+		this.cols = cols;
+	}
+
+
+	/**
+	 * Creates a new procedurally generated {@code Level}.
+	 *
+	 * @param l     the level number, which only names the level.
+	 * @param seed  the seed of the level.
+	 * @param rows  the number of rows of tiles in the level.
+	 * @param cols  the number of columns of tiles in every row of the level.
+	 *
+	 * @return the level, whose tiles are the same for every call with the same seed and size.
+	 *
+	 * @throws IllegalArgumentException  if {@code rows} or {@code cols} is outside the interval
+	 *                                   {@code [LevelGenerator.MIN_SIZE,
+	 *                                   LevelGenerator.MAX_SIZE]}.
+	 *
+	 * @see LevelGenerator
+	 */
+	public static Level generate(int l, long seed, int rows, int cols) {
+		Level level = new Level(l, LevelGenerator.generate(seed, rows, cols));
+		level.seed = seed;
+		return level;
+	}
+
+
+	/**
+	 * Returns the tiles of this level.
+	 *
+	 * @return the tiles of this level, shared with every other level of the same number, or
+	 *         {@code null} if this level is streamed.
+	 */
+	public LevelData getData() {
+		return this.level;
+	}
+
+
+	/**
+	 * Returns the chunks of this level received so far.
+	 *
+	 * @return the chunks of this level received so far, or {@code null} if this level is not
+	 *         streamed.
+	 */
+	public LevelChunks getChunks() {
+		return this.chunks;
+	}
+
+
+	/**
+	 * Returns the seed this level was generated from.
+	 *
+	 * @return the seed this level was generated from, or {@code null} if it was not generated
+	 *         by {@code generate}.
+	 */
+	public Long getSeed() {
+		return this.seed;
 	}
 
 
@@ -211,6 +327,22 @@ public class Level {
 	}
 
 
+	/**
+	 * Returns a hash of the tiles of this level. Two levels with the same tiles have the same
+	 * hash, so the hash can be used to identify data derived from a level, such as cached
+	 * visibility, independently of the level's number.
+	 *
+	 * @return the SHA-256 hash of the tiles of this level, as a lowercase hexadecimal string.
+	 *
+	 * @throws IllegalStateException  if this level is streamed, so its tiles are not all known.
+	 */
+	public String contentHash() {
+		if (this.level == null)
+			throw new IllegalStateException("streamed level has no content hash");
+		return this.level.contentHash();
+	}
+
+
 	/**
 	 * Loads a level as a 2d tile array from a string representation. The string form of a level
 	 * is defined as:
@@ -289,10 +421,10 @@ public class Level {
 	 *                                    of the level size.
 	 */
 	public Tile get(int r, int c) {
-		if (r < 0 || r >= this.level.length || c < 0 || c >= this.level[r].length)
+		if (r < 0 || r >= this.rows || c < 0 || c >= this.cols)
 			throw new IndexOutOfBoundsException("position out of bounds");
 		
-		return this.level[r][c];
+		return this.level != null ? this.level.get(r, c) : this.chunks.get(r, c);
 	}
 
 
@@ -308,10 +440,10 @@ public class Level {
 	 *                                    of the level size.
 	 */
 	public boolean isFilled(int r, int c) {
-		if (r < 0 || r >= this.level.length || c < 0 || c >= this.level[r].length)
+		if (r < 0 || r >= this.rows || c < 0 || c >= this.cols)
 			throw new IndexOutOfBoundsException("position out of bounds");
 		
-		return this.level[r][c] != Tile.NONE;
+		return this.filled(r, c);
 	}
 
 
@@ -321,7 +453,7 @@ public class Level {
 	 * @return the number of rows in this level.
 	 */
 	public int rows() {
-		return this.level.length;
+		return this.rows;
 	}
 
 
@@ -335,9 +467,62 @@ public class Level {
 	 * @throws IndexOutOfBoundsException  if {@code r} is not in bounds of the size of the level.
 	 */
 	public int cols(int r) {
-		if (r < 0 || r >= this.level.length)
-			throw new IndexOutOfBoundsException(r + " out of bounds for len" + this.level.length);
-		return this.level[r].length;
+		if (r < 0 || r >= this.rows)
+			throw new IndexOutOfBoundsException(r + " out of bounds for len" + this.rows);
+		return this.cols;
+	}
+
+
+	/**
+	 * Determines whether a target position can be seen from an origin position. A {@code Ray}
+	 * is cast from the origin towards the target one tile at a time, and the target is
+	 * considered visible if the ray reaches it without colliding with any solid tile.
+	 *
+	 * @param fromX  the x position, in tile space, of the viewer.
+	 * @param fromY  the y position, in tile space, of the viewer.
+	 * @param toX    the x position, in tile space, of the target.
+	 * @param toY    the y position, in tile space, of the target.
+	 *
+	 * @return {@code true} if the target position can be seen from the origin position.
+	 *
+	 * @see entity.Ray
+	 */
+	public boolean isViewable(double fromX, double fromY, double toX, double toY) {
+		double x = toX - fromX;
+		double y = toY - fromY;
+		double rad = x < 0 ? Math.atan(y / x) + Math.PI : Math.atan(y / x);
+
+		Ray ray = new Ray(fromX, fromY, rad);
+		while (!ray.inRange(toX, toY)) {
+			if (this.collides(ray, ray.getVx(), ray.getVy()))
+				return false;
+			ray.move();
+		}
+		return true;
+	}
+
+
+	/**
+	 * Determines if an object moving with some velocity will still be entirely on the level in
+	 * the next frame.
+	 *
+	 * @param moveable  the {@code Moveable} object to check.
+	 * @param vx        the x component of the velocity that the object will have.
+	 * @param vy        the y component of the velocity that the object will have.
+	 *
+	 * @return {@code true} if every tile the object will overlap with its current position and
+	 *         given velocity is on the level.
+	 */
+	public boolean contains(Moveable moveable, double vx, double vy) {
+		double x = moveable.getX() + vx;
+		double y = moveable.getY() + vy;
+		double size = moveable.getSize();
+		// Same tiles as checked by collides
+		int c1 = (int) x;
+		int r1 = (int) y;
+		int c2 = (int) (x + size);
+		int r2 = (int) (y + size);
+		return r1 >= 0 && r2 < this.rows && c1 >= 0 && c2 < this.cols;
 	}
 
 
@@ -369,24 +554,37 @@ public class Level {
 	    double x2 = x1 + size;
 		double y2 = y1 + size;
 
-		// All possible tiles the object could be colliding with, depending on size
-		Point currentTile = new Point((int) x1, (int) y1);
-		Point rightTile = new Point((int) x2, (int) y1);
-		Point downTile = new Point((int) x1, (int) y2);
-		Point cornerTile = new Point((int) x2, (int) y2);
+		// All possible tiles the object could be colliding with, depending on size. The
+		// top-left tile is (c1, r1) and the bottom-right tile is (c2, r2)
+		int c1 = (int) x1;
+		int r1 = (int) y1;
+		int c2 = (int) x2;
+		int r2 = (int) y2;
 
 		// Check bounds
-		if (currentTile.y < 0 || currentTile.y >= this.level.length ||
-			currentTile.x < 0 || currentTile.x >= this.level[currentTile.y].length)
-			throw new IllegalArgumentException("position " + currentTile + " out of bounds");
+		if (r1 < 0 || r2 >= this.rows || c1 < 0 || c2 >= this.cols)
+			throw new IllegalArgumentException("position (" + c1 + ", " + r1 + ") out of bounds");
 
 		// Check for a collision
-		boolean collidesCurrent = this.level[currentTile.y][currentTile.x] != Tile.NONE;
-	    boolean collidesRight = this.level[rightTile.y][rightTile.x] != Tile.NONE;
-		boolean collidesDown = this.level[downTile.y][downTile.x] != Tile.NONE;
-		boolean collidesCorner = this.level[cornerTile.y][cornerTile.x] != Tile.NONE;
+		boolean collidesCurrent = this.filled(r1, c1);
+	    boolean collidesRight = this.filled(r1, c2);
+		boolean collidesDown = this.filled(r2, c1);
+		boolean collidesCorner = this.filled(r2, c2);
 
 		return collidesCurrent || collidesRight || collidesDown || collidesCorner;
 	}
 
+
+	/**
+	 * Returns whether a tile is filled, without checking bounds.
+	 *
+	 * @param r  the row.
+	 * @param c  the column.
+	 *
+	 * @return whether the tile is filled.
+	 */
+	private boolean filled(int r, int c) {
+		return this.level != null ? this.level.isFilled(r, c) : this.chunks.isFilled(r, c);
+	}
+
 }
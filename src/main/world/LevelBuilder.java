@@ -17,54 +17,452 @@ import javax.swing.SpinnerNumberModel;
 import javax.swing.JTextField;
 import javax.swing.JSlider;
 import javax.swing.JCheckBox;
-import javax.imageio.ImageIO;
 import java.awt.GridBagLayout;
 import java.awt.GridBagConstraints;
 import java.awt.Dimension;
-import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
 import java.awt.Color;
 import java.awt.Font;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
- * Generates the bare outline of a level from the luminance values in an image. <b>This class is a 
- * work in progress and may contain issues parsing non-regular image shapes or sizes.</b>
+ * Generates the bare outline of a level from the luminance values in an image.
  * <p>
  * <b> Usage </b>
  * <p>
- * This program is graphical and operates primarily using {@code JOptionPane}s. It can be run
- * through the main game menu by clicking on the "Level Builder" button. The file can also
- * be run directly through the public method, {@code create} which will graphically prompt
- * the user for necessary inputs.
+ * {@code java -cp ByteStrike.jar world.LevelBuilder [--rows rows] [--cols cols]
+ * [--threshold luminance] [--invert true] [--wall stone|sand|crate] image output}
  * <p>
- * If enough information is already known about the conditions being used to generate
- * the level, the {@code completeGeneration} method can be used. However, it is recommended
- * that the {@code create} method be invoked instead to minimize the risk of pre-condition
- * related exceptions.
+ * Run from the command line, the level builder needs no display. It reads the image, writes the
+ * level to the output file in the format of {@code LevelFile}, and prints the time taken. The
+ * level is {@code 64x64} tiles by default. A level file named {@code n.bslv} in the levels
+ * directory of {@code LevelRegistry} replaces level {@code n}.
+ * <p>
+ * The level builder can also be run through the main game menu by clicking on the "Level
+ * Builder" button, or through the public method {@code create}, which graphically prompts the
+ * user for inputs and shows the level as a string. The {@code build} method generates a level
+ * without any output.
  * <p>
  * <b>Algorithm</b>
  * <p>
- * The level builder determines the dimensions of one tile in terms of pixels from the width
- * and height of the source image (by definition this is 
- * {@code pxPerTileDim = imageDim / LEVEL_SIZE} for a given dimension: width or height).
- * Using this, the program loops through the image in sections of that many pixels. The average
- * color of all the pixels in a {@code pxPerTileWidth * pxPerTileHeight} area is taken and
- * compared against the {@code LUMINANCE_THRESHOLD} value specified in the command line
- * arguments. If the average luminance is strictly greater than the threshold (or strictly
- * less than the threshold if the reverse option is specified), a solid wall tile of the type
- * provided is added, otherwise an empty tile is added.
+ * The image is divided into {@code rows} rows and {@code cols} columns of pixel areas, one per
+ * tile, which differ in size by at most one pixel when the image does not divide evenly. The
+ * average luminance of the pixels in each area, {@code 0.299 * red + 0.587 * green +
+ * 0.114 * blue}, is compared against the {@code luminanceThreshold}. If it is strictly greater
+ * than the threshold (or strictly less than the threshold if the invert option is specified),
+ * a solid wall tile of the type provided is added, otherwise an empty tile is added.
+ * <p>
+ * The image is read from top to bottom by {@code ImageStrips}, in strips of whole rows of tiles
+ * up to {@code STRIP_BYTES} in size, so memory use does not depend on the height of the image.
+ * The samples of each strip are read directly from its data buffer, and the tiles of the strip
+ * are averaged in parallel by the common fork/join pool while the next strip is read.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see ImageStrips
+ * @see LevelFile
  */
 public class LevelBuilder {
 
+	/**
+	 * Averages the luminance of a range of the tiles in one strip of the image, splitting the
+	 * range in half until each part covers at most {@code GRAIN} pixels.
+	 */
+	private static final class Downsample extends RecursiveAction {
+
+		/** The samples of the strip. */
+		private final byte[] data;
+		/** The position in {@code data} of the first sample of the strip. */
+		private final int base;
+		/** The distance in {@code data} between the samples of adjacent pixels. */
+		private final int pixelStride;
+		/** The distance in {@code data} between the samples of adjacent rows. */
+		private final int scanlineStride;
+		/** The offset of the red, green, and blue samples from the first sample of a pixel. */
+		private final int[] offsets;
+		/** The image row of the first row of the strip. */
+		private final int top;
+		/** The first pixel column of each column of tiles, then the width of the image. */
+		private final int[] xs;
+		/** The first pixel row of each row of tiles, then the height of the image. */
+		private final int[] ys;
+		/** The ordinal of each tile of the level, in row-major order, as they are averaged. */
+		private final byte[] tiles;
+		/** The number of columns of tiles. */
+		private final int cols;
+		/** The luminance threshold, as a sum of samples times {@code 1000}. */
+		private final int threshold;
+		/** Whether tiles darker than the threshold are walls, rather than those brighter. */
+		private final boolean invert;
+		/** The ordinal of the wall tile. */
+		private final byte wall;
+		/** The most tiles averaged without splitting the range. */
+		private final int grain;
+		/** The index of the first tile in the range. */
+		private final int from;
+		/** The index after the last tile in the range. */
+		private final int to;
+
+
+		/**
+		 * Constructs a new {@code Downsample} of every tile in a strip.
+		 *
+		 * @param strip      the strip, as returned by {@code ImageStrips.read}.
+		 * @param top        the image row of the first row of the strip.
+		 * @param firstRow   the first row of tiles in the strip.
+		 * @param lastRow    the row of tiles after the last in the strip.
+		 * @param xs         the first pixel column of each column of tiles, then the width of
+		 *                   the image.
+		 * @param ys         the first pixel row of each row of tiles, then the height of the
+		 *                   image.
+		 * @param tiles      the ordinal of each tile of the level, to write to.
+		 * @param threshold  the luminance threshold.
+		 * @param invert     whether tiles darker than the threshold are walls.
+		 * @param wall       the wall tile.
+		 */
+		public Downsample(Raster strip,
+						  int top,
+						  int firstRow,
+						  int lastRow,
+						  int[] xs,
+						  int[] ys,
+						  byte[] tiles,
+						  int threshold,
+						  boolean invert,
+						  Level.Tile wall)
+		{
+			ComponentSampleModel model = (ComponentSampleModel) strip.getSampleModel();
+			DataBufferByte buffer = (DataBufferByte) strip.getDataBuffer();
+			int[] bands = model.getBandOffsets();
+			this.data = buffer.getData();
+			this.base = buffer.getOffset();
+			this.pixelStride = model.getPixelStride();
+			this.scanlineStride = model.getScanlineStride();
+			this.offsets = bands.length == 1 ? new int[] {bands[0], bands[0], bands[0]} : bands;
+			this.top = top;
+			this.xs = xs;
+			this.ys = ys;
+			this.tiles = tiles;
+			this.cols = xs.length - 1;
+			this.threshold = threshold * 1000;
+			this.invert = invert;
+			this.wall = (byte) wall.ordinal();
+
+			long tilePixels = (long) (xs[xs.length - 1] / this.cols + 1) *
+				(ys[ys.length - 1] / (ys.length - 1) + 1);
+			this.grain = (int) Math.max(1, LevelBuilder.GRAIN / tilePixels);
+			this.from = firstRow * this.cols;
+			this.to = lastRow * this.cols;
+		}
+
+
+		/**
+		 * Constructs a new {@code Downsample} of part of the range of another.
+		 *
+		 * @param parent  the task whose range is being split.
+		 * @param from    the index of the first tile in the part.
+		 * @param to      the index after the last tile in the part.
+		 */
+		private Downsample(Downsample parent, int from, int to) {
+			this.data = parent.data;
+			this.base = parent.base;
+			this.pixelStride = parent.pixelStride;
+			this.scanlineStride = parent.scanlineStride;
+			this.offsets = parent.offsets;
+			this.top = parent.top;
+			this.xs = parent.xs;
+			this.ys = parent.ys;
+			this.tiles = parent.tiles;
+			this.cols = parent.cols;
+			this.threshold = parent.threshold;
+			this.invert = parent.invert;
+			this.wall = parent.wall;
+			this.grain = parent.grain;
+			this.from = from;
+			this.to = to;
+		}
+
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > this.grain) {
+				int middle = (this.from + this.to) >>> 1;
+				ForkJoinTask.invokeAll(new Downsample(this, this.from, middle),
+									   new Downsample(this, middle, this.to));
+				return;
+			}
+
+			int red = this.offsets[0];
+			int green = this.offsets[1];
+			int blue = this.offsets[2];
+			int step = this.pixelStride;
+			for (int i = this.from; i < this.to; i++) {
+				int r = i / this.cols;
+				int c = i % this.cols;
+				long sum = 0;
+				for (int y = this.ys[r]; y < this.ys[r + 1]; y++) {
+					int start = this.base + (y - this.top) * this.scanlineStride;
+					int end = start + this.xs[c + 1] * step;
+					long redSum = 0;
+					long greenSum = 0;
+					long blueSum = 0;
+					for (int p = start + this.xs[c] * step; p < end; p += step) {
+						redSum += this.data[p + red] & 0xFF;
+						greenSum += this.data[p + green] & 0xFF;
+						blueSum += this.data[p + blue] & 0xFF;
+					}
+					sum += 299 * redSum + 587 * greenSum + 114 * blueSum;
+				}
+
+				long limit = (long) this.threshold * (this.xs[c + 1] - this.xs[c]) *
+					(this.ys[r + 1] - this.ys[r]);
+				boolean filled = this.invert ? sum < limit : sum > limit;
+				this.tiles[i] = filled ? this.wall : 0;
+			}
+		}
+
+	}
+
+
+	/** The number of rows and columns of levels built from the command line by default. */
+	public static final int DEFAULT_SIZE = 64;
+	/** The luminance threshold of levels built from the command line by default. */
+	public static final int DEFAULT_THRESHOLD = 128;
+	/** The most bytes of samples read in one strip, unless one row of tiles needs more. */
+	public static final int STRIP_BYTES = 16 << 20;
+	/** The most pixels averaged by one fork/join task, unless one tile has more. */
+	public static final int GRAIN = 1 << 16;
+
+
 	/**
 	 * This class is not intended to be constructed.
 	 */
 	private LevelBuilder() { }
 
 
+	/**
+	 * Builds a level from an image from the command line.
+	 *
+	 * @param args  the command line arguments.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		Properties options = new Properties();
+		List<String> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("--") && i + 1 < args.length) {
+				options.setProperty(arg.substring(2), args[i + 1]);
+				i++;
+			}
+			else if (files.size() < 2 && !arg.startsWith("--"))
+				files.add(arg);
+			else
+				LevelBuilder.usage("invalid argument: " + arg);
+		}
+		int rows = LevelBuilder.getInt(options, "rows", LevelBuilder.DEFAULT_SIZE);
+		int cols = LevelBuilder.getInt(options, "cols", LevelBuilder.DEFAULT_SIZE);
+		int threshold = LevelBuilder.getInt(options, "threshold",
+											LevelBuilder.DEFAULT_THRESHOLD);
+		boolean invert = Boolean.parseBoolean((String) options.remove("invert"));
+		Level.Tile wall = LevelBuilder.getWall((String) options.remove("wall"));
+		if (!options.isEmpty())
+			LevelBuilder.usage("unknown options: " + options.keySet());
+		if (files.size() < 2)
+			LevelBuilder.usage("no " + (files.isEmpty() ? "image" : "output") + " file given");
+
+		Path image = Path.of(files.get(0));
+		Path output = Path.of(files.get(1));
+		try {
+			long start = System.nanoTime();
+			LevelData level = LevelBuilder.build(image, rows, cols, threshold, invert, wall);
+			long built = System.nanoTime();
+			LevelFile.write(output, level);
+			long written = System.nanoTime();
+			System.out.printf("built    %dx%d level from %s in %.0f ms%n", rows, cols, image,
+							  (built - start) / 1e6);
+			System.out.printf("wrote    %s in %.0f ms%n", output, (written - built) / 1e6);
+		}
+		catch (IOException e) {
+			System.err.println("error: cannot build level from " + image + ": " + e);
+			System.exit(1);
+		}
+		catch (IllegalArgumentException e) {
+			LevelBuilder.usage(e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Prints the usage of this program and exits with a non-zero status.
+	 *
+	 * @param error  a description of the problem with the arguments.
+	 */
+	private static void usage(String error) {
+		System.err.println("error: " + error);
+		System.err.println("usage: world.LevelBuilder [--rows rows] [--cols cols] " +
+						   "[--threshold luminance] [--invert true] [--wall stone|sand|crate] " +
+						   "image output");
+		System.exit(1);
+	}
+
+
+	/**
+	 * Returns a non-negative integer option.
+	 *
+	 * @param options       the options to read from.
+	 * @param name          the name of the option.
+	 * @param defaultValue  the value returned if the option was not given.
+	 *
+	 * @return the value of the option.
+	 */
+	private static int getInt(Properties options, String name, int defaultValue) {
+		String value = options.getProperty(name);
+		options.remove(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			int parsed = Integer.parseInt(value.trim());
+			if (parsed < 0)
+				LevelBuilder.usage("invalid " + name + ": " + value);
+			return parsed;
+		}
+		catch (NumberFormatException e) {
+			LevelBuilder.usage("invalid " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+
+	/**
+	 * Returns the wall tile named by an option.
+	 *
+	 * @param name  the value of the option, or {@code null} if it was not given.
+	 *
+	 * @return the wall tile, which is {@code Tile.WALL_STONE} if the option was not given.
+	 */
+	private static Level.Tile getWall(String name) {
+		if (name == null)
+			return Level.Tile.WALL_STONE;
+		switch (name.trim()) {
+		case "stone":
+			return Level.Tile.WALL_STONE;
+		case "sand":
+			return Level.Tile.WALL_SAND;
+		case "crate":
+			return Level.Tile.CRATE;
+		default:
+			LevelBuilder.usage("invalid wall: " + name);
+			return null;
+		}
+	}
+
+
+	/**
+	 * Generates a level from the luminance of an image.
+	 *
+	 * @param image               the source image.
+	 * @param rows                the number of rows of tiles in the level.
+	 * @param cols                the number of columns of tiles in every row of the level.
+	 * @param luminanceThreshold  the minimum (or maximum if {@code invert == true}) average
+	 *                            luminance that the pixels of a tile must have for the tile to
+	 *                            be a wall.
+	 * @param invert              if {@code true}, tiles darker than the threshold are walls,
+	 *                            otherwise tiles brighter than the threshold are walls.
+	 * @param wall                the tile added for walls.
+	 *
+	 * @return the tiles of the level.
+	 *
+	 * @throws NullPointerException      if {@code image == null} or {@code wall == null}.
+	 * @throws IllegalArgumentException  if {@code rows < 1}, {@code cols < 1},
+	 *                                   {@code luminanceThreshold} is outside the interval
+	 *                                   {@code [0, 255]}, or {@code wall == Tile.NONE}.
+	 * @throws IllegalArgumentException  if the image has fewer pixels than the level has tiles
+	 *                                   along either axis.
+	 * @throws IOException               if the image cannot be read.
+	 */
+	public static LevelData build(Path image,
+								  int rows,
+								  int cols,
+								  int luminanceThreshold,
+								  boolean invert,
+								  Level.Tile wall) throws IOException
+	{
+		if (image == null)
+			throw new NullPointerException("image was null");
+		if (wall == null)
+			throw new NullPointerException("wall was null");
+		if (rows < 1 || cols < 1)
+			throw new IllegalArgumentException("invalid level size: " + rows + "x" + cols);
+		if (luminanceThreshold < 0 || luminanceThreshold > 255)
+			throw new IllegalArgumentException("invalid luminance limit: " + luminanceThreshold);
+		if (wall == Level.Tile.NONE)
+			throw new IllegalArgumentException("wall tile was NONE");
+
+		try (ImageStrips strips = ImageStrips.open(image)) {
+			int width = strips.width();
+			int height = strips.height();
+			if (rows > height || cols > width)
+				throw new IllegalArgumentException("level of " + rows + "x" + cols +
+												   " tiles is larger than image of " +
+												   width + "x" + height + " pixels");
+
+			int[] xs = LevelBuilder.edges(width, cols);
+			int[] ys = LevelBuilder.edges(height, rows);
+			byte[] tiles = new byte[rows * cols];
+			long rowBytes = (long) width * strips.bands();
+
+			// Each strip is averaged while the next is read, so at most two are held at once
+			ForkJoinTask<Void> pending = null;
+			for (int firstRow = 0; firstRow < rows; ) {
+				int lastRow = firstRow + 1;
+				while (lastRow < rows &&
+					   (ys[lastRow + 1] - ys[firstRow]) * rowBytes <= LevelBuilder.STRIP_BYTES)
+					lastRow++;
+
+				Raster strip = strips.read(ys[lastRow] - ys[firstRow]);
+				if (pending != null)
+					pending.join();
+				pending = ForkJoinPool.commonPool().submit(
+					new Downsample(strip, ys[firstRow], firstRow, lastRow, xs, ys, tiles,
+								   luminanceThreshold, invert, wall));
+				firstRow = lastRow;
+			}
+			pending.join();
+			return new LevelData(rows, cols, tiles);
+		}
+	}
+
+
+	/**
+	 * Divides a length of pixels into a number of nearly equal parts.
+	 *
+	 * @param length  the number of pixels.
+	 * @param parts   the number of parts, which is at most {@code length}.
+	 *
+	 * @return the first pixel of each part, then {@code length}.
+	 */
+	private static int[] edges(int length, int parts) {
+		int[] edges = new int[parts + 1];
+		for (int i = 0; i <= parts; i++)
+			edges[i] = (int) ((long) i * length / parts);
+		return edges;
+	}
+
+
 	/**
 	 * Wrapper function to create a new {@code JSeparator}. The returned separator is the
 	 * correct width and height for the option pane displayed by the level builder. The
@@ -175,7 +573,8 @@ public class LevelBuilder {
 
 
 	/**
-	 * Performs the programatical operations to generate a level.
+	 * Generates a level and shows it as a string, as {@code create} does once its inputs are
+	 * given. Wall tiles are added as {@code Tile.WALL_STONE}.
 	 *
 	 * @param file                the file pointing to the source image that should be used to
 	 *                            generate the level.
@@ -218,75 +617,36 @@ public class LevelBuilder {
 		if (luminanceThreshold < 0 || luminanceThreshold > 255)
 			throw new IllegalArgumentException("invalid luminance limit: " + luminanceThreshold);
 		
-		// Create buffered image
-		BufferedImage image = null;
+		if (file == null) {
+			ByteStrike.displayMessage("File Error", "No image file was selected");
+			return;
+		}
+
+		// Generate level
+		LevelData data;
 		try {
-			image = ImageIO.read(file);
+			data = LevelBuilder.build(file.toPath(), levelSize, levelSize, luminanceThreshold,
+									  invert, Level.Tile.WALL_STONE);
 		}
-		catch (Exception e) {
-			ByteStrike.displayMessage("File Error", "Cannot load file as BufferedImage:\n" + e);
+		catch (IOException | IllegalArgumentException e) {
+			ByteStrike.displayMessage("File Error", "Cannot build level from image:\n" + e);
 		    return;
 		}
 
-		// Calculate size info
-		int imageW = image.getWidth();
-		int imageH = image.getHeight();
-		int pxPerTileHoriz = imageW / levelSize;
-		int pxPerTileVert = imageH / levelSize;
-		int pxPerTile = pxPerTileHoriz * pxPerTileVert;
-
-		// Load image data as 2d color array
-		Color[][] pixels = new Color[imageH][imageW];
-		for (int y = 0; y < imageH; y++) {
-			for (int x = 0; x < imageW; x++) {
-				int rgb = image.getRGB(x, y);
-				Color color = new Color(rgb);
-				pixels[y][x] = color;
-			}
-		}
-
-		// Create level
-		String level = "";
-		for (int tx = 0; tx < levelSize; tx++) {
-			level += "\"";
-			for (int ty = 0; ty < levelSize; ty++) {
-				int red = 0;
-				int green = 0;
-				int blue = 0;
-
-				// Find the color of all pixels that contribute to this tile
-				for (int px = tx * pxPerTileHoriz; px < (tx + 1) * pxPerTileHoriz; px++) {
-					if (px >= pixels.length)
-						continue;
-					
-					for (int py = ty * pxPerTileVert; py < (ty + 1) * pxPerTileVert; py++) {
-						if (py >= pixels[px].length)
-							continue;
-						
-						Color color = pixels[px][py];
-						red += color.getRed();
-						green += color.getGreen();
-						blue += color.getBlue();
-					}
-				}
-
-				red /= pxPerTile;
-				green /= pxPerTile;
-				blue /= pxPerTile;
-				double luminance = 0.299 * red + 0.587 * green + 0.114 * blue;
-				if (!invert)
-					level += luminance > luminanceThreshold ? wall : none;
-				else
-					level += luminance < luminanceThreshold ? wall : none;
-			}
-			level += "\\n\" +\n";
+		// Create level string
+		StringBuilder level = new StringBuilder();
+		for (int r = 0; r < levelSize; r++) {
+			if (r > 0)
+				level.append(" +\n");
+			level.append('"');
+			for (int c = 0; c < levelSize; c++)
+				level.append(data.isFilled(r, c) ? wall : none);
+			level.append("\\n\"");
 		}
-		if (level.endsWith(" +\n"))
-			level = level.substring(0, level.length() - 3);
 
 		// Return data to the user
 		JPanel panel = new JPanel();
-		JTextArea textArea = new JTextArea(level);
+		JTextArea textArea = new JTextArea(level.toString());
 		textArea.setFont(new Font("Courier New", Font.PLAIN, 512 / levelSize));
 		textArea.setEditable(false);
 		panel.add(new JScrollPane(textArea));
@@ -0,0 +1,215 @@
+package world;
+
+
+import jnet.Log;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The levels a client has been sent by servers, by content hash.
+ * <p>
+ * A server names the level being played by the content hash of its tiles. A client that
+ * already has tiles with that hash, either from its own {@code LevelRegistry} or from an
+ * earlier game, plays on them without anything being transferred. Otherwise the level is
+ * downloaded from the server and added with {@code put}, which writes it to the file
+ * {@code hash.bslv} in the cache directory so that later games on the same level find it. The
+ * cache directory is given by the {@code bytestrike.cache} system property, and is
+ * {@code ~/.bytestrike/cache} by default, the same directory that visibility is cached in.
+ * Levels generated by a server are instead generated again by the client with
+ * {@code generate}, and are only downloaded if the tiles generated do not match.
+ * <p>
+ * Files are named by the hash of the tiles they hold, and are checked against that hash when
+ * they are read, so a damaged or altered file is ignored and replaced by a new download.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see LevelFile
+ * @see LevelData#contentHash
+ */
+public final class LevelCache {
+
+	/** The number of hexadecimal characters in a content hash. */
+	public static final int HASH_LENGTH = 64;
+
+
+	/** The levels already found or added, by content hash. */
+	private static final Map<String, LevelData> loaded = new ConcurrentHashMap<>();
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private LevelCache() { }
+
+
+	/**
+	 * Returns the directory that downloaded levels, and visibility, are cached in.
+	 *
+	 * @return the cache directory.
+	 */
+	public static Path directory() {
+		String dir = System.getProperty("bytestrike.cache");
+		if (dir != null)
+			return Paths.get(dir);
+		return Paths.get(System.getProperty("user.home"), ".bytestrike", "cache");
+	}
+
+
+	/**
+	 * Returns whether a string is a well-formed content hash, and so is safe to use as part of
+	 * a file name.
+	 *
+	 * @param hash  the string to check.
+	 *
+	 * @return whether the string is {@code HASH_LENGTH} lowercase hexadecimal characters.
+	 */
+	public static boolean isValidHash(String hash) {
+		if (hash == null || hash.length() != LevelCache.HASH_LENGTH)
+			return false;
+		for (int i = 0; i < hash.length(); i++) {
+			char c = hash.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+				return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Finds the tiles of a level with a given content hash, without downloading them. The
+	 * level of the same number in the {@code LevelRegistry} is tried first, then the cache.
+	 *
+	 * @param levelId  the number of the level on the server, which is only a hint.
+	 * @param hash     the content hash of the level.
+	 *
+	 * @return the tiles of the level, or {@code null} if no tiles with the hash were found.
+	 */
+	public static LevelData find(int levelId, String hash) {
+		if (!LevelCache.isValidHash(hash))
+			return null;
+
+		LevelData data = LevelCache.loaded.get(hash);
+		if (data != null)
+			return data;
+
+		if (LevelRegistry.exists(levelId)) {
+			try {
+				data = LevelRegistry.get(levelId);
+				if (data.contentHash().equals(hash))
+					return LevelCache.remember(data);
+			}
+			catch (IllegalArgumentException e) {
+				Log.stdlog(Log.WARN, "LevelCache", "cannot load local level " + levelId + ": " +
+						   e.getMessage());
+			}
+		}
+
+		Path file = LevelCache.fileOf(hash);
+		if (!Files.isRegularFile(file))
+			return null;
+		try {
+			data = LevelFile.read(file);
+		}
+		catch (IOException e) {
+			Log.stdlog(Log.WARN, "LevelCache", "cannot read " + file + ": " + e.getMessage());
+			return null;
+		}
+		if (!data.contentHash().equals(hash)) {
+			Log.stdlog(Log.WARN, "LevelCache", "ignoring " + file + ", its tiles do not match");
+			return null;
+		}
+		Log.stdlog(Log.INFO, "LevelCache", "found level " + hash + " in " + file);
+		return LevelCache.remember(data);
+	}
+
+
+	/**
+	 * Generates the tiles of a level from the seed a server generated it from, and keeps them
+	 * if they have the content hash the server gave. Generated levels are only kept in memory,
+	 * since they can always be generated again.
+	 *
+	 * @param seed  the seed of the level.
+	 * @param rows  the number of rows of tiles in the level.
+	 * @param cols  the number of columns of tiles in every row of the level.
+	 * @param hash  the content hash of the level.
+	 *
+	 * @return the tiles of the level, or {@code null} if the size is invalid or the tiles
+	 *         generated do not have the hash, in which case the level must be downloaded.
+	 *
+	 * @see LevelGenerator
+	 */
+	public static LevelData generate(long seed, int rows, int cols, String hash) {
+		if (!LevelCache.isValidHash(hash))
+			return null;
+
+		long start = System.nanoTime();
+		LevelData data;
+		try {
+			data = LevelGenerator.generate(seed, rows, cols);
+		}
+		catch (IllegalArgumentException e) {
+			Log.stdlog(Log.WARN, "LevelCache", "cannot generate level " + seed + ": " +
+					   e.getMessage());
+			return null;
+		}
+		if (!data.contentHash().equals(hash)) {
+			Log.stdlog(Log.WARN, "LevelCache", "generated level " + seed + " does not match " +
+					   hash);
+			return null;
+		}
+		Log.stdlog(Log.INFO, "LevelCache", "generated level " + hash + " (" + rows + "x" + cols +
+				   ") in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+		return LevelCache.remember(data);
+	}
+
+
+	/**
+	 * Adds the tiles of a downloaded level to the cache. If the cache file cannot be written,
+	 * the level is still kept in memory for the rest of the process.
+	 *
+	 * @param data  the tiles of the level.
+	 */
+	public static void put(LevelData data) {
+		String hash = data.contentHash();
+		LevelCache.remember(data);
+		Path file = LevelCache.fileOf(hash);
+		try {
+			LevelFile.write(file, data);
+			Log.stdlog(Log.INFO, "LevelCache", "cached level " + hash + " in " + file);
+		}
+		catch (IOException e) {
+			Log.stdlog(Log.WARN, "LevelCache", "cannot write " + file + ": " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Returns the cache file of a level, whether or not it exists.
+	 *
+	 * @param hash  the content hash of the level, which must be valid.
+	 *
+	 * @return the cache file of the level.
+	 */
+	private static Path fileOf(String hash) {
+		return LevelCache.directory().resolve(hash + LevelFile.EXTENSION);
+	}
+
+
+	/**
+	 * Keeps the tiles of a level in memory, unless tiles with the same hash are already kept.
+	 *
+	 * @param data  the tiles of the level.
+	 *
+	 * @return the tiles kept for the level's hash.
+	 */
+	private static LevelData remember(LevelData data) {
+		LevelData existing = LevelCache.loaded.putIfAbsent(data.contentHash(), data);
+		return existing != null ? existing : data;
+	}
+
+}
@@ -0,0 +1,324 @@
+package world;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * The chunks of a level that a client has been sent, for levels too large to send whole.
+ * <p>
+ * The server sends the chunks around a player as they move, and a client only holds the
+ * chunks it has been sent. Tiles in chunks that are not held read as {@code Tile.NONE}. At
+ * most {@code MAX_CHUNKS} chunks are held at once; when another is added, the chunk least
+ * recently used is discarded. A chunk is used when it is added and whenever {@code touch} is
+ * called near it, so the chunks discarded are those furthest behind the player.
+ * <p>
+ * Chunks are added, touched, and counted by a single thread, but tiles can be read from any
+ * thread. Each chunk is held in one slot of an array with an entry for every chunk of the
+ * level, which is a single reference per {@code CHUNK_SIZE * CHUNK_SIZE} tiles.
+ * <p>
+ * Every chunk added or discarded is a change, numbered by {@code getVersion}. The last
+ * {@code HISTORY} changes are remembered, so that anything drawn from the tiles can be redrawn
+ * only where they changed, by passing the version it was drawn at to {@code forEachChange}.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see LevelData
+ */
+public class LevelChunks {
+
+	/** The distance, in chunks along either axis, within which chunks are sent to a player. */
+	public static final int LOAD_RADIUS = 1;
+	/**
+	 * The distance, in chunks along either axis, beyond which the server forgets that a chunk
+	 * was sent to a player, and sends it again if the player comes back.
+	 */
+	public static final int UNLOAD_RADIUS = 2;
+	/** The most chunks held at once. */
+	public static final int MAX_CHUNKS = 64;
+	/** The number of slots in which the most recent changes are remembered. */
+	public static final int HISTORY = 256;
+
+
+	/**
+	 * Receives the area of the level covered by a chunk that was added or discarded.
+	 */
+	public interface ChangeListener {
+
+		/**
+		 * Called for a chunk that was added or discarded.
+		 *
+		 * @param r     the row of the top-left tile of the chunk.
+		 * @param c     the column of the top-left tile of the chunk.
+		 * @param rows  the number of rows of tiles in the chunk.
+		 * @param cols  the number of columns of tiles in the chunk.
+		 */
+		public void changed(int r, int c, int rows, int cols);
+
+	}
+
+
+	/** Every tile, by ordinal. */
+	private static final Level.Tile[] TILES = Level.Tile.values();
+
+
+	/** The number of rows of tiles. */
+	private final int rows;
+	/** The number of columns of tiles in every row. */
+	private final int cols;
+	/** The number of columns of chunks. */
+	private final int chunkCols;
+	/** The tiles of each chunk held, by {@code chunkRow * chunkCols + chunkCol}. */
+	private final AtomicReferenceArray<byte[]> chunks;
+	/** The index of each chunk held, from least to most recently used. */
+	private final LinkedHashMap<Integer, Boolean> recent;
+	/** The index of the chunk of each change, by {@code version % HISTORY}. */
+	private final AtomicIntegerArray changes;
+	/** The number of changes, each the addition or discarding of a chunk. */
+	private volatile int version;
+
+
+	/**
+	 * Constructs a new {@code LevelChunks} that holds no chunks.
+	 *
+	 * @param rows  the number of rows of tiles in the level.
+	 * @param cols  the number of columns of tiles in every row of the level.
+	 *
+	 * @throws IllegalArgumentException  if {@code rows < 1} or {@code cols < 1}.
+	 */
+	public LevelChunks(int rows, int cols) {
+		if (rows < 1 || cols < 1)
+			throw new IllegalArgumentException("invalid size: " + rows + "x" + cols);
+
+		int chunkRows = (rows + LevelData.CHUNK_SIZE - 1) / LevelData.CHUNK_SIZE;
+		this.rows = rows;
+		this.cols = cols;
+		this.chunkCols = (cols + LevelData.CHUNK_SIZE - 1) / LevelData.CHUNK_SIZE;
+		this.chunks = new AtomicReferenceArray<>(chunkRows * this.chunkCols);
+		this.recent = new LinkedHashMap<>(16, 0.75f, true);
+		this.changes = new AtomicIntegerArray(LevelChunks.HISTORY);
+		this.version = 0;
+	}
+
+
+	/**
+	 * Returns the number of rows of tiles.
+	 *
+	 * @return the number of rows of tiles.
+	 */
+	public int rows() {
+		return this.rows;
+	}
+
+
+	/**
+	 * Returns the number of columns of tiles in every row.
+	 *
+	 * @return the number of columns of tiles in every row.
+	 */
+	public int cols() {
+		return this.cols;
+	}
+
+
+	/**
+	 * Returns the number of chunks held.
+	 *
+	 * @return the number of chunks held.
+	 */
+	public int size() {
+		return this.recent.size();
+	}
+
+
+	/**
+	 * Returns the number of times a chunk has been added or discarded. Anything drawn from the
+	 * tiles of the level is out of date if this has changed since it was drawn.
+	 *
+	 * @return the number of times a chunk has been added or discarded.
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+
+	/**
+	 * Reports each chunk added or discarded between two versions. A chunk changed more than
+	 * once may be reported more than once. This can be called from any thread.
+	 *
+	 * @param from      the version before the first change to report.
+	 * @param to        the version after the last change to report, as returned by
+	 *                  {@code getVersion}.
+	 * @param listener  the listener to report each change to.
+	 *
+	 * @return {@code false} if some of the changes are no longer remembered, in which case
+	 *         anything drawn at version {@code from} should be drawn again in full.
+	 */
+	public boolean forEachChange(int from, int to, ChangeListener listener) {
+		if (to - from >= LevelChunks.HISTORY)
+			return false;
+		for (int v = from; v != to; v++) {
+			int index = this.changes.get(Math.floorMod(v, LevelChunks.HISTORY));
+			int cr = index / this.chunkCols;
+			int cc = index % this.chunkCols;
+			listener.changed(cr * LevelData.CHUNK_SIZE, cc * LevelData.CHUNK_SIZE,
+							 LevelData.chunkSpan(this.rows, cr),
+							 LevelData.chunkSpan(this.cols, cc));
+		}
+		// Changes made while reporting may have overwritten the ones that were reported. A
+		// change being made now has overwritten its slot even if the version is not yet counted
+		return this.version - from < LevelChunks.HISTORY;
+	}
+
+
+	/**
+	 * Adds a chunk sent by the server, replacing any chunk already held in its place, and
+	 * discards the least recently used chunks if more than {@code MAX_CHUNKS} are held.
+	 *
+	 * @param cr     the row of the chunk.
+	 * @param cc     the column of the chunk.
+	 * @param tiles  the ordinal of each tile in the chunk, in row-major order, as returned by
+	 *               {@code LevelData.chunk}. The array is not copied.
+	 *
+	 * @throws IndexOutOfBoundsException  if the chunk is not on the level.
+	 * @throws IllegalArgumentException   if the array is not the size of the chunk, or holds a
+	 *                                    byte that is not the ordinal of a tile.
+	 */
+	public void put(int cr, int cc, byte[] tiles) {
+		int chunkRows = this.chunks.length() / this.chunkCols;
+		if (cr < 0 || cr >= chunkRows || cc < 0 || cc >= this.chunkCols)
+			throw new IndexOutOfBoundsException("chunk (" + cc + ", " + cr + ") out of bounds");
+		int size = LevelData.chunkSpan(this.rows, cr) * LevelData.chunkSpan(this.cols, cc);
+		if (tiles.length != size)
+			throw new IllegalArgumentException("expected " + size + " tiles, found " +
+											   tiles.length);
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] < 0 || tiles[i] >= LevelChunks.TILES.length)
+				throw new IllegalArgumentException("invalid tile " + tiles[i] + " at " + i);
+		}
+
+		int index = cr * this.chunkCols + cc;
+		this.chunks.set(index, tiles);
+		this.recent.put(index, Boolean.TRUE);
+		this.changed(index);
+
+		Iterator<Integer> eldest = this.recent.keySet().iterator();
+		while (this.recent.size() > LevelChunks.MAX_CHUNKS) {
+			int discarded = eldest.next();
+			this.chunks.set(discarded, null);
+			eldest.remove();
+			this.changed(discarded);
+		}
+	}
+
+
+	/**
+	 * Records a change to a chunk. This must only be called by the thread that adds chunks.
+	 *
+	 * @param index  the index of the chunk that was added or discarded.
+	 */
+	private void changed(int index) {
+		int version = this.version;
+		this.changes.set(Math.floorMod(version, LevelChunks.HISTORY), index);
+		this.version = version + 1;
+	}
+
+
+	/**
+	 * Marks the chunks held within {@code UNLOAD_RADIUS + 1} chunks of a tile as used, nearest
+	 * last, so that they are the last to be discarded.
+	 *
+	 * @param r  the row of the tile.
+	 * @param c  the column of the tile.
+	 */
+	public void touch(int r, int c) {
+		int cr = Math.floorDiv(r, LevelData.CHUNK_SIZE);
+		int cc = Math.floorDiv(c, LevelData.CHUNK_SIZE);
+		int lastRow = this.chunks.length() / this.chunkCols - 1;
+		int lastCol = this.chunkCols - 1;
+		for (int d = LevelChunks.UNLOAD_RADIUS + 1; d >= 0; d--) {
+			for (int r2 = Math.max(0, cr - d); r2 <= Math.min(lastRow, cr + d); r2++) {
+				for (int c2 = Math.max(0, cc - d); c2 <= Math.min(lastCol, cc + d); c2++) {
+					if (Math.max(Math.abs(r2 - cr), Math.abs(c2 - cc)) == d)
+						this.recent.get(r2 * this.chunkCols + c2);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns whether the chunk holding a tile is held.
+	 *
+	 * @param r  the row of the tile.
+	 * @param c  the column of the tile.
+	 *
+	 * @return whether the chunk holding the tile is held.
+	 */
+	public boolean isLoaded(int r, int c) {
+		return this.chunkOf(r, c) != null;
+	}
+
+
+	/**
+	 * Returns the tile at a row and column. Bounds are not checked.
+	 *
+	 * @param r  the row.
+	 * @param c  the column.
+	 *
+	 * @return the tile at the row and column, or {@code Tile.NONE} if its chunk is not held.
+	 */
+	public Level.Tile get(int r, int c) {
+		byte[] chunk = this.chunkOf(r, c);
+		if (chunk == null)
+			return Level.Tile.NONE;
+		return LevelChunks.TILES[chunk[this.offsetOf(r, c)]];
+	}
+
+
+	/**
+	 * Returns whether the tile at a row and column blocks entities. Bounds are not checked.
+	 *
+	 * @param r  the row.
+	 * @param c  the column.
+	 *
+	 * @return whether the tile is not {@code Tile.NONE}. Tiles in chunks that are not held are
+	 *         never filled.
+	 */
+	public boolean isFilled(int r, int c) {
+		byte[] chunk = this.chunkOf(r, c);
+		return chunk != null && chunk[this.offsetOf(r, c)] != 0;
+	}
+
+
+	/**
+	 * Returns the chunk holding a tile.
+	 *
+	 * @param r  the row of the tile.
+	 * @param c  the column of the tile.
+	 *
+	 * @return the tiles of the chunk, or {@code null} if the chunk is not held.
+	 */
+	private byte[] chunkOf(int r, int c) {
+		int index = (r / LevelData.CHUNK_SIZE) * this.chunkCols + c / LevelData.CHUNK_SIZE;
+		return this.chunks.get(index);
+	}
+
+
+	/**
+	 * Returns the position of a tile within the array of its chunk.
+	 *
+	 * @param r  the row of the tile.
+	 * @param c  the column of the tile.
+	 *
+	 * @return the position of the tile within its chunk.
+	 */
+	private int offsetOf(int r, int c) {
+		int width = LevelData.chunkSpan(this.cols, c / LevelData.CHUNK_SIZE);
+		return (r % LevelData.CHUNK_SIZE) * width + c % LevelData.CHUNK_SIZE;
+	}
+
+}
@@ -0,0 +1,272 @@
+package world;
+
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * The tiles of a level, shared by every {@code Level} that plays on it.
+ * <p>
+ * A {@code LevelData} is immutable, so one instance can be used by any number of matches and
+ * threads at once. Tiles are stored as one byte per tile, holding the ordinal of the
+ * {@code Level.Tile}, in row-major order. The array is read directly by collision checks,
+ * which is about twice as fast as reading through a {@code ByteBuffer}.
+ * <p>
+ * The level is also divided into square chunks of {@code CHUNK_SIZE} tiles, which are the unit
+ * in which large levels are streamed to clients. The chunks in the last row and column of
+ * chunks are cut short by the edges of the level.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see LevelRegistry
+ * @see LevelFile
+ */
+public final class LevelData {
+
+	/** The width and height of each chunk, in tiles. */
+	public static final int CHUNK_SIZE = 32;
+
+
+	/** Every tile, by ordinal. */
+	private static final Level.Tile[] TILES = Level.Tile.values();
+
+
+	/** The number of rows of tiles. */
+	private final int rows;
+	/** The number of columns of tiles in every row. */
+	private final int cols;
+	/** The ordinal of each tile, in row-major order. */
+	private final byte[] tiles;
+	/** The content hash of the tiles, or {@code null} if it has not been computed yet. */
+	private volatile String contentHash;
+
+
+	/**
+	 * Constructs a new {@code LevelData} from existing tile bytes. The array is not copied, and
+	 * must not be changed after this call.
+	 *
+	 * @param rows   the number of rows of tiles.
+	 * @param cols   the number of columns of tiles in every row.
+	 * @param tiles  the ordinal of each tile, in row-major order.
+	 *
+	 * @throws IllegalArgumentException  if {@code rows < 1} or {@code cols < 1}, or the array
+	 *                                   does not hold exactly {@code rows * cols} tiles.
+	 * @throws IllegalArgumentException  if any byte is not the ordinal of a tile.
+	 */
+	LevelData(int rows, int cols, byte[] tiles) {
+		if (rows < 1 || cols < 1)
+			throw new IllegalArgumentException("invalid size: " + rows + "x" + cols);
+		if ((long) rows * cols != tiles.length)
+			throw new IllegalArgumentException("expected " + (long) rows * cols + " tiles, found " +
+											   tiles.length);
+
+		this.rows = rows;
+		this.cols = cols;
+		this.tiles = tiles;
+		for (int i = 0; i < this.tiles.length; i++) {
+			int ordinal = this.tiles[i];
+			if (ordinal < 0 || ordinal >= LevelData.TILES.length)
+				throw new IllegalArgumentException("invalid tile " + ordinal + " at " + i);
+		}
+	}
+
+
+	/**
+	 * Creates a {@code LevelData} from the string form of a level.
+	 *
+	 * @param str  the string form of the level, as defined by {@code Level.fromString}.
+	 *
+	 * @return the tiles of the level.
+	 *
+	 * @throws NullPointerException      if {@code str == null}.
+	 * @throws IllegalArgumentException  if the string is not a valid level.
+	 *
+	 * @see Level#fromString
+	 */
+	public static LevelData fromString(String str) {
+		return LevelData.fromTiles(Level.fromString(str));
+	}
+
+
+	/**
+	 * Creates a {@code LevelData} from a 2d tile array.
+	 *
+	 * @param tiles  the tiles, indexed by row then column. Every row must have the same length.
+	 *
+	 * @return the tiles of the level.
+	 *
+	 * @throws NullPointerException      if {@code tiles} or any row or tile is {@code null}.
+	 * @throws IllegalArgumentException  if there are no tiles, or the rows differ in length.
+	 */
+	public static LevelData fromTiles(Level.Tile[][] tiles) {
+		if (tiles.length == 0 || tiles[0].length == 0)
+			throw new IllegalArgumentException("no tiles given");
+
+		int rows = tiles.length;
+		int cols = tiles[0].length;
+		byte[] bytes = new byte[rows * cols];
+		for (int r = 0; r < rows; r++) {
+			if (tiles[r].length != cols)
+				throw new IllegalArgumentException("improper row length in row " + r);
+			for (int c = 0; c < cols; c++)
+				bytes[r * cols + c] = (byte) tiles[r][c].ordinal();
+		}
+		return new LevelData(rows, cols, bytes);
+	}
+
+
+	/**
+	 * Returns the number of rows of tiles.
+	 *
+	 * @return the number of rows of tiles.
+	 */
+	public int rows() {
+		return this.rows;
+	}
+
+
+	/**
+	 * Returns the number of columns of tiles in every row.
+	 *
+	 * @return the number of columns of tiles in every row.
+	 */
+	public int cols() {
+		return this.cols;
+	}
+
+
+	/**
+	 * Returns the number of rows of chunks.
+	 *
+	 * @return the number of rows of chunks.
+	 */
+	public int chunkRows() {
+		return (this.rows + LevelData.CHUNK_SIZE - 1) / LevelData.CHUNK_SIZE;
+	}
+
+
+	/**
+	 * Returns the number of columns of chunks.
+	 *
+	 * @return the number of columns of chunks.
+	 */
+	public int chunkCols() {
+		return (this.cols + LevelData.CHUNK_SIZE - 1) / LevelData.CHUNK_SIZE;
+	}
+
+
+	/**
+	 * Returns the tiles of one chunk.
+	 *
+	 * @param cr  the row of the chunk.
+	 * @param cc  the column of the chunk.
+	 *
+	 * @return a new array of the ordinal of each tile in the chunk, in row-major order. The
+	 *         array holds {@code chunkSpan(rows(), cr) * chunkSpan(cols(), cc)} tiles.
+	 *
+	 * @throws IndexOutOfBoundsException  if the chunk is not on the level.
+	 */
+	public byte[] chunk(int cr, int cc) {
+		if (cr < 0 || cr >= this.chunkRows() || cc < 0 || cc >= this.chunkCols())
+			throw new IndexOutOfBoundsException("chunk (" + cc + ", " + cr + ") out of bounds");
+
+		int r0 = cr * LevelData.CHUNK_SIZE;
+		int c0 = cc * LevelData.CHUNK_SIZE;
+		int height = LevelData.chunkSpan(this.rows, cr);
+		int width = LevelData.chunkSpan(this.cols, cc);
+		byte[] chunk = new byte[height * width];
+		for (int r = 0; r < height; r++)
+			System.arraycopy(this.tiles, (r0 + r) * this.cols + c0, chunk, r * width, width);
+		return chunk;
+	}
+
+
+	/**
+	 * Returns the number of tiles that one chunk spans along an axis, which is
+	 * {@code CHUNK_SIZE} for every chunk except possibly the last.
+	 *
+	 * @param length  the length of the level along the axis, in tiles.
+	 * @param index   the index of the chunk along the axis.
+	 *
+	 * @return the number of tiles spanned by the chunk.
+	 */
+	public static int chunkSpan(int length, int index) {
+		return Math.min(LevelData.CHUNK_SIZE, length - index * LevelData.CHUNK_SIZE);
+	}
+
+
+	/**
+	 * Returns the tile at a row and column. Bounds are not checked beyond those of the
+	 * underlying array.
+	 *
+	 * @param r  the row.
+	 * @param c  the column.
+	 *
+	 * @return the tile at the row and column.
+	 */
+	public Level.Tile get(int r, int c) {
+		return LevelData.TILES[this.tiles[r * this.cols + c]];
+	}
+
+
+	/**
+	 * Returns whether the tile at a row and column blocks entities. Bounds are not checked
+	 * beyond those of the underlying array.
+	 *
+	 * @param r  the row.
+	 * @param c  the column.
+	 *
+	 * @return whether the tile is not {@code Tile.NONE}.
+	 */
+	public boolean isFilled(int r, int c) {
+		return this.tiles[r * this.cols + c] != 0;
+	}
+
+
+	/**
+	 * Returns the ordinal of each tile, in row-major order.
+	 *
+	 * @return a new read-only view of the tile bytes.
+	 */
+	ByteBuffer tiles() {
+		return ByteBuffer.wrap(this.tiles).asReadOnlyBuffer();
+	}
+
+
+	/**
+	 * Returns a hash of the tiles. The hash is computed the first time it is requested.
+	 *
+	 * @return the SHA-256 hash of the tiles, as a lowercase hexadecimal string.
+	 *
+	 * @see Level#contentHash
+	 */
+	public String contentHash() {
+		String hash = this.contentHash;
+		if (hash != null)
+			return hash;
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+
+		for (int r = 0; r < this.rows; r++) {
+			digest.update((byte) (this.cols >>> 8));
+			digest.update((byte) this.cols);
+			digest.update(this.tiles, r * this.cols, this.cols);
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b));
+		hash = hex.toString();
+		this.contentHash = hash;
+		return hash;
+	}
+
+}
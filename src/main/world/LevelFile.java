@@ -0,0 +1,180 @@
+package world;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+/**
+ * The binary format of level files, read by {@code LevelRegistry}.
+ * <p>
+ * A level file is a header, the tiles, and a checksum. All integers are big-endian.
+ * <table style="border: 1px solid black">
+ *  <caption>Level File Layout</caption>
+ *  <tr style="border: 1px solid black">
+ *   <th style="border: 1px solid black"> Part
+ *   <th style="border: 1px solid black"> Contents
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Header
+ *   <td style="border: 1px solid black"> {@code MAGIC} (4 bytes), {@code VERSION} (1 byte),
+ *                                        then the number of rows and columns (4 bytes each).
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Tiles
+ *   <td style="border: 1px solid black"> The ordinal of each {@code Level.Tile} (1 byte
+ *                                        each), in row-major order.
+ *  </tr>
+ *  <tr style="border: 1px solid black">
+ *   <td style="border: 1px solid black"> Checksum
+ *   <td style="border: 1px solid black"> The CRC-32 of the header and tiles (4 bytes).
+ *  </tr>
+ * </table>
+ * <p>
+ * Files are read by memory-mapping them. The header and checksum are checked in place, and the
+ * tiles are then copied from the mapping in one bulk transfer, without any per-tile parsing.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see LevelData
+ */
+public final class LevelFile {
+
+	/** The first four bytes of every level file, {@code "BSLV"}. */
+	public static final int MAGIC = 0x42534C56;
+	/** The version of the format written. */
+	public static final int VERSION = 1;
+	/** The file extension of level files. */
+	public static final String EXTENSION = ".bslv";
+	/** The length, in bytes, of the header. */
+	public static final int HEADER_SIZE = 13;
+	/** The length, in bytes, of the checksum. */
+	public static final int CHECKSUM_SIZE = 4;
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private LevelFile() { }
+
+
+	/**
+	 * Reads a level file by memory-mapping it.
+	 *
+	 * @param file  the level file.
+	 *
+	 * @return the tiles of the level.
+	 *
+	 * @throws IOException  if the file cannot be read or is not a valid level file.
+	 */
+	public static LevelData read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("level file too large: " + size + " bytes");
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return LevelFile.decode(buffer);
+		}
+	}
+
+
+	/**
+	 * Decodes a level from the bytes of a level file.
+	 *
+	 * @param buffer  the bytes of the level file, from the buffer's position to its limit.
+	 *
+	 * @return the tiles of the level.
+	 *
+	 * @throws IOException  if the bytes are not a valid level file.
+	 */
+	public static LevelData decode(ByteBuffer buffer) throws IOException {
+		ByteBuffer bytes = buffer.slice();
+		if (bytes.remaining() < LevelFile.HEADER_SIZE + LevelFile.CHECKSUM_SIZE ||
+			bytes.getInt(0) != LevelFile.MAGIC)
+			throw new IOException("not a level file");
+		int version = bytes.get(4);
+		if (version != LevelFile.VERSION)
+			throw new IOException("unsupported level version: " + version);
+		int rows = bytes.getInt(5);
+		int cols = bytes.getInt(9);
+		long size = (long) rows * cols;
+		if (rows < 1 || cols < 1 ||
+			LevelFile.HEADER_SIZE + size + LevelFile.CHECKSUM_SIZE != bytes.remaining())
+			throw new IOException("invalid level size: " + rows + "x" + cols + " in " +
+								  bytes.remaining() + " bytes");
+
+		int checksumOffset = bytes.remaining() - LevelFile.CHECKSUM_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(bytes.duplicate().limit(checksumOffset));
+		if ((int) crc.getValue() != bytes.getInt(checksumOffset))
+			throw new IOException("level checksum mismatch");
+
+		byte[] tiles = new byte[(int) size];
+		bytes.get(LevelFile.HEADER_SIZE, tiles);
+		try {
+			return new LevelData(rows, cols, tiles);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("invalid level: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Encodes a level as the bytes of a level file.
+	 *
+	 * @param level  the tiles of the level.
+	 *
+	 * @return the bytes of the level file.
+	 */
+	public static byte[] encode(LevelData level) {
+		int size = level.rows() * level.cols();
+		ByteBuffer bytes = ByteBuffer.allocate(LevelFile.HEADER_SIZE + size +
+											   LevelFile.CHECKSUM_SIZE);
+		bytes.putInt(LevelFile.MAGIC);
+		bytes.put((byte) LevelFile.VERSION);
+		bytes.putInt(level.rows());
+		bytes.putInt(level.cols());
+		bytes.put(level.tiles());
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.array(), 0, bytes.position());
+		bytes.putInt((int) crc.getValue());
+		return bytes.array();
+	}
+
+
+	/**
+	 * Writes a level file. The file is written under a temporary name and then moved into
+	 * place, so a partially written file is never read.
+	 *
+	 * @param file   the level file to write. An existing file is replaced.
+	 * @param level  the tiles of the level.
+	 *
+	 * @throws IOException  if the file cannot be written.
+	 */
+	public static void write(Path file, LevelData level) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				out.write(LevelFile.encode(level));
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+					   StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+}
@@ -0,0 +1,366 @@
+package world;
+
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/**
+ * Generates cave levels procedurally from a seed.
+ * <p>
+ * The same seed and size always produce the same tiles, on any machine and with any number of
+ * threads, so a server playing on a generated level only has to send clients the seed, not the
+ * tiles. Levels are generated in four steps, each of which works on the chunks of the level
+ * (see {@code LevelData.CHUNK_SIZE}) in parallel:
+ * <ol>
+ * <li> Every tile is made a wall with probability {@code FILL_PERCENT}, decided by a hash of
+ *      the seed and the tile's position rather than by a sequence of random numbers, so the
+ *      tiles of each chunk can be filled independently.
+ * <li> The tiles are smoothed {@code SMOOTHING_PASSES} times by a cellular automaton: a tile
+ *      becomes a wall if at least five of the nine tiles around and including it are walls,
+ *      and otherwise becomes empty. This turns the noise into rounded caves.
+ * <li> The separate caves within each chunk are joined by corridors to the cave nearest the
+ *      center of the chunk, whose nearest tile to the center becomes the anchor of the chunk.
+ *      A chunk with no empty tiles has a small room carved at its center instead.
+ * <li> The anchor of every chunk is joined by corridors to the anchors of the chunks to its
+ *      right and below it.
+ * </ol>
+ * Since every empty tile is joined to the anchor of its chunk, and the anchors are joined in
+ * a grid, every empty tile can be reached from every other. Corridors are two tiles wide and
+ * follow one row then one column, and a corridor within a chunk never leaves it, so the caves
+ * of each chunk are joined independently of every other chunk. The tiles around the edge of
+ * the level are always walls.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see Level#generate
+ */
+public final class LevelGenerator {
+
+	/** The fewest rows or columns of tiles in a generated level. */
+	public static final int MIN_SIZE = 8;
+	/** The most rows or columns of tiles in a generated level. */
+	public static final int MAX_SIZE = 8192;
+	/** The percentage of tiles that are walls before smoothing. */
+	public static final int FILL_PERCENT = 45;
+	/** The number of times the tiles are smoothed by the cellular automaton. */
+	public static final int SMOOTHING_PASSES = 4;
+
+
+	/** The ordinal of the tile used for walls. */
+	private static final byte WALL = (byte) Level.Tile.WALL_STONE.ordinal();
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private LevelGenerator() { }
+
+
+	/**
+	 * Generates a level.
+	 *
+	 * @param seed  the seed of the level.
+	 * @param rows  the number of rows of tiles.
+	 * @param cols  the number of columns of tiles in every row.
+	 *
+	 * @return the tiles of the level, which are the same for every call with the same
+	 *         arguments.
+	 *
+	 * @throws IllegalArgumentException  if {@code rows} or {@code cols} is outside the interval
+	 *                                   {@code [MIN_SIZE, MAX_SIZE]}.
+	 */
+	public static LevelData generate(long seed, int rows, int cols) {
+		if (rows < LevelGenerator.MIN_SIZE || rows > LevelGenerator.MAX_SIZE ||
+			cols < LevelGenerator.MIN_SIZE || cols > LevelGenerator.MAX_SIZE)
+			throw new IllegalArgumentException("invalid size: " + rows + "x" + cols);
+
+		int chunkRows = (rows + LevelData.CHUNK_SIZE - 1) / LevelData.CHUNK_SIZE;
+		int chunkCols = (cols + LevelData.CHUNK_SIZE - 1) / LevelData.CHUNK_SIZE;
+		int chunks = chunkRows * chunkCols;
+		byte[] tiles = new byte[rows * cols];
+		byte[] next = new byte[rows * cols];
+
+		IntStream.range(0, chunks).parallel().forEach(i -> {
+				LevelGenerator.fill(tiles, rows, cols, seed, i / chunkCols, i % chunkCols);
+		});
+		for (int pass = 0; pass < LevelGenerator.SMOOTHING_PASSES; pass++) {
+			byte[] from = pass % 2 == 0 ? tiles : next;
+			byte[] to = pass % 2 == 0 ? next : tiles;
+			IntStream.range(0, chunks).parallel().forEach(i -> {
+					LevelGenerator.smooth(from, to, rows, cols, i / chunkCols, i % chunkCols);
+			});
+		}
+		byte[] smoothed = LevelGenerator.SMOOTHING_PASSES % 2 == 0 ? tiles : next;
+
+		int[] anchors = new int[chunks];
+		IntStream.range(0, chunks).parallel().forEach(i -> {
+				anchors[i] = LevelGenerator.joinCaves(smoothed, rows, cols, i / chunkCols,
+													  i % chunkCols);
+		});
+		// Corridors between chunks only ever empty tiles, so two corridors crossing the same
+		// tile from different threads always leave it the same
+		IntStream.range(0, chunks).parallel().forEach(i -> {
+				int cr = i / chunkCols;
+				int cc = i % chunkCols;
+				if (anchors[i] < 0)
+					return;
+				if (cc + 1 < chunkCols && anchors[i + 1] >= 0)
+					LevelGenerator.carve(smoothed, cols, anchors[i], anchors[i + 1],
+										 1, 1, rows - 1, cols - 1);
+				if (cr + 1 < chunkRows && anchors[i + chunkCols] >= 0)
+					LevelGenerator.carve(smoothed, cols, anchors[i], anchors[i + chunkCols],
+										 1, 1, rows - 1, cols - 1);
+		});
+		return new LevelData(rows, cols, smoothed);
+	}
+
+
+	/**
+	 * Fills the tiles of one chunk with random walls. The tiles around the edge of the level
+	 * are always walls.
+	 *
+	 * @param tiles  the tiles of the level.
+	 * @param rows   the number of rows of tiles.
+	 * @param cols   the number of columns of tiles in every row.
+	 * @param seed   the seed of the level.
+	 * @param cr     the row of the chunk.
+	 * @param cc     the column of the chunk.
+	 */
+	private static void fill(byte[] tiles, int rows, int cols, long seed, int cr, int cc) {
+		int r0 = cr * LevelData.CHUNK_SIZE;
+		int c0 = cc * LevelData.CHUNK_SIZE;
+		int r1 = r0 + LevelData.chunkSpan(rows, cr);
+		int c1 = c0 + LevelData.chunkSpan(cols, cc);
+		for (int r = r0; r < r1; r++) {
+			for (int c = c0; c < c1; c++) {
+				boolean edge = r == 0 || c == 0 || r == rows - 1 || c == cols - 1;
+				long hash = LevelGenerator.mix(seed ^ (r * 0x9E3779B97F4A7C15L + c));
+				// The high half of the hash, scaled to a percentage without a division
+				boolean wall = edge || ((hash >>> 32) * 100 >>> 32) < LevelGenerator.FILL_PERCENT;
+				tiles[r * cols + c] = wall ? LevelGenerator.WALL : 0;
+			}
+		}
+	}
+
+
+	/**
+	 * Applies one pass of the cellular automaton to the tiles of one chunk. The tiles around
+	 * the edge of the level are always walls.
+	 *
+	 * @param from  the tiles of the level before the pass, which are only read.
+	 * @param to    the tiles of the level after the pass, which are only written within the
+	 *              chunk.
+	 * @param rows  the number of rows of tiles.
+	 * @param cols  the number of columns of tiles in every row.
+	 * @param cr    the row of the chunk.
+	 * @param cc    the column of the chunk.
+	 */
+	private static void smooth(byte[] from, byte[] to, int rows, int cols, int cr, int cc) {
+		int r0 = cr * LevelData.CHUNK_SIZE;
+		int c0 = cc * LevelData.CHUNK_SIZE;
+		int r1 = r0 + LevelData.chunkSpan(rows, cr);
+		int c1 = c0 + LevelData.chunkSpan(cols, cc);
+		int first = Math.max(c0, 1);
+		int last = Math.min(c1, cols - 1);
+		// Every tile is either empty or WALL, so a sum of tiles is WALL times the walls among
+		// them. The sum of each column of three tiles is shared by the three tiles beside it
+		int[] columns = new int[last - first + 2];
+		for (int r = r0; r < r1; r++) {
+			int row = r * cols;
+			if (r == 0 || r == rows - 1) {
+				Arrays.fill(to, row + c0, row + c1, LevelGenerator.WALL);
+				continue;
+			}
+
+			for (int c = first - 1; c <= last; c++)
+				columns[c - first + 1] = from[row - cols + c] + from[row + c] +
+					from[row + cols + c];
+			for (int c = first; c < last; c++) {
+				int k = c - first + 1;
+				int walls = columns[k - 1] + columns[k] + columns[k + 1];
+				to[row + c] = walls >= 5 * LevelGenerator.WALL ? LevelGenerator.WALL : 0;
+			}
+			if (c0 == 0)
+				to[row] = LevelGenerator.WALL;
+			if (c1 == cols)
+				to[row + cols - 1] = LevelGenerator.WALL;
+		}
+	}
+
+
+	/**
+	 * Joins the separate caves within one chunk by corridors, and finds the anchor of the
+	 * chunk. The tiles around the edge of the level are not part of any cave.
+	 *
+	 * @param tiles  the tiles of the level, which are only changed within the chunk.
+	 * @param rows   the number of rows of tiles.
+	 * @param cols   the number of columns of tiles in every row.
+	 * @param cr     the row of the chunk.
+	 * @param cc     the column of the chunk.
+	 *
+	 * @return the index of the anchor tile of the chunk, which is empty, or {@code -1} if the
+	 *         chunk only holds tiles around the edge of the level. Such chunks only occur in
+	 *         the last row or column of chunks.
+	 */
+	private static int joinCaves(byte[] tiles, int rows, int cols, int cr, int cc) {
+		int r0 = Math.max(1, cr * LevelData.CHUNK_SIZE);
+		int c0 = Math.max(1, cc * LevelData.CHUNK_SIZE);
+		int r1 = Math.min(rows - 1, cr * LevelData.CHUNK_SIZE + LevelData.chunkSpan(rows, cr));
+		int c1 = Math.min(cols - 1, cc * LevelData.CHUNK_SIZE + LevelData.chunkSpan(cols, cc));
+		int height = r1 - r0;
+		int width = c1 - c0;
+		if (height <= 0 || width <= 0)
+			return -1;
+		int centerR = r0 + height / 2;
+		int centerC = c0 + width / 2;
+
+		// Find each cave by flood fill, in scan order, keeping the tile of each nearest the
+		// center of the chunk
+		boolean[] visited = new boolean[height * width];
+		int[] stack = new int[height * width];
+		int[] nearest = new int[height * width];
+		int count = 0;
+		for (int start = 0; start < visited.length; start++) {
+			if (visited[start] || tiles[(r0 + start / width) * cols + c0 + start % width] != 0)
+				continue;
+
+			visited[start] = true;
+			stack[0] = start;
+			int size = 1;
+			int best = start;
+			int bestDistance = Integer.MAX_VALUE;
+			while (size > 0) {
+				int local = stack[--size];
+				int r = local / width;
+				int c = local - r * width;
+				int distance = Math.abs(r0 + r - centerR) + Math.abs(c0 + c - centerC);
+				if (distance < bestDistance || (distance == bestDistance && local < best)) {
+					best = local;
+					bestDistance = distance;
+				}
+
+				int tile = (r0 + r) * cols + c0 + c;
+				if (r > 0)
+					size = LevelGenerator.push(tiles, visited, stack, size, local - width,
+											   tile - cols);
+				if (r < height - 1)
+					size = LevelGenerator.push(tiles, visited, stack, size, local + width,
+											   tile + cols);
+				if (c > 0)
+					size = LevelGenerator.push(tiles, visited, stack, size, local - 1, tile - 1);
+				if (c < width - 1)
+					size = LevelGenerator.push(tiles, visited, stack, size, local + 1, tile + 1);
+			}
+			count++;
+			nearest[count - 1] = (r0 + best / width) * cols + c0 + best % width;
+		}
+
+		if (count == 0) {
+			for (int r = Math.max(r0, centerR - 1); r <= Math.min(r1 - 1, centerR + 1); r++) {
+				for (int c = Math.max(c0, centerC - 1); c <= Math.min(c1 - 1, centerC + 1); c++)
+					tiles[r * cols + c] = 0;
+			}
+			return centerR * cols + centerC;
+		}
+
+		int anchor = nearest[0];
+		int anchorDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			int distance = Math.abs(nearest[i] / cols - centerR) +
+				Math.abs(nearest[i] % cols - centerC);
+			if (distance < anchorDistance) {
+				anchor = nearest[i];
+				anchorDistance = distance;
+			}
+		}
+		for (int i = 0; i < count; i++)
+			LevelGenerator.carve(tiles, cols, nearest[i], anchor, r0, c0, r1, c1);
+		return anchor;
+	}
+
+
+	/**
+	 * Adds an empty, unvisited tile to the stack of a flood fill.
+	 *
+	 * @param tiles    the tiles of the level.
+	 * @param visited  whether each tile of the chunk has been visited.
+	 * @param stack    the tiles of the chunk still to be visited.
+	 * @param size     the number of tiles on the stack.
+	 * @param local    the index of the tile within the chunk.
+	 * @param tile     the index of the tile within the level.
+	 *
+	 * @return the number of tiles on the stack after the tile is added, if it was.
+	 */
+	private static int push(byte[] tiles,
+							boolean[] visited,
+							int[] stack,
+							int size,
+							int local,
+							int tile)
+	{
+		if (visited[local] || tiles[tile] != 0)
+			return size;
+		visited[local] = true;
+		stack[size] = local;
+		return size + 1;
+	}
+
+
+	/**
+	 * Carves a corridor two tiles wide between two tiles, along the row of the first and then
+	 * the column of the second. The corridor is widened below and to the right of that path,
+	 * except where this would leave a given area, which must hold both tiles.
+	 *
+	 * @param tiles   the tiles of the level.
+	 * @param cols    the number of columns of tiles in every row.
+	 * @param from    the index of the first tile.
+	 * @param to      the index of the second tile.
+	 * @param top     the first row of the area.
+	 * @param left    the first column of the area.
+	 * @param bottom  the row after the last row of the area.
+	 * @param right   the column after the last column of the area.
+	 */
+	private static void carve(byte[] tiles,
+							  int cols,
+							  int from,
+							  int to,
+							  int top,
+							  int left,
+							  int bottom,
+							  int right)
+	{
+		int fromR = from / cols;
+		int fromC = from % cols;
+		int toR = to / cols;
+		int toC = to % cols;
+		int wideR = Math.min(fromR + 1, bottom - 1);
+		int wideC = Math.min(toC + 1, right - 1);
+		int lastC = Math.min(Math.max(fromC, toC) + 1, right - 1);
+		int lastR = Math.min(Math.max(fromR, toR) + 1, bottom - 1);
+		for (int c = Math.min(fromC, toC); c <= lastC; c++) {
+			tiles[fromR * cols + c] = 0;
+			tiles[wideR * cols + c] = 0;
+		}
+		for (int r = Math.min(fromR, toR); r <= lastR; r++) {
+			tiles[r * cols + toC] = 0;
+			tiles[r * cols + wideC] = 0;
+		}
+	}
+
+
+	/**
+	 * Mixes the bits of a value, as in the finalizer of the SplitMix64 generator.
+	 *
+	 * @param value  the value.
+	 *
+	 * @return the mixed value.
+	 */
+	private static long mix(long value) {
+		long z = value;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,129 @@
+package world;
+
+
+import jnet.Log;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The levels that can be played, by number.
+ * <p>
+ * Levels are loaded the first time they are requested, and the loaded {@code LevelData} is
+ * shared by every {@code Level} constructed with the same number afterwards. Level {@code n}
+ * is read from the file {@code n.bslv} in the levels directory if it exists, which is given by
+ * the {@code bytestrike.levels} system property and is {@code ~/.bytestrike/levels} by
+ * default. Otherwise, levels {@code 0} to {@code 2} fall back to the {@code LEVEL_*} strings
+ * built into {@code Level}.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see LevelFile
+ */
+public final class LevelRegistry {
+
+	/** The levels built into the game, by number. */
+	private static final String[] BUILT_IN = {Level.LEVEL_0, Level.LEVEL_1, Level.LEVEL_2};
+
+
+	/** The levels already loaded, by number. */
+	private static final Map<Integer, LevelData> loaded = new ConcurrentHashMap<>();
+
+
+	/**
+	 * This class cannot be constructed.
+	 */
+	private LevelRegistry() { }
+
+
+	/**
+	 * Returns the directory that level files are read from.
+	 *
+	 * @return the directory that level files are read from.
+	 */
+	public static Path directory() {
+		String dir = System.getProperty("bytestrike.levels");
+		if (dir != null)
+			return Paths.get(dir);
+		return Paths.get(System.getProperty("user.home"), ".bytestrike", "levels");
+	}
+
+
+	/**
+	 * Returns the file that a level is read from, whether or not it exists.
+	 *
+	 * @param l  the level number.
+	 *
+	 * @return the file that the level is read from.
+	 */
+	public static Path fileOf(int l) {
+		return LevelRegistry.directory().resolve(l + LevelFile.EXTENSION);
+	}
+
+
+	/**
+	 * Returns whether a level exists, either as a file or built into the game.
+	 *
+	 * @param l  the level number.
+	 *
+	 * @return whether the level exists.
+	 */
+	public static boolean exists(int l) {
+		return LevelRegistry.loaded.containsKey(l) ||
+			(l >= 0 && l < LevelRegistry.BUILT_IN.length) ||
+			Files.isRegularFile(LevelRegistry.fileOf(l));
+	}
+
+
+	/**
+	 * Returns the tiles of a level, loading them if this is the first request for the level.
+	 *
+	 * @param l  the level number.
+	 *
+	 * @return the tiles of the level.
+	 *
+	 * @throws IllegalArgumentException  if {@code l} does not represent an existing level, or
+	 *                                   its file cannot be read.
+	 */
+	public static LevelData get(int l) {
+		return LevelRegistry.loaded.computeIfAbsent(l, LevelRegistry::load);
+	}
+
+
+	/**
+	 * Loads the tiles of a level from its file, or from the built-in levels.
+	 *
+	 * @param l  the level number.
+	 *
+	 * @return the tiles of the level.
+	 *
+	 * @throws IllegalArgumentException  if {@code l} does not represent an existing level, or
+	 *                                   its file cannot be read.
+	 */
+	private static LevelData load(int l) {
+		Path file = LevelRegistry.fileOf(l);
+		if (Files.isRegularFile(file)) {
+			long start = System.nanoTime();
+			try {
+				LevelData data = LevelFile.read(file);
+				Log.stdlog(Log.INFO, "LevelRegistry", "mapped " + file + " (" + data.rows() +
+						   "x" + data.cols() + ") in " + (System.nanoTime() - start) / 1000 +
+						   " us");
+				return data;
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("cannot read level " + l + " from " + file +
+												   ": " + e.getMessage());
+			}
+		}
+
+		if (l < 0 || l >= LevelRegistry.BUILT_IN.length)
+			throw new IllegalArgumentException("no level " + l + ", and no file " + file);
+		return LevelData.fromString(LevelRegistry.BUILT_IN[l]);
+	}
+
+}
@@ -0,0 +1,289 @@
+package world;
+
+
+import jnet.Log;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+
+/**
+ * The visibility between every pair of tiles on a level.
+ * <p>
+ * Levels never change, so whether one tile can see another is computed once for every empty
+ * tile, by running a {@code FieldOfView} over the whole level from that tile. The results are
+ * kept as one row of bits per tile, so answering whether tile A can see tile B is a single bit
+ * lookup. For a 64 by 64 level this is 2 MiB.
+ * <p>
+ * The size of the set grows with the square of the number of tiles, so levels with more than
+ * {@code MAX_TILES} tiles are given an approximate set instead, which computes nothing and
+ * considers every tile within {@code APPROXIMATE_RADIUS} tiles, along both axes, of another
+ * to be visible from it. This is a superset of what can actually be seen from any point on the
+ * screen, so it is still safe to use for deciding who needs to be sent what.
+ * <p>
+ * Sets are shared by every user of the same level through {@code forLevel}. The first time a
+ * level is seen, its set is read from a cache file named by the level's content hash, or
+ * computed in parallel and written to the cache if no file exists. The cache directory is
+ * given by the {@code bytestrike.cache} system property, and is {@code ~/.bytestrike/cache}
+ * by default. If the cache cannot be read or written, the set is still computed and used.
+ *
+ * @author Jonathan Uhler
+ *
+ * @see FieldOfView
+ */
+public class PotentiallyVisibleSet {
+
+	/** The first four bytes of a cache file. */
+	private static final int MAGIC = 0x50565331; // "PVS1"
+	/** The file extension of cache files. */
+	private static final String CACHE_EXT = ".pvs";
+
+	/** The most tiles a level can have for its set to be computed exactly. */
+	public static final int MAX_TILES = 128 * 128;
+	/** The distance, in tiles along either axis, that can be seen in an approximate set. */
+	public static final int APPROXIMATE_RADIUS = LevelData.CHUNK_SIZE;
+
+
+	/** The sets already loaded, by level content hash. */
+	private static final Map<String, PotentiallyVisibleSet> loaded = new ConcurrentHashMap<>();
+
+
+	/** The number of rows in the level. */
+	private final int rows;
+	/** The number of columns in the widest row of the level. */
+	private final int cols;
+	/** The number of longs used for the row of bits of one tile. */
+	private final int stride;
+	/**
+	 * The rows of bits of every tile, with tile {@code a}'s row starting at {@code a * stride},
+	 * or {@code null} if this set is approximate.
+	 */
+	private final long[] bits;
+
+
+	/**
+	 * Constructs a new {@code PotentiallyVisibleSet} from existing bits.
+	 *
+	 * @param rows  the number of rows in the level.
+	 * @param cols  the number of columns in the widest row of the level.
+	 * @param bits  the visibility bits, or {@code null} for an approximate set.
+	 */
+	private PotentiallyVisibleSet(int rows, int cols, long[] bits) {
+		this.rows = rows;
+		this.cols = cols;
+		this.stride = bits == null ? 0 : PotentiallyVisibleSet.strideFor(rows, cols);
+		this.bits = bits;
+	}
+
+
+	/**
+	 * Returns the number of longs used for the row of bits of one tile.
+	 *
+	 * @param rows  the number of rows in the level.
+	 * @param cols  the number of columns in the widest row of the level.
+	 *
+	 * @return the number of longs used for the row of bits of one tile.
+	 */
+	private static int strideFor(int rows, int cols) {
+		return (rows * cols + 63) / 64;
+	}
+
+
+	/**
+	 * Returns the set for a level, loading or computing it if this is the first request for a
+	 * level with the same tiles.
+	 *
+	 * @param level  the level.
+	 *
+	 * @return the set for the level.
+	 *
+	 * @throws NullPointerException  if {@code level == null}.
+	 */
+	public static PotentiallyVisibleSet forLevel(Level level) {
+		if (level == null)
+			throw new NullPointerException("level was null");
+		String hash = level.contentHash();
+		return PotentiallyVisibleSet.loaded
+			.computeIfAbsent(hash, h -> PotentiallyVisibleSet.load(level, h));
+	}
+
+
+	/**
+	 * Reads a set from the cache, or computes and caches it.
+	 *
+	 * @param level  the level.
+	 * @param hash   the content hash of the level.
+	 *
+	 * @return the set for the level.
+	 */
+	private static PotentiallyVisibleSet load(Level level, String hash) {
+		int cols = 0;
+		for (int r = 0; r < level.rows(); r++)
+			cols = Math.max(cols, level.cols(r));
+		if ((long) level.rows() * cols > PotentiallyVisibleSet.MAX_TILES) {
+			Log.stdlog(Log.INFO, "PotentiallyVisibleSet", "level " + hash + " has " +
+					   (long) level.rows() * cols + " tiles, using approximate visibility");
+			return new PotentiallyVisibleSet(level.rows(), cols, null);
+		}
+
+		String fileName = hash + PotentiallyVisibleSet.CACHE_EXT;
+		Path file = PotentiallyVisibleSet.cacheDirectory().resolve(fileName);
+		long start = System.nanoTime();
+		PotentiallyVisibleSet pvs = PotentiallyVisibleSet.read(file, level.rows(), cols);
+		if (pvs != null) {
+			Log.stdlog(Log.INFO, "PotentiallyVisibleSet", "read " + file + " in " +
+					   (System.nanoTime() - start) / 1000000 + " ms");
+			return pvs;
+		}
+
+		pvs = PotentiallyVisibleSet.compute(level, cols);
+		Log.stdlog(Log.INFO, "PotentiallyVisibleSet", "computed level " + hash + " in " +
+				   (System.nanoTime() - start) / 1000000 + " ms");
+		pvs.write(file);
+		return pvs;
+	}
+
+
+	/**
+	 * Returns the directory that sets are cached in.
+	 *
+	 * @return the directory that sets are cached in.
+	 */
+	private static Path cacheDirectory() {
+		return LevelCache.directory();
+	}
+
+
+	/**
+	 * Computes the set for a level. Each empty tile is processed independently, in parallel.
+	 *
+	 * @param level  the level.
+	 * @param cols   the number of columns in the widest row of the level.
+	 *
+	 * @return the set for the level.
+	 */
+	private static PotentiallyVisibleSet compute(Level level, int cols) {
+		int rows = level.rows();
+		int stride = PotentiallyVisibleSet.strideFor(rows, cols);
+		long[] bits = new long[rows * cols * stride];
+		int radius = Math.max(rows, cols);
+
+		// Each tile only writes to its own row of bits, so no synchronization is needed
+		ThreadLocal<FieldOfView> fieldOfView =
+			ThreadLocal.withInitial(() -> new FieldOfView(level, radius));
+		IntStream.range(0, rows * cols).parallel().forEach(from -> {
+				int fromRow = from / cols;
+				int fromCol = from % cols;
+				if (fromCol >= level.cols(fromRow) || level.isFilled(fromRow, fromCol))
+					return;
+
+				FieldOfView fov = fieldOfView.get();
+				fov.update(fromCol, fromRow);
+				int base = from * stride;
+				for (int r = 0; r < rows; r++) {
+					for (int c = 0; c < level.cols(r); c++) {
+						int to = r * cols + c;
+						if (fov.isVisible(c, r))
+							bits[base + (to >>> 6)] |= 1L << to;
+					}
+				}
+			});
+
+		return new PotentiallyVisibleSet(rows, cols, bits);
+	}
+
+
+	/**
+	 * Reads a set from a cache file.
+	 *
+	 * @param file  the cache file.
+	 * @param rows  the expected number of rows.
+	 * @param cols  the expected number of columns.
+	 *
+	 * @return the set, or {@code null} if the file does not exist or does not match the level.
+	 */
+	private static PotentiallyVisibleSet read(Path file, int rows, int cols) {
+		if (!Files.isRegularFile(file))
+			return null;
+
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+			long[] bits = new long[rows * cols * PotentiallyVisibleSet.strideFor(rows, cols)];
+			if (buffer.remaining() != 3 * Integer.BYTES + bits.length * Long.BYTES ||
+				buffer.getInt() != PotentiallyVisibleSet.MAGIC ||
+				buffer.getInt() != rows ||
+				buffer.getInt() != cols)
+				return null;
+
+			buffer.asLongBuffer().get(bits);
+			return new PotentiallyVisibleSet(rows, cols, bits);
+		}
+		catch (IOException e) {
+			Log.stdlog(Log.WARN, "PotentiallyVisibleSet", "cannot read " + file + ": " + e);
+			return null;
+		}
+	}
+
+
+	/**
+	 * Writes this set to a cache file. The file is written under a temporary name and then
+	 * moved into place, so a partially written file is never read.
+	 *
+	 * @param file  the cache file.
+	 */
+	private void write(Path file) {
+		try {
+			Files.createDirectories(file.getParent());
+			Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(),
+											 ".tmp");
+			try (DataOutputStream out =
+				 new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+			{
+				out.writeInt(PotentiallyVisibleSet.MAGIC);
+				out.writeInt(this.rows);
+				out.writeInt(this.cols);
+				for (long word : this.bits)
+					out.writeLong(word);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+					   StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException | UnsupportedOperationException | SecurityException e) {
+			Log.stdlog(Log.WARN, "PotentiallyVisibleSet", "cannot write " + file + ": " + e);
+		}
+	}
+
+
+	/**
+	 * Returns whether one tile can see another. Solid tiles can be seen, but cannot see, except
+	 * in an approximate set, where any tile can see every tile near it.
+	 *
+	 * @param fromCol  the column of the viewing tile.
+	 * @param fromRow  the row of the viewing tile.
+	 * @param toCol    the column of the target tile.
+	 * @param toRow    the row of the target tile.
+	 *
+	 * @return whether the viewing tile can see the target tile. Tiles off the level can
+	 *         neither see nor be seen.
+	 */
+	public boolean canSee(int fromCol, int fromRow, int toCol, int toRow) {
+		if (fromRow < 0 || fromRow >= this.rows || fromCol < 0 || fromCol >= this.cols ||
+			toRow < 0 || toRow >= this.rows || toCol < 0 || toCol >= this.cols)
+			return false;
+		if (this.bits == null)
+			return Math.abs(fromCol - toCol) <= PotentiallyVisibleSet.APPROXIMATE_RADIUS &&
+				Math.abs(fromRow - toRow) <= PotentiallyVisibleSet.APPROXIMATE_RADIUS;
+
+		int from = fromRow * this.cols + fromCol;
+		int to = toRow * this.cols + toCol;
+		return (this.bits[from * this.stride + (to >>> 6)] & (1L << to)) != 0;
+	}
+
+}
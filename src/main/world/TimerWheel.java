@@ -0,0 +1,224 @@
+package world;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Schedules tasks to run after some number of simulation ticks, such as weapon reloads, fire
+ * cooldowns, and respawns.
+ * <p>
+ * Time is measured only in ticks, never by the wall clock. The owner of the wheel calls
+ * {@code advance} once per tick, and every task that has come due is run on the thread that
+ * called {@code advance}. Tasks due on the same tick run in the order they were scheduled, so
+ * a simulation driven by the same inputs always runs its timers in the same order.
+ * <p>
+ * <b>Algorithm</b>
+ * <p>
+ * The wheel is a circular array of {@code SLOTS} buckets. A timer due on tick {@code t} is
+ * placed in bucket {@code t % SLOTS}, and each call to {@code advance} visits exactly one
+ * bucket. Timers further than {@code SLOTS} ticks away stay in their bucket until the wheel
+ * has gone around enough times for them to be due. Scheduling, cancelling, and advancing are
+ * therefore constant time with respect to the number of pending timers, and no thread is
+ * created or blocked per timer.
+ *
+ * @author Jonathan Uhler
+ */
+public class TimerWheel {
+
+	/**
+	 * A handle to a scheduled task, which can be used to cancel it before it runs.
+	 */
+	public static class Timer {
+
+		/** The tick on which the task will be run. */
+		private final long deadline;
+		/** The task to run. */
+		private Runnable task;
+
+
+		/**
+		 * Constructs a new {@code Timer}.
+		 *
+		 * @param deadline  the tick on which the task will be run.
+		 * @param task      the task to run.
+		 */
+		private Timer(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+
+		/**
+		 * Returns the tick on which this timer's task will be run.
+		 *
+		 * @return the tick on which this timer's task will be run.
+		 */
+		public long getDeadline() {
+			return this.deadline;
+		}
+
+
+		/**
+		 * Returns whether this timer's task is yet to be run. A cancelled timer is not pending.
+		 *
+		 * @return whether this timer's task is yet to be run.
+		 */
+		public boolean isPending() {
+			return this.task != null;
+		}
+
+
+		/**
+		 * Prevents this timer's task from being run. Cancelling a timer that has already run
+		 * or been cancelled has no effect.
+		 */
+		public void cancel() {
+			this.task = null;
+		}
+
+	}
+
+
+	/** The number of buckets in the wheel. This must be a power of two. */
+	public static final int SLOTS = 512;
+
+
+	/** The buckets of pending timers, indexed by {@code deadline % SLOTS}. */
+	private final List<List<Timer>> slots;
+	/** The number of ticks per second, used to convert durations to ticks. */
+	private final int tickRate;
+	/** The timers run by the current call to {@code advance}, reused by every call. */
+	private final List<Timer> due;
+	/** The number of times {@code advance} has been called. */
+	private long tick;
+
+
+	/**
+	 * Constructs a new {@code TimerWheel} at tick {@code 0}.
+	 *
+	 * @param tickRate  the number of times per second that {@code advance} will be called.
+	 *
+	 * @throws IllegalArgumentException  if {@code tickRate < 1}.
+	 */
+	public TimerWheel(int tickRate) {
+		if (tickRate < 1)
+			throw new IllegalArgumentException("invalid tick rate: " + tickRate);
+
+		this.slots = new ArrayList<>(TimerWheel.SLOTS);
+		for (int i = 0; i < TimerWheel.SLOTS; i++)
+			this.slots.add(new ArrayList<>());
+		this.tickRate = tickRate;
+		this.due = new ArrayList<>();
+		this.tick = 0;
+	}
+
+
+	/**
+	 * Returns the number of ticks per second.
+	 *
+	 * @return the number of ticks per second.
+	 */
+	public int getTickRate() {
+		return this.tickRate;
+	}
+
+
+	/**
+	 * Returns the current tick, which is the number of times {@code advance} has been called.
+	 *
+	 * @return the current tick.
+	 */
+	public synchronized long getTick() {
+		return this.tick;
+	}
+
+
+	/**
+	 * Converts a duration in milliseconds to a number of ticks, rounding to the nearest tick.
+	 *
+	 * @param millis  the duration in milliseconds.
+	 *
+	 * @return the number of ticks that most closely matches the duration.
+	 */
+	public int ticksFor(long millis) {
+		return (int) Math.round(millis * this.tickRate / 1000.0);
+	}
+
+
+	/**
+	 * Schedules a task to run after a number of ticks. A task scheduled with {@code ticks <= 1}
+	 * runs on the next call to {@code advance}.
+	 *
+	 * @param ticks  the number of ticks to wait before running the task.
+	 * @param task   the task to run.
+	 *
+	 * @return a handle that can be used to cancel the task.
+	 *
+	 * @throws NullPointerException  if {@code task == null}.
+	 */
+	public synchronized Timer schedule(int ticks, Runnable task) {
+		if (task == null)
+			throw new NullPointerException("task was null");
+
+		Timer timer = new Timer(this.tick + Math.max(ticks, 1), task);
+		this.slots.get((int) (timer.deadline & (TimerWheel.SLOTS - 1))).add(timer);
+		return timer;
+	}
+
+
+	/**
+	 * Schedules a task to run after a duration, as converted by {@code ticksFor}.
+	 *
+	 * @param millis  the duration in milliseconds to wait before running the task.
+	 * @param task    the task to run.
+	 *
+	 * @return a handle that can be used to cancel the task.
+	 *
+	 * @throws NullPointerException  if {@code task == null}.
+	 *
+	 * @see ticksFor
+	 */
+	public Timer scheduleMillis(long millis, Runnable task) {
+		return this.schedule(this.ticksFor(millis), task);
+	}
+
+
+	/**
+	 * Moves the wheel forward by one tick and runs every task that is now due. Tasks are run
+	 * on the calling thread, after the wheel has been updated, so they may schedule new tasks.
+	 * This method must only be called by one thread, and not by a task it runs.
+	 */
+	public void advance() {
+		List<Timer> due = this.due;
+		synchronized (this) {
+			this.tick++;
+			List<Timer> slot = this.slots.get((int) (this.tick & (TimerWheel.SLOTS - 1)));
+			int kept = 0;
+			for (Timer timer : slot) {
+				if (!timer.isPending())
+					continue;
+				if (timer.deadline <= this.tick)
+					due.add(timer);
+				else
+					slot.set(kept++, timer);
+			}
+			slot.subList(kept, slot.size()).clear();
+		}
+
+		try {
+			for (Timer timer : due) {
+				Runnable task = timer.task;
+				if (task == null)
+					continue; // Cancelled by an earlier task in this tick
+				timer.task = null;
+				task.run();
+			}
+		}
+		finally {
+			due.clear();
+		}
+	}
+
+}